@@ -23,26 +23,28 @@ import static org.junit.Assert.assertThat;
 
 import java.util.List;
 import java.util.UUID;
-import javax.persistence.EntityManager;
-import javax.persistence.PersistenceContext;
 import org.apache.commons.lang3.StringUtils;
 import org.javers.core.Javers;
 import org.javers.core.metamodel.object.CdoSnapshot;
 import org.javers.core.metamodel.object.GlobalId;
 import org.javers.core.metamodel.object.InstanceId;
 import org.javers.repository.jql.QueryBuilder;
+import org.junit.After;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.openlmis.buq.domain.sourceoffund.SourceOfFund;
+import org.openlmis.buq.repository.RemarkRepository;
+import org.openlmis.buq.repository.sourceoffund.SourceOfFundRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
 import org.springframework.context.ApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit4.SpringRunner;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
 
-@Transactional
 @ActiveProfiles({"test", "init-audit-log", "test-run"})
 @RunWith(SpringRunner.class)
 @SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
@@ -64,13 +66,31 @@ public class AuditLogInitializerIntegrationTest {
   @Autowired
   private Javers javers;
 
-  @PersistenceContext
-  private EntityManager entityManager;
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @Autowired
+  private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+  @Autowired
+  private RemarkRepository remarkRepository;
+
+  @Autowired
+  private SourceOfFundRepository sourceOfFundRepository;
+
+  private final UUID sourceOfFundId = UUID.randomUUID();
+
+  @After
+  public void tearDown() {
+    jdbcTemplate.update("DELETE FROM buq.sources_of_funds WHERE id = ?", sourceOfFundId);
+  }
 
   @Test
   public void shouldCreateSnapshotForSourceOfFund() {
     // given
-    UUID sourceOfFundId = UUID.randomUUID();
     addSourceOfFund(sourceOfFundId);
 
     // when
@@ -79,7 +99,9 @@ public class AuditLogInitializerIntegrationTest {
 
     assertThat(snapshots, hasSize(0));
 
-    AuditLogInitializer auditLogInitializer = new AuditLogInitializer(applicationContext, javers);
+    AuditLogInitializer auditLogInitializer = new AuditLogInitializer(applicationContext, javers,
+        transactionManager, namedParameterJdbcTemplate, remarkRepository, sourceOfFundRepository,
+        2, 10);
     auditLogInitializer.run();
 
     snapshots = javers.findSnapshots(jqlQuery.build());
@@ -99,13 +121,8 @@ public class AuditLogInitializerIntegrationTest {
   }
 
   private void addSourceOfFund(UUID id) {
-    entityManager.flush();
-    entityManager
-        .createNativeQuery(INSERT_SOURCE_OF_FUND_SQL)
-        .setParameter(1, id)
-        .setParameter(2, "name")
-        .setParameter(3, "description")
-        .executeUpdate();
+    // committed right away, so that the initializer workers can see it
+    jdbcTemplate.update(INSERT_SOURCE_OF_FUND_SQL, id, "name", "description");
   }
 
 }
@@ -0,0 +1,580 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+
+package org.openlmis.buq.repository.buq;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.sql.DataSource;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openlmis.buq.domain.buq.BottomUpQuantification;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationStatus;
+import org.openlmis.buq.service.buq.BottomUpQuantificationExportService;
+import org.openlmis.buq.service.referencedata.FacilityReferenceDataService;
+import org.openlmis.buq.service.referencedata.OrderableReferenceDataService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.DigestUtils;
+
+/**
+ * Checks the query plans of the bottom-up quantification queries against a large synthetic
+ * dataset, so that a dropped index or a query that can no longer use one is caught as a
+ * sequential scan. The repository methods and services are invoked for real, and the statements
+ * they send to the database are captured by a data source wrapper. Every statement is then
+ * prepared and explained with {@code plan_cache_mode = force_generic_plan}, so the plan is the
+ * one used for any bound parameters, not one made for particular inlined values.
+ *
+ * <p>The dataset is loaded and analyzed once for the whole class and removed afterwards. The
+ * tables of the requisition and reference data services read by the consumption queries are
+ * created empty if the test database does not have them; only tables of this service are checked.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@ActiveProfiles({"test", "test-run"})
+public class BottomUpQuantificationQueryPlanIntegrationTest {
+
+  private static final int BOTTOM_UP_QUANTIFICATIONS = 20000;
+  private static final int FACILITIES = 2000;
+  private static final int FACT_PERIODS = 12;
+
+  private static final String PREPARED_STATEMENT = "query_plan_check";
+
+  private static final List<String> ANALYZED_TABLES = Arrays.asList(
+      "bottom_up_quantifications", "bottom_up_quantification_line_items",
+      "bottom_up_quantification_status_changes", "bottom_up_quantification_funding_details",
+      "bottom_up_quantification_approval_inbox", "rejections", "requisition_consumption_facts");
+
+  // Holds a single row, so it is always scanned sequentially
+  private static final Set<String> SINGLE_ROW_TABLES =
+      Collections.singleton("requisition_consumption_fact_refreshes");
+
+  private static final String INSERT_BOTTOM_UP_QUANTIFICATIONS =
+      "INSERT INTO buq.bottom_up_quantifications (id, createdDate, modifiedDate, facilityId,"
+      + " programId, processingPeriodId, targetYear, status, supervisoryNodeId)"
+      + " SELECT md5('buq' || i)::uuid, NOW(), NOW(), md5('facility' || i % 2000)::uuid,"
+      + " md5('program' || i % 10)::uuid, md5('period' || i % 50)::uuid, 2026,"
+      + " (ARRAY['DRAFT', 'SUBMITTED', 'AUTHORIZED', 'IN_APPROVAL', 'APPROVED',"
+      + " 'REJECTED'])[i % 6 + 1], md5('node' || i % 100)::uuid"
+      + " FROM generate_series(1, ?) AS i";
+
+  private static final String INSERT_LINE_ITEMS =
+      "INSERT INTO buq.bottom_up_quantification_line_items (id, orderableId,"
+      + " bottomUpQuantificationId)"
+      + " SELECT md5('lineItem' || i || '-' || j)::uuid, md5('orderable' || j)::uuid,"
+      + " md5('buq' || i)::uuid"
+      + " FROM generate_series(1, ?) AS i, generate_series(1, 5) AS j";
+
+  private static final String INSERT_STATUS_CHANGES =
+      "INSERT INTO buq.bottom_up_quantification_status_changes (id, occurredDate, authorId,"
+      + " status, bottomUpQuantificationId)"
+      + " SELECT md5('statusChange' || i || '-' || j)::uuid, NOW() + j * INTERVAL '1 day',"
+      + " md5('author')::uuid, (ARRAY['SUBMITTED', 'AUTHORIZED', 'REJECTED'])[j],"
+      + " md5('buq' || i)::uuid"
+      + " FROM generate_series(1, ?) AS i, generate_series(1, 3) AS j";
+
+  private static final String INSERT_FUNDING_DETAILS =
+      "INSERT INTO buq.bottom_up_quantification_funding_details (id, bottomUpQuantificationId)"
+      + " SELECT md5('fundingDetails' || i)::uuid, md5('buq' || i)::uuid"
+      + " FROM generate_series(1, ?) AS i";
+
+  private static final String INSERT_REJECTIONS =
+      "INSERT INTO buq.rejections (id, createdDate, modifiedDate, statusChangeId)"
+      + " SELECT md5('rejection' || i)::uuid, NOW(), NOW(), md5('statusChange' || i || '-3')::uuid"
+      + " FROM generate_series(1, ?) AS i";
+
+  private static final String INSERT_CONSUMPTION_FACTS =
+      "INSERT INTO buq.requisition_consumption_facts (facilityId, processingPeriodId,"
+      + " orderableId, periodStartDate, periodEndDate, adjustedConsumption, refreshedDate,"
+      + " requisitionCount)"
+      + " SELECT md5('facility' || i)::uuid, md5('factPeriod' || p)::uuid,"
+      + " md5('orderable' || j)::uuid, DATE '2025-01-01' + (p - 1) * INTERVAL '1 month',"
+      + " DATE '2025-01-01' + p * INTERVAL '1 month' - INTERVAL '1 day', 100, NOW(), 1"
+      + " FROM generate_series(1, ?) AS i, generate_series(1, ?) AS p,"
+      + " generate_series(1, 5) AS j";
+
+  private static final String BOTTOM_UP_QUANTIFICATION_IDS =
+      " IN (SELECT md5('buq' || i)::uuid FROM generate_series(1, "
+      + BOTTOM_UP_QUANTIFICATIONS + ") AS i)";
+
+  private static final List<String> DELETE_DATASET = Arrays.asList(
+      "DELETE FROM buq.rejections WHERE id IN (SELECT md5('rejection' || i)::uuid"
+          + " FROM generate_series(1, " + BOTTOM_UP_QUANTIFICATIONS + ") AS i)",
+      "DELETE FROM buq.bottom_up_quantification_status_changes"
+          + " WHERE bottomUpQuantificationId" + BOTTOM_UP_QUANTIFICATION_IDS,
+      "DELETE FROM buq.bottom_up_quantification_line_items"
+          + " WHERE bottomUpQuantificationId" + BOTTOM_UP_QUANTIFICATION_IDS,
+      "DELETE FROM buq.bottom_up_quantification_funding_details"
+          + " WHERE bottomUpQuantificationId" + BOTTOM_UP_QUANTIFICATION_IDS,
+      "DELETE FROM buq.bottom_up_quantifications WHERE id" + BOTTOM_UP_QUANTIFICATION_IDS,
+      "DELETE FROM buq.requisition_consumption_facts"
+          + " WHERE processingPeriodId IN (SELECT md5('factPeriod' || p)::uuid"
+          + " FROM generate_series(1, " + FACT_PERIODS + ") AS p)");
+
+  // Only the columns read by the consumption queries and the refresh of the consumption facts
+  private static final List<Pair<String, String>> EXTERNAL_TABLES = Arrays.asList(
+      Pair.of("requisition.requisitions", "id uuid PRIMARY KEY, facilityid uuid,"
+          + " processingperiodid uuid, status varchar(255), emergency boolean,"
+          + " modifieddate timestamptz"),
+      Pair.of("requisition.requisition_line_items", "id uuid PRIMARY KEY, requisitionid uuid,"
+          + " orderableid uuid, adjustedconsumption integer"),
+      Pair.of("referencedata.processing_periods", "id uuid PRIMARY KEY, startdate date,"
+          + " enddate date"),
+      Pair.of("referencedata.orderables", "id uuid, versionnumber bigint, netcontent bigint,"
+          + " packroundingthreshold bigint, roundtozero boolean,"
+          + " PRIMARY KEY (id, versionnumber)"));
+
+  private static final Pattern SEQUENTIAL_SCAN = Pattern.compile("Seq Scan on buq\\.(\\w+)");
+
+  private static JdbcTemplate datasetJdbcTemplate;
+  private static final Deque<String> DROP_EXTERNAL_TABLES = new ArrayDeque<>();
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @Autowired
+  private BottomUpQuantificationRepository bottomUpQuantificationRepository;
+
+  @Autowired
+  private RejectionRepository rejectionRepository;
+
+  @Autowired
+  private BottomUpQuantificationExportService bottomUpQuantificationExportService;
+
+  @MockBean
+  private FacilityReferenceDataService facilityReferenceDataService;
+
+  @MockBean
+  private OrderableReferenceDataService orderableReferenceDataService;
+
+  /**
+   * Loads the dataset before the first test of the class. Rows left behind by an aborted run are
+   * removed first.
+   */
+  @Before
+  public void setUp() {
+    if (null != datasetJdbcTemplate) {
+      return;
+    }
+
+    datasetJdbcTemplate = jdbcTemplate;
+    createMissingExternalTables();
+    DELETE_DATASET.forEach(jdbcTemplate::execute);
+
+    jdbcTemplate.update(INSERT_BOTTOM_UP_QUANTIFICATIONS, BOTTOM_UP_QUANTIFICATIONS);
+    jdbcTemplate.update(INSERT_LINE_ITEMS, BOTTOM_UP_QUANTIFICATIONS);
+    jdbcTemplate.update(INSERT_STATUS_CHANGES, BOTTOM_UP_QUANTIFICATIONS);
+    jdbcTemplate.update(INSERT_FUNDING_DETAILS, BOTTOM_UP_QUANTIFICATIONS);
+    jdbcTemplate.update(INSERT_REJECTIONS, BOTTOM_UP_QUANTIFICATIONS);
+    jdbcTemplate.update(INSERT_CONSUMPTION_FACTS, FACILITIES, FACT_PERIODS);
+
+    ANALYZED_TABLES.forEach(table -> jdbcTemplate.execute("ANALYZE buq." + table));
+  }
+
+  /**
+   * Removes the dataset and the external tables created for it.
+   */
+  @AfterClass
+  public static void tearDown() {
+    if (null == datasetJdbcTemplate) {
+      return;
+    }
+
+    DELETE_DATASET.forEach(datasetJdbcTemplate::execute);
+    while (!DROP_EXTERNAL_TABLES.isEmpty()) {
+      datasetJdbcTemplate.execute(DROP_EXTERNAL_TABLES.pop());
+    }
+    datasetJdbcTemplate = null;
+  }
+
+  @Test
+  public void shouldUseIndexToCheckIfBottomUpQuantificationExists() {
+    assertNoSequentialScan(() -> bottomUpQuantificationRepository
+        .existsByFacilityIdAndProcessingPeriodId(id("facility", 1), id("period", 1)));
+  }
+
+  @Test
+  public void shouldUseIndexToFindFacilityIdsByProcessingPeriod() {
+    assertNoSequentialScan(() -> bottomUpQuantificationRepository
+        .findFacilityIdsByProcessingPeriodId(id("period", 1),
+            Arrays.asList(id("facility", 1), id("facility", 51))));
+  }
+
+  @Test
+  public void shouldUseIndexToSearchBottomUpQuantificationsByFacility() {
+    assertNoSequentialScan(() -> bottomUpQuantificationRepository.search(
+        new TestSearchParams(id("facility", 1), BottomUpQuantificationStatus.DRAFT,
+            BottomUpQuantificationStatus.SUBMITTED),
+        PageRequest.of(0, 10, Sort.by("createdDate"))));
+  }
+
+  @Test
+  public void shouldUseIndexToCountBottomUpQuantificationsByStatus() {
+    assertNoSequentialScan(() -> bottomUpQuantificationRepository.countByStatus(
+        Arrays.asList(id("facility", 1), id("facility", 2)), id("program", 1),
+        id("period", 1)));
+  }
+
+  @Test
+  public void shouldUseIndexToSearchBottomUpQuantificationsForFinalApproval() {
+    assertNoSequentialScan(() -> bottomUpQuantificationRepository.searchForFinalApproval(
+        id("period", 1), programNodePairs(1, 2), firstPage()));
+  }
+
+  @Test
+  public void shouldUseApprovalInboxToSearchApprovableBottomUpQuantifications() {
+    assertNoSequentialScan(() -> bottomUpQuantificationRepository
+        .searchApprovableByProgramSupervisoryNodePairs(programNodePairs(2, 3), firstPage()));
+  }
+
+  @Test
+  public void shouldUseIndexesToLoadBottomUpQuantificationAssociations() {
+    assertNoSequentialScan(() -> {
+      BottomUpQuantification bottomUpQuantification = bottomUpQuantificationRepository
+          .findById(id("buq", 1))
+          .orElseThrow(IllegalStateException::new);
+      bottomUpQuantification.getBottomUpQuantificationLineItems().size();
+      bottomUpQuantification.getStatusChanges().size();
+      bottomUpQuantification.getFundingDetails();
+    });
+  }
+
+  @Test
+  public void shouldUseIndexesToFindLatestRejections() {
+    assertNoSequentialScan(() -> rejectionRepository
+        .findLatestByBottomUpQuantificationIdIn(Arrays.asList(id("buq", 1), id("buq", 2))));
+  }
+
+  @Test
+  public void shouldUsePrimaryKeyToFindApprovalKeys() {
+    assertNoSequentialScan(() -> bottomUpQuantificationRepository
+        .findApprovalKeysByIdIn(Arrays.asList(id("buq", 1), id("buq", 2))));
+  }
+
+  @Test
+  public void shouldUseIndexToReadConsumptionOfFacility() {
+    assertNoSequentialScan(() -> bottomUpQuantificationRepository
+        .getRequisitionLineItemsData(id("facility", 1), id("factPeriod", FACT_PERIODS)));
+  }
+
+  @Test
+  public void shouldUseIndexToReadConsumptionOfFacilities() {
+    assertNoSequentialScan(() -> bottomUpQuantificationRepository.getRequisitionLineItemsData(
+        Arrays.asList(id("facility", 1), id("facility", 2)), id("factPeriod", FACT_PERIODS)));
+  }
+
+  @Test
+  public void shouldUseIndexToReadConsumptionHistory() {
+    assertNoSequentialScan(() -> bottomUpQuantificationRepository.getConsumptionHistory(
+        Arrays.asList(id("facility", 1), id("facility", 2)), id("factPeriod", FACT_PERIODS),
+        FACT_PERIODS));
+  }
+
+  @Test
+  public void shouldUseIndexesToExportApprovedBottomUpQuantifications() {
+    assertNoSequentialScan(() -> {
+      try {
+        bottomUpQuantificationExportService
+            .export(id("program", 1), id("period", 1), false)
+            .writeTo(new ByteArrayOutputStream());
+      } catch (IOException ex) {
+        throw new IllegalStateException(ex);
+      }
+    });
+  }
+
+  private void assertNoSequentialScan(Runnable invocation) {
+    List<String> statements = StatementCapturingDataSource.capture(() ->
+        new TransactionTemplate(transactionManager).execute(status -> {
+          invocation.run();
+          status.setRollbackOnly();
+          return null;
+        }));
+    assertFalse("No statement was captured", statements.isEmpty());
+
+    for (String statement : statements) {
+      String plan = String.join("\n", explain(statement));
+      List<String> scannedTables = new ArrayList<>();
+      Matcher matcher = SEQUENTIAL_SCAN.matcher(plan);
+      while (matcher.find()) {
+        if (!SINGLE_ROW_TABLES.contains(matcher.group(1))) {
+          scannedTables.add(matcher.group(1));
+        }
+      }
+
+      assertTrue("Sequential scan of " + scannedTables + " in the query plan of:\n"
+          + statement + "\n\n" + plan, scannedTables.isEmpty());
+    }
+  }
+
+  /**
+   * Explains the generic plan of the given JDBC statement. The statement is prepared with its
+   * placeholders replaced by numbered parameters, whose types are inferred by the database, and
+   * executed with null arguments, which the generic plan does not depend on.
+   */
+  private List<String> explain(String jdbcStatement) {
+    NumberedStatement statement = NumberedStatement.of(jdbcStatement);
+
+    return jdbcTemplate.execute((ConnectionCallback<List<String>>) connection -> {
+      try (Statement sql = connection.createStatement()) {
+        sql.execute("SET plan_cache_mode = force_generic_plan");
+        sql.execute("PREPARE " + PREPARED_STATEMENT + " AS " + statement.getSql());
+        try (ResultSet resultSet = sql.executeQuery("EXPLAIN (VERBOSE) EXECUTE "
+            + PREPARED_STATEMENT + statement.getNullArguments())) {
+          List<String> plan = new ArrayList<>();
+          while (resultSet.next()) {
+            plan.add(resultSet.getString(1));
+          }
+          return plan;
+        } finally {
+          sql.execute("DEALLOCATE " + PREPARED_STATEMENT);
+          sql.execute("RESET plan_cache_mode");
+        }
+      }
+    });
+  }
+
+  /**
+   * Creates the external tables that do not exist, along with their schemas, and remembers how
+   * to drop them again, in reverse order.
+   */
+  private void createMissingExternalTables() {
+    for (Pair<String, String> table : EXTERNAL_TABLES) {
+      String name = table.getLeft();
+      String schema = name.substring(0, name.indexOf('.'));
+      if (!exists("SELECT to_regnamespace(?) IS NOT NULL", schema)) {
+        jdbcTemplate.execute("CREATE SCHEMA " + schema);
+        DROP_EXTERNAL_TABLES.push("DROP SCHEMA " + schema);
+      }
+      if (!exists("SELECT to_regclass(?) IS NOT NULL", name)) {
+        jdbcTemplate.execute("CREATE TABLE " + name + " (" + table.getRight() + ")");
+        DROP_EXTERNAL_TABLES.push("DROP TABLE " + name);
+      }
+    }
+  }
+
+  private boolean exists(String query, String name) {
+    return Boolean.TRUE.equals(jdbcTemplate.queryForObject(query, Boolean.class, name));
+  }
+
+  private static Set<Pair<UUID, UUID>> programNodePairs(int... numbers) {
+    Set<Pair<UUID, UUID>> pairs = new HashSet<>();
+    for (int number : numbers) {
+      pairs.add(Pair.of(id("program", number), id("node", number)));
+    }
+    return pairs;
+  }
+
+  private static Pageable firstPage() {
+    return PageRequest.of(0, 10);
+  }
+
+  /**
+   * Returns the same ID as {@code md5(prefix || number)::uuid} in the dataset.
+   */
+  private static UUID id(String prefix, int number) {
+    String hex = DigestUtils.md5DigestAsHex((prefix + number).getBytes(StandardCharsets.UTF_8));
+    return new UUID(Long.parseUnsignedLong(hex.substring(0, 16), 16),
+        Long.parseUnsignedLong(hex.substring(16), 16));
+  }
+
+  private static final class TestSearchParams implements BottomUpQuantificationSearchParams {
+
+    private final UUID facility;
+    private final Set<BottomUpQuantificationStatus> statuses;
+
+    TestSearchParams(UUID facility, BottomUpQuantificationStatus first,
+        BottomUpQuantificationStatus... rest) {
+      this.facility = facility;
+      this.statuses = EnumSet.of(first, rest);
+    }
+
+    @Override
+    public Set<BottomUpQuantificationStatus> getStatuses() {
+      return statuses;
+    }
+
+    @Override
+    public UUID getFacility() {
+      return facility;
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return false;
+    }
+
+  }
+
+  /**
+   * JDBC statement with its {@code ?} placeholders replaced by the numbered parameters of a
+   * PostgreSQL prepared statement. Placeholders within string literals are left as they are.
+   */
+  private static final class NumberedStatement {
+
+    private final String sql;
+    private final int parameterCount;
+
+    private NumberedStatement(String sql, int parameterCount) {
+      this.sql = sql;
+      this.parameterCount = parameterCount;
+    }
+
+    static NumberedStatement of(String jdbcStatement) {
+      StringBuilder sql = new StringBuilder();
+      int parameterCount = 0;
+      boolean inLiteral = false;
+      for (char character : jdbcStatement.trim().toCharArray()) {
+        if ('\'' == character) {
+          inLiteral = !inLiteral;
+        }
+        if ('?' == character && !inLiteral) {
+          sql.append('$').append(++parameterCount);
+        } else {
+          sql.append(character);
+        }
+      }
+
+      // A prepared statement must not end with a semicolon
+      while (sql.length() > 0 && ';' == sql.charAt(sql.length() - 1)) {
+        sql.setLength(sql.length() - 1);
+      }
+      return new NumberedStatement(sql.toString(), parameterCount);
+    }
+
+    String getSql() {
+      return sql;
+    }
+
+    String getNullArguments() {
+      return 0 == parameterCount
+          ? ""
+          : "(" + String.join(", ", Collections.nCopies(parameterCount, "NULL")) + ")";
+    }
+
+  }
+
+  /**
+   * Data source that records the statements prepared on its connections while
+   * {@link #capture} runs, whether they come from Hibernate or from a JDBC template.
+   */
+  private static final class StatementCapturingDataSource extends DelegatingDataSource {
+
+    private static final ThreadLocal<List<String>> STATEMENTS = new ThreadLocal<>();
+
+    StatementCapturingDataSource(DataSource targetDataSource) {
+      super(targetDataSource);
+    }
+
+    static List<String> capture(Runnable invocation) {
+      List<String> statements = new ArrayList<>();
+      STATEMENTS.set(statements);
+      try {
+        invocation.run();
+      } finally {
+        STATEMENTS.remove();
+      }
+      return statements;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+      return record(obtainTargetDataSource().getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+      return record(obtainTargetDataSource().getConnection(username, password));
+    }
+
+    private Connection record(Connection connection) {
+      return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+          new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+            List<String> statements = STATEMENTS.get();
+            if (null != statements && "prepareStatement".equals(method.getName())) {
+              statements.add((String) args[0]);
+            }
+
+            try {
+              return method.invoke(connection, args);
+            } catch (InvocationTargetException ex) {
+              throw ex.getCause();
+            }
+          });
+    }
+
+  }
+
+  @TestConfiguration
+  static class StatementCaptureConfiguration {
+
+    @Bean
+    static BeanPostProcessor statementCapturingDataSourcePostProcessor() {
+      return new BeanPostProcessor() {
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) {
+          return bean instanceof DataSource
+              ? new StatementCapturingDataSource((DataSource) bean)
+              : bean;
+        }
+      };
+    }
+
+  }
+
+}
@@ -22,11 +22,17 @@ import static org.hamcrest.Matchers.hasSize;
 import static org.junit.Assert.assertThat;
 
 import com.google.common.collect.Sets;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
 import lombok.Getter;
 import lombok.Setter;
+import org.apache.commons.lang3.tuple.Pair;
 import org.junit.Before;
 import org.junit.Test;
 import org.openlmis.buq.builder.BottomUpQuantificationDataBuilder;
@@ -34,6 +40,7 @@ import org.openlmis.buq.domain.buq.BottomUpQuantification;
 import org.openlmis.buq.domain.buq.BottomUpQuantificationStatus;
 import org.openlmis.buq.repository.BaseCrudRepositoryIntegrationTest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.repository.CrudRepository;
@@ -44,6 +51,9 @@ public class BottomUpQuantificationRepositoryIntegrationTest extends
   @Autowired
   private BottomUpQuantificationRepository bottomUpQuantificationRepository;
 
+  @PersistenceContext
+  private EntityManager entityManager;
+
   private BottomUpQuantification draftedBuq;
   private BottomUpQuantification submittedBuq;
   private BottomUpQuantification authorizedBuq;
@@ -105,6 +115,104 @@ public class BottomUpQuantificationRepositoryIntegrationTest extends
     searchAndCheckResults(submittedBuq, 2, facility);
   }
 
+  @Test
+  public void shouldCountBottomUpQuantificationsByStatus() {
+    UUID programId = UUID.randomUUID();
+    UUID processingPeriodId = UUID.randomUUID();
+    bottomUpQuantificationRepository.save(new BottomUpQuantificationDataBuilder()
+        .withFacilityId(facility)
+        .withProgramId(programId)
+        .withProcessingPeriodId(processingPeriodId)
+        .withStatus(BottomUpQuantificationStatus.SUBMITTED)
+        .buildAsNew());
+    bottomUpQuantificationRepository.save(new BottomUpQuantificationDataBuilder()
+        .withFacilityId(facility)
+        .withProgramId(programId)
+        .withStatus(BottomUpQuantificationStatus.SUBMITTED)
+        .buildAsNew());
+    bottomUpQuantificationRepository.save(new BottomUpQuantificationDataBuilder()
+        .withFacilityId(facility)
+        .withProgramId(programId)
+        .withProcessingPeriodId(processingPeriodId)
+        .withStatus(BottomUpQuantificationStatus.DRAFT)
+        .buildAsNew());
+
+    Map<BottomUpQuantificationStatus, Long> allPeriods = bottomUpQuantificationRepository
+        .countByStatus(Collections.singleton(facility), programId, null);
+
+    assertThat(allPeriods.size(), equalTo(2));
+    assertThat(allPeriods.get(BottomUpQuantificationStatus.SUBMITTED), equalTo(2L));
+    assertThat(allPeriods.get(BottomUpQuantificationStatus.DRAFT), equalTo(1L));
+
+    Map<BottomUpQuantificationStatus, Long> singlePeriod = bottomUpQuantificationRepository
+        .countByStatus(Collections.singleton(facility), programId, processingPeriodId);
+
+    assertThat(singlePeriod.get(BottomUpQuantificationStatus.SUBMITTED), equalTo(1L));
+    assertThat(singlePeriod.get(BottomUpQuantificationStatus.DRAFT), equalTo(1L));
+  }
+
+  @Test
+  public void shouldFindFacilityIdsWithBottomUpQuantificationForProcessingPeriod() {
+    UUID processingPeriodId = UUID.randomUUID();
+    UUID otherFacility = UUID.randomUUID();
+    bottomUpQuantificationRepository.save(new BottomUpQuantificationDataBuilder()
+        .withFacilityId(facility)
+        .withProcessingPeriodId(processingPeriodId)
+        .buildAsNew());
+
+    List<UUID> result = bottomUpQuantificationRepository.findFacilityIdsByProcessingPeriodId(
+        processingPeriodId, Arrays.asList(facility, otherFacility));
+
+    assertThat(result, equalTo(Collections.singletonList(facility)));
+  }
+
+  @Test
+  public void shouldFindApprovableBottomUpQuantificationsFromApprovalInbox() {
+    UUID programId = UUID.randomUUID();
+    UUID supervisoryNodeId = UUID.randomUUID();
+    final BottomUpQuantification inApproval = bottomUpQuantificationRepository.save(
+        new BottomUpQuantificationDataBuilder()
+            .withProgramId(programId)
+            .withSupervisoryNodeId(supervisoryNodeId)
+            .withStatus(BottomUpQuantificationStatus.IN_APPROVAL)
+            .buildAsNew());
+    final BottomUpQuantification authorized = bottomUpQuantificationRepository.save(
+        new BottomUpQuantificationDataBuilder()
+            .withProgramId(programId)
+            .withSupervisoryNodeId(supervisoryNodeId)
+            .withStatus(BottomUpQuantificationStatus.AUTHORIZED)
+            .buildAsNew());
+    bottomUpQuantificationRepository.save(new BottomUpQuantificationDataBuilder()
+        .withProgramId(programId)
+        .withSupervisoryNodeId(supervisoryNodeId)
+        .withStatus(BottomUpQuantificationStatus.SUBMITTED)
+        .buildAsNew());
+    bottomUpQuantificationRepository.save(new BottomUpQuantificationDataBuilder()
+        .withProgramId(programId)
+        .withStatus(BottomUpQuantificationStatus.AUTHORIZED)
+        .buildAsNew());
+    entityManager.flush();
+
+    Set<Pair<UUID, UUID>> pairs = Collections.singleton(Pair.of(programId, supervisoryNodeId));
+    PageRequest byAuthorizedDate = PageRequest.of(0, 10, Sort.Direction.ASC, "authorizedDate");
+    Page<BottomUpQuantification> found = bottomUpQuantificationRepository
+        .searchApprovableByProgramSupervisoryNodePairs(pairs, byAuthorizedDate);
+
+    assertThat(found.getTotalElements(), equalTo(2L));
+    assertThat(found.getContent(), hasItem(hasProperty("id", equalTo(inApproval.getId()))));
+    assertThat(found.getContent(), hasItem(hasProperty("id", equalTo(authorized.getId()))));
+
+    inApproval.setStatus(BottomUpQuantificationStatus.APPROVED);
+    bottomUpQuantificationRepository.save(inApproval);
+    entityManager.flush();
+
+    found = bottomUpQuantificationRepository
+        .searchApprovableByProgramSupervisoryNodePairs(pairs, byAuthorizedDate);
+
+    assertThat(found.getTotalElements(), equalTo(1L));
+    assertThat(found.getContent().get(0).getId(), equalTo(authorized.getId()));
+  }
+
   @Override
   public BottomUpQuantification generateInstance() {
     return new BottomUpQuantificationDataBuilder()
@@ -26,6 +26,8 @@ import static org.mockito.BDDMockito.given;
 import static org.mockito.BDDMockito.willDoNothing;
 import static org.mockito.BDDMockito.willReturn;
 import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.openlmis.buq.web.buq.BottomUpQuantificationController.BUQ_FORM_CSV_FILENAME;
 import static org.openlmis.buq.web.buq.BottomUpQuantificationController.GEOGRAPHIC_ZONE_ID;
@@ -36,9 +38,12 @@ import com.google.common.collect.Maps;
 import com.jayway.restassured.response.Response;
 import guru.nidi.ramltester.junit.RamlMatchers;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
@@ -59,13 +64,24 @@ import org.openlmis.buq.ApproveFacilityForecastingStats;
 import org.openlmis.buq.builder.BottomUpQuantificationDataBuilder;
 import org.openlmis.buq.builder.ProgramDtoDataBuilder;
 import org.openlmis.buq.domain.buq.BottomUpQuantification;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationJob;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationJobStatus;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationJobType;
 import org.openlmis.buq.dto.BottomUpQuantificationGroupCostsData;
 import org.openlmis.buq.dto.buq.BottomUpQuantificationDto;
+import org.openlmis.buq.dto.buq.BottomUpQuantificationPatchDto;
 import org.openlmis.buq.dto.referencedata.ProgramDto;
 import org.openlmis.buq.i18n.MessageKeys;
 import org.openlmis.buq.repository.buq.BottomUpQuantificationSearchParams;
+import org.openlmis.buq.service.buq.BottomUpQuantificationBulkApprovalResult;
+import org.openlmis.buq.service.buq.BottomUpQuantificationBulkApprovalService;
+import org.openlmis.buq.service.buq.BottomUpQuantificationExportService;
+import org.openlmis.buq.service.buq.BottomUpQuantificationFinalApprovalService;
+import org.openlmis.buq.service.buq.BottomUpQuantificationJobService;
 import org.openlmis.buq.service.role.PermissionService;
+import org.openlmis.buq.util.Message;
 import org.openlmis.buq.web.BaseWebIntegrationTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
@@ -79,6 +95,7 @@ public class BottomUpQuantificationControllerIntegrationTest extends BaseWebInte
   private static final String ID_URL = RESOURCE_URL + "/{id}";
   private static final String PREPARE_URL = RESOURCE_URL + "/prepare";
   private static final String DOWNLOAD_URL = ID_URL + "/download";
+  private static final String UPLOAD_URL = ID_URL + "/upload";
   private static final String AUTHORIZE_URL = ID_URL + "/authorize";
   private static final String SUBMIT_URL = ID_URL + "/submit";
   private static final String APPROVE_URL = ID_URL + "/approve";
@@ -88,12 +105,31 @@ public class BottomUpQuantificationControllerIntegrationTest extends BaseWebInte
       + "/supervisedGeographicZones";
   private static final String FOR_FINAL_APPROVAL_URL = RESOURCE_URL + "/forFinalApproval";
   private static final String AUDIT_LOG_URL = ID_URL + "/auditLog";
+  private static final String EXPORT_URL = RESOURCE_URL + "/export";
+  private static final String BULK_APPROVE_URL = RESOURCE_URL + "/approve/bulk";
+  private static final String BULK_FINAL_APPROVE_URL = RESOURCE_URL + "/finalApprove/bulk";
+  private static final String FINAL_APPROVE_JOB_URL = RESOURCE_URL + "/jobs/finalApprove";
+  private static final String JOB_URL = RESOURCE_URL + "/jobs/{id}";
+  private static final String JOB_RESULT_URL = JOB_URL + "/result";
+  private static final String CANCEL_JOB_URL = JOB_URL + "/cancel";
 
   private static final String STATUS = "status";
   private static final String PROGRAM_ID = "programId";
   private static final String FACILITY_ID = "facilityId";
   private static final String PROCESSING_PERIOD_ID = "processingPeriodId";
 
+  @MockBean
+  private BottomUpQuantificationExportService bottomUpQuantificationExportService;
+
+  @MockBean
+  private BottomUpQuantificationBulkApprovalService bottomUpQuantificationBulkApprovalService;
+
+  @MockBean
+  private BottomUpQuantificationFinalApprovalService bottomUpQuantificationFinalApprovalService;
+
+  @MockBean
+  private BottomUpQuantificationJobService bottomUpQuantificationJobService;
+
   private final BottomUpQuantification bottomUpQuantification =
       new BottomUpQuantificationDataBuilder().build();
   private final BottomUpQuantificationDto bottomUpQuantificationDto =
@@ -282,6 +318,54 @@ public class BottomUpQuantificationControllerIntegrationTest extends BaseWebInte
     assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
   }
 
+  @Test
+  public void shouldPatchBottomUpQuantification() {
+    mockUserHasAtLeastOneOfFollowingRights(Arrays.asList(
+            PermissionService.CREATE_FORECASTING,
+            PermissionService.AUTHORIZE_FORECASTING));
+    given(bottomUpQuantificationRepository.existsById(bottomUpQuantificationDto.getId()))
+        .willReturn(true);
+    given(bottomUpQuantificationService.patch(any(BottomUpQuantificationPatchDto.class),
+        eq(bottomUpQuantificationDto.getId())))
+        .willReturn(bottomUpQuantification);
+
+    restAssured
+        .given()
+        .header(HttpHeaders.AUTHORIZATION, getTokenHeader())
+        .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+        .pathParam(ID, bottomUpQuantificationDto.getId().toString())
+        .body(new BottomUpQuantificationPatchDto(
+            bottomUpQuantificationDto.getBottomUpQuantificationLineItems(), null))
+        .when()
+        .patch(ID_URL)
+        .then()
+        .statusCode(HttpStatus.SC_NO_CONTENT);
+
+    assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
+  }
+
+  @Test
+  public void shouldReturnNotFoundMessageIfBuqDoesNotExistForPatchBuqEndpoint() {
+    mockUserHasAtLeastOneOfFollowingRights(Arrays.asList(
+            PermissionService.CREATE_FORECASTING,
+            PermissionService.AUTHORIZE_FORECASTING));
+    given(bottomUpQuantificationRepository.existsById(bottomUpQuantificationDto.getId()))
+        .willReturn(false);
+
+    restAssured
+        .given()
+        .header(HttpHeaders.AUTHORIZATION, getTokenHeader())
+        .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+        .pathParam(ID, bottomUpQuantificationDto.getId().toString())
+        .body(new BottomUpQuantificationPatchDto())
+        .when()
+        .patch(ID_URL)
+        .then()
+        .statusCode(HttpStatus.SC_NOT_FOUND);
+
+    assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
+  }
+
   @Test
   public void shouldDeleteBottomUpQuantification() {
     mockUserHasRight(PermissionService.PREPARE_BUQ);
@@ -345,7 +429,7 @@ public class BottomUpQuantificationControllerIntegrationTest extends BaseWebInte
         .willReturn(true);
     given(bottomUpQuantificationService.authorize(any(BottomUpQuantificationDto.class),
         eq(bottomUpQuantificationDto.getId())))
-        .willReturn(bottomUpQuantification);
+        .willReturn(bottomUpQuantificationDto);
 
     restAssured
         .given()
@@ -370,7 +454,7 @@ public class BottomUpQuantificationControllerIntegrationTest extends BaseWebInte
         .willReturn(true);
     given(bottomUpQuantificationService.approve(any(BottomUpQuantificationDto.class),
         eq(bottomUpQuantificationDto.getId())))
-        .willReturn(bottomUpQuantification);
+        .willReturn(bottomUpQuantificationDto);
 
     restAssured
         .given()
@@ -420,7 +504,7 @@ public class BottomUpQuantificationControllerIntegrationTest extends BaseWebInte
     ClassPathResource file = new ClassPathResource("csv/" + BUQ_FORM_CSV_FILENAME + ".csv");
     byte[] buqDataBytes = FileUtils.readFileToByteArray(file.getFile());
     given(bottomUpQuantificationService.getPreparationFormData(bottomUpQuantification))
-        .willReturn(buqDataBytes);
+        .willReturn(outputStream -> outputStream.write(buqDataBytes));
 
     Response response = restAssured
         .given()
@@ -458,12 +542,210 @@ public class BottomUpQuantificationControllerIntegrationTest extends BaseWebInte
     assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
   }
 
+  @Test
+  public void shouldUpload() throws IOException {
+    mockUserHasAtLeastOneOfFollowingRights(Arrays.asList(
+            PermissionService.CREATE_FORECASTING,
+            PermissionService.AUTHORIZE_FORECASTING));
+    given(bottomUpQuantificationRepository.existsById(bottomUpQuantificationDto.getId()))
+        .willReturn(true);
+    given(bottomUpQuantificationService.uploadPreparationFormData(
+        eq(bottomUpQuantificationDto.getId()), any(InputStream.class)))
+        .willReturn(bottomUpQuantification);
+    ClassPathResource file = new ClassPathResource("csv/" + BUQ_FORM_CSV_FILENAME + ".csv");
+
+    restAssured
+        .given()
+        .header(HttpHeaders.AUTHORIZATION, getTokenHeader())
+        .pathParam(ID, bottomUpQuantificationDto.getId().toString())
+        .multiPart("file", file.getFile(), TEXT_CSV_MEDIA_TYPE)
+        .when()
+        .post(UPLOAD_URL)
+        .then()
+        .statusCode(HttpStatus.SC_OK)
+        .body(ID, Matchers.is(bottomUpQuantificationDto.getId().toString()));
+
+    verify(bottomUpQuantificationService).uploadPreparationFormData(
+        eq(bottomUpQuantificationDto.getId()), any(InputStream.class));
+    assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
+  }
+
+  @Test
+  public void shouldReturnNotFoundMessageIfBuqDoesNotExistForGivenBuqUploadEndpoint()
+      throws IOException {
+    mockUserHasAtLeastOneOfFollowingRights(Arrays.asList(
+            PermissionService.CREATE_FORECASTING,
+            PermissionService.AUTHORIZE_FORECASTING));
+    given(bottomUpQuantificationRepository.existsById(bottomUpQuantificationDto.getId()))
+        .willReturn(false);
+    ClassPathResource file = new ClassPathResource("csv/" + BUQ_FORM_CSV_FILENAME + ".csv");
+
+    restAssured
+        .given()
+        .header(HttpHeaders.AUTHORIZATION, getTokenHeader())
+        .pathParam(ID, bottomUpQuantificationDto.getId().toString())
+        .multiPart("file", file.getFile(), TEXT_CSV_MEDIA_TYPE)
+        .when()
+        .post(UPLOAD_URL)
+        .then()
+        .statusCode(HttpStatus.SC_NOT_FOUND)
+        .body(MESSAGE_KEY, Matchers.is(MessageKeys.ERROR_BOTTOM_UP_QUANTIFICATION_NOT_FOUND));
+
+    verify(bottomUpQuantificationService, never())
+        .uploadPreparationFormData(any(UUID.class), any(InputStream.class));
+    assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
+  }
+
+  @Test
+  public void shouldExport() {
+    mockUserHasAtLeastOneOfFollowingRights(PermissionService.MOH_PORALG_RIGHTS);
+    final UUID programId = UUID.randomUUID();
+    final UUID processingPeriodId = UUID.randomUUID();
+    byte[] exportBytes = "\"Facility Code\"\nF100\n".getBytes(StandardCharsets.UTF_8);
+    given(bottomUpQuantificationExportService.export(programId, processingPeriodId, false))
+        .willReturn(outputStream -> outputStream.write(exportBytes));
+
+    Response response = restAssured
+        .given()
+        .header(HttpHeaders.AUTHORIZATION, getTokenHeader())
+        .queryParam(PROGRAM_ID, programId)
+        .queryParam(PROCESSING_PERIOD_ID, processingPeriodId)
+        .when()
+        .get(EXPORT_URL)
+        .then()
+        .statusCode(HttpStatus.SC_OK)
+        .extract().response();
+
+    verify(bottomUpQuantificationExportService).export(programId, processingPeriodId, false);
+    assertArrayEquals(exportBytes, response.getBody().asByteArray());
+    assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
+  }
+
+  @Test
+  public void shouldBulkApprove() {
+    mockUserHasRight(PermissionService.APPROVE_BUQ);
+    final UUID approvedId = UUID.randomUUID();
+    final UUID failedId = UUID.randomUUID();
+    BottomUpQuantificationBulkApprovalResult result =
+        mock(BottomUpQuantificationBulkApprovalResult.class);
+    given(result.getApprovedIds()).willReturn(Collections.singletonList(approvedId));
+    given(result.getFailures()).willReturn(Collections.singletonMap(failedId,
+        new Message(MessageKeys.ERROR_MUST_BE_AUTHORIZED_OR_IN_APPROVAL_TO_BE_APPROVED)));
+    given(bottomUpQuantificationBulkApprovalService
+        .approve(Arrays.asList(approvedId, failedId))).willReturn(result);
+
+    restAssured
+        .given()
+        .header(HttpHeaders.AUTHORIZATION, getTokenHeader())
+        .contentType(MediaType.APPLICATION_JSON_VALUE)
+        .body(Arrays.asList(approvedId, failedId))
+        .when()
+        .post(BULK_APPROVE_URL)
+        .then()
+        .statusCode(HttpStatus.SC_OK)
+        .body("approvedIds", Matchers.contains(approvedId.toString()))
+        .body("failures." + failedId + ".messageKey",
+            Matchers.is(MessageKeys.ERROR_MUST_BE_AUTHORIZED_OR_IN_APPROVAL_TO_BE_APPROVED));
+
+    assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
+  }
+
+  @Test
+  public void shouldBulkFinalApprove() {
+    mockUserHasAtLeastOneOfFollowingRights(PermissionService.MOH_PORALG_RIGHTS);
+    final UUID approvedId = UUID.randomUUID();
+    final UUID failedId = UUID.randomUUID();
+    BottomUpQuantificationBulkApprovalResult result =
+        mock(BottomUpQuantificationBulkApprovalResult.class);
+    given(result.getApprovedIds()).willReturn(Collections.singletonList(approvedId));
+    given(result.getFailures()).willReturn(Collections.singletonMap(failedId,
+        new Message(MessageKeys.ERROR_MUST_BE_APPROVED_TO_BE_FINAL_APPROVED)));
+    given(bottomUpQuantificationFinalApprovalService
+        .finalApprove(Arrays.asList(approvedId, failedId))).willReturn(result);
+
+    restAssured
+        .given()
+        .header(HttpHeaders.AUTHORIZATION, getTokenHeader())
+        .contentType(MediaType.APPLICATION_JSON_VALUE)
+        .body(Arrays.asList(approvedId, failedId))
+        .when()
+        .post(BULK_FINAL_APPROVE_URL)
+        .then()
+        .statusCode(HttpStatus.SC_OK)
+        .body("approvedIds", Matchers.contains(approvedId.toString()))
+        .body("failures." + failedId + ".messageKey",
+            Matchers.is(MessageKeys.ERROR_MUST_BE_APPROVED_TO_BE_FINAL_APPROVED));
+
+    assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
+  }
+
+  @Test
+  public void shouldSubmitFinalApprovalJob() {
+    mockUserHasAtLeastOneOfFollowingRights(PermissionService.MOH_PORALG_RIGHTS);
+    List<UUID> ids = Collections.singletonList(UUID.randomUUID());
+    BottomUpQuantificationJob job = mockJob(BottomUpQuantificationJobStatus.PENDING);
+    given(bottomUpQuantificationJobService.submitFinalApproval(ids)).willReturn(job);
+
+    restAssured
+        .given()
+        .header(HttpHeaders.AUTHORIZATION, getTokenHeader())
+        .contentType(MediaType.APPLICATION_JSON_VALUE)
+        .body(ids)
+        .when()
+        .post(FINAL_APPROVE_JOB_URL)
+        .then()
+        .statusCode(HttpStatus.SC_ACCEPTED)
+        .body(ID, is(job.getId().toString()))
+        .body(STATUS, is(BottomUpQuantificationJobStatus.PENDING.name()));
+
+    assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
+  }
+
+  @Test
+  public void shouldReturnJobResult() {
+    mockUserHasAtLeastOneOfFollowingRights(PermissionService.MOH_PORALG_RIGHTS);
+    UUID jobId = UUID.randomUUID();
+    given(bottomUpQuantificationJobService.getResult(jobId)).willReturn("{\"approvedIds\":[]}");
+
+    restAssured
+        .given()
+        .header(HttpHeaders.AUTHORIZATION, getTokenHeader())
+        .pathParam(ID, jobId)
+        .when()
+        .get(JOB_RESULT_URL)
+        .then()
+        .statusCode(HttpStatus.SC_OK)
+        .contentType(MediaType.APPLICATION_JSON_VALUE)
+        .body("approvedIds", Matchers.empty());
+
+    assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
+  }
+
+  @Test
+  public void shouldCancelJob() {
+    mockUserHasAtLeastOneOfFollowingRights(PermissionService.MOH_PORALG_RIGHTS);
+    BottomUpQuantificationJob job = mockJob(BottomUpQuantificationJobStatus.CANCELLED);
+    given(bottomUpQuantificationJobService.cancel(job.getId())).willReturn(job);
+
+    restAssured
+        .given()
+        .header(HttpHeaders.AUTHORIZATION, getTokenHeader())
+        .pathParam(ID, job.getId())
+        .when()
+        .post(CANCEL_JOB_URL)
+        .then()
+        .statusCode(HttpStatus.SC_OK)
+        .body(STATUS, is(BottomUpQuantificationJobStatus.CANCELLED.name()));
+
+    assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
+  }
+
   @Test
   public void shouldReturnApproveFacilityForecastingStats() {
     mockUserHasRight(PermissionService.APPROVE_BUQ);
     final UUID programId = UUID.randomUUID();
     ApproveFacilityForecastingStats stats = new ApproveFacilityForecastingStats(10, 3, 30);
-    given(bottomUpQuantificationService.getApproveFacilityForecastingStats(programId))
+    given(bottomUpQuantificationService.getApproveFacilityForecastingStats(programId, null))
         .willReturn(stats);
 
     restAssured
@@ -565,6 +847,31 @@ public class BottomUpQuantificationControllerIntegrationTest extends BaseWebInte
     assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
   }
 
+  @Test
+  public void shouldRetrieveAuditLogSummary() {
+    mockUserHasRight(PermissionService.MANAGE_BUQ);
+    given(bottomUpQuantificationRepository.existsById(bottomUpQuantificationDto.getId()))
+        .willReturn(true);
+    willReturn(Collections.emptyList()).given(javers).findSnapshots(any(JqlQuery.class));
+
+    restAssured
+        .given()
+        .header(HttpHeaders.AUTHORIZATION, getTokenHeader())
+        .pathParam(ID, bottomUpQuantificationDto.getId().toString())
+        .queryParam("summary", true)
+        .queryParam("page", 1)
+        .queryParam("size", 10)
+        .when()
+        .get(AUDIT_LOG_URL)
+        .then()
+        .statusCode(HttpStatus.SC_OK)
+        .body("", Matchers.hasSize(0));
+
+    verify(javers).findSnapshots(any(JqlQuery.class));
+    verify(javers, never()).findChanges(any(JqlQuery.class));
+    assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
+  }
+
   @Test
   public void shouldReturnNotFoundMessageIfBuqDoesNotExistForAuditLogEndpoint() {
     mockUserHasRight(PermissionService.MANAGE_BUQ);
@@ -619,4 +926,12 @@ public class BottomUpQuantificationControllerIntegrationTest extends BaseWebInte
     assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
   }
 
+  private BottomUpQuantificationJob mockJob(BottomUpQuantificationJobStatus status) {
+    BottomUpQuantificationJob job = BottomUpQuantificationJob.newInstance(
+        BottomUpQuantificationJobType.FINAL_APPROVAL, "{}", UUID.randomUUID());
+    job.setId(UUID.randomUUID());
+    job.setStatus(status);
+    return job;
+  }
+
 }
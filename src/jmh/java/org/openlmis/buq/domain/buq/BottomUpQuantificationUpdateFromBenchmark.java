@@ -0,0 +1,104 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.domain.buq;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link BottomUpQuantification#updateFrom(List)} for growing numbers of line items.
+ * Every tenth existing line item is missing from the update and replaced by a new one, and the
+ * updated line items come in a shuffled order. The average time per operation should grow
+ * linearly with the number of line items.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class BottomUpQuantificationUpdateFromBenchmark {
+
+  private static final int REMOVED_ITEM_INTERVAL = 10;
+
+  @Param({"100", "500", "1000", "2500", "5000"})
+  private int lineItemsCount;
+
+  private List<BottomUpQuantificationLineItem> existingItems;
+  private List<BottomUpQuantificationLineItem> updatedItems;
+  private BottomUpQuantification bottomUpQuantification;
+
+  /**
+   * Prepares the existing and updated line items.
+   */
+  @Setup(Level.Trial)
+  public void prepareLineItems() {
+    existingItems = new ArrayList<>(lineItemsCount);
+    updatedItems = new ArrayList<>(lineItemsCount);
+
+    for (int i = 0; i < lineItemsCount; i++) {
+      BottomUpQuantificationLineItem existingItem = lineItem(UUID.randomUUID(), i);
+      existingItems.add(existingItem);
+
+      UUID updatedItemId = i % REMOVED_ITEM_INTERVAL == 0
+          ? UUID.randomUUID()
+          : existingItem.getId();
+      updatedItems.add(lineItem(updatedItemId, i + 1));
+    }
+
+    Collections.shuffle(updatedItems, new Random(lineItemsCount));
+  }
+
+  /**
+   * Restores the bottom-up quantification to its original line items.
+   */
+  @Setup(Level.Invocation)
+  public void prepareBottomUpQuantification() {
+    bottomUpQuantification = new BottomUpQuantification();
+    bottomUpQuantification.setBottomUpQuantificationLineItems(new ArrayList<>(existingItems));
+  }
+
+  @Benchmark
+  public BottomUpQuantification updateFrom() {
+    bottomUpQuantification.updateFrom(updatedItems);
+    return bottomUpQuantification;
+  }
+
+  private static BottomUpQuantificationLineItem lineItem(UUID id, int annualAdjustedConsumption) {
+    BottomUpQuantificationLineItem item = new BottomUpQuantificationLineItem();
+    item.setId(id);
+    item.setOrderableId(UUID.randomUUID());
+    item.setAnnualAdjustedConsumption(annualAdjustedConsumption);
+    return item;
+  }
+
+}
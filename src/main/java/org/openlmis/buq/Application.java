@@ -41,13 +41,19 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.autoconfigure.flyway.FlywayMigrationStrategy;
+import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Profile;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.web.servlet.LocaleResolver;
 import org.springframework.web.servlet.i18n.CookieLocaleResolver;
 
 @SpringBootApplication
+@EnableCaching
+@EnableScheduling
 public class Application {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(Application.class);
@@ -108,6 +114,26 @@ public class Application {
     return new ExportSchemaFlywayCallback();
   }
 
+  /**
+   * Creates the executor running background jobs of bottom-up quantifications. Jobs that do not
+   * fit in the queue are rejected.
+   *
+   * @param poolSize number of jobs that can run at the same time.
+   * @param queueCapacity number of jobs that can wait to be run.
+   * @return Created TaskExecutor.
+   */
+  @Bean
+  public TaskExecutor bottomUpQuantificationJobTaskExecutor(
+      @Value("${bottomUpQuantificationJobs.poolSize}") int poolSize,
+      @Value("${bottomUpQuantificationJobs.queueCapacity}") int queueCapacity) {
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(poolSize);
+    executor.setMaxPoolSize(poolSize);
+    executor.setQueueCapacity(queueCapacity);
+    executor.setThreadNamePrefix("buq-job-");
+    return executor;
+  }
+
   @Bean
   public Clock clock() {
     return Clock.system(ZoneId.of(timeZoneId));
@@ -15,50 +15,107 @@
 
 package org.openlmis.buq;
 
-import static org.openlmis.buq.util.Pagination.DEFAULT_PAGE_NUMBER;
-
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.javers.core.Javers;
-import org.javers.core.metamodel.object.CdoSnapshot;
-import org.javers.repository.jql.QueryBuilder;
 import org.javers.spring.annotation.JaversSpringDataAuditable;
 import org.openlmis.buq.domain.BaseEntity;
-import org.openlmis.buq.i18n.MessageKeys;
 import org.openlmis.buq.repository.BaseAuditableRepository;
+import org.openlmis.buq.repository.RemarkRepository;
+import org.openlmis.buq.repository.sourceoffund.SourceOfFundRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Profile;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 /**
  * AuditLogInitializer runs after its associated Spring application has loaded.
  * It examines each domain object in the database and registers them with JaVers
  * if they haven't already been so. This is, in part, a fix for
  * <a href="https://github.com/javers/javers/issues/214">this issue</a>.
+ *
+ * <p>The ids of each repository are split into ranges, one per worker, and the workers run in
+ * parallel. A worker snapshots its range in batches ordered by id, one transaction per batch,
+ * and saves the id to continue from in the buq.audit_log_initializer_checkpoints table in the
+ * same transaction. If the initializer is stopped, the next run resumes from the checkpoints.
+ * They are removed once a repository is done, so that a later run checks every entity again.
+ *
+ * <p>Remarks and sources of funds are referenced by many bottom-up quantifications, and JaVers
+ * snapshots them together with each of them. Two workers committing bottom-up quantifications
+ * that reference the same remark could both store its first snapshot. So these catalogs are
+ * committed first, in a single-threaded pass, and the workers then find them unchanged.
  */
-
 @Component
 @Profile("init-audit-log")
-@Transactional
 public class AuditLogInitializer implements CommandLineRunner {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(AuditLogInitializer.class);
 
+  static final String AUTHOR = "System: AuditLogInitializer";
+
+  static final int MAX_WORKERS = 256;
+
+  static final String SELECT_CHECKPOINT =
+      "SELECT nextId FROM buq.audit_log_initializer_checkpoints WHERE name = :name";
+
+  static final String SAVE_CHECKPOINT = "INSERT INTO buq.audit_log_initializer_checkpoints\n"
+      + "  (name, nextId, modifiedDate)\n"
+      + "VALUES (:name, :nextId, NOW())\n"
+      + "ON CONFLICT (name) DO UPDATE SET nextId = EXCLUDED.nextId, modifiedDate = NOW()";
+
+  static final String DELETE_CHECKPOINTS =
+      "DELETE FROM buq.audit_log_initializer_checkpoints WHERE name LIKE :prefix";
+
+  private static final String NAME = "name";
+
   private ApplicationContext applicationContext;
   private Javers javers;
+  private TransactionTemplate transactionTemplate;
+  private NamedParameterJdbcTemplate jdbcTemplate;
+  private List<JpaRepository<?, UUID>> referencedCatalogs;
+  private int workers;
+  private int batchSize;
 
+  /**
+   * Creates the initializer.
+   *
+   * @param workers number of id ranges of each repository snapshotted in parallel.
+   * @param batchSize number of entities snapshotted in a single transaction.
+   */
   @Autowired
-  public AuditLogInitializer(ApplicationContext applicationContext, Javers javers) {
+  public AuditLogInitializer(ApplicationContext applicationContext, Javers javers,
+      PlatformTransactionManager transactionManager, NamedParameterJdbcTemplate jdbcTemplate,
+      RemarkRepository remarkRepository, SourceOfFundRepository sourceOfFundRepository,
+      @Value("${auditLogInitializer.workers}") int workers,
+      @Value("${auditLogInitializer.batchSize}") int batchSize) {
     this.applicationContext = applicationContext;
     this.javers = javers;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.jdbcTemplate = jdbcTemplate;
+    this.referencedCatalogs = Arrays.asList(remarkRepository, sourceOfFundRepository);
+    this.workers = Math.max(1, Math.min(workers, MAX_WORKERS));
+    this.batchSize = batchSize;
   }
 
   /**
@@ -66,53 +123,124 @@ public class AuditLogInitializer implements CommandLineRunner {
    * @param args Main method arguments.
    */
   public void run(String... args) {
-    // Get all JaVers repositories.
-    Map<String, Object> repositoryMap =
-            applicationContext.getBeansWithAnnotation(JaversSpringDataAuditable.class);
-
-    // For each one...
-    for (Object object : repositoryMap.values()) {
-      if (object instanceof BaseAuditableRepository) {
-        createSnapshots((BaseAuditableRepository<?, ?>) object);
-      } else {
-        LOGGER.warn("The repository should implement findAllWithoutSnapshots method"
-            + "from BaseAuditableRepository with appropriate query");
+    // Get all JaVers repositories, including the ones audited through the audit outbox.
+    Map<String, Object> repositoryMap = new LinkedHashMap<>(
+        applicationContext.getBeansWithAnnotation(JaversSpringDataAuditable.class));
+    repositoryMap.putAll(applicationContext.getBeansOfType(BaseAuditableRepository.class));
+
+    referencedCatalogs.forEach(this::commitAll);
+
+    ExecutorService executor = Executors.newFixedThreadPool(workers);
+    try {
+      // For each one...
+      for (Map.Entry<String, Object> entry : repositoryMap.entrySet()) {
+        if (entry.getValue() instanceof BaseAuditableRepository) {
+          createSnapshots(executor, entry.getKey(),
+              (BaseAuditableRepository<?, ?>) entry.getValue());
+        } else {
+          LOGGER.warn("The repository should implement findAllWithoutSnapshots method"
+              + "from BaseAuditableRepository with appropriate query");
+        }
       }
+    } finally {
+      executor.shutdownNow();
     }
   }
 
-  private void createSnapshots(BaseAuditableRepository<?, ?> repository) {
-    Pageable pageable = PageRequest.of(DEFAULT_PAGE_NUMBER, 2000);
+  private void commitAll(JpaRepository<?, UUID> repository) {
+    int page = 0;
+    Page<?> batch;
+    do {
+      final Pageable pageable = PageRequest.of(page++, batchSize, Sort.by(BaseEntity.ID));
+      batch = transactionTemplate.execute(status -> {
+        Page<?> entities = repository.findAll(pageable);
+        entities.forEach(entity -> javers.commit(AUTHOR, entity));
+        return entities;
+      });
+    } while (batch.hasNext());
+  }
 
-    while (true) {
-      Page<?> page = repository.findAllWithoutSnapshots(pageable);
+  private void createSnapshots(ExecutorService executor, String repositoryName,
+      BaseAuditableRepository<?, ?> repository) {
+    List<Future<Integer>> results = new ArrayList<>();
+    for (int worker = 0; worker < workers; worker++) {
+      String checkpointName = repositoryName + ':' + worker + '/' + workers;
+      UUID fromId = new UUID((long) (worker * MAX_WORKERS / workers) << 56, 0);
+      UUID toId = new UUID(((long) ((worker + 1) * MAX_WORKERS / workers) << 56) - 1, -1L);
 
-      if (!page.hasContent()) {
-        break;
-      }
+      results.add(executor.submit(() ->
+          createSnapshots(checkpointName, repository, fromId, toId)));
+    }
+
+    int created = 0;
+    for (Future<Integer> result : results) {
+      created += getResult(result);
+    }
 
-      page.forEach(this::createSnapshot);
+    jdbcTemplate.update(DELETE_CHECKPOINTS,
+        new MapSqlParameterSource("prefix", repositoryName + ":%"));
+    LOGGER.info("Created {} snapshots of {}", created, repositoryName);
+  }
 
-      pageable = pageable.next();
+  private int createSnapshots(String checkpointName, BaseAuditableRepository<?, ?> repository,
+      UUID fromId, UUID toId) {
+    UUID nextId = jdbcTemplate.queryForList(SELECT_CHECKPOINT,
+        new MapSqlParameterSource(NAME, checkpointName), UUID.class)
+        .stream()
+        .findFirst()
+        .orElse(fromId);
+    int created = 0;
+
+    while (nextId != null) {
+      final UUID batchFromId = nextId;
+      List<?> batch = transactionTemplate.execute(status -> {
+        List<?> entities = repository.findAllWithoutSnapshots(batchFromId, toId, batchSize);
+        entities.forEach(entity -> javers.commit(AUTHOR, entity));
+
+        if (!entities.isEmpty()) {
+          saveCheckpoint(checkpointName, entities);
+        }
+        return entities;
+      });
+
+      created += batch.size();
+      boolean rangeDone = batch.size() < batchSize || lastId(batch).equals(toId);
+      nextId = rangeDone ? null : next(lastId(batch));
     }
+
+    return created;
   }
 
-  private void createSnapshot(Object object) {
-    // ...check whether there exists a snapshot for it in the audit log.
-    // Note that we don't care about checking for logged changes, per se,
-    // and thus use findSnapshots() rather than findChanges()
-    BaseEntity baseEntity = (BaseEntity) object;
-
-    QueryBuilder jqlQuery = QueryBuilder.byInstanceId(baseEntity.getId(), object.getClass());
-    List<CdoSnapshot> snapshots = javers.findSnapshots(jqlQuery.build());
-
-    // If there are no snapshots of the domain object, then take one
-    if (snapshots.isEmpty()) {
-      javers.commit("System: AuditLogInitializer", baseEntity);
-    } else {
-      LOGGER.info(MessageKeys.ERROR_JAVERS_EXISTING_ENTRY,
-          baseEntity.getClass(), baseEntity.getId());
+  private void saveCheckpoint(String checkpointName, List<?> entities) {
+    jdbcTemplate.update(SAVE_CHECKPOINT, new MapSqlParameterSource(NAME, checkpointName)
+        .addValue("nextId", next(lastId(entities))));
+  }
+
+  private int getResult(Future<Integer> result) {
+    try {
+      return result.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(ex);
+    } catch (ExecutionException ex) {
+      throw new IllegalStateException("Could not create the initial snapshots", ex.getCause());
     }
   }
 
+  private static UUID lastId(List<?> entities) {
+    return ((BaseEntity) entities.get(entities.size() - 1)).getId();
+  }
+
+  /*
+    Returns the id that follows the given one in the order of the database, in which UUIDs are
+    compared as unsigned numbers.
+  */
+  static UUID next(UUID id) {
+    long leastSignificantBits = id.getLeastSignificantBits() + 1;
+    long mostSignificantBits = leastSignificantBits == 0
+        ? id.getMostSignificantBits() + 1
+        : id.getMostSignificantBits();
+    return new UUID(mostSignificantBits, leastSignificantBits);
+  }
+
 }
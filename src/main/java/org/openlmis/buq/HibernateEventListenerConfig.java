@@ -0,0 +1,56 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+
+package org.openlmis.buq;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManagerFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.openlmis.buq.service.audit.BottomUpQuantificationAuditEventListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Registers the application's Hibernate event listeners, so that domain classes do not need to
+ * refer to them.
+ */
+@Configuration
+public class HibernateEventListenerConfig {
+
+  @Autowired
+  private EntityManagerFactory entityManagerFactory;
+
+  @Autowired
+  private BottomUpQuantificationAuditEventListener auditEventListener;
+
+  /**
+   * Appends the listeners to the event listener registry of the session factory.
+   */
+  @PostConstruct
+  public void registerListeners() {
+    EventListenerRegistry registry = entityManagerFactory
+        .unwrap(SessionFactoryImplementor.class)
+        .getServiceRegistry()
+        .getService(EventListenerRegistry.class);
+
+    registry.appendListeners(EventType.POST_INSERT, auditEventListener);
+    registry.appendListeners(EventType.POST_UPDATE, auditEventListener);
+    registry.appendListeners(EventType.POST_DELETE, auditEventListener);
+  }
+
+}
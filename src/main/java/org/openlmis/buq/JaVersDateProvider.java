@@ -34,8 +34,28 @@ public class JaVersDateProvider implements DateProvider {
   public static final DateTimeZone DATE_TIME_ZONE = DateTimeZone.UTC;
   public static final ZoneId ZONE_ID = ZoneId.of(DATE_TIME_ZONE.getID());
 
+  private static final ThreadLocal<LocalDateTime> COMMIT_DATE = new ThreadLocal<>();
+
+  /**
+   * Returns the commit date set by {@link #withCommitDate}, if any, or the current time.
+   */
   public LocalDateTime now() {
-    return LocalDateTime.now(DATE_TIME_ZONE);
+    LocalDateTime commitDate = COMMIT_DATE.get();
+    return null == commitDate ? LocalDateTime.now(DATE_TIME_ZONE) : commitDate;
+  }
+
+  /**
+   * Runs the given action, typically a JaVers commit, with the commit date set to the given
+   * date on the current thread. It is used to commit changes that were recorded earlier with
+   * the date they were made.
+   */
+  public static void withCommitDate(ZonedDateTime commitDate, Runnable action) {
+    COMMIT_DATE.set(new LocalDateTime(commitDate.toInstant().toEpochMilli(), DATE_TIME_ZONE));
+    try {
+      action.run();
+    } finally {
+      COMMIT_DATE.remove();
+    }
   }
 
   /**
@@ -0,0 +1,152 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.datasource;
+
+import io.micrometer.core.instrument.Metrics;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletRequest;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.servlet.HandlerMapping;
+
+/**
+ * Data source that measures how long every connection is held, i.e. the time between its
+ * acquisition and its close. The hold time is recorded in the {@value #TIMER_NAME} timer, tagged
+ * with the endpoint that acquired the connection, and connections held longer than the given
+ * threshold are logged as warnings.
+ */
+public class ConnectionHoldTimeDataSource extends DelegatingDataSource {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionHoldTimeDataSource.class);
+
+  public static final String TIMER_NAME = "buq.db.connection.hold";
+  public static final String ENDPOINT_TAG = "endpoint";
+
+  static final String BACKGROUND_ENDPOINT = "background";
+  static final String UNMAPPED_ENDPOINT = "unmapped";
+
+  private final long warnThreshold;
+
+  /**
+   * Creates a new data source wrapping the given one.
+   *
+   * @param targetDataSource data source to be measured.
+   * @param warnThreshold hold time in milliseconds, above which a warning is logged.
+   */
+  public ConnectionHoldTimeDataSource(DataSource targetDataSource, long warnThreshold) {
+    super(targetDataSource);
+    this.warnThreshold = warnThreshold;
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    return measure(obtainTargetDataSource().getConnection());
+  }
+
+  @Override
+  public Connection getConnection(String username, String password) throws SQLException {
+    return measure(obtainTargetDataSource().getConnection(username, password));
+  }
+
+  private Connection measure(Connection connection) {
+    return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+        new Class<?>[]{Connection.class},
+        new HoldTimeInvocationHandler(connection, getCurrentEndpoint()));
+  }
+
+  /**
+   * Returns the endpoint of the current request as the request method and the matched path
+   * pattern, so that requests to the same endpoint are grouped regardless of path variables.
+   */
+  static String getCurrentEndpoint() {
+    RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+    if (!(attributes instanceof ServletRequestAttributes)) {
+      return BACKGROUND_ENDPOINT;
+    }
+
+    HttpServletRequest request = ((ServletRequestAttributes) attributes).getRequest();
+    Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+    return null == pattern
+        ? UNMAPPED_ENDPOINT
+        : request.getMethod() + " " + pattern;
+  }
+
+  private void record(String endpoint, long holdTimeNanos) {
+    Metrics.timer(TIMER_NAME, ENDPOINT_TAG, endpoint)
+        .record(holdTimeNanos, TimeUnit.NANOSECONDS);
+
+    long holdTimeMillis = TimeUnit.NANOSECONDS.toMillis(holdTimeNanos);
+    if (holdTimeMillis > warnThreshold) {
+      LOGGER.warn("Database connection held for {} ms by {}", holdTimeMillis, endpoint);
+    } else {
+      LOGGER.debug("Database connection held for {} ms by {}", holdTimeMillis, endpoint);
+    }
+  }
+
+  private final class HoldTimeInvocationHandler implements InvocationHandler {
+
+    private final Connection target;
+    private final String endpoint;
+    private final long acquiredAt = System.nanoTime();
+    private boolean closed;
+
+    private HoldTimeInvocationHandler(Connection target, String endpoint) {
+      this.target = target;
+      this.endpoint = endpoint;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      switch (method.getName()) {
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "unwrap":
+          Class<?> type = (Class<?>) args[0];
+          return type.isInstance(proxy) ? proxy : target.unwrap(type);
+        case "isWrapperFor":
+          Class<?> iface = (Class<?>) args[0];
+          return iface.isInstance(proxy) || target.isWrapperFor(iface);
+        default:
+          break;
+      }
+
+      try {
+        return method.invoke(target, args);
+      } catch (InvocationTargetException ex) {
+        throw ex.getTargetException();
+      } finally {
+        if ("close".equals(method.getName()) && !closed) {
+          closed = true;
+          record(endpoint, System.nanoTime() - acquiredAt);
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.datasource;
+
+import javax.sql.DataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.core.Ordered;
+import org.springframework.stereotype.Component;
+
+/**
+ * Wraps the data sources of the application, so that the time every database connection is
+ * held is measured. See {@link ConnectionHoldTimeDataSource}. It runs before other data source
+ * post processors, so that physical connections are measured.
+ */
+@Component
+public class ConnectionHoldTimeDataSourcePostProcessor implements BeanPostProcessor, Ordered {
+
+  @Value("${connectionHoldTime.warnThreshold}")
+  private long warnThreshold;
+
+  @Override
+  public Object postProcessAfterInitialization(Object bean, String beanName) {
+    if (bean instanceof DataSource && !(bean instanceof ConnectionHoldTimeDataSource)) {
+      return new ConnectionHoldTimeDataSource((DataSource) bean, warnThreshold);
+    }
+
+    return bean;
+  }
+
+  @Override
+  public int getOrder() {
+    return Ordered.HIGHEST_PRECEDENCE;
+  }
+
+}
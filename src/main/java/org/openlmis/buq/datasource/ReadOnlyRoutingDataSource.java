@@ -0,0 +1,116 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.datasource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Data source that sends the connections of read-only transactions to the replica database and
+ * all others to the primary one. If a connection to the replica cannot be obtained, the primary
+ * database is used instead, and the replica is not tried again for the given retry delay. This
+ * way a replica that is down costs a single connection timeout per retry delay, not one per
+ * read-only transaction.
+ *
+ * <p>The routing is decided when a connection is obtained, so this data source has to be wrapped
+ * in a {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy}: the transaction
+ * manager obtains a connection before it marks the transaction as read-only.
+ */
+public class ReadOnlyRoutingDataSource extends AbstractRoutingDataSource {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ReadOnlyRoutingDataSource.class);
+
+  enum Route {
+    PRIMARY, REPLICA
+  }
+
+  private final DataSource primaryDataSource;
+  private final long retryDelay;
+  private final Clock clock;
+
+  private volatile Instant replicaUnavailableUntil = Instant.MIN;
+
+  /**
+   * Creates a new data source routing between the given ones.
+   *
+   * @param primaryDataSource data source of the primary database.
+   * @param replicaDataSource data source of the replica database.
+   * @param retryDelay time in milliseconds the replica is not used for after a failed attempt
+   *                   to connect to it.
+   * @param clock clock used to measure the retry delay.
+   */
+  public ReadOnlyRoutingDataSource(DataSource primaryDataSource, DataSource replicaDataSource,
+      long retryDelay, Clock clock) {
+    this.primaryDataSource = primaryDataSource;
+    this.retryDelay = retryDelay;
+    this.clock = clock;
+
+    Map<Object, Object> targetDataSources = new HashMap<>();
+    targetDataSources.put(Route.PRIMARY, primaryDataSource);
+    targetDataSources.put(Route.REPLICA, replicaDataSource);
+    setTargetDataSources(targetDataSources);
+    setDefaultTargetDataSource(primaryDataSource);
+    afterPropertiesSet();
+  }
+
+  @Override
+  protected Object determineCurrentLookupKey() {
+    return TransactionSynchronizationManager.isCurrentTransactionReadOnly()
+        && !clock.instant().isBefore(replicaUnavailableUntil)
+        ? Route.REPLICA
+        : Route.PRIMARY;
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    try {
+      return super.getConnection();
+    } catch (SQLException ex) {
+      fallBackToPrimary(ex);
+      return primaryDataSource.getConnection();
+    }
+  }
+
+  @Override
+  public Connection getConnection(String username, String password) throws SQLException {
+    try {
+      return super.getConnection(username, password);
+    } catch (SQLException ex) {
+      fallBackToPrimary(ex);
+      return primaryDataSource.getConnection(username, password);
+    }
+  }
+
+  private void fallBackToPrimary(SQLException ex) throws SQLException {
+    if (Route.PRIMARY == determineCurrentLookupKey()) {
+      throw ex;
+    }
+
+    replicaUnavailableUntil = clock.instant().plusMillis(retryDelay);
+    LOGGER.warn("Could not connect to the replica database, using the primary one instead"
+        + " until {}", replicaUnavailableUntil, ex);
+  }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import java.time.Clock;
+import javax.sql.DataSource;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.core.Ordered;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.stereotype.Component;
+
+/**
+ * Routes the read-only transactions of the application to the replica database, if its URL is
+ * configured. The data source of the application is wrapped in a
+ * {@link ReadOnlyRoutingDataSource}, after it has been wrapped by the
+ * {@link ConnectionHoldTimeDataSourcePostProcessor}. Without a replica URL, all transactions use
+ * the primary database. The connection pool of the replica is created by this post processor,
+ * so it is closed by it as well when the application context is closed.
+ */
+@Component
+public class ReplicaDataSourcePostProcessor implements BeanPostProcessor, Ordered,
+    DisposableBean {
+
+  private static final Logger LOGGER =
+      LoggerFactory.getLogger(ReplicaDataSourcePostProcessor.class);
+
+  static final String POOL_NAME = "buq-replica";
+
+  // The same parameters as in the URL of the primary database
+  static final String URL_PARAMETERS = "?stringtype=unspecified";
+
+  @Value("${datasource.replica.url}")
+  private String url;
+
+  @Value("${datasource.replica.username}")
+  private String username;
+
+  @Value("${datasource.replica.password}")
+  private String password;
+
+  @Value("${datasource.replica.connectionTimeout}")
+  private long connectionTimeout;
+
+  @Value("${datasource.replica.retryDelay}")
+  private long retryDelay;
+
+  @Value("${spring.datasource.driver-class-name}")
+  private String driverClassName;
+
+  @Value("${connectionHoldTime.warnThreshold}")
+  private long warnThreshold;
+
+  private HikariDataSource replicaDataSource;
+
+  @Override
+  public Object postProcessAfterInitialization(Object bean, String beanName) {
+    if (!(bean instanceof DataSource) || bean instanceof LazyConnectionDataSourceProxy
+        || StringUtils.isBlank(url)) {
+      return bean;
+    }
+
+    LOGGER.info("Read-only transactions are routed to the replica database");
+    replicaDataSource = createReplicaDataSource();
+
+    return new LazyConnectionDataSourceProxy(new ReadOnlyRoutingDataSource((DataSource) bean,
+        new ConnectionHoldTimeDataSource(replicaDataSource, warnThreshold), retryDelay,
+        Clock.systemUTC()));
+  }
+
+  @Override
+  public void destroy() {
+    if (null != replicaDataSource) {
+      replicaDataSource.close();
+    }
+  }
+
+  @Override
+  public int getOrder() {
+    return Ordered.LOWEST_PRECEDENCE;
+  }
+
+  private HikariDataSource createReplicaDataSource() {
+    HikariDataSource dataSource = new HikariDataSource();
+    dataSource.setPoolName(POOL_NAME);
+    dataSource.setJdbcUrl(url + URL_PARAMETERS);
+    dataSource.setUsername(username);
+    dataSource.setPassword(password);
+    dataSource.setDriverClassName(driverClassName);
+    dataSource.setReadOnly(true);
+    dataSource.setConnectionTimeout(connectionTimeout);
+    // Do not fail on startup if the replica is not available yet
+    dataSource.setInitializationFailTimeout(-1);
+    return dataSource;
+  }
+
+}
@@ -33,6 +33,7 @@ public abstract class BaseEntity {
 
   private static final String UUID_TYPE = "pg-uuid";
 
+  public static final String ID = "id";
   public static final String CREATED_DATE = "createdDate";
 
   @Id
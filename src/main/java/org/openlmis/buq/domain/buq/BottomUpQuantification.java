@@ -17,9 +17,12 @@ package org.openlmis.buq.domain.buq;
 
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import javax.persistence.CascadeType;
 import javax.persistence.Entity;
@@ -143,49 +146,46 @@ public class BottomUpQuantification extends BaseTimestampedEntity {
   }
 
   /**
-   * Copy values of attributes into new or updated BottomUpQuantification.
+   * Copy values of attributes into new or updated BottomUpQuantification. Existing line items
+   * are matched with the given ones by id: matched items are updated, unmatched existing items
+   * are removed and the remaining given items are added. The given items are indexed by id, so
+   * the merge takes linear time in the number of line items.
    *
    * @param lineItems list of bottom-up quantification line items.
    */
   public void updateFrom(List<BottomUpQuantificationLineItem> lineItems) {
     if (lineItems != null) {
-      final List<BottomUpQuantificationLineItem> newItems = new ArrayList<>(lineItems);
-      final List<BottomUpQuantificationLineItem> removedItems = new ArrayList<>();
+      final Map<UUID, BottomUpQuantificationLineItem> itemsById = new HashMap<>();
+      for (BottomUpQuantificationLineItem item : lineItems) {
+        if (item.getId() != null) {
+          itemsById.putIfAbsent(item.getId(), item);
+        }
+      }
 
-      for (BottomUpQuantificationLineItem existingItem : bottomUpQuantificationLineItems) {
-        final Optional<BottomUpQuantificationLineItem> updatedItemOpt =
-                removeSameItem(existingItem, newItems);
+      final Set<BottomUpQuantificationLineItem> updatedItems =
+          Collections.newSetFromMap(new IdentityHashMap<>());
+      bottomUpQuantificationLineItems.removeIf(existingItem -> {
+        final BottomUpQuantificationLineItem updatedItem =
+            itemsById.remove(existingItem.getId());
 
-        if (updatedItemOpt.isPresent()) {
-          existingItem.updateFrom(updatedItemOpt.get());
-        } else {
-          removedItems.add(existingItem);
+        if (updatedItem == null) {
+          return true;
         }
-      }
 
-      bottomUpQuantificationLineItems.addAll(newItems);
-      bottomUpQuantificationLineItems.removeAll(removedItems);
-    }
-    setModifiedDate(ZonedDateTime.now());
-  }
+        existingItem.updateFrom(updatedItem);
+        updatedItems.add(updatedItem);
+        return false;
+      });
 
-  private Optional<BottomUpQuantificationLineItem> removeSameItem(
-      BottomUpQuantificationLineItem item,
-      List<BottomUpQuantificationLineItem> items) {
-    final Iterator<BottomUpQuantificationLineItem> updatedItemIterator =
-            items.iterator();
-    while (updatedItemIterator.hasNext()) {
-      final BottomUpQuantificationLineItem updatedItem = updatedItemIterator.next();
-
-      if (item.getId().equals(updatedItem.getId())) {
-        updatedItemIterator.remove();
-        return Optional.of(updatedItem);
+      for (BottomUpQuantificationLineItem item : lineItems) {
+        if (!updatedItems.contains(item)) {
+          bottomUpQuantificationLineItems.add(item);
+        }
       }
     }
-    return Optional.empty();
+    setModifiedDate(ZonedDateTime.now());
   }
 
-
   /**
    * Check if the bottom-up quantification is post-submitted.
    *
@@ -0,0 +1,73 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.domain.buq;
+
+import java.time.ZonedDateTime;
+import java.util.UUID;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+import org.hibernate.annotations.Immutable;
+import org.hibernate.annotations.Type;
+
+/**
+ * Denormalized row of the approval inbox. The bottom_up_quantification_approval_inbox table is
+ * maintained by database triggers and holds every bottom-up quantification that waits for an
+ * approval at a supervisory node, together with the date it was authorized.
+ */
+@Entity
+@Immutable
+@Table(name = "bottom_up_quantification_approval_inbox")
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@EqualsAndHashCode
+@ToString
+public class BottomUpQuantificationApprovalInboxEntry {
+
+  public static final String BOTTOM_UP_QUANTIFICATION_ID = "bottomUpQuantificationId";
+  public static final String PROGRAM_ID = "programId";
+  public static final String SUPERVISORY_NODE_ID = "supervisoryNodeId";
+  public static final String AUTHORIZED_DATE = "authorizedDate";
+
+  @Id
+  @Type(type = "pg-uuid")
+  private UUID bottomUpQuantificationId;
+
+  @Type(type = "pg-uuid")
+  private UUID programId;
+
+  @Type(type = "pg-uuid")
+  private UUID supervisoryNodeId;
+
+  @Type(type = "pg-uuid")
+  private UUID facilityId;
+
+  @Enumerated(EnumType.STRING)
+  private BottomUpQuantificationStatus status;
+
+  @Column(columnDefinition = "timestamp with time zone")
+  private ZonedDateTime authorizedDate;
+
+}
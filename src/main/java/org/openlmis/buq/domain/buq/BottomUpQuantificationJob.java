@@ -0,0 +1,122 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.domain.buq;
+
+import java.time.ZonedDateTime;
+import java.util.UUID;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Table;
+import javax.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import org.openlmis.buq.domain.BaseTimestampedEntity;
+
+/**
+ * Tracks a long-running operation on bottom-up quantifications that is run in the background.
+ * The serialized result of a completed job is stored next to it, so that it can be downloaded
+ * many times; it is not mapped here to keep polling the job cheap. Jobs which work through a
+ * known number of items, like the facilities of a batch prepare, record their progress.
+ */
+@Entity
+@Getter
+@Setter
+@Table(name = "bottom_up_quantification_jobs")
+@NoArgsConstructor
+@AllArgsConstructor
+@EqualsAndHashCode(callSuper = true)
+@ToString(callSuper = true)
+public class BottomUpQuantificationJob extends BaseTimestampedEntity {
+
+  @NotNull
+  @Enumerated(EnumType.STRING)
+  private BottomUpQuantificationJobType type;
+
+  @NotNull
+  @Enumerated(EnumType.STRING)
+  private BottomUpQuantificationJobStatus status;
+
+  @NotNull
+  private UUID requestedById;
+
+  private String parameters;
+
+  private String errorMessage;
+
+  private Integer totalItems;
+
+  private int completedItems;
+
+  private int skippedItems;
+
+  /**
+   * Creates a new, pending job.
+   */
+  public static BottomUpQuantificationJob newInstance(BottomUpQuantificationJobType type,
+      String parameters, UUID requestedById) {
+    BottomUpQuantificationJob job = new BottomUpQuantificationJob();
+    job.setType(type);
+    job.setParameters(parameters);
+    job.setRequestedById(requestedById);
+    job.setStatus(BottomUpQuantificationJobStatus.PENDING);
+
+    return job;
+  }
+
+  /**
+   * Exports data to the exporter.
+   */
+  public void export(Exporter exporter) {
+    exporter.setId(getId());
+    exporter.setType(type);
+    exporter.setStatus(status);
+    exporter.setRequestedById(requestedById);
+    exporter.setErrorMessage(errorMessage);
+    exporter.setTotalItems(totalItems);
+    exporter.setCompletedItems(completedItems);
+    exporter.setSkippedItems(skippedItems);
+    exporter.setCreatedDate(getCreatedDate());
+    exporter.setModifiedDate(getModifiedDate());
+  }
+
+  public interface Exporter extends BaseTimestampedExporter {
+
+    void setType(BottomUpQuantificationJobType type);
+
+    void setStatus(BottomUpQuantificationJobStatus status);
+
+    void setRequestedById(UUID requestedById);
+
+    void setErrorMessage(String errorMessage);
+
+    void setTotalItems(Integer totalItems);
+
+    void setCompletedItems(int completedItems);
+
+    void setSkippedItems(int skippedItems);
+
+    void setCreatedDate(ZonedDateTime createdDate);
+
+    void setModifiedDate(ZonedDateTime modifiedDate);
+
+  }
+
+}
@@ -0,0 +1,55 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.dto.buq;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import org.openlmis.buq.i18n.MessageService;
+import org.openlmis.buq.service.buq.BottomUpQuantificationBulkApprovalResult;
+import org.openlmis.buq.util.Message;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@EqualsAndHashCode
+@ToString
+public final class BottomUpQuantificationBulkApprovalResultDto {
+
+  private List<UUID> approvedIds;
+
+  private Map<UUID, Message.LocalizedMessage> failures;
+
+  /**
+   * Creates new instance based on the given result, with the failure reasons localized.
+   */
+  public static BottomUpQuantificationBulkApprovalResultDto newInstance(
+      BottomUpQuantificationBulkApprovalResult result, MessageService messageService) {
+    Map<UUID, Message.LocalizedMessage> failures = new LinkedHashMap<>();
+    result.getFailures().forEach((id, reason) -> failures.put(id, messageService.localize(reason)));
+
+    return new BottomUpQuantificationBulkApprovalResultDto(result.getApprovedIds(), failures);
+  }
+
+}
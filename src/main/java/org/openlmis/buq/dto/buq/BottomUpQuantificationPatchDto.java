@@ -0,0 +1,48 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.dto.buq;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * Partial update of a bottom-up quantification. Only the line items that have changed are
+ * given, each identified by the id of an existing line item and carrying all its values.
+ * Funding details are updated only if given.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public final class BottomUpQuantificationPatchDto {
+
+  private List<BottomUpQuantificationLineItemDto> bottomUpQuantificationLineItems;
+
+  private BottomUpQuantificationFundingDetailsDto fundingDetails;
+
+  public List<BottomUpQuantificationLineItemDto> getBottomUpQuantificationLineItems() {
+    return Optional.ofNullable(bottomUpQuantificationLineItems)
+        .orElse(Collections.emptyList());
+  }
+
+}
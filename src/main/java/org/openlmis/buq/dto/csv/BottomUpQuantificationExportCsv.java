@@ -0,0 +1,62 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.dto.csv;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import java.math.BigDecimal;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+@JsonPropertyOrder({
+    "Facility Code",
+    "Facility Name",
+    "Product Code",
+    "Product Name",
+    "Annual Adjusted Consumption",
+    "Verified Annual Adjusted Consumption",
+    "Forecasted Demand",
+    "Total Cost"
+})
+@Getter
+@RequiredArgsConstructor
+public class BottomUpQuantificationExportCsv {
+
+  @JsonProperty("Facility Code")
+  private final String facilityCode;
+
+  @JsonProperty("Facility Name")
+  private final String facilityName;
+
+  @JsonProperty("Product Code")
+  private final String productCode;
+
+  @JsonProperty("Product Name")
+  private final String productName;
+
+  @JsonProperty("Annual Adjusted Consumption")
+  private final Integer annualAdjustedConsumption;
+
+  @JsonProperty("Verified Annual Adjusted Consumption")
+  private final Integer verifiedAnnualAdjustedConsumption;
+
+  @JsonProperty("Forecasted Demand")
+  private final Integer forecastedDemand;
+
+  @JsonProperty("Total Cost")
+  private final BigDecimal totalCost;
+
+}
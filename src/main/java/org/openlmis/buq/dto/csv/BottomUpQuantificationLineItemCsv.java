@@ -15,10 +15,10 @@
 
 package org.openlmis.buq.dto.csv;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import lombok.Getter;
-import lombok.RequiredArgsConstructor;
 
 @JsonPropertyOrder({
     "Product Code",
@@ -27,7 +27,6 @@ import lombok.RequiredArgsConstructor;
     "Adjusted Consumption (in Packs)"
 })
 @Getter
-@RequiredArgsConstructor
 public class BottomUpQuantificationLineItemCsv {
 
   @JsonProperty("Product Code")
@@ -40,6 +39,21 @@ public class BottomUpQuantificationLineItemCsv {
   private final long unitOfMeasure;
 
   @JsonProperty("Adjusted Consumption (in Packs)")
-  private final int adjustedConsumptionInPacks;
+  private final Integer adjustedConsumptionInPacks;
+
+  /**
+   * Creates a new row of the preparation form. Used both to download and to upload the form.
+   */
+  @JsonCreator
+  public BottomUpQuantificationLineItemCsv(
+      @JsonProperty("Product Code") String productCode,
+      @JsonProperty("Product Name") String productName,
+      @JsonProperty("Unit of measure") long unitOfMeasure,
+      @JsonProperty("Adjusted Consumption (in Packs)") Integer adjustedConsumptionInPacks) {
+    this.productCode = productCode;
+    this.productName = productName;
+    this.unitOfMeasure = unitOfMeasure;
+    this.adjustedConsumptionInPacks = adjustedConsumptionInPacks;
+  }
 
 }
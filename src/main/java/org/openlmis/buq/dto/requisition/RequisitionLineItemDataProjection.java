@@ -15,9 +15,11 @@
 
 package org.openlmis.buq.dto.requisition;
 
+import java.util.UUID;
+
 public interface RequisitionLineItemDataProjection {
 
-  String getOrderableId();
+  UUID getOrderableId();
 
   Integer getAnnualAdjustedConsumption();
 
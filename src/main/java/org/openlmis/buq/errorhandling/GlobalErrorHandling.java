@@ -22,6 +22,7 @@ import org.openlmis.buq.exception.AuthenticationMessageException;
 import org.openlmis.buq.exception.ContentNotFoundMessageException;
 import org.openlmis.buq.exception.NotFoundException;
 import org.openlmis.buq.exception.PermissionMessageException;
+import org.openlmis.buq.exception.TooManyRequestsMessageException;
 import org.openlmis.buq.exception.ValidationMessageException;
 import org.openlmis.buq.i18n.MessageKeys;
 import org.openlmis.buq.service.DataRetrievalException;
@@ -135,4 +136,18 @@ public class GlobalErrorHandling extends AbstractErrorHandling {
   public Message.LocalizedMessage handlePermissionException(PermissionMessageException ex) {
     return getLocalizedMessage(ex);
   }
+
+  /**
+   * Handles Message exceptions and returns status 429 Too Many Requests.
+   *
+   * @param ex the TooManyRequestsMessageException to handle
+   * @return the error response for the user
+   */
+  @ExceptionHandler(TooManyRequestsMessageException.class)
+  @ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+  @ResponseBody
+  public Message.LocalizedMessage handleTooManyRequestsException(
+      TooManyRequestsMessageException ex) {
+    return getLocalizedMessage(ex);
+  }
 }
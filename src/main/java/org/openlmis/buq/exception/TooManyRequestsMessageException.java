@@ -13,19 +13,22 @@
  * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
  */
 
-package org.openlmis.buq.util;
 
-import java.util.Comparator;
-import org.openlmis.buq.domain.buq.BottomUpQuantificationStatusChange;
+package org.openlmis.buq.exception;
+
+import org.openlmis.buq.util.Message;
 
 /**
- * Sorts BottomUpQuantificationStatusChange List by the occured date desc.
- * (from the latest to the oldest).
+ * Exception for indicating that the service is too busy to accept the request.  This should
+ * result in a TOO MANY REQUESTS api response.
  */
-public class BottomUpQuantificationStatusChangeComparatorByDate
-        implements Comparator<BottomUpQuantificationStatusChange> {
-  @Override
-  public int compare(BottomUpQuantificationStatusChange o1, BottomUpQuantificationStatusChange o2) {
-    return o2.getOccurredDate().compareTo(o1.getOccurredDate());
+public class TooManyRequestsMessageException extends BaseMessageException {
+
+  public TooManyRequestsMessageException(Message message) {
+    super(message);
+  }
+
+  public TooManyRequestsMessageException(Message message, Throwable cause) {
+    super(message, cause);
   }
 }
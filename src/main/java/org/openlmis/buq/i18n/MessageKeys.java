@@ -47,6 +47,7 @@ public abstract class MessageKeys {
   private static final String BOOLEAN = "boolean";
   private static final String USER = "user";
   private static final String PRODUCT_GROUP = "productGroup";
+  private static final String SUPERVISORY_NODE = "supervisoryNode";
 
   private static final String MISMATCH = "mismatch";
   private static final String NOT_FOUND = "notFound";
@@ -56,13 +57,18 @@ public abstract class MessageKeys {
   private static final String AUTHENTICATION = "authentication";
   private static final String FORMAT = "format";
   private static final String PREPARE = "prepare";
+  private static final String BATCH = "batch";
   private static final String SUBMIT = "submit";
   private static final String AUTHORIZE = "authorize";
   private static final String REJECT = "reject";
   private static final String APPROVE = "approve";
+  private static final String FINAL_APPROVE = "finalApprove";
   private static final String PERIOD_FACILITY_UNIQUE = "periodAndFacilityUnique";
   private static final String AND = "and";
   private static final String RIGHT = "right";
+  private static final String UPLOAD = "upload";
+  private static final String PRODUCT_CODE = "productCode";
+  private static final String JOB = "job";
 
   private static final String ERROR_PREFIX = join(SERVICE_PREFIX, ERROR);
 
@@ -87,10 +93,22 @@ public abstract class MessageKeys {
   public static final String ERROR_SERVICE_OCCURRED = join(ERROR_PREFIX, SERVICE, "errorOccurred");
   public static final String ERROR_PREPARE_MISSING_PARAMETERS = join(ERROR_PREFIX, PREPARE,
       "missingParameters");
+  public static final String ERROR_PREPARE_BATCH_INVALID_FACILITY_SELECTION = join(ERROR_PREFIX,
+      PREPARE, BATCH, "invalidFacilitySelection");
+  public static final String ERROR_JOB_NOT_FOUND = join(ERROR_PREFIX, JOB, NOT_FOUND);
+  public static final String ERROR_JOB_REJECTED = join(ERROR_PREFIX, JOB, "rejected");
+  public static final String ERROR_JOB_RESULT_NOT_AVAILABLE = join(ERROR_PREFIX, JOB,
+      "resultNotAvailable");
+  public static final String ERROR_JOB_CANNOT_BE_CANCELLED = join(ERROR_PREFIX, JOB,
+      "cannotBeCancelled");
+  public static final String ERROR_JOB_FAILED = join(ERROR_PREFIX, JOB, "failed");
+  public static final String ERROR_JOB_ABANDONED = join(ERROR_PREFIX, JOB, "abandoned");
   public static final String ERROR_FACILITY_NOT_FOUND = join(ERROR_PREFIX, FACILITY, NOT_FOUND);
   public static final String ERROR_FACILITY_DOES_NOT_SUPPORT_PROGRAM = join(ERROR_PREFIX,
       FACILITY, "doesNotSupportProgram");
   public static final String ERROR_PROGRAM_NOT_FOUND = join(ERROR_PREFIX, PROGRAM, NOT_FOUND);
+  public static final String ERROR_SUPERVISORY_NODE_NOT_FOUND = join(ERROR_PREFIX,
+      SUPERVISORY_NODE, NOT_FOUND);
   public static final String ERROR_PROCESSING_PERIOD_NOT_FOUND = join(ERROR_PREFIX,
       PROCESSING_PERIOD, NOT_FOUND);
   public static final String ERROR_ORDERABLE_NOT_FOUND = join(ERROR_PREFIX, ORDERABLE, NOT_FOUND);
@@ -114,6 +132,11 @@ public abstract class MessageKeys {
   public static final String ERROR_MUST_BE_AUTHORIZED_IN_APPROVAL_OR_APPROVED_TO_BE_REJECTED =
           join(ERROR_PREFIX,
       REJECT, "mustBeAuthorizedInApprovalOrApprovedToBeRejected");
+  public static final String ERROR_APPROVE_FAILED = join(ERROR_PREFIX, APPROVE, "failed");
+  public static final String ERROR_MUST_BE_APPROVED_TO_BE_FINAL_APPROVED = join(ERROR_PREFIX,
+      FINAL_APPROVE, "mustBeApprovedToBeFinalApproved");
+  public static final String ERROR_FINAL_APPROVE_FAILED = join(ERROR_PREFIX, FINAL_APPROVE,
+      "failed");
   public static final String ERROR_SUPERVISORY_NODE_CANNOT_BE_NULL_TO_BE_AUTHORIZED = join(
       ERROR_PREFIX, AUTHORIZE, "supervisoryNodeCannotBeNull");
   public static final String ERROR_LINE_ITEM_FIELD_REQUIRED = join(ERROR_PREFIX, LINE_ITEM, FIELD,
@@ -122,6 +145,17 @@ public abstract class MessageKeys {
       LINE_ITEM, FIELD, "mustBeNonNegative");
   public static final String ERROR_LINE_ITEM_REMARK_REQUIRED = join(ERROR_PREFIX, LINE_ITEM, REMARK,
       REQUIRED);
+  public static final String ERROR_LINE_ITEM_NOT_FOUND = join(ERROR_PREFIX, LINE_ITEM, NOT_FOUND);
+  public static final String ERROR_UPLOAD_INVALID_FILE = join(ERROR_PREFIX, UPLOAD, INVALID,
+      "file");
+  public static final String ERROR_UPLOAD_PRODUCT_CODE_NOT_FOUND = join(ERROR_PREFIX, UPLOAD,
+      PRODUCT_CODE, NOT_FOUND);
+  public static final String ERROR_UPLOAD_PRODUCT_CODE_DUPLICATED = join(ERROR_PREFIX, UPLOAD,
+      PRODUCT_CODE, DUPLICATED);
+  public static final String ERROR_UPLOAD_LINE_ITEM_FIELD_REQUIRED = join(ERROR_PREFIX, UPLOAD,
+      LINE_ITEM, FIELD, REQUIRED);
+  public static final String ERROR_UPLOAD_LINE_ITEM_FIELD_MUST_BE_NON_NEGATIVE = join(ERROR_PREFIX,
+      UPLOAD, LINE_ITEM, FIELD, "mustBeNonNegative");
   public static final String ERROR_USER_HOME_FACILITY_AND_BUQ_FACILITY_MISMATCH =
       join(ERROR_PREFIX, USER, "home", FACILITY, AND, BOTTOM_UP_QUANTIFICATION, FACILITY,
           MISMATCH);
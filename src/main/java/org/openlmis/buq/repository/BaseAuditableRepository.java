@@ -16,8 +16,8 @@
 package org.openlmis.buq.repository;
 
 import java.io.Serializable;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.Pageable;
+import java.util.List;
+import java.util.UUID;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.repository.NoRepositoryBean;
 import org.springframework.data.repository.PagingAndSortingRepository;
@@ -32,8 +32,9 @@ public interface BaseAuditableRepository<T, I extends Serializable>
     extends JpaRepository<T, I> {
 
   /**
-   * Returns a {@link Page} of entities which there are no Javers logs created for.
+   * Returns up to the given number of entities, ordered by id, with ids between the given ones
+   * (both inclusive), which there are no Javers logs created for.
    */
-  Page<T> findAllWithoutSnapshots(Pageable pageable);
+  List<T> findAllWithoutSnapshots(UUID fromId, UUID toId, int batchSize);
 
 }
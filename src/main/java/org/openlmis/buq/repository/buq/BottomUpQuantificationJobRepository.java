@@ -0,0 +1,112 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.repository.buq;
+
+import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.UUID;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+/**
+ * Status transitions are conditional updates, so that a job cancelled on one service instance
+ * is never completed (or started) by another one.
+ */
+public interface BottomUpQuantificationJobRepository
+    extends JpaRepository<BottomUpQuantificationJob, UUID> {
+
+  @Modifying(clearAutomatically = true)
+  @Query(value = "UPDATE buq.bottom_up_quantification_jobs"
+      + " SET status = 'IN_PROGRESS', modifiedDate = NOW()"
+      + " WHERE id = :id AND status = 'PENDING'",
+      nativeQuery = true)
+  int start(@Param("id") UUID id);
+
+  @Modifying(clearAutomatically = true)
+  @Query(value = "UPDATE buq.bottom_up_quantification_jobs"
+      + " SET status = 'COMPLETED', result = :result, modifiedDate = NOW()"
+      + " WHERE id = :id AND status = 'IN_PROGRESS'",
+      nativeQuery = true)
+  int complete(@Param("id") UUID id, @Param("result") String result);
+
+  @Modifying(clearAutomatically = true)
+  @Query(value = "UPDATE buq.bottom_up_quantification_jobs"
+      + " SET status = 'FAILED', errorMessage = :errorMessage, modifiedDate = NOW()"
+      + " WHERE id = :id AND status IN ('PENDING', 'IN_PROGRESS')",
+      nativeQuery = true)
+  int fail(@Param("id") UUID id, @Param("errorMessage") String errorMessage);
+
+  @Modifying(clearAutomatically = true)
+  @Query(value = "UPDATE buq.bottom_up_quantification_jobs"
+      + " SET status = 'CANCELLED', modifiedDate = NOW()"
+      + " WHERE id = :id AND status IN ('PENDING', 'IN_PROGRESS')",
+      nativeQuery = true)
+  int cancel(@Param("id") UUID id);
+
+  /**
+   * Adds to the item counts of a running job and updates its modified date, to show that it is
+   * still making progress.
+   *
+   * @return 1 if the job is still in progress, 0 if it has been cancelled or marked as failed.
+   */
+  @Modifying(clearAutomatically = true)
+  @Query(value = "UPDATE buq.bottom_up_quantification_jobs"
+      + " SET completedItems = completedItems + :completedItems,"
+      + " skippedItems = skippedItems + :skippedItems, modifiedDate = NOW()"
+      + " WHERE id = :id AND status = 'IN_PROGRESS'",
+      nativeQuery = true)
+  int updateProgress(@Param("id") UUID id, @Param("completedItems") int completedItems,
+      @Param("skippedItems") int skippedItems);
+
+  /**
+   * Updates the modified date of the given unfinished jobs, so that jobs which are queued or
+   * running on a live service instance are not taken for stale ones.
+   *
+   * @return number of updated jobs.
+   */
+  @Modifying(clearAutomatically = true)
+  @Query(value = "UPDATE buq.bottom_up_quantification_jobs"
+      + " SET modifiedDate = NOW()"
+      + " WHERE id IN (:ids) AND status IN ('PENDING', 'IN_PROGRESS')",
+      nativeQuery = true)
+  int touch(@Param("ids") Collection<UUID> ids);
+
+  /**
+   * Marks unfinished jobs that have not been updated since the given date as failed. Such jobs
+   * were left behind by a service instance that stopped while running or queueing them.
+   *
+   * @return number of jobs marked as failed.
+   */
+  @Modifying(clearAutomatically = true)
+  @Query(value = "UPDATE buq.bottom_up_quantification_jobs"
+      + " SET status = 'FAILED', errorMessage = :errorMessage, modifiedDate = NOW()"
+      + " WHERE status IN ('PENDING', 'IN_PROGRESS') AND modifiedDate < :modifiedBefore",
+      nativeQuery = true)
+  int failStale(@Param("modifiedBefore") ZonedDateTime modifiedBefore,
+      @Param("errorMessage") String errorMessage);
+
+  @Query(value = "SELECT result FROM buq.bottom_up_quantification_jobs WHERE id = :id",
+      nativeQuery = true)
+  String findResultById(@Param("id") UUID id);
+
+  @Modifying
+  @Query("DELETE FROM BottomUpQuantificationJob j WHERE j.createdDate < :date")
+  int deleteByCreatedDateBefore(@Param("date") ZonedDateTime date);
+
+}
@@ -15,74 +15,69 @@
 
 package org.openlmis.buq.repository.buq;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
-import org.javers.spring.annotation.JaversSpringDataAuditable;
 import org.openlmis.buq.domain.buq.BottomUpQuantification;
-import org.openlmis.buq.dto.requisition.RequisitionLineItemDataProjection;
+import org.openlmis.buq.dto.buq.BottomUpQuantificationApprovalKeysProjection;
 import org.openlmis.buq.repository.BaseAuditableRepository;
 import org.openlmis.buq.repository.buq.custom.BottomUpQuantificationRepositoryCustom;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.PagingAndSortingRepository;
 import org.springframework.data.repository.query.Param;
 
-@JaversSpringDataAuditable
+/**
+ * Bottom-up quantifications are audited asynchronously, through
+ * {@link org.openlmis.buq.service.audit.AuditOutboxService}, instead of by the JaVers
+ * repository aspect.
+ */
 public interface BottomUpQuantificationRepository extends
     PagingAndSortingRepository<BottomUpQuantification, UUID>,
     BottomUpQuantificationRepositoryCustom,
     BaseAuditableRepository<BottomUpQuantification, UUID> {
 
-  @Query(
-      value = "SELECT\n"
-          + "  CAST(rli.orderableid AS VARCHAR) AS orderableId,\n"
-          + "  SUM(COALESCE(rli.adjustedconsumption, 0)) AS annualAdjustedConsumption,\n"
-          + "  o.netcontent AS netContent,\n"
-          + "  o.packroundingthreshold AS packRoundingThreshold,\n"
-          + "  o.roundtozero AS roundToZero\n"
-          + "FROM\n"
-          + "requisition.requisition_line_items rli\n"
-          + "  JOIN requisition.requisitions r ON rli.requisitionid = r.id\n"
-          + "  JOIN referencedata.processing_periods pp_considered ON pp_considered.id "
-          + "= :processingPeriodId\n"
-          + "  JOIN referencedata.processing_periods pp_requisition ON r.processingperiodid "
-          + "= pp_requisition.id\n"
-          + "  JOIN referencedata.orderables o ON rli.orderableid = o.id\n"
-          + "WHERE\n"
-          + "  r.facilityid = :facilityId\n"
-          + "  AND r.status IN ('APPROVED', 'RELEASED', 'RELEASED_WITHOUT_ORDER')\n"
-          + "  AND NOT r.emergency\n"
-          + "  AND (\n"
-          + "    pp_requisition.startdate >= pp_considered.startdate\n"
-          + "    AND pp_requisition.enddate <= pp_considered.enddate\n"
-          + "  )\n"
-          + "GROUP BY\n"
-          + "  rli.orderableid, o.netcontent, o.packroundingthreshold, o.roundtozero;\n",
-      nativeQuery = true
-  )
-  List<RequisitionLineItemDataProjection> getRequisitionLineItemsData(
-      @Param("facilityId") UUID facilityId, @Param("processingPeriodId") UUID processingPeriodId);
-
-  List<BottomUpQuantification> findByFacilityIdIn(List<UUID> facilityIds);
+  /**
+   * Retrieves the program, processing period, supervisory node and facility of the given
+   * bottom-up quantifications, which are needed to resolve the reference data of their
+   * authorization and approval, without loading the bottom-up quantifications themselves.
+   */
+  @Query("SELECT b.id AS id, b.programId AS programId,"
+      + " b.processingPeriodId AS processingPeriodId, b.supervisoryNodeId AS supervisoryNodeId,"
+      + " b.facilityId AS facilityId"
+      + " FROM BottomUpQuantification b"
+      + " WHERE b.id IN (:ids)")
+  List<BottomUpQuantificationApprovalKeysProjection> findApprovalKeysByIdIn(
+      @Param("ids") Collection<UUID> ids);
 
   @Query(value = "SELECT\n"
       + "    bs.*\n"
       + "FROM\n"
       + "    buq.bottom_up_quantifications bs\n"
       + "WHERE\n"
-      + "    id NOT IN (\n"
+      + "    bs.id >= :fromId\n"
+      + "    AND bs.id <= :toId\n"
+      + "    AND NOT EXISTS (\n"
       + "        SELECT\n"
-      + "            id\n"
+      + "            1\n"
       + "        FROM\n"
-      + "            buq.bottom_up_quantifications bs\n"
-      + "            INNER JOIN buq.jv_global_id g "
-      + "ON CAST(bs.id AS varchar) = SUBSTRING(g.local_id, 2, 36)\n"
-      + "            INNER JOIN buq.jv_snapshot s  ON g.global_id_pk = s.global_id_fk\n"
-      + "    )\n",
+      + "            buq.jv_global_id g\n"
+      + "            INNER JOIN buq.jv_snapshot s ON g.global_id_pk = s.global_id_fk\n"
+      + "        WHERE\n"
+      + "            g.local_id = '\"' || CAST(bs.id AS varchar) || '\"'\n"
+      + "    )\n"
+      + "ORDER BY\n"
+      + "    bs.id\n"
+      + "LIMIT :batchSize\n",
       nativeQuery = true)
-  Page<BottomUpQuantification> findAllWithoutSnapshots(Pageable pageable);
+  List<BottomUpQuantification> findAllWithoutSnapshots(@Param("fromId") UUID fromId,
+      @Param("toId") UUID toId, @Param("batchSize") int batchSize);
 
   boolean existsByFacilityIdAndProcessingPeriodId(
           UUID facilityId, UUID processingPeriodId);
+
+  @Query("SELECT b.facilityId FROM BottomUpQuantification b"
+      + " WHERE b.processingPeriodId = :processingPeriodId AND b.facilityId IN :facilityIds")
+  List<UUID> findFacilityIdsByProcessingPeriodId(
+      @Param("processingPeriodId") UUID processingPeriodId,
+      @Param("facilityIds") Collection<UUID> facilityIds);
 }
@@ -15,17 +15,41 @@
 
 package org.openlmis.buq.repository.buq;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 import org.openlmis.buq.domain.buq.BottomUpQuantificationStatusChange;
 import org.openlmis.buq.domain.buq.Rejection;
+import org.openlmis.buq.dto.buq.BottomUpQuantificationRejectionProjection;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 public interface RejectionRepository extends JpaRepository<Rejection, UUID> {
   Optional<Rejection> findByStatusChange(BottomUpQuantificationStatusChange statusChange);
 
   @Modifying
   void deleteByStatusChangeIdIn(List<UUID> statusChangeIds);
+
+  /**
+   * Retrieves the rejection of the most recent REJECTED status change of each of the given
+   * bottom-up quantifications, together with their rejection reasons. The bottom-up
+   * quantifications and their status changes are not loaded.
+   */
+  @Query("SELECT sc.bottomUpQuantification.id AS bottomUpQuantificationId, r AS rejection"
+      + " FROM Rejection r"
+      + " JOIN r.statusChange sc"
+      + " LEFT JOIN FETCH r.rejectionReasons"
+      + " WHERE sc.bottomUpQuantification.id IN (:ids)"
+      + " AND sc.status = org.openlmis.buq.domain.buq.BottomUpQuantificationStatus.REJECTED"
+      + " AND sc.occurredDate = ("
+      + "   SELECT MAX(latest.occurredDate)"
+      + "   FROM BottomUpQuantificationStatusChange latest"
+      + "   WHERE latest.bottomUpQuantification = sc.bottomUpQuantification"
+      + "   AND latest.status = org.openlmis.buq.domain.buq.BottomUpQuantificationStatus.REJECTED"
+      + " )")
+  List<BottomUpQuantificationRejectionProjection> findLatestByBottomUpQuantificationIdIn(
+      @Param("ids") Collection<UUID> bottomUpQuantificationIds);
 }
@@ -15,10 +15,17 @@
 
 package org.openlmis.buq.repository.buq.custom;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import org.apache.commons.lang3.tuple.Pair;
 import org.openlmis.buq.domain.buq.BottomUpQuantification;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationStatus;
+import org.openlmis.buq.dto.requisition.ConsumptionHistoryProjection;
+import org.openlmis.buq.dto.requisition.FacilityRequisitionLineItemDataProjection;
+import org.openlmis.buq.dto.requisition.RequisitionLineItemDataProjection;
 import org.openlmis.buq.repository.buq.BottomUpQuantificationSearchParams;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
@@ -36,4 +43,16 @@ public interface BottomUpQuantificationRepositoryCustom {
           Set<Pair<UUID, UUID>> programNodePairs,
           Pageable pageable
   );
+
+  Map<BottomUpQuantificationStatus, Long> countByStatus(Collection<UUID> facilityIds,
+      UUID programId, UUID processingPeriodId);
+
+  List<RequisitionLineItemDataProjection> getRequisitionLineItemsData(UUID facilityId,
+      UUID processingPeriodId);
+
+  List<FacilityRequisitionLineItemDataProjection> getRequisitionLineItemsData(
+      Collection<UUID> facilityIds, UUID processingPeriodId);
+
+  List<ConsumptionHistoryProjection> getConsumptionHistory(Collection<UUID> facilityIds,
+      UUID processingPeriodId, int historyMonths);
 }
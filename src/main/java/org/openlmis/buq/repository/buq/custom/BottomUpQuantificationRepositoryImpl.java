@@ -16,37 +16,50 @@
 package org.openlmis.buq.repository.buq.custom;
 
 import static org.openlmis.buq.domain.BaseEntity.CREATED_DATE;
+import static org.openlmis.buq.domain.BaseEntity.ID;
 import static org.openlmis.buq.domain.buq.BottomUpQuantification.FACILITY_ID;
 import static org.openlmis.buq.domain.buq.BottomUpQuantification.PROCESSING_PERIOD_ID;
 import static org.openlmis.buq.domain.buq.BottomUpQuantification.PROGRAM_ID;
 import static org.openlmis.buq.domain.buq.BottomUpQuantification.STATUS;
-import static org.openlmis.buq.domain.buq.BottomUpQuantification.STATUS_CHANGES;
 import static org.openlmis.buq.domain.buq.BottomUpQuantification.SUPERVISORY_NODE_ID;
-import static org.openlmis.buq.domain.buq.BottomUpQuantificationStatusChange.BOTTOM_UP_QUANTIFICATION;
-import static org.openlmis.buq.domain.buq.BottomUpQuantificationStatusChange.OCCURED_DATE;
+import static org.openlmis.buq.domain.buq.BottomUpQuantificationApprovalInboxEntry.AUTHORIZED_DATE;
+import static org.openlmis.buq.domain.buq.BottomUpQuantificationApprovalInboxEntry.BOTTOM_UP_QUANTIFICATION_ID;
 
+import com.google.common.collect.ImmutableMap;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import javax.persistence.Tuple;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
-import javax.persistence.criteria.JoinType;
-import javax.persistence.criteria.ListJoin;
 import javax.persistence.criteria.Order;
 import javax.persistence.criteria.Path;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
-import javax.persistence.criteria.Subquery;
 import org.apache.commons.lang3.tuple.Pair;
+import org.hibernate.query.NativeQuery;
+import org.hibernate.type.BooleanType;
+import org.hibernate.type.IntegerType;
+import org.hibernate.type.LocalDateType;
+import org.hibernate.type.LongType;
+import org.hibernate.type.PostgresUUIDType;
+import org.hibernate.type.Type;
 import org.openlmis.buq.domain.buq.BottomUpQuantification;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationApprovalInboxEntry;
 import org.openlmis.buq.domain.buq.BottomUpQuantificationStatus;
-import org.openlmis.buq.domain.buq.BottomUpQuantificationStatusChange;
+import org.openlmis.buq.dto.requisition.ConsumptionHistoryProjection;
+import org.openlmis.buq.dto.requisition.FacilityRequisitionLineItemDataProjection;
+import org.openlmis.buq.dto.requisition.RequisitionLineItemDataProjection;
 import org.openlmis.buq.repository.BaseCustomRepository;
 import org.openlmis.buq.repository.buq.BottomUpQuantificationSearchParams;
 import org.openlmis.buq.util.PageableUtil;
@@ -54,13 +67,123 @@ import org.openlmis.buq.util.Pagination;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.projection.ProjectionFactory;
+import org.springframework.data.projection.SpelAwareProxyProjectionFactory;
 
 @SuppressWarnings("PMD.TooManyMethods")
 public class BottomUpQuantificationRepositoryImpl
     extends BaseCustomRepository<BottomUpQuantification>
     implements BottomUpQuantificationRepositoryCustom {
 
-  private static final String AUTHORIZED_DATE = "authorizedDate";
+  /**
+   * Source of the consumption queries: buq.requisition_consumption_facts or, until the first
+   * refresh of the facts has completed, the same aggregation of the requisitions. The second part
+   * is skipped by a one-time filter once the facts are refreshed.
+   */
+  private static final String CONSUMPTION_FACTS = "(\n"
+      + "  SELECT facilityid, orderableid, periodstartdate, periodenddate, adjustedconsumption\n"
+      + "  FROM buq.requisition_consumption_facts\n"
+      + "  UNION ALL\n"
+      + "  SELECT r.facilityid, rli.orderableid, pp.startdate, pp.enddate,\n"
+      + "    SUM(COALESCE(rli.adjustedconsumption, 0))\n"
+      + "  FROM requisition.requisitions r\n"
+      + "    JOIN requisition.requisition_line_items rli ON rli.requisitionid = r.id\n"
+      + "    JOIN referencedata.processing_periods pp ON r.processingperiodid = pp.id\n"
+      + "  WHERE r.status IN ('APPROVED', 'RELEASED', 'RELEASED_WITHOUT_ORDER')\n"
+      + "    AND NOT r.emergency\n"
+      + "    AND NOT EXISTS (\n"
+      + "      SELECT 1 FROM buq.requisition_consumption_fact_refreshes\n"
+      + "      WHERE refresheddate IS NOT NULL\n"
+      + "    )\n"
+      + "  GROUP BY r.facilityid, r.processingperiodid, rli.orderableid, pp.startdate, "
+      + "pp.enddate\n"
+      + ") f\n";
+
+  private static final String REQUISITION_LINE_ITEMS_DATA = "SELECT\n"
+      + "  f.orderableid AS orderableId,\n"
+      + "  CAST(SUM(f.adjustedconsumption) AS BIGINT) AS annualAdjustedConsumption,\n"
+      + "  o.netcontent AS netContent,\n"
+      + "  o.packroundingthreshold AS packRoundingThreshold,\n"
+      + "  o.roundtozero AS roundToZero\n"
+      + "FROM\n"
+      + CONSUMPTION_FACTS
+      + "  JOIN referencedata.processing_periods pp_considered ON pp_considered.id "
+      + "= :processingPeriodId\n"
+      + "  JOIN referencedata.orderables o ON f.orderableid = o.id\n"
+      + "WHERE\n"
+      + "  f.facilityid = :facilityId\n"
+      + "  AND f.periodstartdate >= pp_considered.startdate\n"
+      + "  AND f.periodenddate <= pp_considered.enddate\n"
+      + "GROUP BY\n"
+      + "  f.orderableid, o.netcontent, o.packroundingthreshold, o.roundtozero;\n";
+
+  private static final String FACILITY_REQUISITION_LINE_ITEMS_DATA = "SELECT\n"
+      + "  f.facilityid AS facilityId,\n"
+      + "  f.orderableid AS orderableId,\n"
+      + "  CAST(SUM(f.adjustedconsumption) AS BIGINT) AS annualAdjustedConsumption,\n"
+      + "  o.netcontent AS netContent,\n"
+      + "  o.packroundingthreshold AS packRoundingThreshold,\n"
+      + "  o.roundtozero AS roundToZero\n"
+      + "FROM\n"
+      + CONSUMPTION_FACTS
+      + "  JOIN referencedata.processing_periods pp_considered ON pp_considered.id "
+      + "= :processingPeriodId\n"
+      + "  JOIN referencedata.orderables o ON f.orderableid = o.id\n"
+      + "WHERE\n"
+      + "  f.facilityid IN (:facilityIds)\n"
+      + "  AND f.periodstartdate >= pp_considered.startdate\n"
+      + "  AND f.periodenddate <= pp_considered.enddate\n"
+      + "GROUP BY\n"
+      + "  f.facilityid, f.orderableid, o.netcontent, o.packroundingthreshold, "
+      + "o.roundtozero;\n";
+
+  private static final String CONSUMPTION_HISTORY = "SELECT\n"
+      + "  f.facilityid AS facilityId,\n"
+      + "  f.orderableid AS orderableId,\n"
+      + "  f.periodstartdate AS periodStartDate,\n"
+      + "  (f.periodenddate - f.periodstartdate + 1) AS periodLengthInDays,\n"
+      + "  f.adjustedconsumption AS adjustedConsumption\n"
+      + "FROM\n"
+      + CONSUMPTION_FACTS
+      + "  JOIN referencedata.processing_periods pp_considered ON pp_considered.id "
+      + "= :processingPeriodId\n"
+      + "WHERE\n"
+      + "  f.facilityid IN (:facilityIds)\n"
+      + "  AND f.periodenddate <= pp_considered.enddate\n"
+      + "  AND f.periodstartdate > pp_considered.enddate "
+      + "- :historyMonths * INTERVAL '1 month'\n"
+      + "ORDER BY\n"
+      + "  f.facilityid, f.orderableid, f.periodstartdate;\n";
+
+  /**
+   * Columns of the consumption queries with the types they are read with. Ids are read as uuid
+   * columns, so the projections get UUIDs without casting them to varchar and parsing them back.
+   */
+  private static final Map<String, Type> REQUISITION_LINE_ITEM_DATA_COLUMNS =
+      ImmutableMap.<String, Type>builder()
+          .put("orderableId", PostgresUUIDType.INSTANCE)
+          .put("annualAdjustedConsumption", IntegerType.INSTANCE)
+          .put("netContent", IntegerType.INSTANCE)
+          .put("packRoundingThreshold", IntegerType.INSTANCE)
+          .put("roundToZero", BooleanType.INSTANCE)
+          .build();
+
+  private static final Map<String, Type> FACILITY_REQUISITION_LINE_ITEM_DATA_COLUMNS =
+      ImmutableMap.<String, Type>builder()
+          .put("facilityId", PostgresUUIDType.INSTANCE)
+          .putAll(REQUISITION_LINE_ITEM_DATA_COLUMNS)
+          .build();
+
+  private static final Map<String, Type> CONSUMPTION_HISTORY_COLUMNS =
+      ImmutableMap.<String, Type>builder()
+          .put("facilityId", PostgresUUIDType.INSTANCE)
+          .put("orderableId", PostgresUUIDType.INSTANCE)
+          .put("periodStartDate", LocalDateType.INSTANCE)
+          .put("periodLengthInDays", IntegerType.INSTANCE)
+          .put("adjustedConsumption", LongType.INSTANCE)
+          .build();
+
+  private final ProjectionFactory projectionFactory = new SpelAwareProxyProjectionFactory();
 
   @PersistenceContext
   private EntityManager entityManager;
@@ -129,14 +252,12 @@ public class BottomUpQuantificationRepositoryImpl
     final CriteriaBuilder builder = getCriteriaBuilder();
     final CriteriaQuery<Long> countQuery = builder.createQuery(Long.class);
 
-    final Root<BottomUpQuantification> root = countQuery.from(BottomUpQuantification.class);
-
-    countQuery.select(builder.count(root));
+    final Root<BottomUpQuantificationApprovalInboxEntry> inbox =
+        countQuery.from(BottomUpQuantificationApprovalInboxEntry.class);
 
-    final List<Predicate> queryPredicates =
-        getCommonApprovableQueryPredicates(builder, root, programNodePairs);
+    countQuery.select(builder.count(inbox));
 
-    return countQuery.where(queryPredicates.toArray(new Predicate[0]));
+    return countQuery.where(createProgramNodePairPredicate(builder, inbox, programNodePairs));
   }
 
   private CriteriaQuery<Long> prepareCostCalculationCountQuery(
@@ -166,14 +287,15 @@ public class BottomUpQuantificationRepositoryImpl
         builder.createQuery(BottomUpQuantification.class);
 
     final Root<BottomUpQuantification> root = query.from(BottomUpQuantification.class);
+    final Root<BottomUpQuantificationApprovalInboxEntry> inbox =
+        query.from(BottomUpQuantificationApprovalInboxEntry.class);
 
-    final List<Predicate> queryPredicates =
-        getCommonApprovableQueryPredicates(builder, root, programNodePairs);
-    queryPredicates.add(createStatusChangePredicate(builder, query, root));
-
-    query.orderBy(createSortProperties(builder, root, pageable));
+    query.select(root);
+    query.orderBy(createSortProperties(builder, root, inbox.get(AUTHORIZED_DATE), pageable));
 
-    return query.where(queryPredicates.toArray(new Predicate[0]));
+    return query.where(
+        builder.equal(inbox.get(BOTTOM_UP_QUANTIFICATION_ID), root.get(ID)),
+        createProgramNodePairPredicate(builder, inbox, programNodePairs));
   }
 
   private CriteriaQuery<BottomUpQuantification> prepareCostCalculationQuery(
@@ -190,24 +312,11 @@ public class BottomUpQuantificationRepositoryImpl
         getCommonCostCalculationQueryPredicates(builder, root, processingPeriodId,
             programNodePairs);
 
-    query.orderBy(createSortProperties(builder, root, pageable));
+    query.orderBy(createSortProperties(builder, root, null, pageable));
 
     return query.where(queryPredicates.toArray(new Predicate[0]));
   }
 
-  private List<Predicate> getCommonApprovableQueryPredicates(
-      CriteriaBuilder builder,
-      Root<BottomUpQuantification> root,
-      Set<Pair<UUID, UUID>> programNodePairs) {
-    final List<Predicate> queryPredicates = new ArrayList<>();
-    queryPredicates.add(createProgramNodePairPredicate(builder, root, programNodePairs));
-    queryPredicates.add(
-        root
-            .get(STATUS)
-            .in(BottomUpQuantificationStatus.AUTHORIZED, BottomUpQuantificationStatus.IN_APPROVAL));
-    return queryPredicates;
-  }
-
   private List<Predicate> getCommonCostCalculationQueryPredicates(
       CriteriaBuilder builder,
       Root<BottomUpQuantification> root,
@@ -228,45 +337,23 @@ public class BottomUpQuantificationRepositoryImpl
   }
 
   private Predicate createProgramNodePairPredicate(CriteriaBuilder builder,
-      Root<BottomUpQuantification> root, Set<Pair<UUID, UUID>> programNodePairs) {
+      Path<?> root, Set<Pair<UUID, UUID>> programNodePairs) {
     Predicate[] combinedPredicates = new Predicate[programNodePairs.size()];
 
     int index = 0;
-    for (Pair pair : programNodePairs) {
-      Predicate predicate = builder.conjunction();
-      predicate = addEqualFilter(predicate, builder, root, PROGRAM_ID, pair.getLeft());
-      predicate = addEqualFilter(predicate, builder, root, SUPERVISORY_NODE_ID, pair.getRight());
-
-      combinedPredicates[index++] = predicate;
+    for (Pair<UUID, UUID> pair : programNodePairs) {
+      combinedPredicates[index++] = builder.and(
+          builder.equal(root.get(PROGRAM_ID), pair.getLeft()),
+          builder.equal(root.get(SUPERVISORY_NODE_ID), pair.getRight()));
     }
 
     return builder.or(combinedPredicates);
   }
 
-  private Predicate createStatusChangePredicate(CriteriaBuilder builder, CriteriaQuery<?> query,
-                                                Root<BottomUpQuantification> quantificationRoot) {
-    final Subquery<ZonedDateTime> subquery = query.subquery(ZonedDateTime.class);
-    final Root<BottomUpQuantificationStatusChange> statusChangeSubRoot =
-        subquery.from(BottomUpQuantificationStatusChange.class);
-
-    subquery.select(builder.greatest(statusChangeSubRoot.<ZonedDateTime>get(OCCURED_DATE)));
-    subquery.where(builder.and(
-        builder.equal(statusChangeSubRoot.get(STATUS), BottomUpQuantificationStatus.AUTHORIZED),
-        builder.equal(statusChangeSubRoot.get(BOTTOM_UP_QUANTIFICATION), quantificationRoot)));
-
-    ListJoin<Object, Object> statusChanges = quantificationRoot
-        .joinList(STATUS_CHANGES, JoinType.LEFT);
-
-    statusChanges
-        .on(builder.equal(statusChanges.get(STATUS), BottomUpQuantificationStatus.AUTHORIZED));
-
-    return builder
-        .or(statusChanges.isNull(), statusChanges.get(OCCURED_DATE).in(subquery));
-  }
-
   private List<Order> createSortProperties(
       CriteriaBuilder builder,
       Root<BottomUpQuantification> root,
+      Path<ZonedDateTime> authorizedDate,
       Pageable pageable) {
     List<Order> orders = new ArrayList<>();
     Iterator<Sort.Order> iterator = pageable.getSort().iterator();
@@ -278,14 +365,8 @@ public class BottomUpQuantificationRepositoryImpl
 
       Path<?> path;
 
-      if (AUTHORIZED_DATE.equals(property)) {
-        path = root
-            .getJoins()
-            .stream()
-            .filter(item -> STATUS_CHANGES.equals(item.getAttribute().getName()))
-            .findFirst()
-            .orElseThrow(() -> new IllegalStateException("Can't find statusChanges join"))
-            .get(CREATED_DATE);
+      if (authorizedDate != null && AUTHORIZED_DATE.equals(property)) {
+        path = authorizedDate;
       } else {
         path = root.get(property);
       }
@@ -363,4 +444,115 @@ public class BottomUpQuantificationRepositoryImpl
     return Pagination.getPage(bottomUpQuantifications, pageable, count);
   }
 
+  /**
+   * Counts bottom-up quantifications of the given facilities and program, grouped by status.
+   * The aggregation is done by the database so that no entity is loaded.
+   *
+   * @param facilityIds facilities to count bottom-up quantifications for.
+   * @param programId program of bottom-up quantifications.
+   * @param processingPeriodId optional processing period, ignored if null.
+   * @return number of bottom-up quantifications per status. Statuses without any bottom-up
+   *     quantification are not included.
+   */
+  @Override
+  public Map<BottomUpQuantificationStatus, Long> countByStatus(Collection<UUID> facilityIds,
+      UUID programId, UUID processingPeriodId) {
+    Map<BottomUpQuantificationStatus, Long> counts =
+        new EnumMap<>(BottomUpQuantificationStatus.class);
+    if (facilityIds == null || facilityIds.isEmpty()) {
+      return counts;
+    }
+
+    final CriteriaBuilder builder = getCriteriaBuilder();
+    final CriteriaQuery<Tuple> query = builder.createTupleQuery();
+    final Root<BottomUpQuantification> root = query.from(BottomUpQuantification.class);
+
+    Predicate predicate = builder.conjunction();
+    predicate = addInFilter(predicate, builder, root, FACILITY_ID, facilityIds);
+    predicate = addEqualFilter(predicate, builder, root, PROGRAM_ID, programId);
+    predicate = addEqualFilter(predicate, builder, root, PROCESSING_PERIOD_ID,
+        processingPeriodId);
+
+    Path<BottomUpQuantificationStatus> status = root.get(STATUS);
+    query.multiselect(status, builder.count(root))
+        .where(predicate)
+        .groupBy(status);
+
+    for (Tuple tuple : entityManager.createQuery(query).getResultList()) {
+      counts.put(tuple.get(0, BottomUpQuantificationStatus.class), tuple.get(1, Long.class));
+    }
+
+    return counts;
+  }
+
+  /**
+   * Retrieves the annual adjusted consumption of the given facility within the given processing
+   * period. Data is read from {@link #CONSUMPTION_FACTS}, which is kept up to date by
+   * {@link org.openlmis.buq.service.buq.RequisitionConsumptionFactService}.
+   */
+  @Override
+  public List<RequisitionLineItemDataProjection> getRequisitionLineItemsData(UUID facilityId,
+      UUID processingPeriodId) {
+    NativeQuery<?> query = createNativeQuery(REQUISITION_LINE_ITEMS_DATA)
+        .setParameter("facilityId", facilityId)
+        .setParameter("processingPeriodId", processingPeriodId);
+
+    return getProjections(query, REQUISITION_LINE_ITEM_DATA_COLUMNS,
+        RequisitionLineItemDataProjection.class);
+  }
+
+  /**
+   * Retrieves the annual adjusted consumption of each of the given facilities within the given
+   * processing period in a single query.
+   */
+  @Override
+  public List<FacilityRequisitionLineItemDataProjection> getRequisitionLineItemsData(
+      Collection<UUID> facilityIds, UUID processingPeriodId) {
+    NativeQuery<?> query = createNativeQuery(FACILITY_REQUISITION_LINE_ITEMS_DATA)
+        .setParameterList("facilityIds", facilityIds)
+        .setParameter("processingPeriodId", processingPeriodId);
+
+    return getProjections(query, FACILITY_REQUISITION_LINE_ITEM_DATA_COLUMNS,
+        FacilityRequisitionLineItemDataProjection.class);
+  }
+
+  /**
+   * Retrieves the adjusted consumption of the given facilities in every requisition period that
+   * ended within the given number of months before the end of the given processing period,
+   * ordered from the oldest period.
+   */
+  @Override
+  public List<ConsumptionHistoryProjection> getConsumptionHistory(Collection<UUID> facilityIds,
+      UUID processingPeriodId, int historyMonths) {
+    NativeQuery<?> query = createNativeQuery(CONSUMPTION_HISTORY)
+        .setParameterList("facilityIds", facilityIds)
+        .setParameter("processingPeriodId", processingPeriodId)
+        .setParameter("historyMonths", historyMonths);
+
+    return getProjections(query, CONSUMPTION_HISTORY_COLUMNS,
+        ConsumptionHistoryProjection.class);
+  }
+
+  private NativeQuery<?> createNativeQuery(String sql) {
+    return entityManager.createNativeQuery(sql).unwrap(NativeQuery.class);
+  }
+
+  private <T> List<T> getProjections(NativeQuery<?> query, Map<String, Type> columns,
+      Class<T> projectionType) {
+    columns.forEach(query::addScalar);
+
+    List<T> projections = new ArrayList<>();
+    for (Object row : query.getResultList()) {
+      Object[] values = (Object[]) row;
+      Map<String, Object> properties = new HashMap<>();
+      int index = 0;
+      for (String column : columns.keySet()) {
+        properties.put(column, values[index++]);
+      }
+      projections.add(projectionFactory.createProjection(projectionType, properties));
+    }
+
+    return projections;
+  }
+
 }
@@ -15,14 +15,14 @@
 
 package org.openlmis.buq.repository.sourceoffund;
 
+import java.util.List;
 import java.util.UUID;
 import org.javers.spring.annotation.JaversSpringDataAuditable;
 import org.openlmis.buq.domain.sourceoffund.SourceOfFund;
 import org.openlmis.buq.repository.BaseAuditableRepository;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.PagingAndSortingRepository;
+import org.springframework.data.repository.query.Param;
 
 @JaversSpringDataAuditable
 public interface SourceOfFundRepository extends PagingAndSortingRepository<SourceOfFund, UUID>,
@@ -33,16 +33,22 @@ public interface SourceOfFundRepository extends PagingAndSortingRepository<Sourc
           + "FROM\n"
           + "    buq.sources_of_funds sof\n"
           + "WHERE\n"
-          + "    id NOT IN (\n"
+          + "    sof.id >= :fromId\n"
+          + "    AND sof.id <= :toId\n"
+          + "    AND NOT EXISTS (\n"
           + "        SELECT\n"
-          + "            id\n"
+          + "            1\n"
           + "        FROM\n"
-          + "            buq.sources_of_funds sof\n"
-          + "            INNER JOIN buq.jv_global_id g "
-          + "ON CAST(sof.id AS varchar) = SUBSTRING(g.local_id, 2, 36)\n"
-          + "            INNER JOIN buq.jv_snapshot s  ON g.global_id_pk = s.global_id_fk\n"
-          + "    )\n",
+          + "            buq.jv_global_id g\n"
+          + "            INNER JOIN buq.jv_snapshot s ON g.global_id_pk = s.global_id_fk\n"
+          + "        WHERE\n"
+          + "            g.local_id = '\"' || CAST(sof.id AS varchar) || '\"'\n"
+          + "    )\n"
+          + "ORDER BY\n"
+          + "    sof.id\n"
+          + "LIMIT :batchSize\n",
           nativeQuery = true)
-  Page<SourceOfFund> findAllWithoutSnapshots(Pageable pageable);
+  List<SourceOfFund> findAllWithoutSnapshots(@Param("fromId") UUID fromId,
+      @Param("toId") UUID toId, @Param("batchSize") int batchSize);
 
 }
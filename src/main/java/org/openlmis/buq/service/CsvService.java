@@ -15,34 +15,85 @@
 
 package org.openlmis.buq.service;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
 import com.fasterxml.jackson.dataformat.csv.CsvMapper;
 import com.fasterxml.jackson.dataformat.csv.CsvParser;
 import com.fasterxml.jackson.dataformat.csv.CsvSchema;
 import java.io.IOException;
-import java.util.List;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
 import org.springframework.stereotype.Service;
 
 @Service
 public class CsvService {
 
   /**
-   * Fills the provided CSV file with the data of type {@code T}.
+   * Writes the data of type {@code T} to the output stream in CSV format, one row at a time, so
+   * that the whole file is never held in memory. The output stream is left open.
    *
-   * @param elements to be written in the CSV file
-   * @param type     of the data being written
-   * @return CSV file with data.
+   * @param elements     to be written in the CSV file
+   * @param type         of the data being written
+   * @param outputStream to write the CSV file to
    * @throws IOException serializing errors occurred
    */
-  public <T> byte[] generateCsv(List<T> elements, Class<T> type)
+  public <T> void writeCsv(Iterator<T> elements, Class<T> type, OutputStream outputStream)
+      throws IOException {
+    try (SequenceWriter sequenceWriter = createCsvWriter(type, outputStream)) {
+      while (elements.hasNext()) {
+        sequenceWriter.write(elements.next());
+      }
+    }
+  }
+
+  /**
+   * Creates a writer of the data of type {@code T} in CSV format, for callers that produce rows
+   * one at a time. Closing the writer flushes it but leaves the output stream open.
+   *
+   * @param type         of the data being written
+   * @param outputStream to write the CSV file to
+   * @return writer of CSV rows, to be closed by the caller.
+   * @throws IOException serializing errors occurred
+   */
+  public <T> SequenceWriter createCsvWriter(Class<T> type, OutputStream outputStream)
       throws IOException {
     CsvMapper csvMapper = new CsvMapper();
-    csvMapper.enable(CsvParser.Feature.WRAP_AS_ARRAY);
+    csvMapper.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
     CsvSchema csvSchema = csvMapper
         .schemaFor(type)
         .withHeader();
     ObjectWriter csvWriter = csvMapper.writer(csvSchema.withLineSeparator("\n"));
-    return csvWriter.writeValueAsBytes(elements);
+
+    return csvWriter.writeValues(outputStream);
+  }
+
+  /**
+   * Reads the CSV file with the data of type {@code T}, one row at a time, so that the whole
+   * file is never held in memory. Columns are matched by the header row, and empty lines and
+   * columns that are not known to the type are ignored.
+   *
+   * @param inputStream to read the CSV file from
+   * @param type        of the data being read
+   * @return iterator over the rows of the CSV file, to be closed by the caller.
+   * @throws IOException deserializing errors occurred
+   */
+  public <T> MappingIterator<T> readCsv(InputStream inputStream, Class<T> type)
+      throws IOException {
+    CsvMapper csvMapper = new CsvMapper();
+    csvMapper.enable(CsvParser.Feature.SKIP_EMPTY_LINES);
+    csvMapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    CsvSchema csvSchema = CsvSchema
+        .emptySchema()
+        .withHeader();
+
+    return csvMapper
+        .readerFor(type)
+        .with(csvSchema)
+        .readValues(inputStream);
   }
 
 }
@@ -0,0 +1,344 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.service.audit;
+
+import java.sql.Timestamp;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.javers.core.Javers;
+import org.javers.repository.jql.InstanceIdDTO;
+import org.javers.repository.jql.QueryBuilder;
+import org.javers.spring.auditable.AuthorProvider;
+import org.openlmis.buq.JaVersDateProvider;
+import org.openlmis.buq.domain.BaseEntity;
+import org.openlmis.buq.domain.Remark;
+import org.openlmis.buq.domain.buq.BottomUpQuantification;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationFundingDetails;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationLineItem;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationSourceOfFund;
+import org.openlmis.buq.domain.sourceoffund.SourceOfFund;
+import org.openlmis.buq.repository.RemarkRepository;
+import org.openlmis.buq.repository.buq.BottomUpQuantificationRepository;
+import org.openlmis.buq.repository.sourceoffund.SourceOfFundRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Moves JaVers commits of bottom-up quantifications off the request path. Every insert, update
+ * and delete of a bottom-up quantification adds an entry to the
+ * buq.bottom_up_quantification_audit_outbox table in the same transaction as the change, so an
+ * entry exists if and only if the change was committed. The entry contains the author and the
+ * state of the bottom-up quantification as committed by the change. A scheduled worker then
+ * commits the entries to JaVers in batches and removes them in the same transaction, so entries
+ * are retried until JaVers has stored them.
+ */
+@Service
+public class AuditOutboxService {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(AuditOutboxService.class);
+
+  private static final String BATCH_SIZE = "batchSize";
+  private static final String IDS = "ids";
+
+  static final String INSERT_ENTRY = "INSERT INTO buq.bottom_up_quantification_audit_outbox\n"
+      + "  (bottomUpQuantificationId, deleted, author, state)\n"
+      + "VALUES (:bottomUpQuantificationId, :deleted, :author, :state)";
+
+  static final String TRY_LOCK = "SELECT pg_try_advisory_xact_lock("
+      + "hashtext('buq.bottom_up_quantification_audit_outbox'))";
+
+  static final String SELECT_ENTRIES = "SELECT id, bottomUpQuantificationId, deleted, author,"
+      + " state, createdDate\n"
+      + "FROM buq.bottom_up_quantification_audit_outbox\n"
+      + "ORDER BY id\n"
+      + "LIMIT :batchSize";
+
+  static final String DELETE_ENTRIES = "DELETE FROM buq.bottom_up_quantification_audit_outbox\n"
+      + "WHERE id IN (:ids)";
+
+  private static final RowMapper<AuditOutboxEntry> ENTRY_MAPPER = (rs, rowNum) -> {
+    Timestamp createdDate = rs.getTimestamp("createdDate");
+    return new AuditOutboxEntry(rs.getLong("id"),
+        rs.getObject("bottomUpQuantificationId", UUID.class),
+        rs.getBoolean("deleted"), rs.getString("author"), rs.getString("state"),
+        ZonedDateTime.ofInstant(createdDate.toInstant(), ZoneOffset.UTC));
+  };
+
+  @Autowired
+  private NamedParameterJdbcTemplate jdbcTemplate;
+
+  @Autowired
+  private AuthorProvider authorProvider;
+
+  @Autowired
+  private Javers javers;
+
+  @Autowired
+  private BottomUpQuantificationStateMapper stateMapper;
+
+  @Autowired
+  private BottomUpQuantificationRepository bottomUpQuantificationRepository;
+
+  @Autowired
+  private RemarkRepository remarkRepository;
+
+  @Autowired
+  private SourceOfFundRepository sourceOfFundRepository;
+
+  @Value("${auditOutbox.enabled}")
+  private boolean enabled;
+
+  @Value("${auditOutbox.batchSize}")
+  private int batchSize;
+
+  /**
+   * Adds an entry with the current state of the given bottom-up quantification to the outbox.
+   * It must be called within the transaction that changes the bottom-up quantification, after
+   * the change has been flushed.
+   *
+   * @param bottomUpQuantification the changed bottom-up quantification.
+   */
+  public void enqueue(BottomUpQuantification bottomUpQuantification) {
+    jdbcTemplate.update(INSERT_ENTRY, entryParams(bottomUpQuantification.getId(), false,
+        authorProvider.provide(), stateMapper.write(bottomUpQuantification)));
+  }
+
+  /**
+   * Adds an entry for the deletion of the given bottom-up quantification to the outbox. It must
+   * be called within the transaction that deletes the bottom-up quantification.
+   *
+   * @param bottomUpQuantificationId id of the deleted bottom-up quantification.
+   */
+  public void enqueueDeleted(UUID bottomUpQuantificationId) {
+    jdbcTemplate.update(INSERT_ENTRY, entryParams(bottomUpQuantificationId, true,
+        authorProvider.provide(), null));
+  }
+
+  /**
+   * Adds an entry for each of the given bottom-up quantifications to the outbox in one batch. It
+   * is meant for set-based changes, which bypass the Hibernate event listener, and must be
+   * called within the transaction of the change. The bottom-up quantifications are loaded to
+   * store their state, so they must not have been loaded in that transaction before the change.
+   *
+   * @param bottomUpQuantificationIds ids of the changed bottom-up quantifications.
+   */
+  public void enqueueAll(Collection<UUID> bottomUpQuantificationIds) {
+    String author = authorProvider.provide();
+    MapSqlParameterSource[] params = StreamSupport
+        .stream(bottomUpQuantificationRepository.findAllById(bottomUpQuantificationIds)
+            .spliterator(), false)
+        .map(buq -> entryParams(buq.getId(), false, author, stateMapper.write(buq)))
+        .toArray(MapSqlParameterSource[]::new);
+
+    jdbcTemplate.batchUpdate(INSERT_ENTRY, params);
+  }
+
+  /**
+   * Processes the outbox on a schedule, if enabled.
+   */
+  @Transactional
+  @Scheduled(initialDelayString = "${auditOutbox.initialDelay}",
+      fixedDelayString = "${auditOutbox.delay}")
+  public void scheduledProcess() {
+    if (!enabled) {
+      return;
+    }
+
+    int processedEntries = process();
+    LOGGER.debug("Committed {} audit outbox entries to JaVers", processedEntries);
+  }
+
+  /**
+   * Commits the oldest outbox entries, up to the configured batch size, to JaVers and removes
+   * them. Every entry is committed separately, in the order of the changes, with the author of
+   * the change and the date on which the entry was added. A transaction-level advisory lock makes
+   * sure that only one service instance processes the outbox at a time, so commits of a
+   * bottom-up quantification are never made concurrently.
+   *
+   * @return number of processed entries.
+   */
+  @Transactional
+  public int process() {
+    Boolean locked = jdbcTemplate.queryForObject(TRY_LOCK, new MapSqlParameterSource(),
+        Boolean.class);
+    if (!Boolean.TRUE.equals(locked)) {
+      return 0;
+    }
+
+    List<AuditOutboxEntry> entries = jdbcTemplate.query(SELECT_ENTRIES,
+        new MapSqlParameterSource(BATCH_SIZE, batchSize), ENTRY_MAPPER);
+    if (entries.isEmpty()) {
+      return 0;
+    }
+
+    Map<Long, BottomUpQuantification> states = readStates(entries);
+    for (AuditOutboxEntry entry : entries) {
+      JaVersDateProvider.withCommitDate(entry.getCreatedDate(),
+          () -> commit(entry, states.get(entry.getId())));
+    }
+
+    jdbcTemplate.update(DELETE_ENTRIES, new MapSqlParameterSource(IDS, entries.stream()
+        .map(AuditOutboxEntry::getId)
+        .collect(Collectors.toList())));
+
+    return entries.size();
+  }
+
+  private MapSqlParameterSource entryParams(UUID bottomUpQuantificationId, boolean deleted,
+      String author, String state) {
+    return new MapSqlParameterSource()
+        .addValue("bottomUpQuantificationId", bottomUpQuantificationId)
+        .addValue("deleted", deleted)
+        .addValue("author", author)
+        .addValue("state", state);
+  }
+
+  private Map<Long, BottomUpQuantification> readStates(List<AuditOutboxEntry> entries) {
+    Map<Long, BottomUpQuantification> states = new HashMap<>();
+    Set<UUID> idsWithoutState = new HashSet<>();
+    for (AuditOutboxEntry entry : entries) {
+      if (entry.isDeleted()) {
+        continue;
+      }
+      if (null == entry.getState()) {
+        idsWithoutState.add(entry.getBottomUpQuantificationId());
+      } else {
+        states.put(entry.getId(), stateMapper.read(entry.getState()));
+      }
+    }
+    resolveReferences(states.values());
+
+    if (!idsWithoutState.isEmpty()) {
+      // entries added before the state was stored fall back to the current state
+      Map<UUID, BottomUpQuantification> currentStates = mapById(
+          bottomUpQuantificationRepository.findAllById(idsWithoutState));
+      entries
+          .stream()
+          .filter(entry -> !entry.isDeleted() && null == entry.getState())
+          .forEach(entry -> states.put(entry.getId(),
+              currentStates.get(entry.getBottomUpQuantificationId())));
+    }
+
+    return states;
+  }
+
+  /**
+   * Replaces the remarks and sources of funds, which the state contains by id only, with the
+   * stored ones. References to ones that have been deleted since are removed.
+   */
+  private void resolveReferences(Collection<BottomUpQuantification> states) {
+    List<BottomUpQuantificationLineItem> lineItems = states
+        .stream()
+        .map(BottomUpQuantification::getBottomUpQuantificationLineItems)
+        .filter(Objects::nonNull)
+        .flatMap(Collection::stream)
+        .filter(lineItem -> null != lineItem.getRemark())
+        .collect(Collectors.toList());
+    if (!lineItems.isEmpty()) {
+      Map<UUID, Remark> remarks = mapById(remarkRepository.findAllById(lineItems
+          .stream()
+          .map(lineItem -> lineItem.getRemark().getId())
+          .collect(Collectors.toSet())));
+      lineItems.forEach(lineItem ->
+          lineItem.setRemark(remarks.get(lineItem.getRemark().getId())));
+    }
+
+    List<BottomUpQuantificationSourceOfFund> sourcesOfFunds = states
+        .stream()
+        .map(BottomUpQuantification::getFundingDetails)
+        .filter(Objects::nonNull)
+        .map(BottomUpQuantificationFundingDetails::getSourcesOfFunds)
+        .filter(Objects::nonNull)
+        .flatMap(Collection::stream)
+        .filter(sourceOfFund -> null != sourceOfFund.getSourceOfFund())
+        .collect(Collectors.toList());
+    if (!sourcesOfFunds.isEmpty()) {
+      Map<UUID, SourceOfFund> stored = mapById(sourceOfFundRepository.findAllById(
+          sourcesOfFunds
+              .stream()
+              .map(sourceOfFund -> sourceOfFund.getSourceOfFund().getId())
+              .collect(Collectors.toSet())));
+      sourcesOfFunds.forEach(sourceOfFund ->
+          sourceOfFund.setSourceOfFund(stored.get(sourceOfFund.getSourceOfFund().getId())));
+    }
+  }
+
+  private static <T extends BaseEntity> Map<UUID, T> mapById(Iterable<T> entities) {
+    return StreamSupport
+        .stream(entities.spliterator(), false)
+        .collect(Collectors.toMap(BaseEntity::getId, Function.identity()));
+  }
+
+  private void commit(AuditOutboxEntry entry, BottomUpQuantification bottomUpQuantification) {
+    if (!entry.isDeleted()) {
+      // a missing bottom-up quantification has been deleted since, which a later entry records
+      if (bottomUpQuantification != null) {
+        javers.commit(entry.getAuthor(), bottomUpQuantification);
+      }
+    } else if (hasSnapshot(entry.getBottomUpQuantificationId())) {
+      javers.commitShallowDeleteById(entry.getAuthor(), InstanceIdDTO.instanceId(
+          entry.getBottomUpQuantificationId(), BottomUpQuantification.class));
+    }
+  }
+
+  private boolean hasSnapshot(UUID bottomUpQuantificationId) {
+    return !javers.findSnapshots(QueryBuilder
+        .byInstanceId(bottomUpQuantificationId, BottomUpQuantification.class)
+        .limit(1)
+        .build())
+        .isEmpty();
+  }
+
+  @Getter
+  @AllArgsConstructor
+  static final class AuditOutboxEntry {
+
+    private final long id;
+
+    private final UUID bottomUpQuantificationId;
+
+    private final boolean deleted;
+
+    private final String author;
+
+    private final String state;
+
+    private final ZonedDateTime createdDate;
+
+  }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+
+package org.openlmis.buq.service.audit;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import org.hibernate.Hibernate;
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.action.spi.BeforeTransactionCompletionProcess;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostDeleteEventListener;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.event.spi.PostUpdateEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+import org.openlmis.buq.domain.buq.BottomUpQuantification;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationFundingDetails;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationLineItem;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationSourceOfFund;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationStatusChange;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Records every insert, update and delete of a bottom-up quantification, or of one of its line
+ * items, status changes and funding details, in the audit outbox. The changed bottom-up
+ * quantifications of a transaction are collected while Hibernate flushes, and their state is
+ * added to the outbox once, right before the transaction commits, so that the entry contains
+ * the state that is committed. Nothing is added if the transaction is rolled back.
+ */
+@Component
+public class BottomUpQuantificationAuditEventListener implements PostInsertEventListener,
+    PostUpdateEventListener, PostDeleteEventListener {
+
+  @Autowired
+  private AuditOutboxService auditOutboxService;
+
+  private final Map<SharedSessionContractImplementor, ChangedBottomUpQuantifications>
+      changes = new ConcurrentHashMap<>();
+
+  @Override
+  public void onPostInsert(PostInsertEvent event) {
+    record(event.getSession(), event.getEntity(), false);
+  }
+
+  @Override
+  public void onPostUpdate(PostUpdateEvent event) {
+    record(event.getSession(), event.getEntity(), false);
+  }
+
+  @Override
+  public void onPostDelete(PostDeleteEvent event) {
+    record(event.getSession(), event.getEntity(), true);
+  }
+
+  @Override
+  public boolean requiresPostCommitHanding(EntityPersister persister) {
+    return false;
+  }
+
+  private void record(EventSource session, Object entity, boolean deleted) {
+    BottomUpQuantification bottomUpQuantification = findBottomUpQuantification(entity);
+    if (null == bottomUpQuantification) {
+      return;
+    }
+
+    changes
+        .computeIfAbsent(session, key -> {
+          ChangedBottomUpQuantifications changed = new ChangedBottomUpQuantifications();
+          session.getActionQueue().registerProcess((BeforeTransactionCompletionProcess) changed);
+          session.getActionQueue().registerProcess((AfterTransactionCompletionProcess) changed);
+          return changed;
+        })
+        .add(bottomUpQuantification, deleted && entity instanceof BottomUpQuantification);
+  }
+
+  private BottomUpQuantification findBottomUpQuantification(Object entity) {
+    Object bottomUpQuantification = null;
+    if (entity instanceof BottomUpQuantification) {
+      bottomUpQuantification = entity;
+    } else if (entity instanceof BottomUpQuantificationLineItem) {
+      bottomUpQuantification = ((BottomUpQuantificationLineItem) entity)
+          .getBottomUpQuantification();
+    } else if (entity instanceof BottomUpQuantificationStatusChange) {
+      bottomUpQuantification = ((BottomUpQuantificationStatusChange) entity)
+          .getBottomUpQuantification();
+    } else if (entity instanceof BottomUpQuantificationFundingDetails) {
+      bottomUpQuantification = ((BottomUpQuantificationFundingDetails) entity)
+          .getBottomUpQuantification();
+    } else if (entity instanceof BottomUpQuantificationSourceOfFund) {
+      BottomUpQuantificationFundingDetails fundingDetails =
+          ((BottomUpQuantificationSourceOfFund) entity).getFundingDetails();
+      bottomUpQuantification = null == fundingDetails
+          ? null
+          : fundingDetails.getBottomUpQuantification();
+    }
+
+    return (BottomUpQuantification) Hibernate.unproxy(bottomUpQuantification);
+  }
+
+  private final class ChangedBottomUpQuantifications implements
+      BeforeTransactionCompletionProcess, AfterTransactionCompletionProcess {
+
+    private final Map<UUID, BottomUpQuantification> bottomUpQuantifications =
+        new LinkedHashMap<>();
+    private final Set<UUID> deletedIds = new HashSet<>();
+
+    void add(BottomUpQuantification bottomUpQuantification, boolean deleted) {
+      bottomUpQuantifications.put(bottomUpQuantification.getId(), bottomUpQuantification);
+      if (deleted) {
+        deletedIds.add(bottomUpQuantification.getId());
+      }
+    }
+
+    @Override
+    public void doBeforeTransactionCompletion(SessionImplementor session) {
+      changes.remove(session);
+      bottomUpQuantifications.forEach((id, bottomUpQuantification) -> {
+        if (deletedIds.contains(id)) {
+          auditOutboxService.enqueueDeleted(id);
+        } else {
+          auditOutboxService.enqueue(bottomUpQuantification);
+        }
+      });
+    }
+
+    @Override
+    public void doAfterTransactionCompletion(boolean success,
+        SharedSessionContractImplementor session) {
+      changes.remove(session);
+    }
+
+  }
+
+}
@@ -0,0 +1,201 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+
+package org.openlmis.buq.service.audit;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
+import com.fasterxml.jackson.annotation.JsonBackReference;
+import com.fasterxml.jackson.annotation.JsonManagedReference;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.std.FromStringDeserializer;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Supplier;
+import org.joda.money.Money;
+import org.openlmis.buq.domain.BaseEntity;
+import org.openlmis.buq.domain.Remark;
+import org.openlmis.buq.domain.buq.BottomUpQuantification;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationFundingDetails;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationLineItem;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationSourceOfFund;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationStatusChange;
+import org.openlmis.buq.domain.sourceoffund.SourceOfFund;
+import org.springframework.stereotype.Component;
+
+/**
+ * Converts the state of a bottom-up quantification, with its line items, status changes and
+ * funding details, to JSON and back, so that it can be stored in the audit outbox. Fields are
+ * mapped directly, like JaVers does. Remarks and sources of funds are stored by id only and read
+ * back as instances that contain nothing but the id.
+ */
+@Component
+public class BottomUpQuantificationStateMapper {
+
+  private static final String LINE_ITEMS = "lineItems";
+  private static final String STATUS_CHANGES = "statusChanges";
+  private static final String FUNDING_DETAILS = "fundingDetails";
+  private static final String SOURCES_OF_FUNDS = "sourcesOfFunds";
+
+  private final ObjectMapper objectMapper = new ObjectMapper()
+      .setVisibility(PropertyAccessor.ALL, Visibility.NONE)
+      .setVisibility(PropertyAccessor.FIELD, Visibility.ANY)
+      .registerModule(new JavaTimeModule())
+      .registerModule(new SimpleModule()
+          .addSerializer(Money.class, ToStringSerializer.instance)
+          .addDeserializer(Money.class, new MoneyDeserializer())
+          .addSerializer(Remark.class, new ReferenceSerializer<>(Remark.class))
+          .addDeserializer(Remark.class, new ReferenceDeserializer<>(Remark.class, Remark::new))
+          .addSerializer(SourceOfFund.class, new ReferenceSerializer<>(SourceOfFund.class))
+          .addDeserializer(SourceOfFund.class,
+              new ReferenceDeserializer<>(SourceOfFund.class, SourceOfFund::new)))
+      .addMixIn(BottomUpQuantification.class, BottomUpQuantificationMixIn.class)
+      .addMixIn(BottomUpQuantificationLineItem.class, LineItemMixIn.class)
+      .addMixIn(BottomUpQuantificationStatusChange.class, StatusChangeMixIn.class)
+      .addMixIn(BottomUpQuantificationFundingDetails.class, FundingDetailsMixIn.class)
+      .addMixIn(BottomUpQuantificationSourceOfFund.class, SourceOfFundMixIn.class)
+      .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+      .enable(SerializationFeature.WRITE_DATES_WITH_ZONE_ID)
+      .disable(DeserializationFeature.ADJUST_DATES_TO_CONTEXT_TIME_ZONE)
+      .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+  /**
+   * Converts the state of the given bottom-up quantification to JSON. Lazy associations are
+   * loaded, so it must be called while the persistence context is still open.
+   */
+  public String write(BottomUpQuantification bottomUpQuantification) {
+    try {
+      return objectMapper.writeValueAsString(bottomUpQuantification);
+    } catch (IOException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  /**
+   * Creates a detached bottom-up quantification from the given JSON.
+   */
+  public BottomUpQuantification read(String state) {
+    try {
+      return objectMapper.readValue(state, BottomUpQuantification.class);
+    } catch (IOException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  private abstract static class BottomUpQuantificationMixIn {
+
+    @JsonManagedReference(LINE_ITEMS)
+    private List<BottomUpQuantificationLineItem> bottomUpQuantificationLineItems;
+
+    @JsonManagedReference(STATUS_CHANGES)
+    private List<BottomUpQuantificationStatusChange> statusChanges;
+
+    @JsonManagedReference(FUNDING_DETAILS)
+    private BottomUpQuantificationFundingDetails fundingDetails;
+
+  }
+
+  private abstract static class LineItemMixIn {
+
+    @JsonBackReference(LINE_ITEMS)
+    private BottomUpQuantification bottomUpQuantification;
+
+  }
+
+  private abstract static class StatusChangeMixIn {
+
+    @JsonBackReference(STATUS_CHANGES)
+    private BottomUpQuantification bottomUpQuantification;
+
+  }
+
+  private abstract static class FundingDetailsMixIn {
+
+    @JsonBackReference(FUNDING_DETAILS)
+    private BottomUpQuantification bottomUpQuantification;
+
+    @JsonManagedReference(SOURCES_OF_FUNDS)
+    private List<BottomUpQuantificationSourceOfFund> sourcesOfFunds;
+
+  }
+
+  private abstract static class SourceOfFundMixIn {
+
+    @JsonBackReference(SOURCES_OF_FUNDS)
+    private BottomUpQuantificationFundingDetails fundingDetails;
+
+  }
+
+  private static final class MoneyDeserializer extends FromStringDeserializer<Money> {
+
+    private MoneyDeserializer() {
+      super(Money.class);
+    }
+
+    @Override
+    protected Money _deserialize(String value, DeserializationContext context) {
+      return Money.parse(value);
+    }
+
+  }
+
+  private static final class ReferenceSerializer<T extends BaseEntity> extends StdSerializer<T> {
+
+    private ReferenceSerializer(Class<T> type) {
+      super(type);
+    }
+
+    @Override
+    public void serialize(T value, JsonGenerator generator, SerializerProvider provider)
+        throws IOException {
+      // getId does not initialize a lazy proxy
+      generator.writeObject(value.getId());
+    }
+
+  }
+
+  private static final class ReferenceDeserializer<T extends BaseEntity>
+      extends StdDeserializer<T> {
+
+    private final transient Supplier<T> factory;
+
+    private ReferenceDeserializer(Class<T> type, Supplier<T> factory) {
+      super(type);
+      this.factory = factory;
+    }
+
+    @Override
+    public T deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+      T reference = factory.get();
+      reference.setId(UUID.fromString(parser.getValueAsString()));
+      return reference;
+    }
+
+  }
+
+}
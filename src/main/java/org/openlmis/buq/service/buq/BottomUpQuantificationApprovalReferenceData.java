@@ -0,0 +1,117 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.service.buq;
+
+import static java.util.stream.Collectors.toSet;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+import org.openlmis.buq.dto.buq.BottomUpQuantificationApprovalKeysProjection;
+import org.openlmis.buq.dto.referencedata.ProcessingPeriodDto;
+import org.openlmis.buq.dto.referencedata.SupervisoryNodeDto;
+import org.openlmis.buq.dto.referencedata.SupplyLineDto;
+import org.openlmis.buq.service.referencedata.PeriodReferenceDataService;
+import org.openlmis.buq.service.referencedata.SupervisoryNodeReferenceDataService;
+import org.openlmis.buq.service.referencedata.SupplyLineReferenceDataService;
+
+/**
+ * Reference data needed to approve bottom-up quantifications, fetched at most once per key. It is
+ * meant to be resolved before a transaction is started, so that no database connection is held
+ * while the reference data service is called. Keys that were not resolved in advance, e.g.
+ * because a bottom-up quantification was moved to another supervisory node in the meantime, are
+ * fetched on first use.
+ */
+final class BottomUpQuantificationApprovalReferenceData {
+
+  private final SupervisoryNodeReferenceDataService supervisoryNodeReferenceDataService;
+
+  private final PeriodReferenceDataService periodReferenceDataService;
+
+  private final SupplyLineReferenceDataService supplyLineReferenceDataService;
+
+  private final Map<UUID, SupervisoryNodeDto> supervisoryNodes = new HashMap<>();
+
+  private final Map<UUID, ProcessingPeriodDto> periods = new HashMap<>();
+
+  private final Map<Pair<UUID, UUID>, List<SupplyLineDto>> supplyLines = new HashMap<>();
+
+  BottomUpQuantificationApprovalReferenceData(
+      SupervisoryNodeReferenceDataService supervisoryNodeReferenceDataService,
+      PeriodReferenceDataService periodReferenceDataService,
+      SupplyLineReferenceDataService supplyLineReferenceDataService) {
+    this.supervisoryNodeReferenceDataService = supervisoryNodeReferenceDataService;
+    this.periodReferenceDataService = periodReferenceDataService;
+    this.supplyLineReferenceDataService = supplyLineReferenceDataService;
+  }
+
+  void resolve(List<BottomUpQuantificationApprovalKeysProjection> keys) {
+    Set<UUID> missingNodeIds = keys.stream()
+        .map(BottomUpQuantificationApprovalKeysProjection::getSupervisoryNodeId)
+        .filter(Objects::nonNull)
+        .filter(id -> !supervisoryNodes.containsKey(id))
+        .collect(toSet());
+    if (!missingNodeIds.isEmpty()) {
+      missingNodeIds.forEach(id -> supervisoryNodes.put(id, null));
+      supervisoryNodeReferenceDataService.findByIds(missingNodeIds)
+          .forEach(node -> supervisoryNodes.put(node.getId(), node));
+    }
+
+    Set<UUID> missingPeriodIds = keys.stream()
+        .map(BottomUpQuantificationApprovalKeysProjection::getProcessingPeriodId)
+        .filter(id -> !periods.containsKey(id))
+        .collect(toSet());
+    if (!missingPeriodIds.isEmpty()) {
+      missingPeriodIds.forEach(id -> periods.put(id, null));
+      periodReferenceDataService.search(missingPeriodIds)
+          .forEach(period -> periods.put(period.getId(), period));
+    }
+
+    keys.stream()
+        .filter(key -> null != periods.get(key.getProcessingPeriodId())
+            && !periods.get(key.getProcessingPeriodId()).isReportOnly())
+        .forEach(key -> getSupplyLines(key.getProgramId(), key.getSupervisoryNodeId()));
+  }
+
+  SupervisoryNodeDto getSupervisoryNode(UUID supervisoryNodeId) {
+    if (null == supervisoryNodeId) {
+      return null;
+    }
+    if (!supervisoryNodes.containsKey(supervisoryNodeId)) {
+      supervisoryNodes.put(supervisoryNodeId,
+          supervisoryNodeReferenceDataService.findOne(supervisoryNodeId));
+    }
+    return supervisoryNodes.get(supervisoryNodeId);
+  }
+
+  ProcessingPeriodDto getPeriod(UUID periodId) {
+    if (!periods.containsKey(periodId)) {
+      periods.put(periodId, periodReferenceDataService.findOne(periodId));
+    }
+    return periods.get(periodId);
+  }
+
+  List<SupplyLineDto> getSupplyLines(UUID programId, UUID supervisoryNodeId) {
+    return supplyLines.computeIfAbsent(ImmutablePair.of(programId, supervisoryNodeId),
+        key -> supplyLineReferenceDataService.search(programId, supervisoryNodeId));
+  }
+
+}
@@ -0,0 +1,369 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.service.buq;
+
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
+import static java.util.stream.Collectors.toSet;
+import static org.openlmis.buq.i18n.MessageKeys.ERROR_FACILITY_NOT_FOUND;
+import static org.openlmis.buq.i18n.MessageKeys.ERROR_PREPARE_BATCH_INVALID_FACILITY_SELECTION;
+import static org.openlmis.buq.i18n.MessageKeys.ERROR_PREPARE_MISSING_PARAMETERS;
+import static org.openlmis.buq.i18n.MessageKeys.ERROR_SUPERVISORY_NODE_NOT_FOUND;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import org.apache.commons.collections4.ListUtils;
+import org.openlmis.buq.domain.buq.BottomUpQuantification;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationJob;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationJobType;
+import org.openlmis.buq.dto.buq.BottomUpQuantificationBatchPrepareDto;
+import org.openlmis.buq.dto.referencedata.FacilityDto;
+import org.openlmis.buq.dto.referencedata.MinimalFacilityDto;
+import org.openlmis.buq.dto.referencedata.ObjectReferenceDto;
+import org.openlmis.buq.dto.referencedata.ProcessingPeriodDto;
+import org.openlmis.buq.dto.referencedata.ProgramDto;
+import org.openlmis.buq.dto.referencedata.RequisitionGroupDto;
+import org.openlmis.buq.dto.referencedata.SupervisoryNodeDto;
+import org.openlmis.buq.dto.requisition.FacilityRequisitionLineItemDataProjection;
+import org.openlmis.buq.exception.ContentNotFoundMessageException;
+import org.openlmis.buq.exception.TooManyRequestsMessageException;
+import org.openlmis.buq.exception.ValidationMessageException;
+import org.openlmis.buq.repository.buq.BottomUpQuantificationRepository;
+import org.openlmis.buq.service.forecasting.ForecastingService;
+import org.openlmis.buq.service.referencedata.FacilityReferenceDataService;
+import org.openlmis.buq.service.referencedata.RequisitionGroupReferenceDataService;
+import org.openlmis.buq.service.referencedata.SupervisoryNodeReferenceDataService;
+import org.openlmis.buq.util.AuthenticationHelper;
+import org.openlmis.buq.util.FacilitySupportsProgramHelper;
+import org.openlmis.buq.util.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.CollectionUtils;
+
+/**
+ * Prepares bottom-up quantifications for many facilities at once. Program and processing period
+ * are looked up once per batch, and facilities are processed in chunks: each chunk fetches its
+ * facilities and consumption data with a single call each and inserts all of its bottom-up
+ * quantifications in one transaction. The preparation runs as a {@link BottomUpQuantificationJob}
+ * of the {@link BottomUpQuantificationJobService}, which counts the facilities as its items.
+ *
+ * <p>Facilities given explicitly are validated like a single preparation before the job is
+ * created. Facilities resolved from a supervisory node or a geographic zone are not, those which
+ * do not support the program or already have a bottom-up quantification for the period are
+ * skipped instead.
+ */
+@Service
+public class BottomUpQuantificationBatchPrepareService {
+
+  private static final Logger LOGGER =
+      LoggerFactory.getLogger(BottomUpQuantificationBatchPrepareService.class);
+
+  static final String FACILITY_IDS = "facilityIds";
+  static final String SUPERVISORY_NODE_ID = "supervisoryNodeId";
+  static final String PREPARED_FACILITIES = "preparedFacilities";
+  static final String SKIPPED_FACILITIES = "skippedFacilities";
+
+  @Autowired
+  private BottomUpQuantificationService bottomUpQuantificationService;
+
+  @Autowired
+  private BottomUpQuantificationRepository bottomUpQuantificationRepository;
+
+  @Autowired
+  private BottomUpQuantificationJobService bottomUpQuantificationJobService;
+
+  @Autowired
+  private ForecastingService forecastingService;
+
+  @Autowired
+  private FacilityReferenceDataService facilityReferenceDataService;
+
+  @Autowired
+  private SupervisoryNodeReferenceDataService supervisoryNodeReferenceDataService;
+
+  @Autowired
+  private RequisitionGroupReferenceDataService requisitionGroupReferenceDataService;
+
+  @Autowired
+  private FacilitySupportsProgramHelper facilitySupportsProgramHelper;
+
+  @Autowired
+  private AuthenticationHelper authenticationHelper;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @Value("${batchPrepare.chunkSize}")
+  private int chunkSize;
+
+  /**
+   * Validates the request, resolves the facilities to prepare bottom-up quantifications for and
+   * schedules the preparation.
+   *
+   * @param request facilities, program and processing period to prepare for.
+   * @return created, pending job.
+   * @throws TooManyRequestsMessageException if too many jobs are waiting to be run.
+   */
+  public BottomUpQuantificationJob prepare(BottomUpQuantificationBatchPrepareDto request) {
+    validateFacilitySelection(request);
+
+    ProgramDto program = bottomUpQuantificationService.findProgram(request.getProgramId());
+    ProcessingPeriodDto period = bottomUpQuantificationService
+        .findPeriod(request.getProcessingPeriodId());
+    if (!CollectionUtils.isEmpty(request.getFacilityIds())) {
+      validateFacilities(request.getFacilityIds(), program, period);
+    }
+    final List<UUID> facilityIds = new ArrayList<>(resolveFacilityIds(request));
+
+    Map<String, Object> parameters = new LinkedHashMap<>();
+    parameters.put(BottomUpQuantificationJobService.PROGRAM_ID, program.getId());
+    parameters.put(BottomUpQuantificationJobService.PROCESSING_PERIOD_ID, period.getId());
+    parameters.put(FACILITY_IDS, request.getFacilityIds());
+    parameters.put(SUPERVISORY_NODE_ID, request.getSupervisoryNodeId());
+    parameters.put(BottomUpQuantificationJobService.GEOGRAPHIC_ZONE_ID,
+        request.getGeographicZoneId());
+
+    UUID authorId = authenticationHelper.getCurrentUser().getId();
+    return bottomUpQuantificationJobService.submit(BottomUpQuantificationJobType.BATCH_PREPARE,
+        parameters, facilityIds.size(),
+        jobId -> process(jobId, facilityIds, program, period, authorId));
+  }
+
+  /**
+   * Finds the batch prepare job with the given ID. Users can only see their own jobs.
+   *
+   * @param jobId ID of the job.
+   * @return found job.
+   */
+  public BottomUpQuantificationJob findJob(UUID jobId) {
+    return bottomUpQuantificationJobService
+        .findJob(jobId, BottomUpQuantificationJobType.BATCH_PREPARE);
+  }
+
+  /**
+   * Prepares bottom-up quantifications chunk by chunk, adding every chunk to the progress of the
+   * job. It stops after the current chunk if the job has been cancelled or marked as failed in
+   * the meantime; chunks prepared before that are kept.
+   *
+   * @return numbers of prepared and skipped facilities.
+   */
+  Map<String, Integer> process(UUID jobId, List<UUID> facilityIds, ProgramDto program,
+      ProcessingPeriodDto period, UUID authorId) {
+    TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+    int preparedFacilities = 0;
+    int skippedFacilities = 0;
+    for (List<UUID> chunk : ListUtils.partition(facilityIds, chunkSize)) {
+      Integer prepared = transactionTemplate
+          .execute(status -> prepareChunk(chunk, program, period, authorId));
+      preparedFacilities += prepared;
+      skippedFacilities += chunk.size() - prepared;
+
+      if (!bottomUpQuantificationJobService
+          .updateProgress(jobId, prepared, chunk.size() - prepared)) {
+        LOGGER.warn("Batch prepare job {} is no longer in progress, stopping", jobId);
+        break;
+      }
+    }
+
+    Map<String, Integer> result = new LinkedHashMap<>();
+    result.put(PREPARED_FACILITIES, preparedFacilities);
+    result.put(SKIPPED_FACILITIES, skippedFacilities);
+    return result;
+  }
+
+  /**
+   * Prepares bottom-up quantifications for the given facilities. Facilities which do not
+   * support the program or already have a bottom-up quantification for the period are skipped.
+   *
+   * @return number of prepared bottom-up quantifications.
+   */
+  int prepareChunk(List<UUID> facilityIds, ProgramDto program, ProcessingPeriodDto period,
+      UUID authorId) {
+    Set<UUID> alreadyPrepared = new HashSet<>(bottomUpQuantificationRepository
+        .findFacilityIdsByProcessingPeriodId(period.getId(), facilityIds));
+    List<FacilityDto> facilities = facilityReferenceDataService
+        .search(new HashSet<>(facilityIds))
+        .stream()
+        .filter(facility -> !alreadyPrepared.contains(facility.getId()))
+        .filter(facility -> facilitySupportsProgramHelper.supportsProgram(facility,
+            program.getId()))
+        .collect(toList());
+
+    if (facilities.isEmpty()) {
+      return 0;
+    }
+
+    Map<UUID, List<FacilityRequisitionLineItemDataProjection>> requisitionLineItemsData =
+        bottomUpQuantificationRepository
+            .getRequisitionLineItemsData(facilityIds(facilities), period.getId())
+            .stream()
+            .collect(groupingBy(FacilityRequisitionLineItemDataProjection::getFacilityId));
+
+    Map<UUID, Map<UUID, Long>> forecasts = forecastingService
+        .forecast(facilityIds(facilities), period.getId());
+
+    List<BottomUpQuantification> bottomUpQuantifications = facilities
+        .stream()
+        .map(facility -> bottomUpQuantificationService.prepareBottomUpQuantification(facility,
+            program, period, requisitionLineItemsData.getOrDefault(facility.getId(),
+                Collections.emptyList()),
+            forecasts.getOrDefault(facility.getId(), Collections.emptyMap()), authorId))
+        .collect(toList());
+    bottomUpQuantificationRepository.saveAll(bottomUpQuantifications);
+
+    return bottomUpQuantifications.size();
+  }
+
+  /**
+   * Validates explicitly given facilities the same way as a single preparation does, so that
+   * the request is rejected before the job is created.
+   */
+  private void validateFacilities(Collection<UUID> facilityIds, ProgramDto program,
+      ProcessingPeriodDto period) {
+    facilityIds.forEach(facilityId -> bottomUpQuantificationService
+        .validatePreparationParams(facilityId, program.getId(), period.getId()));
+
+    Map<UUID, FacilityDto> facilities = facilityReferenceDataService
+        .search(new HashSet<>(facilityIds))
+        .stream()
+        .collect(toMap(FacilityDto::getId, Function.identity(), (first, second) -> first));
+    for (UUID facilityId : facilityIds) {
+      FacilityDto facility = facilities.get(facilityId);
+      if (null == facility) {
+        throw new ContentNotFoundMessageException(ERROR_FACILITY_NOT_FOUND, facilityId);
+      }
+      facilitySupportsProgramHelper.checkIfFacilitySupportsProgram(facility, program.getId());
+
+      BottomUpQuantification bottomUpQuantification = new BottomUpQuantification();
+      bottomUpQuantification.setFacilityId(facilityId);
+      bottomUpQuantification.setProgramId(program.getId());
+      bottomUpQuantification.setProcessingPeriodId(period.getId());
+      bottomUpQuantificationService.validateNewBottomUpQuantification(bottomUpQuantification);
+    }
+  }
+
+  private static Set<UUID> facilityIds(List<FacilityDto> facilities) {
+    return facilities.stream().map(FacilityDto::getId).collect(toSet());
+  }
+
+  private Set<UUID> resolveFacilityIds(BottomUpQuantificationBatchPrepareDto request) {
+    if (!CollectionUtils.isEmpty(request.getFacilityIds())) {
+      return new LinkedHashSet<>(request.getFacilityIds());
+    }
+
+    if (null != request.getGeographicZoneId()) {
+      return facilityReferenceDataService
+          .search(null, null, request.getGeographicZoneId(), true)
+          .stream()
+          .map(MinimalFacilityDto::getId)
+          .collect(toSet());
+    }
+
+    return findSupervisedFacilityIds(request.getSupervisoryNodeId());
+  }
+
+  private Set<UUID> findSupervisedFacilityIds(UUID supervisoryNodeId) {
+    SupervisoryNodeDto rootNode = supervisoryNodeReferenceDataService.findOne(supervisoryNodeId);
+    if (null == rootNode) {
+      throw new ContentNotFoundMessageException(
+          new Message(ERROR_SUPERVISORY_NODE_NOT_FOUND, supervisoryNodeId));
+    }
+
+    Set<UUID> facilityIds = new LinkedHashSet<>();
+    Set<UUID> visitedNodeIds = new HashSet<>();
+    Deque<SupervisoryNodeDto> nodes = new ArrayDeque<>();
+    nodes.add(rootNode);
+
+    while (!nodes.isEmpty()) {
+      SupervisoryNodeDto node = nodes.poll();
+      if (!visitedNodeIds.add(node.getId())) {
+        continue;
+      }
+
+      if (null != node.getRequisitionGroupId()) {
+        RequisitionGroupDto requisitionGroup = requisitionGroupReferenceDataService
+            .findOne(node.getRequisitionGroupId());
+        if (null != requisitionGroup && null != requisitionGroup.getMemberFacilities()) {
+          requisitionGroup.getMemberFacilities()
+              .forEach(facility -> facilityIds.add(facility.getId()));
+        }
+      }
+
+      Set<UUID> childNodeIds = getChildNodeIds(node);
+      childNodeIds.removeAll(visitedNodeIds);
+      nodes.addAll(supervisoryNodeReferenceDataService.findByIds(childNodeIds));
+    }
+
+    return facilityIds;
+  }
+
+  private Set<UUID> getChildNodeIds(SupervisoryNodeDto node) {
+    Collection<ObjectReferenceDto> childNodes = node.getChildNodes();
+    if (null == childNodes) {
+      return new HashSet<>();
+    }
+
+    return childNodes
+        .stream()
+        .map(ObjectReferenceDto::getId)
+        .filter(Objects::nonNull)
+        .collect(toSet());
+  }
+
+  private void validateFacilitySelection(BottomUpQuantificationBatchPrepareDto request) {
+    List<String> missingParamsList = new ArrayList<>();
+    if (null == request.getProgramId()) {
+      missingParamsList.add("program ID");
+    }
+    if (null == request.getProcessingPeriodId()) {
+      missingParamsList.add("processing period ID");
+    }
+    if (!missingParamsList.isEmpty()) {
+      throw new ValidationMessageException(new Message(ERROR_PREPARE_MISSING_PARAMETERS,
+          String.join(", ", missingParamsList)));
+    }
+
+    long selections = Stream
+        .of(CollectionUtils.isEmpty(request.getFacilityIds()) ? null : request.getFacilityIds(),
+            request.getSupervisoryNodeId(), request.getGeographicZoneId())
+        .filter(Objects::nonNull)
+        .count();
+    if (selections != 1) {
+      throw new ValidationMessageException(
+          new Message(ERROR_PREPARE_BATCH_INVALID_FACILITY_SELECTION));
+    }
+  }
+
+}
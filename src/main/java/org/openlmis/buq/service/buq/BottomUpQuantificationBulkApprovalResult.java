@@ -0,0 +1,46 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.service.buq;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import lombok.Getter;
+import org.openlmis.buq.util.Message;
+
+/**
+ * Outcome of approving many bottom-up quantifications at once. Bottom-up quantifications that
+ * could not be approved are reported with the reason, without affecting the others.
+ */
+@Getter
+public class BottomUpQuantificationBulkApprovalResult {
+
+  private final List<UUID> approvedIds = new ArrayList<>();
+
+  private final Map<UUID, Message> failures = new LinkedHashMap<>();
+
+  void addApproved(Collection<UUID> ids) {
+    approvedIds.addAll(ids);
+  }
+
+  void addFailure(UUID id, Message reason) {
+    failures.put(id, reason);
+  }
+
+}
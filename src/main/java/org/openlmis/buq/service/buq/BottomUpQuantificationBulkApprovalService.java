@@ -0,0 +1,192 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.service.buq;
+
+import static org.openlmis.buq.i18n.MessageKeys.ERROR_APPROVE_FAILED;
+import static org.openlmis.buq.i18n.MessageKeys.ERROR_BOTTOM_UP_QUANTIFICATION_NOT_FOUND;
+import static org.openlmis.buq.i18n.MessageKeys.ERROR_PROCESSING_PERIOD_NOT_FOUND;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.apache.commons.collections4.ListUtils;
+import org.openlmis.buq.domain.buq.BottomUpQuantification;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationStatusChange;
+import org.openlmis.buq.dto.referencedata.ObjectReferenceDto;
+import org.openlmis.buq.dto.referencedata.ProcessingPeriodDto;
+import org.openlmis.buq.dto.referencedata.SupervisoryNodeDto;
+import org.openlmis.buq.dto.referencedata.SupplyLineDto;
+import org.openlmis.buq.exception.ValidationMessageException;
+import org.openlmis.buq.repository.buq.BottomUpQuantificationRepository;
+import org.openlmis.buq.repository.buq.BottomUpQuantificationStatusChangeRepository;
+import org.openlmis.buq.service.referencedata.PeriodReferenceDataService;
+import org.openlmis.buq.service.referencedata.SupervisoryNodeReferenceDataService;
+import org.openlmis.buq.service.referencedata.SupplyLineReferenceDataService;
+import org.openlmis.buq.util.AuthenticationHelper;
+import org.openlmis.buq.util.Message;
+import org.openlmis.buq.validate.BottomUpQuantificationValidator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Approves many bottom-up quantifications at once on behalf of a supervisory node approver. The
+ * current user is resolved once, and the supervisory nodes, processing periods and supply lines
+ * are fetched once per distinct key for the whole request, outside of any transaction. The
+ * bottom-up quantifications are approved in chunks of one transaction each, with their status
+ * changes saved in one batch. Bottom-up quantifications that cannot be approved are reported
+ * without affecting the others.
+ */
+@Service
+public class BottomUpQuantificationBulkApprovalService {
+
+  private static final Logger LOGGER =
+      LoggerFactory.getLogger(BottomUpQuantificationBulkApprovalService.class);
+
+  @Autowired
+  private BottomUpQuantificationRepository bottomUpQuantificationRepository;
+
+  @Autowired
+  private BottomUpQuantificationStatusChangeRepository bottomUpQuantificationStatusChangeRepository;
+
+  @Autowired
+  private BottomUpQuantificationValidator validator;
+
+  @Autowired
+  private SupervisoryNodeReferenceDataService supervisoryNodeReferenceDataService;
+
+  @Autowired
+  private PeriodReferenceDataService periodReferenceDataService;
+
+  @Autowired
+  private SupplyLineReferenceDataService supplyLineReferenceDataService;
+
+  @Autowired
+  private AuthenticationHelper authenticationHelper;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @Value("${bulkApproval.chunkSize}")
+  private int chunkSize;
+
+  /**
+   * Approves the given bottom-up quantifications as they are stored. It must not be called
+   * within a transaction, so that approved chunks are committed as they go.
+   *
+   * @param ids IDs of the bottom-up quantifications to approve.
+   * @return approved IDs and the reason of every failure.
+   */
+  public BottomUpQuantificationBulkApprovalResult approve(List<UUID> ids) {
+    UUID approverId = authenticationHelper.getCurrentUser().getId();
+    TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+    BottomUpQuantificationApprovalReferenceData referenceData =
+        new BottomUpQuantificationApprovalReferenceData(supervisoryNodeReferenceDataService,
+            periodReferenceDataService, supplyLineReferenceDataService);
+    BottomUpQuantificationBulkApprovalResult result =
+        new BottomUpQuantificationBulkApprovalResult();
+
+    for (List<UUID> chunk : ListUtils.partition(new ArrayList<>(new LinkedHashSet<>(ids)),
+        chunkSize)) {
+      try {
+        referenceData.resolve(bottomUpQuantificationRepository.findApprovalKeysByIdIn(chunk));
+        List<UUID> approvedIds = transactionTemplate
+            .execute(status -> approveChunk(chunk, approverId, referenceData, result));
+        result.addApproved(approvedIds);
+      } catch (RuntimeException ex) {
+        LOGGER.error("Approval of {} bottom-up quantifications failed", chunk.size(), ex);
+        chunk.stream()
+            .filter(id -> !result.getFailures().containsKey(id))
+            .forEach(id -> result.addFailure(id, new Message(ERROR_APPROVE_FAILED)));
+      }
+    }
+
+    LOGGER.info("Approved {} of {} bottom-up quantifications", result.getApprovedIds().size(),
+        ids.size());
+    return result;
+  }
+
+  /**
+   * Approves the bottom-up quantifications of a single chunk. Bottom-up quantifications that do
+   * not exist or cannot be approved are added to the failures of the given result.
+   *
+   * @return IDs of the approved bottom-up quantifications.
+   */
+  List<UUID> approveChunk(List<UUID> ids, UUID approverId,
+      BottomUpQuantificationApprovalReferenceData referenceData,
+      BottomUpQuantificationBulkApprovalResult result) {
+    Map<UUID, BottomUpQuantification> bottomUpQuantifications = new HashMap<>();
+    bottomUpQuantificationRepository.findAllById(ids)
+        .forEach(buq -> bottomUpQuantifications.put(buq.getId(), buq));
+
+    List<BottomUpQuantificationStatusChange> statusChanges = new ArrayList<>();
+    List<UUID> approvedIds = new ArrayList<>();
+    for (UUID id : ids) {
+      BottomUpQuantification bottomUpQuantification = bottomUpQuantifications.get(id);
+      if (null == bottomUpQuantification) {
+        result.addFailure(id, new Message(ERROR_BOTTOM_UP_QUANTIFICATION_NOT_FOUND, id));
+        continue;
+      }
+
+      ProcessingPeriodDto period = referenceData
+          .getPeriod(bottomUpQuantification.getProcessingPeriodId());
+      if (null == period) {
+        result.addFailure(id, new Message(ERROR_PROCESSING_PERIOD_NOT_FOUND,
+            bottomUpQuantification.getProcessingPeriodId()));
+        continue;
+      }
+
+      try {
+        validator.validateCanBeApproved(bottomUpQuantification);
+      } catch (ValidationMessageException ex) {
+        result.addFailure(id, ex.asMessage());
+        continue;
+      }
+
+      statusChanges.add(
+          approveBottomUpQuantification(bottomUpQuantification, period, approverId, referenceData));
+      approvedIds.add(id);
+    }
+
+    bottomUpQuantificationStatusChangeRepository.saveAll(statusChanges);
+    return approvedIds;
+  }
+
+  private BottomUpQuantificationStatusChange approveBottomUpQuantification(
+      BottomUpQuantification bottomUpQuantification, ProcessingPeriodDto period,
+      UUID approverId, BottomUpQuantificationApprovalReferenceData referenceData) {
+    UUID supervisoryNodeId = bottomUpQuantification.getSupervisoryNodeId();
+    SupervisoryNodeDto supervisoryNode = referenceData.getSupervisoryNode(supervisoryNodeId);
+    ObjectReferenceDto parentNode = null == supervisoryNode
+        ? null
+        : supervisoryNode.getParentNode();
+    List<SupplyLineDto> supplyLines = period.isReportOnly()
+        ? Collections.emptyList()
+        : referenceData.getSupplyLines(bottomUpQuantification.getProgramId(), supervisoryNodeId);
+
+    return bottomUpQuantification.approve(null == parentNode ? null : parentNode.getId(),
+        supplyLines, approverId);
+  }
+
+}
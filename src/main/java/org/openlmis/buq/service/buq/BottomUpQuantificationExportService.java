@@ -0,0 +1,243 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.service.buq;
+
+import com.fasterxml.jackson.databind.SequenceWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+import javax.sql.DataSource;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationStatus;
+import org.openlmis.buq.dto.csv.BottomUpQuantificationExportCsv;
+import org.openlmis.buq.dto.referencedata.BasicOrderableDto;
+import org.openlmis.buq.dto.referencedata.FacilityDto;
+import org.openlmis.buq.service.CsvService;
+import org.openlmis.buq.service.RequestParameters;
+import org.openlmis.buq.service.referencedata.FacilityReferenceDataService;
+import org.openlmis.buq.service.referencedata.OrderableReferenceDataService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+/**
+ * Exports the line items of all approved bottom-up quantifications of a program and processing
+ * period in CSV format. Line items are read through a database cursor, {@code fetchSize} rows at
+ * a time, and each row is written to the response as soon as it is read, so the whole export is
+ * never held in memory. Facilities and orderables are resolved in bulk before the export starts.
+ */
+@Service
+public class BottomUpQuantificationExportService {
+
+  private static final Logger LOGGER =
+      LoggerFactory.getLogger(BottomUpQuantificationExportService.class);
+
+  private static final String PROGRAM_ID = "programId";
+  private static final String PROCESSING_PERIOD_ID = "processingPeriodId";
+  private static final String STATUSES = "statuses";
+
+  static final List<String> EXPORTED_STATUSES = Collections.unmodifiableList(Arrays.asList(
+      BottomUpQuantificationStatus.APPROVED.name(),
+      BottomUpQuantificationStatus.APPROVED_BY_NQT.name()));
+
+  private static final String EXPORTED_BOTTOM_UP_QUANTIFICATIONS =
+      "FROM buq.bottom_up_quantification_line_items li\n"
+      + "  JOIN buq.bottom_up_quantifications b ON b.id = li.bottomUpQuantificationId\n"
+      + "WHERE b.programId = :programId\n"
+      + "  AND b.processingPeriodId = :processingPeriodId\n"
+      + "  AND b.status IN (:statuses)\n";
+
+  static final String SELECT_FACILITY_IDS = "SELECT DISTINCT b.facilityId\n"
+      + EXPORTED_BOTTOM_UP_QUANTIFICATIONS;
+
+  static final String SELECT_ORDERABLE_IDS = "SELECT DISTINCT li.orderableId\n"
+      + EXPORTED_BOTTOM_UP_QUANTIFICATIONS;
+
+  static final String SELECT_LINE_ITEMS = "SELECT\n"
+      + "  b.facilityId,\n"
+      + "  li.orderableId,\n"
+      + "  li.annualAdjustedConsumption,\n"
+      + "  li.verifiedAnnualAdjustedConsumption,\n"
+      + "  li.forecastedDemand,\n"
+      + "  li.totalCost\n"
+      + EXPORTED_BOTTOM_UP_QUANTIFICATIONS
+      + "ORDER BY b.facilityId, li.orderableId";
+
+  private final NamedParameterJdbcTemplate jdbcTemplate;
+  private final TransactionTemplate transactionTemplate;
+  private final FacilityReferenceDataService facilityReferenceDataService;
+  private final OrderableReferenceDataService orderableReferenceDataService;
+  private final CsvService csvService;
+
+  /**
+   * Creates the export service. Line items are read through a JDBC template of its own, whose
+   * fetch size makes the PostgreSQL driver use a cursor instead of reading all rows at once.
+   */
+  @Autowired
+  public BottomUpQuantificationExportService(DataSource dataSource,
+      PlatformTransactionManager transactionManager,
+      FacilityReferenceDataService facilityReferenceDataService,
+      OrderableReferenceDataService orderableReferenceDataService, CsvService csvService,
+      @Value("${bottomUpQuantificationExport.fetchSize}") int fetchSize) {
+    this(createJdbcTemplate(dataSource, fetchSize), createTransactionTemplate(transactionManager),
+        facilityReferenceDataService, orderableReferenceDataService, csvService);
+  }
+
+  BottomUpQuantificationExportService(NamedParameterJdbcTemplate jdbcTemplate,
+      TransactionTemplate transactionTemplate,
+      FacilityReferenceDataService facilityReferenceDataService,
+      OrderableReferenceDataService orderableReferenceDataService, CsvService csvService) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.transactionTemplate = transactionTemplate;
+    this.facilityReferenceDataService = facilityReferenceDataService;
+    this.orderableReferenceDataService = orderableReferenceDataService;
+    this.csvService = csvService;
+  }
+
+  /**
+   * Prepares the export of the line items of all approved bottom-up quantifications of the given
+   * program and processing period. Facilities and orderables are resolved with one call each
+   * before anything is written, and the returned body reads the line items through a cursor in
+   * a read-only transaction of its own.
+   *
+   * @param programId          ID of the program.
+   * @param processingPeriodId ID of the processing period.
+   * @param compressed         whether the CSV should be gzip-compressed.
+   * @return body writing the line items in CSV format.
+   */
+  public StreamingResponseBody export(UUID programId, UUID processingPeriodId,
+      boolean compressed) {
+    MapSqlParameterSource params = new MapSqlParameterSource()
+        .addValue(PROGRAM_ID, programId)
+        .addValue(PROCESSING_PERIOD_ID, processingPeriodId)
+        .addValue(STATUSES, EXPORTED_STATUSES);
+
+    Map<UUID, FacilityDto> facilities = findFacilities(params);
+    Map<UUID, BasicOrderableDto> orderables = findOrderables(params);
+
+    return outputStream -> {
+      long start = System.currentTimeMillis();
+      OutputStream target = compressed ? new GZIPOutputStream(outputStream) : outputStream;
+      int rows = write(params, facilities, orderables, target);
+      if (compressed) {
+        ((GZIPOutputStream) target).finish();
+      }
+
+      LOGGER.info("Exported {} bottom-up quantification line items of program {} and period {} "
+          + "in {} ms", rows, programId, processingPeriodId, System.currentTimeMillis() - start);
+    };
+  }
+
+  private int write(MapSqlParameterSource params, Map<UUID, FacilityDto> facilities,
+      Map<UUID, BasicOrderableDto> orderables, OutputStream outputStream) throws IOException {
+    try (SequenceWriter writer = csvService
+        .createCsvWriter(BottomUpQuantificationExportCsv.class, outputStream)) {
+      AtomicInteger rows = new AtomicInteger();
+      transactionTemplate.execute(status -> {
+        jdbcTemplate.query(SELECT_LINE_ITEMS, params, resultSet -> {
+          try {
+            writer.write(toCsv(resultSet, facilities, orderables));
+          } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+          }
+          rows.incrementAndGet();
+        });
+        return null;
+      });
+
+      return rows.get();
+    } catch (UncheckedIOException ex) {
+      throw ex.getCause();
+    }
+  }
+
+  private BottomUpQuantificationExportCsv toCsv(ResultSet resultSet,
+      Map<UUID, FacilityDto> facilities, Map<UUID, BasicOrderableDto> orderables)
+      throws SQLException {
+    FacilityDto facility = facilities.get(resultSet.getObject(1, UUID.class));
+    BasicOrderableDto orderable = orderables.get(resultSet.getObject(2, UUID.class));
+
+    return new BottomUpQuantificationExportCsv(
+        facility == null ? null : facility.getCode(),
+        facility == null ? null : facility.getName(),
+        orderable == null ? null : orderable.getProductCode(),
+        orderable == null ? null : orderable.getFullProductName(),
+        resultSet.getObject(3, Integer.class),
+        resultSet.getObject(4, Integer.class),
+        resultSet.getObject(5, Integer.class),
+        resultSet.getBigDecimal(6));
+  }
+
+  private Map<UUID, FacilityDto> findFacilities(MapSqlParameterSource params) {
+    Set<UUID> facilityIds =
+        new HashSet<>(jdbcTemplate.queryForList(SELECT_FACILITY_IDS, params, UUID.class));
+    if (facilityIds.isEmpty()) {
+      return Collections.emptyMap();
+    }
+
+    return facilityReferenceDataService
+        .search(facilityIds)
+        .stream()
+        .collect(Collectors.toMap(FacilityDto::getId, Function.identity(), (a, b) -> a));
+  }
+
+  private Map<UUID, BasicOrderableDto> findOrderables(MapSqlParameterSource params) {
+    List<UUID> orderableIds = jdbcTemplate.queryForList(SELECT_ORDERABLE_IDS, params, UUID.class);
+    if (orderableIds.isEmpty()) {
+      return Collections.emptyMap();
+    }
+
+    return orderableReferenceDataService
+        .findAll(RequestParameters.init().set("id", orderableIds))
+        .stream()
+        .collect(Collectors.toMap(BasicOrderableDto::getId, Function.identity(), (a, b) -> a));
+  }
+
+  private static NamedParameterJdbcTemplate createJdbcTemplate(DataSource dataSource,
+      int fetchSize) {
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    jdbcTemplate.setFetchSize(fetchSize);
+    return new NamedParameterJdbcTemplate(jdbcTemplate);
+  }
+
+  private static TransactionTemplate createTransactionTemplate(
+      PlatformTransactionManager transactionManager) {
+    TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+    transactionTemplate.setReadOnly(true);
+    return transactionTemplate;
+  }
+
+}
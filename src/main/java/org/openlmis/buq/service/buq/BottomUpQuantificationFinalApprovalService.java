@@ -0,0 +1,190 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.service.buq;
+
+import static org.openlmis.buq.i18n.MessageKeys.ERROR_BOTTOM_UP_QUANTIFICATION_NOT_FOUND;
+import static org.openlmis.buq.i18n.MessageKeys.ERROR_FINAL_APPROVE_FAILED;
+import static org.openlmis.buq.i18n.MessageKeys.ERROR_MUST_BE_APPROVED_TO_BE_FINAL_APPROVED;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.BooleanSupplier;
+import org.apache.commons.collections4.ListUtils;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationStatus;
+import org.openlmis.buq.service.audit.AuditOutboxService;
+import org.openlmis.buq.util.AuthenticationHelper;
+import org.openlmis.buq.util.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Final approves many bottom-up quantifications at once with set-based statements instead of
+ * loading and saving each of them. The current user is resolved once, and the IDs are processed
+ * in chunks of one transaction each: every chunk locks its bottom-up quantifications, changes the
+ * status of the approved ones with a single update and inserts their status changes and audit
+ * outbox entries in batches. A chunk that fails is rolled back and reported without affecting
+ * the chunks approved before it. The approval can be cancelled between chunks.
+ */
+@Service
+public class BottomUpQuantificationFinalApprovalService {
+
+  private static final Logger LOGGER =
+      LoggerFactory.getLogger(BottomUpQuantificationFinalApprovalService.class);
+
+  private static final String IDS = "ids";
+  private static final String STATUS = "status";
+
+  static final String SELECT_STATUSES = "SELECT id, status\n"
+      + "FROM buq.bottom_up_quantifications\n"
+      + "WHERE id IN (:ids)\n"
+      + "FOR UPDATE";
+
+  static final String UPDATE_STATUSES = "UPDATE buq.bottom_up_quantifications\n"
+      + "SET status = :status, modifiedDate = NOW()\n"
+      + "WHERE id IN (:ids)";
+
+  static final String INSERT_STATUS_CHANGE =
+      "INSERT INTO buq.bottom_up_quantification_status_changes\n"
+      + "  (id, bottomUpQuantificationId, authorId, occurredDate, status)\n"
+      + "VALUES (:id, :bottomUpQuantificationId, :authorId, NOW(), :status)";
+
+  @Autowired
+  private NamedParameterJdbcTemplate jdbcTemplate;
+
+  @Autowired
+  private AuthenticationHelper authenticationHelper;
+
+  @Autowired
+  private AuditOutboxService auditOutboxService;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @Value("${finalApproval.chunkSize}")
+  private int chunkSize;
+
+  /**
+   * Changes the status of the given bottom-up quantifications from approved to approved by NQT.
+   * It must not be called within a transaction, so that approved chunks are committed as they
+   * go.
+   *
+   * @param ids IDs of the bottom-up quantifications to final approve.
+   * @return approved IDs and the reason of every failure.
+   */
+  public BottomUpQuantificationBulkApprovalResult finalApprove(List<UUID> ids) {
+    return finalApprove(ids, () -> false);
+  }
+
+  /**
+   * Changes the status of the given bottom-up quantifications from approved to approved by NQT,
+   * like {@link #finalApprove(List)}, but checks before every chunk whether the approval has been
+   * cancelled. Once it is, no further chunk is started. The chunks approved before the
+   * cancellation stay committed, the IDs of the remaining chunks are neither approved nor
+   * reported in the result.
+   *
+   * @param ids IDs of the bottom-up quantifications to final approve.
+   * @param cancelled tells whether the approval has been cancelled.
+   * @return approved IDs and the reason of every failure, up to the cancellation.
+   */
+  public BottomUpQuantificationBulkApprovalResult finalApprove(List<UUID> ids,
+      BooleanSupplier cancelled) {
+    UUID authorId = authenticationHelper.getCurrentUser().getId();
+    TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+    BottomUpQuantificationBulkApprovalResult result =
+        new BottomUpQuantificationBulkApprovalResult();
+
+    for (List<UUID> chunk : ListUtils.partition(new ArrayList<>(new LinkedHashSet<>(ids)),
+        chunkSize)) {
+      if (cancelled.getAsBoolean()) {
+        LOGGER.info("Final approval was cancelled after {} of {} bottom-up quantifications",
+            result.getApprovedIds().size(), ids.size());
+        return result;
+      }
+
+      try {
+        List<UUID> approvedIds = transactionTemplate
+            .execute(status -> finalApproveChunk(chunk, authorId, result));
+        result.addApproved(approvedIds);
+      } catch (RuntimeException ex) {
+        LOGGER.error("Final approval of {} bottom-up quantifications failed", chunk.size(), ex);
+        chunk.stream()
+            .filter(id -> !result.getFailures().containsKey(id))
+            .forEach(id -> result.addFailure(id, new Message(ERROR_FINAL_APPROVE_FAILED)));
+      }
+    }
+
+    LOGGER.info("Final approved {} of {} bottom-up quantifications",
+        result.getApprovedIds().size(), ids.size());
+    return result;
+  }
+
+  /**
+   * Final approves the bottom-up quantifications of a single chunk. IDs that do not exist or are
+   * not approved are added to the failures of the given result.
+   *
+   * @return IDs of the final approved bottom-up quantifications.
+   */
+  List<UUID> finalApproveChunk(List<UUID> ids, UUID authorId,
+      BottomUpQuantificationBulkApprovalResult result) {
+    Map<UUID, BottomUpQuantificationStatus> statuses = new HashMap<>();
+    jdbcTemplate.query(SELECT_STATUSES, new MapSqlParameterSource(IDS, ids), rs -> {
+      statuses.put(rs.getObject("id", UUID.class),
+          BottomUpQuantificationStatus.valueOf(rs.getString(STATUS)));
+    });
+
+    List<UUID> approvedIds = new ArrayList<>();
+    for (UUID id : ids) {
+      BottomUpQuantificationStatus status = statuses.get(id);
+      if (null == status) {
+        result.addFailure(id, new Message(ERROR_BOTTOM_UP_QUANTIFICATION_NOT_FOUND, id));
+      } else if (BottomUpQuantificationStatus.APPROVED != status) {
+        result.addFailure(id, new Message(ERROR_MUST_BE_APPROVED_TO_BE_FINAL_APPROVED));
+      } else {
+        approvedIds.add(id);
+      }
+    }
+
+    if (approvedIds.isEmpty()) {
+      return approvedIds;
+    }
+
+    String newStatus = BottomUpQuantificationStatus.APPROVED_BY_NQT.name();
+    jdbcTemplate.update(UPDATE_STATUSES, new MapSqlParameterSource(IDS, approvedIds)
+        .addValue(STATUS, newStatus));
+    jdbcTemplate.batchUpdate(INSERT_STATUS_CHANGE, approvedIds
+        .stream()
+        .map(id -> new MapSqlParameterSource("id", UUID.randomUUID())
+            .addValue("bottomUpQuantificationId", id)
+            .addValue("authorId", authorId)
+            .addValue(STATUS, newStatus))
+        .toArray(MapSqlParameterSource[]::new));
+    auditOutboxService.enqueueAll(approvedIds);
+
+    return approvedIds;
+  }
+
+}
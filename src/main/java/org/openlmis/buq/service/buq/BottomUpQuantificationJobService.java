@@ -0,0 +1,450 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.service.buq;
+
+import static org.openlmis.buq.i18n.MessageKeys.ERROR_JOB_ABANDONED;
+import static org.openlmis.buq.i18n.MessageKeys.ERROR_JOB_CANNOT_BE_CANCELLED;
+import static org.openlmis.buq.i18n.MessageKeys.ERROR_JOB_FAILED;
+import static org.openlmis.buq.i18n.MessageKeys.ERROR_JOB_NOT_FOUND;
+import static org.openlmis.buq.i18n.MessageKeys.ERROR_JOB_REJECTED;
+import static org.openlmis.buq.i18n.MessageKeys.ERROR_JOB_RESULT_NOT_AVAILABLE;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.time.Clock;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationJob;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationJobStatus;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationJobType;
+import org.openlmis.buq.dto.BottomUpQuantificationGroupCostsData;
+import org.openlmis.buq.dto.buq.BottomUpQuantificationBulkApprovalResultDto;
+import org.openlmis.buq.exception.ContentNotFoundMessageException;
+import org.openlmis.buq.exception.TooManyRequestsMessageException;
+import org.openlmis.buq.exception.ValidationMessageException;
+import org.openlmis.buq.i18n.MessageService;
+import org.openlmis.buq.repository.buq.BottomUpQuantificationJobRepository;
+import org.openlmis.buq.util.AuthenticationHelper;
+import org.openlmis.buq.util.Message;
+import org.openlmis.buq.util.Pagination;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.concurrent.DelegatingSecurityContextRunnable;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Runs long-running operations on bottom-up quantifications in the background, so that they are
+ * not bound to the lifetime of an HTTP request. Jobs are run on a bounded executor, which limits
+ * the number of jobs running at the same time on a service instance; jobs that do not fit in its
+ * queue are rejected. The security context of the requesting user is passed to the job, as the
+ * operations depend on the rights and supervised facilities of the current user. Failed jobs
+ * store a localized message, the details of the failure are only logged.
+ *
+ * <p>Every service instance regularly updates the modified date of the jobs it has queued or is
+ * running, see {@link #sendHeartbeats()}. Jobs without such a heartbeat were left behind by an
+ * instance that stopped, and are marked as failed by {@link #failStaleJobs()}.
+ */
+@Service
+public class BottomUpQuantificationJobService {
+
+  private static final Logger LOGGER =
+      LoggerFactory.getLogger(BottomUpQuantificationJobService.class);
+
+  static final String PROGRAM_ID = "programId";
+  static final String PROCESSING_PERIOD_ID = "processingPeriodId";
+  static final String GEOGRAPHIC_ZONE_ID = "geographicZoneId";
+  static final String GEOGRAPHIC_ZONES = "geographicZones";
+  static final String PAGE = "page";
+  static final String SIZE = "size";
+  static final String IDS = "ids";
+
+  private final Map<UUID, Future<?>> runningJobs = new ConcurrentHashMap<>();
+
+  @Autowired
+  private BottomUpQuantificationJobRepository jobRepository;
+
+  @Autowired
+  private BottomUpQuantificationService bottomUpQuantificationService;
+
+  @Autowired
+  private BottomUpQuantificationFinalApprovalService bottomUpQuantificationFinalApprovalService;
+
+  @Autowired
+  private AuthenticationHelper authenticationHelper;
+
+  @Autowired
+  private MessageService messageService;
+
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @Autowired
+  private Clock clock;
+
+  @Autowired
+  @Qualifier("bottomUpQuantificationJobTaskExecutor")
+  private TaskExecutor taskExecutor;
+
+  @Value("${bottomUpQuantificationJobs.retentionDays}")
+  private int retentionDays;
+
+  @Value("${bottomUpQuantificationJobs.staleJobTimeout}")
+  private long staleJobTimeout;
+
+  /**
+   * Schedules the calculation of product group costs, see
+   * {@link BottomUpQuantificationService#getProductsCostData}.
+   *
+   * @return created, pending job.
+   * @throws TooManyRequestsMessageException if too many jobs are waiting to be run.
+   */
+  public BottomUpQuantificationJob submitCostCalculation(UUID processingPeriodId,
+      UUID programId, UUID geographicZoneId,
+      Map<UUID, Map<UUID, Map<UUID, Set<UUID>>>> geographicZones, Pageable pageable) {
+    Map<String, Object> parameters = new LinkedHashMap<>();
+    parameters.put(PROCESSING_PERIOD_ID, processingPeriodId);
+    parameters.put(PROGRAM_ID, programId);
+    parameters.put(GEOGRAPHIC_ZONE_ID, geographicZoneId);
+    parameters.put(GEOGRAPHIC_ZONES, geographicZones);
+    parameters.put(PAGE, Pagination.getPageNumber(pageable));
+    parameters.put(SIZE, Pagination.getPageSize(pageable));
+
+    return submit(BottomUpQuantificationJobType.COST_CALCULATION, parameters, null,
+        jobId -> inTransaction(() -> bottomUpQuantificationService.getProductsCostData(
+            processingPeriodId, programId, geographicZoneId, geographicZones, pageable)));
+  }
+
+  /**
+   * Schedules the search for bottom-up quantifications to final approve along with their group
+   * costs, see
+   * {@link BottomUpQuantificationService#getBottomUpQuantificationsForFinalApprovalWithGroupCosts}.
+   *
+   * @return created, pending job.
+   * @throws TooManyRequestsMessageException if too many jobs are waiting to be run.
+   */
+  public BottomUpQuantificationJob submitForFinalApproval(UUID programId,
+      UUID processingPeriodId, UUID geographicZoneId, Pageable pageable) {
+    Map<String, Object> parameters = new LinkedHashMap<>();
+    parameters.put(PROGRAM_ID, programId);
+    parameters.put(PROCESSING_PERIOD_ID, processingPeriodId);
+    parameters.put(GEOGRAPHIC_ZONE_ID, geographicZoneId);
+    parameters.put(PAGE, Pagination.getPageNumber(pageable));
+    parameters.put(SIZE, Pagination.getPageSize(pageable));
+
+    return submit(BottomUpQuantificationJobType.FOR_FINAL_APPROVAL, parameters, null,
+        jobId -> inTransaction(() -> {
+          List<BottomUpQuantificationGroupCostsData> content = bottomUpQuantificationService
+              .getBottomUpQuantificationsForFinalApprovalWithGroupCosts(programId,
+                  processingPeriodId, geographicZoneId, pageable);
+          return Pagination.getPage(content, pageable, content.size());
+        }));
+  }
+
+  /**
+   * Schedules the final approval of the given bottom-up quantifications, see
+   * {@link BottomUpQuantificationFinalApprovalService#finalApprove}. The job checks before every
+   * chunk whether it should stop, see {@link #shouldStop}.
+   *
+   * @return created, pending job.
+   * @throws TooManyRequestsMessageException if too many jobs are waiting to be run.
+   */
+  public BottomUpQuantificationJob submitFinalApproval(List<UUID> ids) {
+    Map<String, Object> parameters = new LinkedHashMap<>();
+    parameters.put(IDS, ids);
+
+    return submit(BottomUpQuantificationJobType.FINAL_APPROVAL, parameters, null,
+        jobId -> BottomUpQuantificationBulkApprovalResultDto.newInstance(
+            bottomUpQuantificationFinalApprovalService.finalApprove(ids,
+                () -> shouldStop(jobId)), messageService));
+  }
+
+  /**
+   * Finds the job with the given ID. Users can only see their own jobs.
+   *
+   * @param jobId ID of the job.
+   * @return found job.
+   */
+  public BottomUpQuantificationJob findJob(UUID jobId) {
+    return findOwnJob(jobId, job -> true);
+  }
+
+  /**
+   * Finds the job of the given type with the given ID. Users can only see their own jobs.
+   *
+   * @param jobId ID of the job.
+   * @param type type of the job.
+   * @return found job.
+   */
+  public BottomUpQuantificationJob findJob(UUID jobId, BottomUpQuantificationJobType type) {
+    return findOwnJob(jobId, job -> type == job.getType());
+  }
+
+  /**
+   * Returns the stored result of a completed job, as JSON.
+   *
+   * @param jobId ID of the job.
+   * @return result of the job.
+   */
+  public String getResult(UUID jobId) {
+    BottomUpQuantificationJob job = findJob(jobId);
+    if (BottomUpQuantificationJobStatus.COMPLETED != job.getStatus()) {
+      throw new ValidationMessageException(
+          new Message(ERROR_JOB_RESULT_NOT_AVAILABLE, jobId, job.getStatus()));
+    }
+
+    return jobRepository.findResultById(jobId);
+  }
+
+  /**
+   * Cancels a job that has not finished yet. A pending job will not be started, and the thread
+   * of a job that is running on this service instance is interrupted once the cancellation is
+   * committed. A running final approval or batch prepare stops before its next chunk, on any
+   * service instance; the chunks processed before that stay committed. The other jobs run in a
+   * single step and are not stopped, but the result of a cancelled job is never stored.
+   *
+   * @param jobId ID of the job.
+   * @return cancelled job.
+   */
+  public BottomUpQuantificationJob cancel(UUID jobId) {
+    BottomUpQuantificationJob job = findJob(jobId);
+    if (job.getStatus().isFinished() || 0 == jobRepository.cancel(jobId)) {
+      throw new ValidationMessageException(
+          new Message(ERROR_JOB_CANNOT_BE_CANCELLED, jobId, job.getStatus()));
+    }
+
+    runAfterCommit(() -> {
+      Future<?> future = runningJobs.remove(jobId);
+      if (null != future) {
+        future.cancel(true);
+      }
+    });
+
+    return findJob(jobId);
+  }
+
+  /**
+   * Removes jobs, along with their results, that are older than the retention period.
+   */
+  @Transactional
+  @Scheduled(initialDelayString = "${bottomUpQuantificationJobs.cleanup.initialDelay}",
+      fixedDelayString = "${bottomUpQuantificationJobs.cleanup.delay}")
+  public void removeExpiredJobs() {
+    int removed = jobRepository
+        .deleteByCreatedDateBefore(ZonedDateTime.now(clock).minusDays(retentionDays));
+    LOGGER.debug("Removed {} expired bottom-up quantification jobs", removed);
+  }
+
+  /**
+   * Updates the modified date of the jobs queued or running on this service instance, so that
+   * they are not taken for stale jobs however long they run or wait in the queue.
+   */
+  @Transactional
+  @Scheduled(fixedDelayString = "${bottomUpQuantificationJobs.heartbeat.delay}")
+  public void sendHeartbeats() {
+    Set<UUID> jobIds = new HashSet<>(runningJobs.keySet());
+    if (!jobIds.isEmpty()) {
+      jobRepository.touch(jobIds);
+    }
+  }
+
+  /**
+   * Marks jobs that have not had a heartbeat within the stale job timeout as failed. Such jobs
+   * were left behind by a service instance that stopped while running or queueing them.
+   */
+  @Transactional
+  @Scheduled(initialDelayString = "${bottomUpQuantificationJobs.staleJobCheck.initialDelay}",
+      fixedDelayString = "${bottomUpQuantificationJobs.staleJobCheck.delay}")
+  public void failStaleJobs() {
+    int failed = jobRepository.failStale(
+        ZonedDateTime.now(clock).minus(staleJobTimeout, ChronoUnit.MILLIS),
+        localize(ERROR_JOB_ABANDONED));
+    if (failed > 0) {
+      LOGGER.warn("Marked {} stale bottom-up quantification jobs as failed", failed);
+    }
+  }
+
+  /**
+   * Runs the job if it is still pending. The thread is interrupted when the job is cancelled
+   * on this service instance; the interrupt is cleared here, so that a cancelled job is neither
+   * completed nor marked as failed.
+   */
+  void process(UUID jobId, Function<UUID, Object> work) {
+    TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+    try {
+      Integer started = transactionTemplate.execute(status -> jobRepository.start(jobId));
+      if (null == started || 0 == started) {
+        return;
+      }
+
+      Object result = work.apply(jobId);
+      if (Thread.interrupted()) {
+        LOGGER.info("Bottom-up quantification job {} was cancelled", jobId);
+        return;
+      }
+
+      String json = toJson(result);
+      Integer completed = transactionTemplate
+          .execute(status -> jobRepository.complete(jobId, json));
+      if (null == completed || 0 == completed) {
+        LOGGER.warn("Bottom-up quantification job {} is no longer in progress,"
+            + " its result is discarded", jobId);
+      }
+    } catch (RuntimeException ex) {
+      if (Thread.interrupted()) {
+        LOGGER.info("Bottom-up quantification job {} was cancelled", jobId, ex);
+        return;
+      }
+
+      LOGGER.error("Bottom-up quantification job {} failed", jobId, ex);
+      String errorMessage = localize(ERROR_JOB_FAILED);
+      transactionTemplate.execute(status -> jobRepository.fail(jobId, errorMessage));
+    } finally {
+      runningJobs.remove(jobId);
+    }
+  }
+
+  /**
+   * Adds the given numbers of processed items to the progress of a running job. The job should
+   * stop if this returns false: its thread has been interrupted by {@link #cancel} on this
+   * service instance, or it is no longer in progress, because it has been cancelled on another
+   * instance or marked as failed by {@link #failStaleJobs}.
+   *
+   * @return true if the job should go on.
+   */
+  boolean updateProgress(UUID jobId, int completedItems, int skippedItems) {
+    if (Thread.currentThread().isInterrupted()) {
+      return false;
+    }
+
+    Integer updated = new TransactionTemplate(transactionManager).execute(status ->
+        jobRepository.updateProgress(jobId, completedItems, skippedItems));
+    return null != updated && 0 != updated;
+  }
+
+  /**
+   * Tells whether a running job should stop, see {@link #updateProgress}.
+   */
+  boolean shouldStop(UUID jobId) {
+    return !updateProgress(jobId, 0, 0);
+  }
+
+  /**
+   * Saves a new, pending job in its own transaction, so that it is visible to the worker straight
+   * away, and schedules it.
+   *
+   * @param totalItems number of items the job works through, or null if it runs in one step.
+   * @throws TooManyRequestsMessageException if too many jobs are waiting to be run.
+   */
+  BottomUpQuantificationJob submit(BottomUpQuantificationJobType type,
+      Map<String, Object> parameters, Integer totalItems, Function<UUID, Object> work) {
+    BottomUpQuantificationJob job = BottomUpQuantificationJob
+        .newInstance(type, toJson(parameters), authenticationHelper.getCurrentUser().getId());
+    job.setTotalItems(totalItems);
+    TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+    transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    BottomUpQuantificationJob saved = transactionTemplate
+        .execute(status -> jobRepository.save(job));
+
+    UUID jobId = saved.getId();
+    FutureTask<Void> task = new FutureTask<>(
+        new DelegatingSecurityContextRunnable(() -> process(jobId, work)), null);
+    runningJobs.put(jobId, task);
+    try {
+      taskExecutor.execute(task);
+    } catch (TaskRejectedException ex) {
+      LOGGER.warn("Bottom-up quantification job {} was rejected", jobId, ex);
+      runningJobs.remove(jobId);
+
+      String errorMessage = localize(ERROR_JOB_REJECTED);
+      transactionTemplate.execute(status -> jobRepository.fail(jobId, errorMessage));
+      throw new TooManyRequestsMessageException(new Message(ERROR_JOB_REJECTED), ex);
+    }
+
+    return saved;
+  }
+
+  private BottomUpQuantificationJob findOwnJob(UUID jobId,
+      Predicate<BottomUpQuantificationJob> filter) {
+    UUID userId = authenticationHelper.getCurrentUser().getId();
+
+    return jobRepository
+        .findById(jobId)
+        .filter(job -> userId.equals(job.getRequestedById()))
+        .filter(filter)
+        .orElseThrow(() -> new ContentNotFoundMessageException(
+            new Message(ERROR_JOB_NOT_FOUND, jobId)));
+  }
+
+  private String localize(String messageKey) {
+    return messageService.localize(new Message(messageKey)).asMessage();
+  }
+
+  private Object inTransaction(Supplier<Object> work) {
+    return new TransactionTemplate(transactionManager).execute(status -> work.get());
+  }
+
+  private String toJson(Object value) {
+    try {
+      return objectMapper.writeValueAsString(value);
+    } catch (JsonProcessingException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  private void runAfterCommit(Runnable task) {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      task.run();
+      return;
+    }
+
+    TransactionSynchronizationManager.registerSynchronization(
+        new TransactionSynchronizationAdapter() {
+          @Override
+          public void afterCommit() {
+            task.run();
+          }
+        });
+  }
+
+}
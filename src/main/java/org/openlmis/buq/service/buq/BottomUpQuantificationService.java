@@ -25,15 +25,23 @@ import static org.openlmis.buq.i18n.MessageKeys.ERROR_PROCESSING_PERIOD_NOT_FOUN
 import static org.openlmis.buq.i18n.MessageKeys.ERROR_PROGRAM_NOT_FOUND;
 import static org.openlmis.buq.i18n.MessageKeys.ERROR_SOURCE_OF_FUND_NOT_FOUND;
 import static org.openlmis.buq.i18n.MessageKeys.ERROR_SUPERVISORY_NODE_CANNOT_BE_NULL_TO_BE_AUTHORIZED;
+import static org.openlmis.buq.i18n.MessageKeys.ERROR_UPLOAD_INVALID_FILE;
+import static org.openlmis.buq.i18n.MessageKeys.ERROR_UPLOAD_PRODUCT_CODE_DUPLICATED;
+import static org.openlmis.buq.i18n.MessageKeys.ERROR_UPLOAD_PRODUCT_CODE_NOT_FOUND;
 
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.RuntimeJsonMappingException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.time.ZonedDateTime;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -61,8 +69,12 @@ import org.openlmis.buq.domain.productgroup.ProductGroup;
 import org.openlmis.buq.domain.sourceoffund.SourceOfFund;
 import org.openlmis.buq.dto.BottomUpQuantificationGroupCostsData;
 import org.openlmis.buq.dto.ResultDto;
+import org.openlmis.buq.dto.buq.BottomUpQuantificationApprovalKeysProjection;
 import org.openlmis.buq.dto.buq.BottomUpQuantificationDto;
+import org.openlmis.buq.dto.buq.BottomUpQuantificationFundingDetailsDto;
 import org.openlmis.buq.dto.buq.BottomUpQuantificationLineItemDto;
+import org.openlmis.buq.dto.buq.BottomUpQuantificationPatchDto;
+import org.openlmis.buq.dto.buq.BottomUpQuantificationSourceOfFundDto;
 import org.openlmis.buq.dto.buq.RejectionDto;
 import org.openlmis.buq.dto.csv.BottomUpQuantificationLineItemCsv;
 import org.openlmis.buq.dto.productgroup.ProductGroupsCostData;
@@ -78,7 +90,9 @@ import org.openlmis.buq.dto.referencedata.RightDto;
 import org.openlmis.buq.dto.referencedata.SupervisoryNodeDto;
 import org.openlmis.buq.dto.referencedata.SupplyLineDto;
 import org.openlmis.buq.dto.referencedata.UserDto;
+import org.openlmis.buq.dto.remark.RemarkDto;
 import org.openlmis.buq.dto.requisition.RequisitionLineItemDataProjection;
+import org.openlmis.buq.dto.sourceoffund.SourceOfFundDto;
 import org.openlmis.buq.exception.BindingResultException;
 import org.openlmis.buq.exception.ContentNotFoundMessageException;
 import org.openlmis.buq.exception.ValidationMessageException;
@@ -92,6 +106,8 @@ import org.openlmis.buq.repository.productgroup.ProductGroupRepository;
 import org.openlmis.buq.repository.sourceoffund.SourceOfFundRepository;
 import org.openlmis.buq.service.CsvService;
 import org.openlmis.buq.service.RequestParameters;
+import org.openlmis.buq.service.catalog.CatalogCache;
+import org.openlmis.buq.service.forecasting.ForecastingService;
 import org.openlmis.buq.service.referencedata.FacilityReferenceDataService;
 import org.openlmis.buq.service.referencedata.OrderableReferenceDataService;
 import org.openlmis.buq.service.referencedata.PeriodReferenceDataService;
@@ -112,10 +128,14 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.CollectionUtils;
 import org.springframework.validation.BeanPropertyBindingResult;
 import org.springframework.validation.BindingResult;
 import org.springframework.validation.FieldError;
+import org.springframework.validation.MapBindingResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @SuppressWarnings("PMD.TooManyMethods")
 @Service
@@ -146,6 +166,9 @@ public class BottomUpQuantificationService {
   @Autowired
   private CsvService csvService;
 
+  @Autowired
+  private ForecastingService forecastingService;
+
   @Autowired
   private BottomUpQuantificationRepository bottomUpQuantificationRepository;
 
@@ -161,6 +184,9 @@ public class BottomUpQuantificationService {
   @Autowired
   private SourceOfFundRepository sourceOfFundRepository;
 
+  @Autowired
+  private CatalogCache catalogCache;
+
   @Autowired
   private UserReferenceDataService userReferenceDataService;
 
@@ -195,10 +221,15 @@ public class BottomUpQuantificationService {
   private BottomUpQuantificationFundingDetailsRepository
             bottomUpQuantificationFundingDetailsRepository;
 
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
   private static final String MESSAGE_SEPARATOR = ":";
 
   private static final String PARAMETER_SEPARATOR = ",";
 
+  private static final String ROW_FIELD_PREFIX = "row";
+
   /**
    * Prepares given bottom-up quantification if possible.
    *
@@ -220,15 +251,13 @@ public class BottomUpQuantificationService {
         bottomUpQuantificationRepository.getRequisitionLineItemsData(facility.getId(),
             period.getId());
 
+    Map<UUID, Long> forecasts = forecastingService.forecast(facility.getId(), period.getId());
+
     BottomUpQuantification newBottomUpQuantification = prepareBottomUpQuantification(facility,
-        program, period, requisitionLineItemsData);
+        program, period, requisitionLineItemsData, forecasts,
+        authenticationHelper.getCurrentUser().getId());
 
-    BindingResult errors = new BeanPropertyBindingResult(newBottomUpQuantification,
-        "bottomUpQuantification");
-    validator.validate(newBottomUpQuantification, errors);
-    if (errors.hasErrors()) {
-      throw new BindingResultException(getErrors(errors));
-    }
+    validateNewBottomUpQuantification(newBottomUpQuantification);
 
     bottomUpQuantificationRepository.save(newBottomUpQuantification);
 
@@ -245,6 +274,7 @@ public class BottomUpQuantificationService {
   public BottomUpQuantification save(BottomUpQuantificationDto bottomUpQuantificationImporter,
       UUID bottomUpQuantificationId) {
     checkFacilityPermission(bottomUpQuantificationImporter.getFacilityId());
+    validateOrderables(bottomUpQuantificationImporter);
     BottomUpQuantification updatedBottomUpQuantification =
         updateBottomUpQuantification(bottomUpQuantificationImporter, bottomUpQuantificationId);
 
@@ -253,34 +283,109 @@ public class BottomUpQuantificationService {
     return updatedBottomUpQuantification;
   }
 
+  /**
+   * Saves only the changed line items and, if given, the funding details of a bottom-up
+   * quantification. Orderables are validated only for line items whose orderable has changed,
+   * and only the changed line items are persisted.
+   *
+   * @param patch DTO containing the changed data.
+   * @param bottomUpQuantificationId ID of the bottom-up quantification to be updated.
+   * @return Bottom-up quantification with new data.
+   */
+  public BottomUpQuantification patch(BottomUpQuantificationPatchDto patch,
+      UUID bottomUpQuantificationId) {
+    BottomUpQuantification bottomUpQuantification =
+        findBottomUpQuantification(bottomUpQuantificationId);
+    checkFacilityPermission(bottomUpQuantification.getFacilityId());
+
+    Map<UUID, BottomUpQuantificationLineItem> existingLineItems = bottomUpQuantification
+        .getBottomUpQuantificationLineItems()
+        .stream()
+        .collect(Collectors.toMap(BottomUpQuantificationLineItem::getId, Function.identity()));
+
+    Map<UUID, Remark> remarks = findRemarks(patch.getBottomUpQuantificationLineItems());
+    List<BottomUpQuantificationLineItem> changedLineItems = new ArrayList<>();
+    Set<UUID> changedOrderableIds = new HashSet<>();
+    for (BottomUpQuantificationLineItemDto lineItemDto
+        : patch.getBottomUpQuantificationLineItems()) {
+      if (null == lineItemDto.getId()) {
+        throw new ValidationMessageException(new Message(
+            MessageKeys.ERROR_LINE_ITEM_FIELD_REQUIRED, "id"));
+      }
+
+      BottomUpQuantificationLineItem lineItem = existingLineItems.get(lineItemDto.getId());
+      if (null == lineItem) {
+        throw new ValidationMessageException(new Message(
+            MessageKeys.ERROR_LINE_ITEM_NOT_FOUND, lineItemDto.getId()));
+      }
+
+      if (!Objects.equals(lineItem.getOrderableId(), lineItemDto.getOrderableId())) {
+        changedOrderableIds.add(lineItemDto.getOrderableId());
+      }
+
+      BottomUpQuantificationLineItem updatedLineItem =
+          BottomUpQuantificationLineItem.newInstance(lineItemDto);
+      updatedLineItem.setBottomUpQuantification(bottomUpQuantification);
+      if (lineItemDto.getRemark() != null) {
+        updatedLineItem.setRemark(remarks.get(lineItemDto.getRemark().getId()));
+      }
+
+      lineItem.updateFrom(updatedLineItem);
+      changedLineItems.add(lineItem);
+    }
+
+    if (!changedOrderableIds.isEmpty() && findOrderables(new ArrayList<>(changedOrderableIds))
+        .size() != changedOrderableIds.size()) {
+      throw new ContentNotFoundMessageException(ERROR_ORDERABLE_NOT_FOUND);
+    }
+
+    if (patch.getFundingDetails() != null) {
+      updateFundingDetails(bottomUpQuantification, patch.getFundingDetails());
+    }
+
+    bottomUpQuantificationLineItemRepository.saveAll(changedLineItems);
+    bottomUpQuantification.setModifiedDate(ZonedDateTime.now());
+    assignInitialSupervisoryNode(bottomUpQuantification);
+
+    return bottomUpQuantification;
+  }
+
   private void assignInitialSupervisoryNode(BottomUpQuantification bottomUpQuantification) {
     if (bottomUpQuantification.isApprovable()
             && bottomUpQuantification.getSupervisoryNodeId() == null) {
       SupervisoryNodeDto supervisoryNode = supervisoryNodeReferenceDataService.findSupervisoryNode(
               bottomUpQuantification.getProgramId(),
               bottomUpQuantification.getFacilityId());
-      if (supervisoryNode != null) {
-        bottomUpQuantification.setSupervisoryNodeId(supervisoryNode.getId());
-        return;
-      }
-      bottomUpQuantification.setSupervisoryNodeId(null);
+      assignInitialSupervisoryNode(bottomUpQuantification, supervisoryNode);
+    }
+  }
+
+  private void assignInitialSupervisoryNode(BottomUpQuantification bottomUpQuantification,
+      SupervisoryNodeDto supervisoryNode) {
+    if (bottomUpQuantification.isApprovable()
+            && bottomUpQuantification.getSupervisoryNodeId() == null) {
+      bottomUpQuantification.setSupervisoryNodeId(
+          null == supervisoryNode ? null : supervisoryNode.getId());
     }
   }
 
   /**
-   * Prepares data for downloading.
+   * Prepares data for downloading. The orderables of all line items are retrieved at once and
+   * the returned body writes the CSV rows straight to the response, one at a time.
    *
    * @param bottomUpQuantification BottomUpQuantification containing data to be downloaded.
-   * @return byte array containing the data to be downloaded.
-   * @throws IOException I/O exception
+   * @return body writing the data to be downloaded in CSV format.
    */
-  public byte[] getPreparationFormData(BottomUpQuantification bottomUpQuantification)
-      throws IOException {
-    List<BottomUpQuantificationLineItemCsv> csvLineItems = bottomUpQuantification
-        .getBottomUpQuantificationLineItems()
+  public StreamingResponseBody getPreparationFormData(
+      BottomUpQuantification bottomUpQuantification) {
+    List<BottomUpQuantificationLineItem> lineItems =
+        new ArrayList<>(bottomUpQuantification.getBottomUpQuantificationLineItems());
+    Map<UUID, BasicOrderableDto> orderables = findOrderablesOfLineItems(lineItems);
+
+    return outputStream -> csvService.writeCsv(lineItems
         .stream()
         .map(lineItem -> {
-          BasicOrderableDto dto = findOrderable(lineItem.getOrderableId());
+          BasicOrderableDto dto = orderables.get(lineItem.getOrderableId());
           return new BottomUpQuantificationLineItemCsv(
               dto.getProductCode(),
               dto.getFullProductName(),
@@ -288,34 +393,118 @@ public class BottomUpQuantificationService {
               lineItem.getAnnualAdjustedConsumption()
           );
         })
-        .collect(Collectors.toList());
+        .iterator(), BottomUpQuantificationLineItemCsv.class, outputStream);
+  }
+
+  /**
+   * Fills the annual adjusted consumptions of a bottom-up quantification from an uploaded
+   * preparation form, the counterpart of {@link #getPreparationFormData}. The rows are read one
+   * at a time and matched with the line items by product code. All rows are validated before
+   * anything is changed. The line items with the uploaded values are then saved through
+   * {@link #save}, so an upload is checked and saved like any other update.
+   *
+   * @param bottomUpQuantificationId ID of the bottom-up quantification to be updated.
+   * @param inputStream preparation form in CSV format.
+   * @return Bottom-up quantification with new data.
+   */
+  public BottomUpQuantification uploadPreparationFormData(UUID bottomUpQuantificationId,
+      InputStream inputStream) {
+    BottomUpQuantification bottomUpQuantification =
+        findBottomUpQuantification(bottomUpQuantificationId);
+    checkFacilityPermission(bottomUpQuantification.getFacilityId());
+
+    List<BottomUpQuantificationLineItem> lineItems =
+        bottomUpQuantification.getBottomUpQuantificationLineItems();
+    Map<UUID, BasicOrderableDto> orderables = findOrderablesOfLineItems(lineItems);
+    Map<String, BottomUpQuantificationLineItem> lineItemsByProductCode = lineItems
+        .stream()
+        .collect(Collectors.toMap(
+            lineItem -> orderables.get(lineItem.getOrderableId()).getProductCode(),
+            Function.identity(), (a, b) -> a));
+
+    Map<String, Integer> annualAdjustedConsumptions = new LinkedHashMap<>();
+    BindingResult errors = new MapBindingResult(annualAdjustedConsumptions,
+        "bottomUpQuantificationLineItems");
+    int rowNumber = 1;
+    try (MappingIterator<BottomUpQuantificationLineItemCsv> rows = csvService
+        .readCsv(inputStream, BottomUpQuantificationLineItemCsv.class)) {
+      while (rows.hasNextValue()) {
+        rowNumber++;
+        BottomUpQuantificationLineItemCsv row = rows.nextValue();
+        String productCode = Objects.toString(row.getProductCode(), "");
+        if (!lineItemsByProductCode.containsKey(productCode)) {
+          errors.rejectValue(ROW_FIELD_PREFIX + rowNumber,
+              new Message(ERROR_UPLOAD_PRODUCT_CODE_NOT_FOUND, productCode).toString());
+        } else if (annualAdjustedConsumptions.containsKey(productCode)) {
+          errors.rejectValue(ROW_FIELD_PREFIX + rowNumber,
+              new Message(ERROR_UPLOAD_PRODUCT_CODE_DUPLICATED, productCode).toString());
+        } else {
+          annualAdjustedConsumptions.put(productCode, row.getAdjustedConsumptionInPacks());
+        }
+      }
+    } catch (IOException | RuntimeJsonMappingException ex) {
+      throw new ValidationMessageException(ex, new Message(ERROR_UPLOAD_INVALID_FILE, rowNumber));
+    }
+
+    validator.validateUploadedAnnualAdjustedConsumptions(annualAdjustedConsumptions, errors);
+    if (errors.hasErrors()) {
+      throw new BindingResultException(getErrors(errors));
+    }
 
-    return csvService.generateCsv(csvLineItems, BottomUpQuantificationLineItemCsv.class);
+    BottomUpQuantificationDto bottomUpQuantificationDto = new BottomUpQuantificationDto();
+    bottomUpQuantificationDto.setId(bottomUpQuantificationId);
+    bottomUpQuantificationDto.setFacilityId(bottomUpQuantification.getFacilityId());
+    bottomUpQuantificationDto.setBottomUpQuantificationLineItems(lineItems
+        .stream()
+        .map(lineItem -> {
+          BottomUpQuantificationLineItemDto lineItemDto =
+              BottomUpQuantificationLineItemDto.newInstance(lineItem);
+          String productCode = orderables.get(lineItem.getOrderableId()).getProductCode();
+          if (annualAdjustedConsumptions.containsKey(productCode)) {
+            lineItemDto.setAnnualAdjustedConsumption(annualAdjustedConsumptions.get(productCode));
+          }
+          return lineItemDto;
+        })
+        .collect(Collectors.toList()));
+
+    return save(bottomUpQuantificationDto, bottomUpQuantificationId);
   }
 
   /**
-   * Changes BUQ status to authorized and updates it with the given data.
+   * Changes BUQ status to authorized and updates it with the given data. The reference data is
+   * retrieved before the transaction is started, so that no database connection is held while
+   * the reference data service is called.
    *
    * @param bottomUpQuantificationImporter DTO containing new data.
    * @param bottomUpQuantificationId ID of the bottom-up quantification to be authorized.
-   * @return Authorized Bottom-up quantification.
+   * @return Authorized Bottom-up quantification dto.
    */
-  public BottomUpQuantification authorize(BottomUpQuantificationDto bottomUpQuantificationImporter,
-      UUID bottomUpQuantificationId) {
-    checkFacilityPermission(bottomUpQuantificationImporter.getFacilityId());
+  public BottomUpQuantificationDto authorize(
+      BottomUpQuantificationDto bottomUpQuantificationImporter, UUID bottomUpQuantificationId) {
+    UserDto user = authenticationHelper.getCurrentUser();
+    checkFacilityPermission(user, bottomUpQuantificationImporter.getFacilityId());
     validator.validateCanBeAuthorized(bottomUpQuantificationImporter, bottomUpQuantificationId);
+    validateOrderables(bottomUpQuantificationImporter);
+    SupervisoryNodeDto initialSupervisoryNode =
+        findInitialSupervisoryNode(bottomUpQuantificationId);
+
+    return new TransactionTemplate(transactionManager).execute(status -> {
+      BottomUpQuantification updatedBottomUpQuantification =
+          updateBottomUpQuantification(bottomUpQuantificationImporter, bottomUpQuantificationId);
+      updatedBottomUpQuantification.setStatus(BottomUpQuantificationStatus.AUTHORIZED);
+      addNewStatusChange(updatedBottomUpQuantification, user.getId());
+      if (null == initialSupervisoryNode) {
+        assignInitialSupervisoryNode(updatedBottomUpQuantification);
+      } else {
+        assignInitialSupervisoryNode(updatedBottomUpQuantification, initialSupervisoryNode);
+      }
+      if (Objects.isNull(updatedBottomUpQuantification.getSupervisoryNodeId())) {
+        throw new ValidationMessageException(
+            ERROR_SUPERVISORY_NODE_CANNOT_BE_NULL_TO_BE_AUTHORIZED);
+      }
 
-    BottomUpQuantification updatedBottomUpQuantification =
-        updateBottomUpQuantification(bottomUpQuantificationImporter, bottomUpQuantificationId);
-    updatedBottomUpQuantification.setStatus(BottomUpQuantificationStatus.AUTHORIZED);
-    addNewStatusChange(updatedBottomUpQuantification);
-    assignInitialSupervisoryNode(updatedBottomUpQuantification);
-    if (Objects.isNull(updatedBottomUpQuantification.getSupervisoryNodeId())) {
-      throw new ValidationMessageException(
-          ERROR_SUPERVISORY_NODE_CANNOT_BE_NULL_TO_BE_AUTHORIZED);
-    }
-
-    return updatedBottomUpQuantification;
+      return bottomUpQuantificationDtoBuilder.buildDto(updatedBottomUpQuantification);
+    });
   }
 
   /**
@@ -430,35 +619,43 @@ public class BottomUpQuantificationService {
   }
 
   /**
-   * Changes BUQ status to approved and updates it with the given data.
+   * Changes BUQ status to approved and updates it with the given data. The supervisory node,
+   * processing period and supply lines are retrieved before the transaction is started, so that
+   * no database connection is held while the reference data service is called.
    *
    * @param bottomUpQuantificationImporter DTO containing new data.
    * @param bottomUpQuantificationId ID of the bottom-up quantification to be approved.
-   * @return Approved Bottom-up quantification.
+   * @return Approved Bottom-up quantification dto.
    */
-  public BottomUpQuantification approve(BottomUpQuantificationDto bottomUpQuantificationImporter,
-                                          UUID bottomUpQuantificationId) {
+  public BottomUpQuantificationDto approve(
+      BottomUpQuantificationDto bottomUpQuantificationImporter, UUID bottomUpQuantificationId) {
     validator.validateCanBeApproved(bottomUpQuantificationImporter, bottomUpQuantificationId);
-
-    BottomUpQuantification updatedBottomUpQuantification =
-        updateBottomUpQuantification(bottomUpQuantificationImporter, bottomUpQuantificationId);
+    validateOrderables(bottomUpQuantificationImporter);
 
     UserDto user = authenticationHelper.getCurrentUser();
-
-    SupervisoryNodeDto supervisoryNodeDto = supervisoryNodeReferenceDataService
-            .findOne(updatedBottomUpQuantification.getSupervisoryNodeId());
-    ProcessingPeriodDto period = periodReferenceDataService
-            .findOne(updatedBottomUpQuantification.getProcessingPeriodId());
-    List<SupplyLineDto> supplyLines = period.isReportOnly()
-            ? Collections.emptyList()
-            : supplyLineReferenceDataService
-              .search(updatedBottomUpQuantification.getProgramId(),
-                      updatedBottomUpQuantification.getSupervisoryNodeId());
-    ApproveParams approveParams =
-            new ApproveParams(user, supervisoryNodeDto, supplyLines, period);
-    doApprove(updatedBottomUpQuantification, approveParams);
-
-    return updatedBottomUpQuantification;
+    BottomUpQuantificationApprovalReferenceData referenceData =
+        new BottomUpQuantificationApprovalReferenceData(supervisoryNodeReferenceDataService,
+            periodReferenceDataService, supplyLineReferenceDataService);
+    referenceData.resolve(bottomUpQuantificationRepository
+        .findApprovalKeysByIdIn(Collections.singleton(bottomUpQuantificationId)));
+
+    return new TransactionTemplate(transactionManager).execute(status -> {
+      BottomUpQuantification updatedBottomUpQuantification =
+          updateBottomUpQuantification(bottomUpQuantificationImporter, bottomUpQuantificationId);
+
+      UUID supervisoryNodeId = updatedBottomUpQuantification.getSupervisoryNodeId();
+      ProcessingPeriodDto period =
+          referenceData.getPeriod(updatedBottomUpQuantification.getProcessingPeriodId());
+      List<SupplyLineDto> supplyLines = period.isReportOnly()
+          ? Collections.emptyList()
+          : referenceData.getSupplyLines(updatedBottomUpQuantification.getProgramId(),
+              supervisoryNodeId);
+      ApproveParams approveParams = new ApproveParams(user,
+          referenceData.getSupervisoryNode(supervisoryNodeId), supplyLines, period);
+      doApprove(updatedBottomUpQuantification, approveParams);
+
+      return bottomUpQuantificationDtoBuilder.buildDto(updatedBottomUpQuantification);
+    });
   }
 
   private void doApprove(BottomUpQuantification bottomUpQuantification,
@@ -488,21 +685,40 @@ public class BottomUpQuantificationService {
    * @return {@link ApproveFacilityForecastingStats} containing the calculated data.
    */
   public ApproveFacilityForecastingStats getApproveFacilityForecastingStats(UUID programId) {
-    List<UUID> userSupervisedFacilities = getUserSupervisedFacilities(
-        programId, APPROVE_BUQ_RIGHT_NAME);
+    return getApproveFacilityForecastingStats(programId, null);
+  }
+
+  /**
+   * Calculates and retrieves statistics related to the approval of facility forecasting for a
+   * given program and, optionally, processing period. Bottom-up quantifications are counted by
+   * status in the database, without loading them.
+   *
+   * @param programId The UUID of the program for which statistics are calculated.
+   * @param processingPeriodId The UUID of the processing period, may be null.
+   * @return {@link ApproveFacilityForecastingStats} containing the calculated data.
+   */
+  public ApproveFacilityForecastingStats getApproveFacilityForecastingStats(UUID programId,
+      UUID processingPeriodId) {
+    Set<UUID> userSupervisedFacilities = new HashSet<>(getUserSupervisedFacilities(
+        programId, APPROVE_BUQ_RIGHT_NAME));
     int totalFacilities = userSupervisedFacilities.size();
 
-    List<BottomUpQuantification> bottomUpQuantifications =
-        bottomUpQuantificationRepository.findByFacilityIdIn(userSupervisedFacilities);
-    int totalBottomUpQuantifications = bottomUpQuantifications.size();
+    Map<BottomUpQuantificationStatus, Long> statusCounts = bottomUpQuantificationRepository
+        .countByStatus(userSupervisedFacilities, programId, processingPeriodId);
+    long totalBottomUpQuantifications = statusCounts.values()
+        .stream()
+        .mapToLong(Long::longValue)
+        .sum();
 
     if (totalBottomUpQuantifications == 0) {
       return new ApproveFacilityForecastingStats(totalFacilities, 0, 0);
     }
 
-    int submittedBottomUpQuantifications = (int) bottomUpQuantifications.stream()
-        .filter(buq -> buq.getStatus().isPostSubmitted())
-        .count();
+    int submittedBottomUpQuantifications = (int) statusCounts.entrySet()
+        .stream()
+        .filter(entry -> entry.getKey().isPostSubmitted())
+        .mapToLong(Map.Entry::getValue)
+        .sum();
 
     int percentageOfSubmittedBottomUpQuantifications = Math
         .round((float) (submittedBottomUpQuantifications * 100) / totalBottomUpQuantifications);
@@ -605,17 +821,19 @@ public class BottomUpQuantificationService {
   }
 
   /**
-   * Final approve a bottomUpQuantification.
+   * Final approve a bottomUpQuantification. The current user is retrieved once, before the
+   * transaction is started.
    */
-  public List<BottomUpQuantification> finalApproveBottomUpQuantification(List<UUID> ids) {
-    List<BottomUpQuantification> updatedBottomUpQuantifications = new ArrayList<>();
-    ids.forEach(id -> {
-      BottomUpQuantification bottomUpQuantification =
-              findBottomUpQuantification(id);
-      updatedBottomUpQuantifications
-          .add(changeStatus(bottomUpQuantification, BottomUpQuantificationStatus.APPROVED_BY_NQT));
-    });
-    return updatedBottomUpQuantifications;
+  public List<BottomUpQuantificationDto> finalApproveBottomUpQuantification(List<UUID> ids) {
+    UUID authorId = authenticationHelper.getCurrentUser().getId();
+
+    return new TransactionTemplate(transactionManager).execute(status -> ids
+        .stream()
+        .map(this::findBottomUpQuantification)
+        .map(bottomUpQuantification -> changeStatus(bottomUpQuantification,
+            BottomUpQuantificationStatus.APPROVED_BY_NQT, authorId))
+        .map(bottomUpQuantificationDtoBuilder::buildDto)
+        .collect(Collectors.toList()));
   }
 
   /**
@@ -781,7 +999,8 @@ public class BottomUpQuantificationService {
     Page<BottomUpQuantification> bottomUpQuantifications =
         getBottomUpQuantificationsForFinalApproval(programId, processingPeriodId,
             geographicZoneId, pageable);
-    List<ProductGroup> productGroups = productGroupRepository.findAll();
+    List<ProductGroup> productGroups = new ArrayList<>(catalogCache
+        .get(CatalogCache.PRODUCT_GROUPS, productGroupRepository::findAll).values());
 
     return bottomUpQuantifications.stream()
         .filter(buq -> {
@@ -819,7 +1038,8 @@ public class BottomUpQuantificationService {
       UUID geographicZoneId, Set<UUID> subZones,
       List<BottomUpQuantification> bottomUpQuantificationList) {
     List<ProductGroupsCostData> productsCostsList = new ArrayList<>();
-    List<ProductGroup> productGroups = productGroupRepository.findAll();
+    List<ProductGroup> productGroups = new ArrayList<>(catalogCache
+        .get(CatalogCache.PRODUCT_GROUPS, productGroupRepository::findAll).values());
 
     if (isDistrictLevel) {
       List<BottomUpQuantification> bottomUpQuantificationsForCalculations =
@@ -1005,9 +1225,10 @@ public class BottomUpQuantificationService {
     return errors;
   }
 
-  private BottomUpQuantification prepareBottomUpQuantification(FacilityDto facility,
+  BottomUpQuantification prepareBottomUpQuantification(FacilityDto facility,
       ProgramDto program, ProcessingPeriodDto processingPeriod,
-      List<RequisitionLineItemDataProjection> requisitionLineItemsData) {
+      List<? extends RequisitionLineItemDataProjection> requisitionLineItemsData,
+      Map<UUID, Long> forecasts, UUID authorId) {
     int targetYear = processingPeriod.getEndDate().getYear();
     BottomUpQuantification bottomUpQuantification = new BottomUpQuantification(facility.getId(),
         program.getId(), processingPeriod.getId(), targetYear);
@@ -1015,12 +1236,12 @@ public class BottomUpQuantificationService {
         new BottomUpQuantificationFundingDetails(bottomUpQuantification);
     bottomUpQuantification.setFundingDetails(fundingDetails);
 
-    prepareLineItems(bottomUpQuantification, requisitionLineItemsData);
+    prepareLineItems(bottomUpQuantification, requisitionLineItemsData, forecasts);
     bottomUpQuantification.setStatus(BottomUpQuantificationStatus.DRAFT);
     bottomUpQuantification.getStatusChanges().add(
             BottomUpQuantificationStatusChange.newInstance(
                     bottomUpQuantification,
-                    authenticationHelper.getCurrentUser().getId(),
+                    authorId,
                     bottomUpQuantification.getStatus())
     );
     bottomUpQuantification.setModifiedDate(ZonedDateTime.now());
@@ -1030,17 +1251,44 @@ public class BottomUpQuantificationService {
 
   private void prepareLineItems(
       BottomUpQuantification bottomUpQuantification,
-      List<RequisitionLineItemDataProjection> requisitionLineItemsData) {
-    List<BottomUpQuantificationLineItem> bottomUpQuantificationLineItems = new ArrayList<>();
-    for (RequisitionLineItemDataProjection itemData : requisitionLineItemsData) {
+      List<? extends RequisitionLineItemDataProjection> requisitionLineItemsData,
+      Map<UUID, Long> forecasts) {
+    int size = requisitionLineItemsData.size();
+    UUID[] orderableIds = new UUID[size];
+    long[] annualAdjustedConsumptions = new long[size];
+    long[] forecastedDemands = new long[size];
+    boolean[] forecasted = new boolean[size];
+    long[] netContents = new long[size];
+    long[] packRoundingThresholds = new long[size];
+    boolean[] roundToZero = new boolean[size];
+
+    for (int i = 0; i < size; i++) {
+      RequisitionLineItemDataProjection itemData = requisitionLineItemsData.get(i);
+      orderableIds[i] = itemData.getOrderableId();
+      annualAdjustedConsumptions[i] = itemData.getAnnualAdjustedConsumption();
+      netContents[i] = itemData.getNetContent();
+      packRoundingThresholds[i] = itemData.getPackRoundingThreshold();
+      roundToZero[i] = itemData.getRoundToZero();
+
+      Long forecastedDemand = forecasts.get(orderableIds[i]);
+      forecasted[i] = null != forecastedDemand;
+      forecastedDemands[i] = forecasted[i] ? forecastedDemand : 0;
+    }
+
+    int[] annualAdjustedConsumptionPacks = OrderableReferenceDataService.calculatePacks(
+        annualAdjustedConsumptions, netContents, packRoundingThresholds, roundToZero);
+    int[] forecastedDemandPacks = OrderableReferenceDataService.calculatePacks(
+        forecastedDemands, netContents, packRoundingThresholds, roundToZero);
+
+    List<BottomUpQuantificationLineItem> bottomUpQuantificationLineItems = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
       BottomUpQuantificationLineItem lineItem = new BottomUpQuantificationLineItem();
       lineItem.setBottomUpQuantification(bottomUpQuantification);
-      lineItem.setOrderableId(UUID.fromString(itemData.getOrderableId()));
-      Integer annualAdjustedConsumption = Math.toIntExact(OrderableReferenceDataService
-          .calculatePacks(itemData.getAnnualAdjustedConsumption(), itemData.getNetContent(),
-              itemData.getPackRoundingThreshold(), itemData.getRoundToZero()
-          ));
-      lineItem.setAnnualAdjustedConsumption(annualAdjustedConsumption);
+      lineItem.setOrderableId(orderableIds[i]);
+      lineItem.setAnnualAdjustedConsumption(annualAdjustedConsumptionPacks[i]);
+      if (forecasted[i]) {
+        lineItem.setForecastedDemand(forecastedDemandPacks[i]);
+      }
 
       bottomUpQuantificationLineItems.add(lineItem);
     }
@@ -1049,10 +1297,15 @@ public class BottomUpQuantificationService {
   }
 
   private void addNewStatusChange(BottomUpQuantification bottomUpQuantification) {
+    addNewStatusChange(bottomUpQuantification, authenticationHelper.getCurrentUser().getId());
+  }
+
+  private void addNewStatusChange(BottomUpQuantification bottomUpQuantification,
+      UUID authorId) {
     BottomUpQuantificationStatusChange statusChange =
             BottomUpQuantificationStatusChange.newInstance(
                     bottomUpQuantification,
-                    authenticationHelper.getCurrentUser().getId(),
+                    authorId,
                     bottomUpQuantification.getStatus());
     BottomUpQuantificationStatusChange persistedStatusChange =
             bottomUpQuantificationStatusChangeRepository.save(statusChange);
@@ -1072,17 +1325,7 @@ public class BottomUpQuantificationService {
         findBottomUpQuantification(bottomUpQuantificationId);
     List<BottomUpQuantificationLineItemDto> buqDtoLineItems =
             bottomUpQuantificationDto.getBottomUpQuantificationLineItems();
-    if (!buqDtoLineItems.isEmpty()) {
-      List<UUID> orderableIds = new ArrayList<>();
-      bottomUpQuantificationDto
-              .getBottomUpQuantificationLineItems()
-              .forEach(lineItemDto ->
-                      orderableIds.add(lineItemDto.getOrderableId()));
-      List<BasicOrderableDto> orderableDtos = findOrderables(orderableIds);
-      if (orderableDtos.size() != orderableIds.size()) {
-        throw new ContentNotFoundMessageException(ERROR_ORDERABLE_NOT_FOUND);
-      }
-    }
+    Map<UUID, Remark> remarks = findRemarks(buqDtoLineItems);
     List<BottomUpQuantificationLineItem> updatedLineItems = bottomUpQuantificationDto
         .getBottomUpQuantificationLineItems()
         .stream()
@@ -1092,8 +1335,7 @@ public class BottomUpQuantificationService {
           lineItem.setBottomUpQuantification(bottomUpQuantificationToUpdate);
           lineItem.setId(lineItemDto.getId());
           if (lineItemDto.getRemark() != null) {
-            Remark remark = remarkService.findOne(lineItemDto.getRemark().getId());
-            lineItem.setRemark(remark);
+            lineItem.setRemark(remarks.get(lineItemDto.getRemark().getId()));
           }
 
           return lineItem;
@@ -1101,34 +1343,8 @@ public class BottomUpQuantificationService {
         .collect(Collectors.toList());
 
     if (bottomUpQuantificationDto.getFundingDetails() != null) {
-      BottomUpQuantificationFundingDetails fundingDetails = bottomUpQuantificationToUpdate
-              .getFundingDetails();
-      fundingDetails.updateFrom(bottomUpQuantificationDto.getFundingDetails());
-
-      List<BottomUpQuantificationSourceOfFund> updatedSourcesOfFunds = bottomUpQuantificationDto
-          .getFundingDetails().getSourcesOfFunds()
-          .stream()
-          .map(sourceOfFundsDto -> {
-            BottomUpQuantificationSourceOfFund sourceOfFunds = BottomUpQuantificationSourceOfFund
-                    .newInstance(sourceOfFundsDto);
-            sourceOfFunds.setFundingDetails(fundingDetails);
-            sourceOfFunds.setId(sourceOfFundsDto.getId());
-            if (sourceOfFundsDto.getSourceOfFund() != null) {
-              SourceOfFund source = findSourceOfFunds(sourceOfFundsDto.getSourceOfFund().getId());
-              sourceOfFunds.setSourceOfFund(source);
-            }
-
-            return sourceOfFunds;
-          })
-          .collect(Collectors.toList());
-
-      fundingDetails.getSourcesOfFunds().clear();
-      List<BottomUpQuantificationSourceOfFund> persistedSourcesOfFunds =
-              bottomUpQuantificationSourceOfFundRepository.saveAll(updatedSourcesOfFunds);
-      fundingDetails.getSourcesOfFunds().addAll(persistedSourcesOfFunds);
-      BottomUpQuantificationFundingDetails persistedFundingDetails =
-              bottomUpQuantificationFundingDetailsRepository.save(fundingDetails);
-      bottomUpQuantificationToUpdate.setFundingDetails(persistedFundingDetails);
+      updateFundingDetails(bottomUpQuantificationToUpdate,
+          bottomUpQuantificationDto.getFundingDetails());
     }
 
     bottomUpQuantificationToUpdate.updateFrom(updatedLineItems);
@@ -1137,24 +1353,103 @@ public class BottomUpQuantificationService {
     return bottomUpQuantificationToUpdate;
   }
 
+  private void validateOrderables(BottomUpQuantificationDto bottomUpQuantificationDto) {
+    List<BottomUpQuantificationLineItemDto> buqDtoLineItems =
+            bottomUpQuantificationDto.getBottomUpQuantificationLineItems();
+    if (!buqDtoLineItems.isEmpty()) {
+      List<UUID> orderableIds = new ArrayList<>();
+      buqDtoLineItems.forEach(lineItemDto -> orderableIds.add(lineItemDto.getOrderableId()));
+      List<BasicOrderableDto> orderableDtos = findOrderables(orderableIds);
+      if (orderableDtos.size() != orderableIds.size()) {
+        throw new ContentNotFoundMessageException(ERROR_ORDERABLE_NOT_FOUND);
+      }
+    }
+  }
+
+  private SupervisoryNodeDto findInitialSupervisoryNode(UUID bottomUpQuantificationId) {
+    List<BottomUpQuantificationApprovalKeysProjection> keys = bottomUpQuantificationRepository
+        .findApprovalKeysByIdIn(Collections.singleton(bottomUpQuantificationId));
+    if (keys.isEmpty()) {
+      throw new ContentNotFoundMessageException(ERROR_BOTTOM_UP_QUANTIFICATION_NOT_FOUND,
+          bottomUpQuantificationId);
+    }
+
+    BottomUpQuantificationApprovalKeysProjection key = keys.get(0);
+    return null == key.getSupervisoryNodeId()
+        ? supervisoryNodeReferenceDataService.findSupervisoryNode(key.getProgramId(),
+            key.getFacilityId())
+        : null;
+  }
+
+  private void updateFundingDetails(BottomUpQuantification bottomUpQuantificationToUpdate,
+      BottomUpQuantificationFundingDetailsDto fundingDetailsDto) {
+    BottomUpQuantificationFundingDetails fundingDetails = bottomUpQuantificationToUpdate
+        .getFundingDetails();
+    fundingDetails.updateFrom(fundingDetailsDto);
+
+    List<BottomUpQuantificationSourceOfFundDto> sourcesOfFundsDtos =
+        fundingDetailsDto.getSourcesOfFunds();
+    Map<UUID, SourceOfFund> sources = findSourcesOfFunds(sourcesOfFundsDtos);
+    List<BottomUpQuantificationSourceOfFund> updatedSourcesOfFunds = sourcesOfFundsDtos
+        .stream()
+        .map(sourceOfFundsDto -> {
+          BottomUpQuantificationSourceOfFund sourceOfFunds = BottomUpQuantificationSourceOfFund
+              .newInstance(sourceOfFundsDto);
+          sourceOfFunds.setFundingDetails(fundingDetails);
+          sourceOfFunds.setId(sourceOfFundsDto.getId());
+          if (sourceOfFundsDto.getSourceOfFund() != null) {
+            sourceOfFunds.setSourceOfFund(
+                sources.get(sourceOfFundsDto.getSourceOfFund().getId()));
+          }
+
+          return sourceOfFunds;
+        })
+        .collect(Collectors.toList());
+
+    fundingDetails.getSourcesOfFunds().clear();
+    List<BottomUpQuantificationSourceOfFund> persistedSourcesOfFunds =
+        bottomUpQuantificationSourceOfFundRepository.saveAll(updatedSourcesOfFunds);
+    fundingDetails.getSourcesOfFunds().addAll(persistedSourcesOfFunds);
+    BottomUpQuantificationFundingDetails persistedFundingDetails =
+        bottomUpQuantificationFundingDetailsRepository.save(fundingDetails);
+    bottomUpQuantificationToUpdate.setFundingDetails(persistedFundingDetails);
+  }
+
   private FacilityDto findFacility(UUID facilityId) {
     return findResource(facilityId, facilityReferenceDataService::findOne,
         ERROR_FACILITY_NOT_FOUND);
   }
 
-  private ProgramDto findProgram(UUID programId) {
+  ProgramDto findProgram(UUID programId) {
     return findResource(programId, programReferenceDataService::findOne,
         ERROR_PROGRAM_NOT_FOUND);
   }
 
-  private ProcessingPeriodDto findPeriod(UUID programId) {
+  ProcessingPeriodDto findPeriod(UUID programId) {
     return findResource(programId, periodReferenceDataService::findOne,
         ERROR_PROCESSING_PERIOD_NOT_FOUND);
   }
 
-  private BasicOrderableDto findOrderable(UUID orderableId) {
-    return findResource(orderableId, orderableReferenceDataService::findOne,
-        ERROR_ORDERABLE_NOT_FOUND);
+  private Map<UUID, BasicOrderableDto> findOrderablesOfLineItems(
+      List<BottomUpQuantificationLineItem> lineItems) {
+    List<UUID> orderableIds = lineItems
+        .stream()
+        .map(BottomUpQuantificationLineItem::getOrderableId)
+        .distinct()
+        .collect(Collectors.toList());
+    Map<UUID, BasicOrderableDto> orderables = findOrderables(orderableIds)
+        .stream()
+        .collect(Collectors.toMap(BasicOrderableDto::getId, Function.identity(), (a, b) -> a));
+
+    orderableIds
+        .stream()
+        .filter(orderableId -> !orderables.containsKey(orderableId))
+        .findFirst()
+        .ifPresent(orderableId -> {
+          throw new ContentNotFoundMessageException(ERROR_ORDERABLE_NOT_FOUND, orderableId);
+        });
+
+    return orderables;
   }
 
   private List<BasicOrderableDto> findOrderables(List<UUID> orderableIds) {
@@ -1171,15 +1466,65 @@ public class BottomUpQuantificationService {
         );
   }
 
-  private SourceOfFund findSourceOfFunds(UUID sourceOfFundsId) {
-    return sourceOfFundRepository
-        .findById(sourceOfFundsId)
-        .orElseThrow(() -> new ContentNotFoundMessageException(
-            ERROR_SOURCE_OF_FUND_NOT_FOUND, sourceOfFundsId)
-        );
+  private Map<UUID, Remark> findRemarks(
+      Collection<BottomUpQuantificationLineItemDto> lineItemDtos) {
+    Set<UUID> remarkIds = lineItemDtos
+        .stream()
+        .map(BottomUpQuantificationLineItemDto::getRemark)
+        .filter(Objects::nonNull)
+        .map(RemarkDto::getId)
+        .collect(toSet());
+    if (remarkIds.isEmpty()) {
+      return Collections.emptyMap();
+    }
+
+    return remarkService.findAllById(remarkIds)
+        .stream()
+        .collect(Collectors.toMap(Remark::getId, Function.identity()));
+  }
+
+  private Map<UUID, SourceOfFund> findSourcesOfFunds(
+      Collection<BottomUpQuantificationSourceOfFundDto> sourcesOfFundsDtos) {
+    Set<UUID> sourceOfFundIds = sourcesOfFundsDtos
+        .stream()
+        .map(BottomUpQuantificationSourceOfFundDto::getSourceOfFund)
+        .filter(Objects::nonNull)
+        .map(SourceOfFundDto::getId)
+        .collect(toSet());
+    if (sourceOfFundIds.isEmpty()) {
+      return Collections.emptyMap();
+    }
+
+    Map<UUID, SourceOfFund> sources =
+        catalogCache.get(CatalogCache.SOURCES_OF_FUNDS, sourceOfFundRepository::findAll);
+    if (!sources.keySet().containsAll(sourceOfFundIds)) {
+      String missingIds = sourceOfFundIds
+          .stream()
+          .filter(id -> !sources.containsKey(id))
+          .map(UUID::toString)
+          .collect(Collectors.joining(PARAMETER_SEPARATOR));
+      throw new ContentNotFoundMessageException(ERROR_SOURCE_OF_FUND_NOT_FOUND, missingIds);
+    }
+
+    return sources;
   }
 
-  private void validatePreparationParams(UUID facilityId, UUID programId,
+  /**
+   * Runs the validator of a bottom-up quantification that is about to be prepared.
+   *
+   * @param newBottomUpQuantification bottom-up quantification to be prepared.
+   * @throws BindingResultException if the bottom-up quantification cannot be prepared.
+   */
+  void validateNewBottomUpQuantification(BottomUpQuantification newBottomUpQuantification) {
+    BindingResult errors = new BeanPropertyBindingResult(newBottomUpQuantification,
+        "bottomUpQuantification");
+    validator.validate(newBottomUpQuantification, errors);
+    if (errors.hasErrors()) {
+      throw new BindingResultException(getErrors(errors));
+    }
+  }
+
+  void validatePreparationParams(UUID facilityId, UUID programId,
       UUID processingPeriodId) {
     List<String> missingParamsList = Stream.of(
             new AbstractMap.SimpleEntry<>(facilityId, "facility ID"),
@@ -1197,8 +1542,12 @@ public class BottomUpQuantificationService {
   }
 
   private void checkFacilityPermission(UUID bottomUpQuantificationFacilityId) {
-    if (!authenticationHelper.getCurrentUser().getHomeFacilityId()
-        .equals(bottomUpQuantificationFacilityId)) {
+    checkFacilityPermission(authenticationHelper.getCurrentUser(),
+        bottomUpQuantificationFacilityId);
+  }
+
+  private void checkFacilityPermission(UserDto user, UUID bottomUpQuantificationFacilityId) {
+    if (!user.getHomeFacilityId().equals(bottomUpQuantificationFacilityId)) {
       throw new ValidationMessageException(new Message(
           MessageKeys.ERROR_USER_HOME_FACILITY_AND_BUQ_FACILITY_MISMATCH));
     }
@@ -1209,15 +1558,16 @@ public class BottomUpQuantificationService {
    *
    * @param bottomUpQuantification entity of bottomUpQuantification
    * @param status status to be applied to bottomUpQuantification
+   * @param authorId ID of the user who changes the status
    */
   private BottomUpQuantification changeStatus(
       BottomUpQuantification bottomUpQuantification,
-      BottomUpQuantificationStatus status) {
+      BottomUpQuantificationStatus status, UUID authorId) {
     bottomUpQuantification.setStatus(status);
     BottomUpQuantificationStatusChange statusChange =
             BottomUpQuantificationStatusChange.newInstance(
                     bottomUpQuantification,
-                    authenticationHelper.getCurrentUser().getId(),
+                    authorId,
                     bottomUpQuantification.getStatus());
     BottomUpQuantificationStatusChange persistedStatusChange =
             bottomUpQuantificationStatusChangeRepository.save(statusChange);
@@ -15,7 +15,9 @@
 
 package org.openlmis.buq.service.buq;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import org.openlmis.buq.domain.buq.BottomUpQuantificationStatusChange;
 import org.openlmis.buq.domain.buq.Rejection;
@@ -30,5 +32,7 @@ public interface RejectionService {
 
   Rejection getLatestRejection(UUID bottomUpQuantificationId);
 
+  Map<UUID, Rejection> getLatestRejections(Collection<UUID> bottomUpQuantificationIds);
+
   void deleteByStatusChangeIdIn(List<UUID> statusChangeIds);
 }
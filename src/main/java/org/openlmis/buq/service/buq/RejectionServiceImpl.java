@@ -15,17 +15,17 @@
 
 package org.openlmis.buq.service.buq;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
-import java.util.stream.Collectors;
-import org.openlmis.buq.domain.buq.BottomUpQuantification;
-import org.openlmis.buq.domain.buq.BottomUpQuantificationStatus;
 import org.openlmis.buq.domain.buq.BottomUpQuantificationStatusChange;
 import org.openlmis.buq.domain.buq.Rejection;
 import org.openlmis.buq.exception.NotFoundException;
 import org.openlmis.buq.i18n.MessageKeys;
 import org.openlmis.buq.repository.buq.RejectionRepository;
-import org.openlmis.buq.util.BottomUpQuantificationStatusChangeComparatorByDate;
 import org.openlmis.buq.util.Message;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Lazy;
@@ -72,20 +72,27 @@ public class RejectionServiceImpl implements RejectionService {
 
   @Override
   public Rejection getLatestRejection(UUID bottomUpQuantificationId) {
-    BottomUpQuantification bottomUpQuantification =
-            bottomUpQuantificationService.findBottomUpQuantification(bottomUpQuantificationId);
-    List<BottomUpQuantificationStatusChange> rejectedStatuses = bottomUpQuantification
-            .getStatusChanges()
-            .stream()
-            .filter(bottomUpQuantificationStatusChange ->
-                    bottomUpQuantificationStatusChange.getStatus()
-                            == BottomUpQuantificationStatus.REJECTED)
-            .sorted(new BottomUpQuantificationStatusChangeComparatorByDate())
-            .collect(Collectors.toList());
-    BottomUpQuantificationStatusChange latestRejection = null;
-    if (!rejectedStatuses.isEmpty()) {
-      latestRejection = rejectedStatuses.get(0);
+    Rejection latestRejection = getLatestRejections(
+        Collections.singleton(bottomUpQuantificationId)).get(bottomUpQuantificationId);
+    if (latestRejection == null) {
+      // reports a missing bottom-up quantification before a missing rejection
+      bottomUpQuantificationService.findBottomUpQuantification(bottomUpQuantificationId);
+      throw new NotFoundException(new Message(MessageKeys.ERROR_REJECTION_NOT_FOUND));
     }
-    return findByStatusChange(latestRejection);
+    return latestRejection;
+  }
+
+  @Override
+  public Map<UUID, Rejection> getLatestRejections(Collection<UUID> bottomUpQuantificationIds) {
+    Map<UUID, Rejection> latestRejections = new HashMap<>();
+    if (bottomUpQuantificationIds.isEmpty()) {
+      return latestRejections;
+    }
+
+    // rows are repeated per rejection reason, and per rejection if two share the latest date
+    rejectionRepository.findLatestByBottomUpQuantificationIdIn(bottomUpQuantificationIds)
+        .forEach(latest -> latestRejections.putIfAbsent(latest.getBottomUpQuantificationId(),
+            latest.getRejection()));
+    return latestRejections;
   }
 }
@@ -0,0 +1,199 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.service.buq;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import org.openlmis.buq.service.forecasting.ForecastingService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Maintains the buq.requisition_consumption_facts table, which holds the adjusted consumption
+ * of approved, non-emergency requisitions per facility, processing period and orderable. The
+ * table is refreshed incrementally: only facility and period pairs that have requisitions
+ * modified since the last refresh, minus a safety overlap for requisitions committed late, or
+ * whose number of requisitions changed (e.g. because one was deleted) are recalculated. Until the
+ * first refresh completes, the consumption queries read the requisitions directly.
+ */
+@Service
+public class RequisitionConsumptionFactService {
+
+  private static final Logger LOGGER =
+      LoggerFactory.getLogger(RequisitionConsumptionFactService.class);
+
+  private static final String SINCE = "since";
+  private static final String UNTIL = "until";
+
+  static final String SELECT_LAST_MODIFIED_DATE = "SELECT lastRequisitionModifiedDate\n"
+      + "FROM buq.requisition_consumption_fact_refreshes\n"
+      + "WHERE id = 1\n"
+      + "FOR UPDATE";
+
+  static final String SELECT_MAX_REQUISITION_MODIFIED_DATE =
+      "SELECT MAX(modifieddate) FROM requisition.requisitions";
+
+  private static final String COUNTED_REQUISITION = "r.status IN ('APPROVED', 'RELEASED', "
+      + "'RELEASED_WITHOUT_ORDER')\n"
+      + "    AND NOT r.emergency";
+
+  static final String CREATE_AFFECTED_PAIRS =
+      "CREATE TEMPORARY TABLE requisition_consumption_fact_pairs ON COMMIT DROP AS\n"
+      + "SELECT r.facilityid, r.processingperiodid\n"
+      + "FROM requisition.requisitions r\n"
+      + "WHERE r.modifieddate <= :until\n"
+      + "%s"
+      + "UNION\n"
+      + "SELECT p.facilityid, p.processingperiodid\n"
+      + "FROM (\n"
+      + "  SELECT DISTINCT facilityid, processingperiodid, requisitioncount\n"
+      + "  FROM buq.requisition_consumption_facts\n"
+      + ") p\n"
+      + "WHERE p.requisitioncount IS DISTINCT FROM (\n"
+      + "  SELECT COUNT(*)\n"
+      + "  FROM requisition.requisitions r\n"
+      + "  WHERE r.facilityid = p.facilityid\n"
+      + "    AND r.processingperiodid = p.processingperiodid\n"
+      + "    AND " + COUNTED_REQUISITION + "\n"
+      + ")";
+
+  static final String AFFECTED_PAIRS_SINCE = "  AND r.modifieddate > :since\n";
+
+  static final String COUNT_AFFECTED_PAIRS =
+      "SELECT COUNT(*) FROM requisition_consumption_fact_pairs";
+
+  static final String DELETE_FACTS = "DELETE FROM buq.requisition_consumption_facts f\n"
+      + "WHERE (f.facilityid, f.processingperiodid) IN (\n"
+      + "  SELECT facilityid, processingperiodid FROM requisition_consumption_fact_pairs\n"
+      + ")";
+
+  static final String INSERT_FACTS = "INSERT INTO buq.requisition_consumption_facts (\n"
+      + "  facilityid, processingperiodid, orderableid, periodstartdate, periodenddate,\n"
+      + "  adjustedconsumption, refresheddate, requisitioncount)\n"
+      + "SELECT\n"
+      + "  r.facilityid,\n"
+      + "  r.processingperiodid,\n"
+      + "  rli.orderableid,\n"
+      + "  pp.startdate,\n"
+      + "  pp.enddate,\n"
+      + "  SUM(COALESCE(rli.adjustedconsumption, 0)),\n"
+      + "  NOW(),\n"
+      + "  c.requisitioncount\n"
+      + "FROM requisition.requisitions r\n"
+      + "  JOIN requisition.requisition_line_items rli ON rli.requisitionid = r.id\n"
+      + "  JOIN referencedata.processing_periods pp ON r.processingperiodid = pp.id\n"
+      + "  JOIN (\n"
+      + "    SELECT r.facilityid, r.processingperiodid, COUNT(*) AS requisitioncount\n"
+      + "    FROM requisition.requisitions r\n"
+      + "    WHERE " + COUNTED_REQUISITION + "\n"
+      + "    GROUP BY r.facilityid, r.processingperiodid\n"
+      + "  ) c ON c.facilityid = r.facilityid AND c.processingperiodid = r.processingperiodid\n"
+      + "WHERE\n"
+      + "  " + COUNTED_REQUISITION + "\n"
+      + "  AND (r.facilityid, r.processingperiodid) IN (\n"
+      + "    SELECT facilityid, processingperiodid FROM requisition_consumption_fact_pairs\n"
+      + "  )\n"
+      + "GROUP BY\n"
+      + "  r.facilityid, r.processingperiodid, rli.orderableid, pp.startdate, pp.enddate,\n"
+      + "  c.requisitioncount";
+
+  static final String UPDATE_LAST_MODIFIED_DATE =
+      "UPDATE buq.requisition_consumption_fact_refreshes\n"
+      + "SET lastRequisitionModifiedDate = COALESCE(:until, lastRequisitionModifiedDate),\n"
+      + "  refreshedDate = NOW()\n"
+      + "WHERE id = 1";
+
+  @Autowired
+  private NamedParameterJdbcTemplate jdbcTemplate;
+
+  @Autowired
+  private ForecastingService forecastingService;
+
+  @Value("${consumptionFacts.refresh.enabled}")
+  private boolean refreshEnabled;
+
+  @Value("${consumptionFacts.refresh.overlap}")
+  private long refreshOverlap;
+
+  /**
+   * Refreshes the consumption facts on a schedule, if enabled.
+   */
+  @Transactional
+  @Scheduled(initialDelayString = "${consumptionFacts.refresh.initialDelay}",
+      fixedDelayString = "${consumptionFacts.refresh.delay}")
+  public void scheduledRefresh() {
+    if (!refreshEnabled) {
+      return;
+    }
+
+    int refreshedFacts = refresh();
+    LOGGER.debug("Refreshed {} requisition consumption facts", refreshedFacts);
+  }
+
+  /**
+   * Recalculates the consumption facts of every facility and processing period pair that has a
+   * requisition modified since the last refresh, less the configured overlap, or a different
+   * number of requisitions than the facts were calculated from. The refresh row is locked for the
+   * duration of the transaction, so that concurrent refreshes (e.g. from several service
+   * instances) are serialized.
+   *
+   * @return number of inserted consumption facts.
+   */
+  @Transactional
+  public int refresh() {
+    MapSqlParameterSource params = new MapSqlParameterSource();
+    Timestamp since = jdbcTemplate.queryForObject(SELECT_LAST_MODIFIED_DATE, params,
+        Timestamp.class);
+    Timestamp until = jdbcTemplate.queryForObject(SELECT_MAX_REQUISITION_MODIFIED_DATE, params,
+        Timestamp.class);
+
+    params.addValue(UNTIL, until, Types.TIMESTAMP);
+    String modifiedSince = "";
+    if (since != null) {
+      params.addValue(SINCE, new Timestamp(since.getTime() - refreshOverlap));
+      modifiedSince = AFFECTED_PAIRS_SINCE;
+    }
+
+    Instant start = Instant.now();
+    jdbcTemplate.update(String.format(CREATE_AFFECTED_PAIRS, modifiedSince), params);
+    Long affectedPairs = jdbcTemplate.queryForObject(COUNT_AFFECTED_PAIRS, params, Long.class);
+
+    int inserted = 0;
+    if (affectedPairs != null && affectedPairs > 0) {
+      jdbcTemplate.update(DELETE_FACTS, params);
+      inserted = jdbcTemplate.update(INSERT_FACTS, params);
+    }
+    jdbcTemplate.update(UPDATE_LAST_MODIFIED_DATE, params);
+
+    if (affectedPairs != null && affectedPairs > 0) {
+      LOGGER.info("Requisition consumption facts of {} facility and period pairs refreshed "
+          + "for requisitions modified between {} and {} in {} ms", affectedPairs, since, until,
+          Instant.now().toEpochMilli() - start.toEpochMilli());
+      forecastingService.evictForecasts();
+    }
+
+    return inserted;
+  }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.service.catalog;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+import lombok.AllArgsConstructor;
+import org.openlmis.buq.domain.BaseEntity;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Caches small, admin-managed catalogs (remarks, sources of funds and product groups) in memory.
+ * Every write to a catalog table increments its row in buq.catalog_versions through a database
+ * trigger, whichever replica or tool made the write. A cached catalog is used only while its
+ * version matches the one in the database, so reading it costs a single primary key lookup
+ * instead of loading the whole table.
+ *
+ * <p>Cached entities are detached and shared between requests, so they must only be read or
+ * referenced, never modified.
+ */
+@Component
+public class CatalogCache {
+
+  public static final String REMARKS = "remarks";
+  public static final String SOURCES_OF_FUNDS = "sources_of_funds";
+  public static final String PRODUCT_GROUPS = "product_groups";
+
+  static final String SELECT_VERSION =
+      "SELECT version FROM buq.catalog_versions WHERE name = :name";
+
+  @Autowired
+  private NamedParameterJdbcTemplate jdbcTemplate;
+
+  private final ConcurrentMap<String, VersionedCatalog<?>> catalogs = new ConcurrentHashMap<>();
+
+  /**
+   * Returns the entries of the given catalog, keyed by id in the order returned by the loader.
+   * The loader is called only if the catalog is not cached yet or has changed since it was
+   * cached.
+   *
+   * @param name name of the catalog, which is the name of its table.
+   * @param loader loads all entries of the catalog.
+   * @return unmodifiable map of the catalog entries by id.
+   */
+  @SuppressWarnings("unchecked")
+  public <T extends BaseEntity> Map<UUID, T> get(String name, Supplier<List<T>> loader) {
+    Long version = jdbcTemplate.queryForObject(SELECT_VERSION,
+        new MapSqlParameterSource("name", name), Long.class);
+
+    VersionedCatalog<?> cached = catalogs.get(name);
+    if (cached != null && cached.version.equals(version)) {
+      return (Map<UUID, T>) cached.entries;
+    }
+
+    Map<UUID, T> entries = new LinkedHashMap<>();
+    loader.get().forEach(entry -> entries.put(entry.getId(), entry));
+    Map<UUID, T> unmodifiableEntries = Collections.unmodifiableMap(entries);
+    catalogs.put(name, new VersionedCatalog<>(version, unmodifiableEntries));
+
+    return unmodifiableEntries;
+  }
+
+  @AllArgsConstructor
+  private static final class VersionedCatalog<T> {
+
+    private final Long version;
+
+    private final Map<UUID, T> entries;
+
+  }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.service.forecasting;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Forecasts the demand of a product for a number of future periods from its consumption in past
+ * periods. History is expected to be ordered from the oldest to the most recent period.
+ */
+@Getter
+@AllArgsConstructor
+public class DemandForecaster {
+
+  private final ForecastingMethod method;
+  private final int movingAveragePeriods;
+  private final double smoothingFactor;
+
+  /**
+   * Forecasts the total demand of the given number of future periods.
+   *
+   * @param history consumption in past periods, ordered from the oldest one.
+   * @param horizon number of future periods to forecast.
+   * @return forecasted demand, never negative.
+   */
+  public long forecast(double[] history, int horizon) {
+    if (history.length == 0 || horizon <= 0) {
+      return 0;
+    }
+
+    double demand;
+    switch (method) {
+      case EXPONENTIAL_SMOOTHING:
+        demand = exponentialSmoothing(history) * horizon;
+        break;
+      case LINEAR_TREND:
+        demand = linearTrend(history, horizon);
+        break;
+      case MOVING_AVERAGE:
+      default:
+        demand = movingAverage(history) * horizon;
+        break;
+    }
+
+    return Math.max(0, Math.round(demand));
+  }
+
+  private double movingAverage(double[] history) {
+    int periods = Math.min(history.length, Math.max(1, movingAveragePeriods));
+    double sum = 0;
+    for (int i = history.length - periods; i < history.length; i++) {
+      sum += history[i];
+    }
+
+    return sum / periods;
+  }
+
+  private double exponentialSmoothing(double[] history) {
+    double level = history[0];
+    for (int i = 1; i < history.length; i++) {
+      level = smoothingFactor * history[i] + (1 - smoothingFactor) * level;
+    }
+
+    return level;
+  }
+
+  private double linearTrend(double[] history, int horizon) {
+    int count = history.length;
+    if (count == 1) {
+      return history[0] * horizon;
+    }
+
+    double meanX = (count - 1) / 2.0;
+    double meanY = 0;
+    for (double value : history) {
+      meanY += value;
+    }
+    meanY /= count;
+
+    double covariance = 0;
+    double variance = 0;
+    for (int x = 0; x < count; x++) {
+      covariance += (x - meanX) * (history[x] - meanY);
+      variance += (x - meanX) * (x - meanX);
+    }
+    double slope = covariance / variance;
+    double intercept = meanY - slope * meanX;
+
+    double demand = 0;
+    for (int x = count; x < count + horizon; x++) {
+      demand += Math.max(0, intercept + slope * x);
+    }
+
+    return demand;
+  }
+
+}
@@ -0,0 +1,38 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.service.forecasting;
+
+/**
+ * Methods of forecasting the demand of a product from its consumption history.
+ */
+public enum ForecastingMethod {
+
+  /**
+   * Average consumption of the most recent periods.
+   */
+  MOVING_AVERAGE,
+
+  /**
+   * Simple exponential smoothing, which weights recent periods more heavily.
+   */
+  EXPONENTIAL_SMOOTHING,
+
+  /**
+   * Least squares line fitted to the whole history and extrapolated into the future.
+   */
+  LINEAR_TREND
+
+}
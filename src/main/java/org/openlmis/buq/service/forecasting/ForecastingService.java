@@ -0,0 +1,218 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.service.forecasting;
+
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toMap;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import org.openlmis.buq.dto.requisition.ConsumptionHistoryProjection;
+import org.openlmis.buq.repository.buq.BottomUpQuantificationRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.interceptor.SimpleKey;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Computes the forecasted demand of every orderable consumed by a facility, based on the
+ * consumption recorded in buq.requisition_consumption_facts within the configured number of
+ * months before the end of a processing period. Forecasts cover one year and are expressed in
+ * dispensing units. They are cached per facility and processing period.
+ *
+ * <p>The history of an orderable covers every period the facility reported consumption in,
+ * starting with the first period the orderable was reported in. Periods in which the orderable
+ * was not reported count as periods with no consumption.
+ *
+ * <p>The cache is local to the service instance. Other instances keep serving their cached
+ * forecasts after the history changes until they expire, see the FORECASTING_CACHE_SPEC setting.
+ */
+@Service
+public class ForecastingService {
+
+  public static final String FORECASTS_CACHE = "forecasts";
+
+  private static final double DAYS_IN_YEAR = 365.0;
+
+  @Autowired
+  private BottomUpQuantificationRepository bottomUpQuantificationRepository;
+
+  @Autowired
+  private CacheManager cacheManager;
+
+  @Value("${forecasting.method}")
+  private ForecastingMethod method;
+
+  @Value("${forecasting.historyMonths}")
+  private int historyMonths;
+
+  @Value("${forecasting.movingAverage.periods}")
+  private int movingAveragePeriods;
+
+  @Value("${forecasting.exponentialSmoothing.alpha}")
+  private double smoothingFactor;
+
+  /**
+   * Forecasts the annual demand of every orderable consumed by the given facility.
+   *
+   * @param facilityId         Facility ID.
+   * @param processingPeriodId ID of the processing period the forecast is prepared for.
+   * @return forecasted demand in dispensing units, by orderable ID.
+   */
+  public Map<UUID, Long> forecast(UUID facilityId, UUID processingPeriodId) {
+    return forecast(Collections.singleton(facilityId), processingPeriodId)
+        .getOrDefault(facilityId, Collections.emptyMap());
+  }
+
+  /**
+   * Forecasts the annual demand of every orderable consumed by each of the given facilities.
+   * History of all facilities missing in the cache is read with a single query.
+   *
+   * @param facilityIds        Facility IDs.
+   * @param processingPeriodId ID of the processing period the forecast is prepared for.
+   * @return forecasted demand in dispensing units, by orderable ID, by facility ID.
+   */
+  public Map<UUID, Map<UUID, Long>> forecast(Collection<UUID> facilityIds,
+      UUID processingPeriodId) {
+    Cache cache = cacheManager.getCache(FORECASTS_CACHE);
+    Map<UUID, Map<UUID, Long>> forecasts = new HashMap<>();
+    List<UUID> missingFacilityIds = new ArrayList<>();
+    for (UUID facilityId : facilityIds) {
+      Cache.ValueWrapper cached = null == cache
+          ? null
+          : cache.get(new SimpleKey(facilityId, processingPeriodId));
+      if (null == cached) {
+        missingFacilityIds.add(facilityId);
+      } else {
+        forecasts.put(facilityId, castForecasts(cached.get()));
+      }
+    }
+
+    if (missingFacilityIds.isEmpty()) {
+      return forecasts;
+    }
+
+    Map<UUID, List<ConsumptionHistoryProjection>> historyByFacility =
+        bottomUpQuantificationRepository
+            .getConsumptionHistory(missingFacilityIds, processingPeriodId, historyMonths)
+            .stream()
+            .collect(groupingBy(ConsumptionHistoryProjection::getFacilityId));
+    DemandForecaster forecaster = new DemandForecaster(method, movingAveragePeriods,
+        smoothingFactor);
+
+    for (UUID facilityId : missingFacilityIds) {
+      Map<UUID, Long> facilityForecasts = forecastFacility(forecaster, historyByFacility
+          .getOrDefault(facilityId, Collections.emptyList()));
+      forecasts.put(facilityId, facilityForecasts);
+      if (null != cache) {
+        cache.put(new SimpleKey(facilityId, processingPeriodId), facilityForecasts);
+      }
+    }
+
+    return forecasts;
+  }
+
+  /**
+   * Removes all cached forecasts of this service instance, e.g. after the consumption history
+   * has changed. Within a transaction, the forecasts are removed once it is committed, so that
+   * they are not cached again from the history that is about to be replaced.
+   */
+  public void evictForecasts() {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      clearForecasts();
+      return;
+    }
+
+    TransactionSynchronizationManager.registerSynchronization(
+        new TransactionSynchronizationAdapter() {
+          @Override
+          public void afterCommit() {
+            clearForecasts();
+          }
+        });
+  }
+
+  private void clearForecasts() {
+    Cache cache = cacheManager.getCache(FORECASTS_CACHE);
+    if (null != cache) {
+      cache.clear();
+    }
+  }
+
+  private Map<UUID, Long> forecastFacility(DemandForecaster forecaster,
+      List<ConsumptionHistoryProjection> history) {
+    Map<LocalDate, Integer> periodLengths = new TreeMap<>();
+    history.forEach(period -> periodLengths.putIfAbsent(period.getPeriodStartDate(),
+        null == period.getPeriodLengthInDays() ? 0 : period.getPeriodLengthInDays()));
+    List<LocalDate> periods = new ArrayList<>(periodLengths.keySet());
+
+    Map<UUID, Map<LocalDate, Long>> historyByOrderable = history
+        .stream()
+        .collect(groupingBy(ConsumptionHistoryProjection::getOrderableId, LinkedHashMap::new,
+            toMap(ConsumptionHistoryProjection::getPeriodStartDate,
+                period -> null == period.getAdjustedConsumption()
+                    ? 0L
+                    : period.getAdjustedConsumption(),
+                Long::sum)));
+
+    Map<UUID, Long> forecasts = new ConcurrentHashMap<>();
+    historyByOrderable
+        .entrySet()
+        .parallelStream()
+        .forEach(entry -> forecasts.put(entry.getKey(),
+            forecastOrderable(forecaster, periods, periodLengths, entry.getValue())));
+
+    return Collections.unmodifiableMap(forecasts);
+  }
+
+  private long forecastOrderable(DemandForecaster forecaster, List<LocalDate> periods,
+      Map<LocalDate, Integer> periodLengths, Map<LocalDate, Long> consumptionByPeriod) {
+    int firstPeriod = periods.indexOf(Collections.min(consumptionByPeriod.keySet()));
+    double[] consumption = new double[periods.size() - firstPeriod];
+    long totalDays = 0;
+    for (int i = firstPeriod; i < periods.size(); i++) {
+      LocalDate period = periods.get(i);
+      consumption[i - firstPeriod] = consumptionByPeriod.getOrDefault(period, 0L);
+      totalDays += periodLengths.get(period);
+    }
+
+    double averagePeriodLength = (double) totalDays / consumption.length;
+    int periodsPerYear = averagePeriodLength <= 0
+        ? 1
+        : Math.max(1, (int) Math.round(DAYS_IN_YEAR / averagePeriodLength));
+
+    return forecaster.forecast(consumption, periodsPerYear);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<UUID, Long> castForecasts(Object cached) {
+    return (Map<UUID, Long>) cached;
+  }
+
+}
@@ -80,4 +80,33 @@ public class OrderableReferenceDataService
     return packsToOrder;
   }
 
+  /**
+   * Returns the number of packs of many products at once. All arrays must have the same length,
+   * and element i of the result is calculated from element i of each array, exactly as
+   * {@link #calculatePacks(long, long, long, boolean)} does.
+   *
+   * @param dispensingUnits # of dispensing units of each product.
+   * @param netContents # of products per package of each product.
+   * @param packRoundingThresholds pack rounding threshold of each product.
+   * @param roundToZero round to zero flag of each product.
+   * @return The calculated number of packs of each product.
+   * @throws ArithmeticException if a number of packs does not fit in an int.
+   */
+  public static int[] calculatePacks(long[] dispensingUnits, long[] netContents,
+      long[] packRoundingThresholds, boolean[] roundToZero) {
+    int size = dispensingUnits.length;
+    if (netContents.length != size || packRoundingThresholds.length != size
+        || roundToZero.length != size) {
+      throw new IllegalArgumentException("All pack calculation arrays must have the same length");
+    }
+
+    int[] packs = new int[size];
+    for (int i = 0; i < size; i++) {
+      packs[i] = Math.toIntExact(calculatePacks(dispensingUnits[i], netContents[i],
+          packRoundingThresholds[i], roundToZero[i]));
+    }
+
+    return packs;
+  }
+
 }
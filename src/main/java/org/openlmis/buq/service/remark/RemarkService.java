@@ -15,6 +15,7 @@
 
 package org.openlmis.buq.service.remark;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
 import org.openlmis.buq.domain.Remark;
@@ -25,6 +26,8 @@ public interface RemarkService {
 
   Remark findOne(UUID id);
 
+  List<Remark> findAllById(Collection<UUID> ids);
+
   Remark save(Remark remark);
 
   void deleteById(UUID id);
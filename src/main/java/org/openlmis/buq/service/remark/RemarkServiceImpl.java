@@ -15,12 +15,17 @@
 
 package org.openlmis.buq.service.remark;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.stream.Collectors;
 import org.openlmis.buq.domain.Remark;
 import org.openlmis.buq.exception.NotFoundException;
 import org.openlmis.buq.i18n.MessageKeys;
 import org.openlmis.buq.repository.RemarkRepository;
+import org.openlmis.buq.service.catalog.CatalogCache;
 import org.openlmis.buq.util.Message;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -33,14 +38,17 @@ public class RemarkServiceImpl implements RemarkService {
 
   private final RemarkRepository remarkRepository;
 
+  private final CatalogCache catalogCache;
+
   @Autowired
-  public RemarkServiceImpl(RemarkRepository remarkRepository) {
+  public RemarkServiceImpl(RemarkRepository remarkRepository, CatalogCache catalogCache) {
     this.remarkRepository = remarkRepository;
+    this.catalogCache = catalogCache;
   }
 
   @Override
   public List<Remark> findAll() {
-    return remarkRepository.findAll();
+    return new ArrayList<>(findAllRemarks().values());
   }
 
   @Override
@@ -50,6 +58,19 @@ public class RemarkServiceImpl implements RemarkService {
             .orElseThrow(() -> new NotFoundException(errorMessage));
   }
 
+  @Override
+  public List<Remark> findAllById(Collection<UUID> ids) {
+    Map<UUID, Remark> remarks = findAllRemarks();
+    if (!remarks.keySet().containsAll(ids)) {
+      throw new NotFoundException(new Message(MessageKeys.ERROR_REMARK_NOT_FOUND));
+    }
+
+    return ids.stream()
+        .distinct()
+        .map(remarks::get)
+        .collect(Collectors.toList());
+  }
+
   @Override
   public Remark save(Remark remark) {
     return remarkRepository.save(remark);
@@ -71,4 +92,8 @@ public class RemarkServiceImpl implements RemarkService {
   public boolean existsById(UUID id) {
     return remarkRepository.existsById(id);
   }
+
+  private Map<UUID, Remark> findAllRemarks() {
+    return catalogCache.get(CatalogCache.REMARKS, remarkRepository::findAll);
+  }
 }
@@ -38,14 +38,25 @@ public class FacilitySupportsProgramHelper {
    * @param programId programId UUID of the Program.
    */
   public void checkIfFacilitySupportsProgram(FacilityDto facility, UUID programId) {
-    List<SupportedProgramDto> supportedPrograms = facility.getSupportedPrograms();
-
-    if (!isProgramSupported(supportedPrograms, programId)) {
+    if (!supportsProgram(facility, programId)) {
       throw new ValidationMessageException(
           new Message(ERROR_FACILITY_DOES_NOT_SUPPORT_PROGRAM, facility.getId(), programId));
     }
   }
 
+  /**
+   * Method checks if facility supports program.
+   *
+   * @param facility Facility.
+   * @param programId programId UUID of the Program.
+   * @return true if the program is actively supported by the facility.
+   */
+  public boolean supportsProgram(FacilityDto facility, UUID programId) {
+    List<SupportedProgramDto> supportedPrograms = facility.getSupportedPrograms();
+
+    return supportedPrograms != null && isProgramSupported(supportedPrograms, programId);
+  }
+
   private boolean isProgramSupported(List<SupportedProgramDto> supportedPrograms, UUID programId) {
     return supportedPrograms
         .stream()
@@ -20,8 +20,12 @@ import static java.util.stream.Collectors.joining;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
 import org.apache.commons.collections.CollectionUtils;
@@ -32,11 +36,11 @@ import org.apache.commons.csv.CSVRecord;
 import org.apache.commons.io.ByteOrderMark;
 import org.apache.commons.io.input.BOMInputStream;
 import org.apache.commons.lang3.Validate;
-import org.apache.commons.lang3.tuple.MutablePair;
-import org.apache.commons.lang3.tuple.Pair;
+import org.postgresql.PGConnection;
 import org.slf4j.ext.XLogger;
 import org.slf4j.ext.XLoggerFactory;
 import org.springframework.core.io.Resource;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 
 /**
@@ -48,7 +52,12 @@ import org.springframework.jdbc.core.JdbcTemplate;
 public class Resource2Db {
   private static final XLogger XLOGGER = XLoggerFactory.getXLogger(Resource2Db.class);
 
+  static final int DEFAULT_CHUNK_SIZE = 1000;
+  static final String COPY_SQL = "COPY %s (%s) FROM STDIN WITH (FORMAT csv)";
+  static final String INSERT_SQL = "INSERT INTO %s (%s) VALUES (%s)";
+
   private final JdbcTemplate template;
+  private final int chunkSize;
 
   /**
    * New with given data connection.
@@ -56,8 +65,22 @@ public class Resource2Db {
    * @throws NullPointerException if template is null.
    */
   public Resource2Db(JdbcTemplate template) {
+    this(template, DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * New with given data connection and size of the batches of CSV rows inserted into databases
+   * other than PostgreSQL.
+   * @param template the active {@link JdbcTemplate} to run SQL updates against.
+   * @param chunkSize the number of CSV rows inserted in a single batch.
+   * @throws NullPointerException if template is null.
+   * @throws IllegalArgumentException if the chunkSize is not positive.
+   */
+  public Resource2Db(JdbcTemplate template, int chunkSize) {
     Validate.notNull(template);
+    Validate.isTrue(chunkSize > 0, "Chunk size must be positive");
     this.template = template;
+    this.chunkSize = chunkSize;
   }
 
   /**
@@ -75,7 +98,9 @@ public class Resource2Db {
   }
 
   /**
-   * Insert into the database (a table) from a Resource with CSV data.
+   * Insert into the database (a table) from a Resource with CSV data. The data is streamed from
+   * the Resource and never held in memory as a whole: on PostgreSQL it is loaded with the COPY
+   * protocol, on other databases it is inserted in batches of chunkSize rows.
    * @param tableName the name of the table (incl schema) to load the data into.
    * @param resource the Resource as a CSV, with a header, that has the data to load.
    * @throws IOException if the Resource can't be used.
@@ -86,8 +111,11 @@ public class Resource2Db {
     XLOGGER.entry(tableName, resource);
     Validate.notBlank(tableName);
     Validate.notNull(resource);
-    insertToDbFromBatchedPair(tableName, resourceCsvToBatchedPair(resource));
-    XLOGGER.exit();
+
+    long inserted = isPostgres()
+        ? copyToDbFromCsv(tableName, resource)
+        : insertToDbFromCsvInChunks(tableName, resource);
+    XLOGGER.exit("Total " + tableName + " inserts: " + inserted);
   }
 
   /*
@@ -104,86 +132,113 @@ public class Resource2Db {
   }
 
   /*
-   converts a Resource which is a CSV, into a Pair where Pair.left is the SQL column names,
-   and Pair.right is the rows of data which go into those columns (each row is an array, the array
-   matches the order of the columns
+   runs the list of SQL strings directly on the database - could be insert / update
    */
-  Pair<List<String>, List<Object[]>> resourceCsvToBatchedPair(final Resource resource)
-      throws IOException {
-    XLOGGER.entry(resource.getDescription());
+  void updateDbFromSqlStrings(final List<String> sqlLines) {
+    XLOGGER.entry();
+
+    if (CollectionUtils.isEmpty(sqlLines)) {
+      return;
+    }
+
+    int[] updateCounts = template.batchUpdate(sqlLines.toArray(new String[0]));
+    XLOGGER.exit("Total db updates: " + Arrays.stream(updateCounts).sum());
+  }
+
+  /*
+   loads a Resource which is a CSV into a single table with the PostgreSQL COPY protocol. The
+   header row names the columns, and the remaining rows are streamed to the database as they are.
+   Unquoted empty values are loaded as nulls.
+   */
+  long copyToDbFromCsv(String tableName, Resource resource) throws IOException {
+    try (BufferedReader reader = newCsvReader(resource)) {
+      List<String> header = parseHeader(reader.readLine());
+      if (header.isEmpty()) {
+        return 0;
+      }
 
-    // parse CSV
-    InputStreamReader isReader = new InputStreamReader(
-        new BOMInputStream(resource.getInputStream(), ByteOrderMark.UTF_8));
-    try {
-      CSVParser parser = CSVFormat.DEFAULT.withHeader().withNullString("").parse(isReader);
+      String copySql = String.format(COPY_SQL, tableName, String.join(",", header));
+      XLOGGER.info("Copy SQL: {}", copySql);
 
-      // read header row
-      MutablePair<List<String>, List<Object[]>> readData = new MutablePair<>();
-      readData.setLeft(new ArrayList<>(parser.getHeaderMap().keySet()));
-      XLOGGER.info("Read header: " + readData.getLeft());
+      Long copied = template.execute((ConnectionCallback<Long>) connection -> {
+        try {
+          return connection.unwrap(PGConnection.class).getCopyAPI().copyIn(copySql, reader);
+        } catch (IOException ex) {
+          throw new UncheckedIOException(ex);
+        }
+      });
+      return copied == null ? 0 : copied;
+    } catch (UncheckedIOException ex) {
+      throw ex.getCause();
+    }
+  }
 
-      // read data rows
-      List<Object[]> rows = new ArrayList<>();
-      for (CSVRecord record : parser.getRecords()) {
+  /*
+   inserts a Resource which is a CSV into a single table, reading chunkSize rows at a time and
+   inserting each chunk with a batch update
+   */
+  long insertToDbFromCsvInChunks(String tableName, Resource resource) throws IOException {
+    try (BufferedReader reader = newCsvReader(resource)) {
+      CSVParser parser = CSVFormat.DEFAULT.withHeader().withNullString("").parse(reader);
+      List<String> header = new ArrayList<>(parser.getHeaderMap().keySet());
+      XLOGGER.info("Read header: " + header);
+
+      String insertSql = String.format(INSERT_SQL,
+          tableName,
+          String.join(",", header),
+          header.stream().map(s -> "?").collect(joining(",")));
+      XLOGGER.info("Insert SQL: {}", insertSql);
+
+      long inserted = 0;
+      List<Object[]> chunk = new ArrayList<>(chunkSize);
+      for (CSVRecord record : parser) {
         if (!record.isConsistent()) {
           throw new IllegalArgumentException("CSV record inconsistent: " + record);
         }
 
-        List theRow = IteratorUtils.toList(record.iterator());
-        rows.add(theRow.toArray());
+        chunk.add(IteratorUtils.toList(record.iterator()).toArray());
+        if (chunk.size() == chunkSize) {
+          inserted += insertChunk(tableName, insertSql, chunk);
+          chunk = new ArrayList<>(chunkSize);
+        }
       }
-      readData.setRight(rows);
 
-      XLOGGER.exit("Records read: " + readData.getRight().size());
-      return readData;
-    } finally {
-      isReader.close();
+      return inserted + insertChunk(tableName, insertSql, chunk);
     }
   }
 
-  /*
-   runs the list of SQL strings directly on the database - could be insert / update
-   */
-  void updateDbFromSqlStrings(final List<String> sqlLines) {
-    XLOGGER.entry();
-
-    if (CollectionUtils.isEmpty(sqlLines)) {
-      return;
+  private long insertChunk(String tableName, String insertSql, List<Object[]> chunk) {
+    if (chunk.isEmpty()) {
+      return 0;
     }
 
-    int[] updateCounts = template.batchUpdate(sqlLines.toArray(new String[0]));
-    XLOGGER.exit("Total db updates: " + Arrays.stream(updateCounts).sum());
+    int[] updateCount = template.batchUpdate(insertSql, chunk);
+    XLOGGER.debug("Inserted {} rows into {}", chunk.size(), tableName);
+    return Arrays.stream(updateCount).sum();
   }
 
-  /**
-   * Inserts data into a single table.  Given the columns and a list of data to insert, will
-   * run a batch update to insert it.
-   * @param tableName the name of the table (including schema) to insert into.
-   * @param dataWithHeader a pair where pair.left is an ordered list of column names and pair.right
-   *                       is an array of rows to insert, where each row is similarly ordered as
-   *                       the columns in pair.left.
-   */
-  private void insertToDbFromBatchedPair(String tableName,
-      Pair<List<String>, List<Object[]>> dataWithHeader) {
-    XLOGGER.entry(tableName);
-
-    String columnDesc = String.join(",", dataWithHeader.getLeft());
-    String valueDesc = dataWithHeader.getLeft()
-        .stream()
-        .map(s -> "?")
-        .collect((joining(",")));
-    String insertSql = String.format("INSERT INTO %s (%s) VALUES (%s)",
-        tableName,
-        columnDesc,
-        valueDesc);
-    XLOGGER.info("Insert SQL: {}", insertSql);
-
-    List<Object[]> data = dataWithHeader.getRight();
-    data.forEach(e -> XLOGGER.info(tableName + ": " + Arrays.toString(e)));
-    int[] updateCount = template.batchUpdate(insertSql, data);
-
-    XLOGGER.exit("Total " + tableName + " inserts: " + Arrays.stream(updateCount).sum());
+  private boolean isPostgres() {
+    return Boolean.TRUE.equals(template.execute((ConnectionCallback<Boolean>) connection ->
+        connection.isWrapperFor(PGConnection.class)));
+  }
+
+  private BufferedReader newCsvReader(Resource resource) throws IOException {
+    return new BufferedReader(new InputStreamReader(
+        new BOMInputStream(resource.getInputStream(), ByteOrderMark.UTF_8),
+        StandardCharsets.UTF_8));
+  }
+
+  private List<String> parseHeader(String headerLine) throws IOException {
+    if (headerLine == null) {
+      return Collections.emptyList();
+    }
+
+    try (CSVParser parser = CSVFormat.DEFAULT.parse(new StringReader(headerLine))) {
+      List<String> header = new ArrayList<>();
+      parser.iterator().next().forEach(header::add);
+      XLOGGER.info("Read header: " + header);
+      return header;
+    }
   }
 
 }
@@ -23,10 +23,14 @@ import static org.openlmis.buq.i18n.MessageKeys.ERROR_MUST_BE_AUTHORIZED_OR_IN_A
 import static org.openlmis.buq.i18n.MessageKeys.ERROR_MUST_BE_DRAFT_OR_REJECTED_TO_BE_SUBMITTED;
 import static org.openlmis.buq.i18n.MessageKeys.ERROR_MUST_BE_SUBMITTED_OR_REJECTED_TO_BE_AUTHORIZED;
 import static org.openlmis.buq.i18n.MessageKeys.ERROR_PERIOD_FACILITY_PAIR_UNIQUE;
+import static org.openlmis.buq.i18n.MessageKeys.ERROR_UPLOAD_LINE_ITEM_FIELD_MUST_BE_NON_NEGATIVE;
+import static org.openlmis.buq.i18n.MessageKeys.ERROR_UPLOAD_LINE_ITEM_FIELD_REQUIRED;
 
+import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
 import org.openlmis.buq.domain.buq.BottomUpQuantification;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationLineItem;
 import org.openlmis.buq.domain.buq.BottomUpQuantificationStatus;
 import org.openlmis.buq.dto.buq.BottomUpQuantificationDto;
 import org.openlmis.buq.dto.buq.BottomUpQuantificationLineItemDto;
@@ -119,14 +123,35 @@ public class BottomUpQuantificationValidator extends BaseValidator {
    * @throws ValidationMessageException If the target cannot be approved.
    */
   public void validateCanBeApproved(BottomUpQuantificationDto target, UUID targetId) {
-    BottomUpQuantificationStatus status =
-            bottomUpQuantificationService.findBottomUpQuantification(targetId).getStatus();
+    validateStatusCanBeApproved(
+        bottomUpQuantificationService.findBottomUpQuantification(targetId).getStatus());
+    validateCanChangeStatus(target);
+  }
+
+  /**
+   * Validates whether a stored BottomUpQuantification can be approved as it is, without new data
+   * being sent with the approval.
+   *
+   * @param bottomUpQuantification The BottomUpQuantification to be validated.
+   * @throws ValidationMessageException If the bottom-up quantification cannot be approved.
+   */
+  public void validateCanBeApproved(BottomUpQuantification bottomUpQuantification) {
+    validateStatusCanBeApproved(bottomUpQuantification.getStatus());
+    if (bottomUpQuantification.getBottomUpQuantificationLineItems() == null) {
+      return;
+    }
+    for (BottomUpQuantificationLineItem lineItem :
+        bottomUpQuantification.getBottomUpQuantificationLineItems()) {
+      validateBottomUpQuantificationLineItemCanChangeStatus(
+          BottomUpQuantificationLineItemDto.newInstance(lineItem));
+    }
+  }
+
+  private void validateStatusCanBeApproved(BottomUpQuantificationStatus status) {
     if (!status.equals(BottomUpQuantificationStatus.AUTHORIZED)
         && !status.equals(BottomUpQuantificationStatus.IN_APPROVAL)) {
       throw new ValidationMessageException(
               new Message(ERROR_MUST_BE_AUTHORIZED_OR_IN_APPROVAL_TO_BE_APPROVED));
-    } else {
-      validateCanChangeStatus(target);
     }
   }
 
@@ -147,6 +172,28 @@ public class BottomUpQuantificationValidator extends BaseValidator {
     }
   }
 
+  /**
+   * Validates the annual adjusted consumptions uploaded with a preparation form. Unlike the
+   * validation of a status change, every value is checked and each invalid one is rejected under
+   * the product code of its row, so that the whole form can be corrected at once.
+   *
+   * @param annualAdjustedConsumptions uploaded values keyed by product code.
+   * @param errors                     errors of the upload, keyed by product code.
+   */
+  public void validateUploadedAnnualAdjustedConsumptions(
+      Map<String, Integer> annualAdjustedConsumptions, Errors errors) {
+    annualAdjustedConsumptions.forEach((productCode, value) -> {
+      if (value == null) {
+        rejectValue(errors, productCode, new Message(ERROR_UPLOAD_LINE_ITEM_FIELD_REQUIRED,
+            ANNUAL_ADJUSTED_CONSUMPTION_FIELD, productCode));
+      } else if (value < 0) {
+        rejectValue(errors, productCode, new Message(
+            ERROR_UPLOAD_LINE_ITEM_FIELD_MUST_BE_NON_NEGATIVE, ANNUAL_ADJUSTED_CONSUMPTION_FIELD,
+            productCode));
+      }
+    });
+  }
+
   private void validatePeriod(Object target, Errors errors) {
     BottomUpQuantification bottomUpQuantification = (BottomUpQuantification) target;
     if (bottomUpQuantificationService
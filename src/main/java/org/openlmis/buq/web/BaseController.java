@@ -17,11 +17,17 @@ package org.openlmis.buq.web;
 
 import java.util.List;
 import java.util.UUID;
+import java.util.stream.Collectors;
 import javax.annotation.Resource;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
 import org.apache.commons.lang3.StringUtils;
 import org.javers.core.Javers;
+import org.javers.core.commit.CommitMetadata;
 import org.javers.core.diff.Change;
 import org.javers.core.json.JsonConverter;
+import org.javers.core.metamodel.object.CdoSnapshot;
+import org.javers.core.metamodel.object.SnapshotType;
 import org.javers.repository.jql.QueryBuilder;
 import org.openlmis.buq.util.Pagination;
 import org.springframework.data.domain.Pageable;
@@ -40,8 +46,10 @@ public abstract class BaseController {
   private Javers javers;
 
   protected ResponseEntity<String> getAuditLogResponse(Class type, UUID id, String author,
-      String changedPropertyName, Pageable page) {
-    String auditLogs = getAuditLogJson(type, id, author, changedPropertyName, page);
+      String changedPropertyName, boolean summary, Pageable page) {
+    String auditLogs = summary
+        ? getAuditLogSummaryJson(type, id, author, changedPropertyName, page)
+        : getAuditLogJson(type, id, author, changedPropertyName, page);
 
     HttpHeaders headers = new HttpHeaders();
     headers.setContentType(MediaType.APPLICATION_JSON);
@@ -63,22 +71,43 @@ public abstract class BaseController {
    */
   private String getAuditLogJson(Class type, UUID id, String author,
       String changedPropertyName, Pageable page) {
-    List<Change> changes = getChangesByType(type, id, author, changedPropertyName, page);
+    List<Change> changes = javers.findChanges(
+        buildAuditLogQuery(type, id, author, changedPropertyName, page).build());
     JsonConverter jsonConverter = javers.getJsonConverter();
     return jsonConverter.toJson(changes);
   }
 
   /*
-    Return JaVers changes for the specified type, optionally filtered by id, author, and property.
+    Return a summary of the JaVers snapshots of the specified type via JSON: the commit, version,
+    snapshot type and names of the changed properties, without the state of the object and without
+    computing the changes.
+  */
+  private String getAuditLogSummaryJson(Class type, UUID id, String author,
+      String changedPropertyName, Pageable page) {
+    List<AuditLogSummaryEntry> entries = javers
+        .findSnapshots(buildAuditLogQuery(type, id, author, changedPropertyName, page).build())
+        .stream()
+        .map(AuditLogSummaryEntry::new)
+        .collect(Collectors.toList());
+    JsonConverter jsonConverter = javers.getJsonConverter();
+    return jsonConverter.toJson(entries);
+  }
+
+  /*
+    Build a JaVers query for the specified type, optionally filtered by id, author, and property.
+    JaVers pages through snapshots, newest first, so a page holds the changes of at most page size
+    commits. The offset and limit are applied by the database.
   */
-  private List<Change> getChangesByType(Class type, UUID id, String author,
+  private QueryBuilder buildAuditLogQuery(Class type, UUID id, String author,
       String changedPropertyName, Pageable page) {
     QueryBuilder queryBuilder = QueryBuilder.byInstanceId(id, type);
 
-    int skip = Pagination.getPageNumber(page);
     int limit = Pagination.getPageSize(page);
+    long skip = (long) Pagination.getPageNumber(page) * limit;
 
-    queryBuilder = queryBuilder.withNewObjectChanges(true).skip(skip).limit(limit);
+    queryBuilder = queryBuilder.withNewObjectChanges(true)
+        .skip((int) Math.min(skip, Integer.MAX_VALUE))
+        .limit(limit);
 
     if (StringUtils.isNotBlank(author)) {
       queryBuilder = queryBuilder.byAuthor(author);
@@ -88,14 +117,26 @@ public abstract class BaseController {
       queryBuilder = queryBuilder.andProperty(changedPropertyName);
     }
 
-    /* Depending on the business' preference, we can either use findSnapshots() or findChanges().
-       Whereas the former returns the entire state of the object as it was at each commit, the later
-       returns only the property and values which changed. */
-    List<Change> changes = javers.findChanges(queryBuilder.build());
+    return queryBuilder;
+  }
+
+  @Getter
+  @AllArgsConstructor
+  static final class AuditLogSummaryEntry {
+
+    private final CommitMetadata commitMetadata;
+
+    private final long version;
+
+    private final SnapshotType type;
+
+    private final List<String> changedProperties;
+
+    AuditLogSummaryEntry(CdoSnapshot snapshot) {
+      this(snapshot.getCommitMetadata(), snapshot.getVersion(), snapshot.getType(),
+          snapshot.getChanged());
+    }
 
-    changes.sort((o1, o2) -> -1 * o1.getCommitMetadata().get().getCommitDate()
-        .compareTo(o2.getCommitMetadata().get().getCommitDate()));
-    return changes;
   }
 
 }
@@ -116,6 +116,8 @@ public class RemarkController extends BaseController {
    *               If null or empty, changes are returned regardless of author.
    * @param changedPropertyName The name of the property about which changes should be returned.
    *               If null or empty, changes associated with any and all properties are returned.
+   * @param summary If true, only the commits, versions and names of the changed properties of
+   *                the snapshots are returned, instead of the changes.
    * @param page A Pageable object that allows client to optionally add "page" (page number)
    *             and "size" (page size) query parameters to the request.
    */
@@ -125,13 +127,15 @@ public class RemarkController extends BaseController {
   public ResponseEntity<String> getRemarkAuditLog(@PathVariable("id") UUID id,
       @RequestParam(name = "author", required = false, defaultValue = "") String author,
       @RequestParam(name = "changedPropertyName", required = false, defaultValue = "")
-      String changedPropertyName, Pageable page) {
+      String changedPropertyName,
+      @RequestParam(name = "summary", required = false, defaultValue = "false") boolean summary,
+      Pageable page) {
 
     // Return a 404 if the specified instance can't be found
     if (!remarkService.existsById(id)) {
       throw new NotFoundException(MessageKeys.ERROR_REMARK_NOT_FOUND);
     }
 
-    return getAuditLogResponse(Remark.class, id, author, changedPropertyName, page);
+    return getAuditLogResponse(Remark.class, id, author, changedPropertyName, summary, page);
   }
 }
@@ -16,6 +16,7 @@
 package org.openlmis.buq.web.buq;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -24,21 +25,34 @@ import java.util.UUID;
 import java.util.stream.Collectors;
 import org.openlmis.buq.ApproveFacilityForecastingStats;
 import org.openlmis.buq.domain.buq.BottomUpQuantification;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationJob;
 import org.openlmis.buq.domain.buq.Rejection;
 import org.openlmis.buq.dto.BottomUpQuantificationGroupCostsData;
+import org.openlmis.buq.dto.buq.BottomUpQuantificationBatchPrepareDto;
+import org.openlmis.buq.dto.buq.BottomUpQuantificationBulkApprovalResultDto;
 import org.openlmis.buq.dto.buq.BottomUpQuantificationDto;
+import org.openlmis.buq.dto.buq.BottomUpQuantificationJobDto;
+import org.openlmis.buq.dto.buq.BottomUpQuantificationPatchDto;
 import org.openlmis.buq.dto.buq.RejectionDto;
 import org.openlmis.buq.dto.productgroup.ProductGroupsCostData;
 import org.openlmis.buq.dto.referencedata.ProgramDto;
 import org.openlmis.buq.exception.NotFoundException;
+import org.openlmis.buq.exception.ValidationMessageException;
 import org.openlmis.buq.i18n.MessageKeys;
+import org.openlmis.buq.i18n.MessageService;
 import org.openlmis.buq.repository.buq.BottomUpQuantificationRepository;
 import org.openlmis.buq.repository.buq.BottomUpQuantificationSearchParams;
+import org.openlmis.buq.service.buq.BottomUpQuantificationBatchPrepareService;
+import org.openlmis.buq.service.buq.BottomUpQuantificationBulkApprovalService;
 import org.openlmis.buq.service.buq.BottomUpQuantificationDtoBuilder;
+import org.openlmis.buq.service.buq.BottomUpQuantificationExportService;
+import org.openlmis.buq.service.buq.BottomUpQuantificationFinalApprovalService;
+import org.openlmis.buq.service.buq.BottomUpQuantificationJobService;
 import org.openlmis.buq.service.buq.BottomUpQuantificationService;
 import org.openlmis.buq.service.buq.RejectionService;
 import org.openlmis.buq.service.referencedata.ProgramReferenceDataService;
 import org.openlmis.buq.service.role.PermissionService;
+import org.openlmis.buq.util.Message;
 import org.openlmis.buq.util.Pagination;
 import org.openlmis.buq.web.BaseController;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -49,18 +63,23 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.MultiValueMap;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 /**
  * Controller used to expose Bottom-Up Quantifications via HTTP.
@@ -73,6 +92,8 @@ public class BottomUpQuantificationController extends BaseController {
   public static final String RESOURCE_PATH = API_PATH + "/bottomUpQuantifications";
   public static final String TEXT_CSV_MEDIA_TYPE = "text/csv";
   public static final String BUQ_FORM_CSV_FILENAME = "buq_quantification_preparation_report";
+  public static final String BUQ_EXPORT_CSV_FILENAME = "buq_line_items_export";
+  public static final String GZIP_MEDIA_TYPE = "application/gzip";
   public static final String PROGRAM_ID = "programId";
   public static final String PROCESSING_PERIOD_ID = "processingPeriodId";
   public static final String GEOGRAPHIC_ZONE_ID = "geographicZoneId";
@@ -84,6 +105,21 @@ public class BottomUpQuantificationController extends BaseController {
   @Autowired
   private BottomUpQuantificationService bottomUpQuantificationService;
 
+  @Autowired
+  private BottomUpQuantificationBatchPrepareService bottomUpQuantificationBatchPrepareService;
+
+  @Autowired
+  private BottomUpQuantificationExportService bottomUpQuantificationExportService;
+
+  @Autowired
+  private BottomUpQuantificationBulkApprovalService bottomUpQuantificationBulkApprovalService;
+
+  @Autowired
+  private BottomUpQuantificationFinalApprovalService bottomUpQuantificationFinalApprovalService;
+
+  @Autowired
+  private BottomUpQuantificationJobService bottomUpQuantificationJobService;
+
   @Autowired
   private BottomUpQuantificationDtoBuilder bottomUpQuantificationDtoBuilder;
 
@@ -96,6 +132,9 @@ public class BottomUpQuantificationController extends BaseController {
   @Autowired
   private PermissionService permissionService;
 
+  @Autowired
+  private MessageService messageService;
+
   /**
    * Retrieves all BottomUpQuantifications that match the parameters passed.
    *
@@ -106,6 +145,7 @@ public class BottomUpQuantificationController extends BaseController {
   @GetMapping
   @ResponseStatus(HttpStatus.OK)
   @ResponseBody
+  @Transactional(readOnly = true)
   public Page<BottomUpQuantificationDto> getAllBottomUpQuantifications(
       @RequestParam(required = false) MultiValueMap<String, String> queryParams,
       Pageable pageable) {
@@ -124,7 +164,8 @@ public class BottomUpQuantificationController extends BaseController {
   }
 
   /**
-   * Retrieves the specified bottom-up quantification.
+   * Retrieves the specified bottom-up quantification. It is read from the primary database, so
+   * that the data entry screen always gets the changes it has just saved.
    */
   @GetMapping(value = "/{id}")
   @ResponseStatus(HttpStatus.OK)
@@ -173,6 +214,42 @@ public class BottomUpQuantificationController extends BaseController {
     return bottomUpQuantificationDtoBuilder.buildDto(bottomUpQuantification);
   }
 
+  /**
+   * Starts preparing bottom-up quantifications for a list of facilities, or for all facilities
+   * under a supervisory node or geographic zone. The preparation runs in the background.
+   *
+   * @param batchPrepareDto program, processing period and facilities to prepare for.
+   * @return created batch prepare job, which can be used to track the progress.
+   */
+  @PostMapping("/prepare/batch")
+  @ResponseStatus(HttpStatus.ACCEPTED)
+  @ResponseBody
+  public BottomUpQuantificationJobDto batchPrepare(
+      @RequestBody BottomUpQuantificationBatchPrepareDto batchPrepareDto) {
+    permissionService.hasPermission(PermissionService.PREPARE_BUQ);
+    BottomUpQuantificationJob job = bottomUpQuantificationBatchPrepareService
+        .prepare(batchPrepareDto);
+
+    return BottomUpQuantificationJobDto.newInstance(job);
+  }
+
+  /**
+   * Gets the progress of the batch prepare job with the given ID.
+   *
+   * @param jobId UUID of the batch prepare job.
+   * @return batch prepare job.
+   */
+  @GetMapping("/prepare/batch/{id}")
+  @ResponseStatus(HttpStatus.OK)
+  @ResponseBody
+  public BottomUpQuantificationJobDto getBatchPrepareJob(
+      @PathVariable("id") UUID jobId) {
+    permissionService.hasPermission(PermissionService.PREPARE_BUQ);
+
+    return BottomUpQuantificationJobDto
+        .newInstance(bottomUpQuantificationBatchPrepareService.findJob(jobId));
+  }
+
   /**
    * Allows updating bottom-up quantification.
    *
@@ -199,15 +276,35 @@ public class BottomUpQuantificationController extends BaseController {
   }
 
   /**
-   * Allows downloading csv file.
+   * Allows updating only the changed line items and funding details of a bottom-up
+   * quantification, e.g. by the autosave of the data entry screen.
    *
-   * @return bytes containing bottom-up quantification data in csv format.
-   * @throws IOException I/O exception
+   * @param bottomUpQuantificationId UUID of bottom-up quantification which we want to update.
+   * @param patchDto A bottom-up quantification patch DTO bound to the request body.
+   */
+  @PatchMapping("/{id}")
+  @ResponseStatus(HttpStatus.NO_CONTENT)
+  public void patch(@PathVariable("id") UUID bottomUpQuantificationId,
+      @RequestBody BottomUpQuantificationPatchDto patchDto) {
+    List<String> rightNames = Arrays.asList(PermissionService.CREATE_FORECASTING,
+            PermissionService.AUTHORIZE_FORECASTING);
+    permissionService.hasAtLeastOnePermission(rightNames);
+    if (!bottomUpQuantificationRepository.existsById(bottomUpQuantificationId)) {
+      throw new NotFoundException(MessageKeys.ERROR_BOTTOM_UP_QUANTIFICATION_NOT_FOUND);
+    }
+
+    bottomUpQuantificationService.patch(patchDto, bottomUpQuantificationId);
+  }
+
+  /**
+   * Allows downloading csv file. The file is written straight to the response.
+   *
+   * @return body writing bottom-up quantification data in csv format.
    */
   @GetMapping("/{id}/download")
   @ResponseStatus(HttpStatus.OK)
-  public ResponseEntity<byte[]> download(@PathVariable("id") UUID bottomUpQuantificationId)
-      throws IOException {
+  public ResponseEntity<StreamingResponseBody> download(
+      @PathVariable("id") UUID bottomUpQuantificationId) {
     permissionService.hasPermission(PermissionService.PREPARE_BUQ);
     BottomUpQuantification buq = bottomUpQuantificationRepository
         .findById(bottomUpQuantificationId).orElseThrow(
@@ -221,7 +318,40 @@ public class BottomUpQuantificationController extends BaseController {
   }
 
   /**
-   * Authorize given bottom-up quantification.
+   * Allows uploading the csv file downloaded from {@link #download}, to fill the annual adjusted
+   * consumptions of the line items at once. The file is read row by row. It requires the same
+   * rights as {@link #save}, and the uploaded data is saved the same way.
+   *
+   * @param bottomUpQuantificationId UUID of bottom-up quantification which we want to update.
+   * @param file preparation form in csv format.
+   * @return updated bottom-up quantification.
+   */
+  @PostMapping("/{id}/upload")
+  @ResponseStatus(HttpStatus.OK)
+  @ResponseBody
+  public BottomUpQuantificationDto upload(@PathVariable("id") UUID bottomUpQuantificationId,
+      @RequestPart("file") MultipartFile file) {
+    List<String> rightNames = Arrays.asList(PermissionService.CREATE_FORECASTING,
+            PermissionService.AUTHORIZE_FORECASTING);
+    permissionService.hasAtLeastOnePermission(rightNames);
+    if (!bottomUpQuantificationRepository.existsById(bottomUpQuantificationId)) {
+      throw new NotFoundException(MessageKeys.ERROR_BOTTOM_UP_QUANTIFICATION_NOT_FOUND);
+    }
+
+    try (InputStream inputStream = file.getInputStream()) {
+      BottomUpQuantification updatedBottomUpQuantification = bottomUpQuantificationService
+          .uploadPreparationFormData(bottomUpQuantificationId, inputStream);
+
+      return bottomUpQuantificationDtoBuilder.buildDto(updatedBottomUpQuantification);
+    } catch (IOException ex) {
+      throw new ValidationMessageException(ex,
+          new Message(MessageKeys.ERROR_UPLOAD_INVALID_FILE, 1));
+    }
+  }
+
+  /**
+   * Authorize given bottom-up quantification. The endpoint runs outside of a transaction, so
+   * that the service can call the reference data service before its own, short transaction.
    *
    * @param bottomUpQuantificationId UUID of BottomUpQuantification to authorize.
    * @return authorized BottomUpQuantification.
@@ -229,6 +359,7 @@ public class BottomUpQuantificationController extends BaseController {
   @PostMapping("/{id}/authorize")
   @ResponseStatus(HttpStatus.OK)
   @ResponseBody
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
   public BottomUpQuantificationDto authorize(@PathVariable("id") UUID bottomUpQuantificationId,
       @RequestBody BottomUpQuantificationDto bottomUpQuantificationDto) {
     if (!bottomUpQuantificationRepository.existsById(bottomUpQuantificationId)) {
@@ -248,14 +379,13 @@ public class BottomUpQuantificationController extends BaseController {
       permissionService.hasPermission(PermissionService.AUTHORIZE_FORECASTING);
     }
 
-    BottomUpQuantification updatedBottomUpQuantification = bottomUpQuantificationService
+    return bottomUpQuantificationService
         .authorize(bottomUpQuantificationDto, bottomUpQuantificationId);
-
-    return bottomUpQuantificationDtoBuilder.buildDto(updatedBottomUpQuantification);
   }
 
   /**
-   * Approve given bottom-up quantification.
+   * Approve given bottom-up quantification. The endpoint runs outside of a transaction, so that
+   * the service can call the reference data service before its own, short transaction.
    *
    * @param bottomUpQuantificationId UUID of BottomUpQuantification to approve.
    * @return approved BottomUpQuantification.
@@ -263,6 +393,7 @@ public class BottomUpQuantificationController extends BaseController {
   @PostMapping("/{id}/approve")
   @ResponseStatus(HttpStatus.OK)
   @ResponseBody
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
   public BottomUpQuantificationDto approve(@PathVariable("id") UUID bottomUpQuantificationId,
       @RequestBody BottomUpQuantificationDto bottomUpQuantificationDto) {
     permissionService.hasPermission(PermissionService.APPROVE_BUQ);
@@ -270,10 +401,26 @@ public class BottomUpQuantificationController extends BaseController {
       throw new NotFoundException(MessageKeys.ERROR_BOTTOM_UP_QUANTIFICATION_NOT_FOUND);
     }
 
-    BottomUpQuantification updatedBottomUpQuantification = bottomUpQuantificationService
+    return bottomUpQuantificationService
         .approve(bottomUpQuantificationDto, bottomUpQuantificationId);
+  }
 
-    return bottomUpQuantificationDtoBuilder.buildDto(updatedBottomUpQuantification);
+  /**
+   * Approves many bottom-up quantifications at once, as they are stored. The IDs are processed
+   * in chunks of one transaction each, so the endpoint itself runs outside of a transaction.
+   *
+   * @param ids list of UUIDs of bottom-up quantifications to approve.
+   * @return approved IDs and the reason of every failure.
+   */
+  @PostMapping("/approve/bulk")
+  @ResponseStatus(HttpStatus.OK)
+  @ResponseBody
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
+  public BottomUpQuantificationBulkApprovalResultDto bulkApprove(@RequestBody List<UUID> ids) {
+    permissionService.hasPermission(PermissionService.APPROVE_BUQ);
+
+    return BottomUpQuantificationBulkApprovalResultDto.newInstance(
+        bottomUpQuantificationBulkApprovalService.approve(ids), messageService);
   }
 
   /**
@@ -282,16 +429,21 @@ public class BottomUpQuantificationController extends BaseController {
    * quantifications submitted.
    *
    * @param programId The UUID of the program for which to retrieve approval statistics.
+   * @param processingPeriodId The UUID of the processing period to narrow the statistics to.
+   *                           If not provided, all processing periods are taken into account.
    * @return An instance of the {@link ApproveFacilityForecastingStats} class containing the
    *         approval statistics for the specified program.
    */
   @GetMapping(value = "/approveFacilityForecastingStats")
   @ResponseStatus(HttpStatus.OK)
   @ResponseBody
+  @Transactional(readOnly = true)
   public ApproveFacilityForecastingStats getApproveFacilityForecastingStats(
-      @RequestParam(value = PROGRAM_ID) UUID programId) {
+      @RequestParam(value = PROGRAM_ID) UUID programId,
+      @RequestParam(value = PROCESSING_PERIOD_ID, required = false) UUID processingPeriodId) {
     permissionService.hasPermission(PermissionService.APPROVE_BUQ);
-    return bottomUpQuantificationService.getApproveFacilityForecastingStats(programId);
+    return bottomUpQuantificationService.getApproveFacilityForecastingStats(programId,
+        processingPeriodId);
   }
 
   /**
@@ -303,6 +455,7 @@ public class BottomUpQuantificationController extends BaseController {
   @GetMapping(value = "/forApproval")
   @ResponseStatus(HttpStatus.OK)
   @ResponseBody
+  @Transactional(readOnly = true)
   public Page<BottomUpQuantificationDto> getForApproval(Pageable pageable,
       @RequestParam(value = PROGRAM_ID) UUID programId) {
     permissionService.hasPermission(PermissionService.APPROVE_BUQ);
@@ -328,6 +481,7 @@ public class BottomUpQuantificationController extends BaseController {
   @GetMapping(value = "/forFinalApproval")
   @ResponseStatus(HttpStatus.OK)
   @ResponseBody
+  @Transactional(readOnly = true)
   public Page<BottomUpQuantificationGroupCostsData> getForFinalApprovalWithGroupCostsData(
       Pageable pageable,
       @RequestParam(value = PROGRAM_ID) UUID programId,
@@ -342,6 +496,33 @@ public class BottomUpQuantificationController extends BaseController {
         content.size());
   }
 
+  /**
+   * Exports the line items of all approved bottom-up quantifications of the given program and
+   * processing period as a csv file. The file is written straight to the response.
+   *
+   * @param programId UUID of the program.
+   * @param processingPeriodId UUID of the processing period.
+   * @param compressed whether the csv file should be gzip-compressed.
+   * @return body writing the line items in csv format.
+   */
+  @GetMapping("/export")
+  @ResponseStatus(HttpStatus.OK)
+  public ResponseEntity<StreamingResponseBody> export(
+      @RequestParam(value = PROGRAM_ID) UUID programId,
+      @RequestParam(value = PROCESSING_PERIOD_ID) UUID processingPeriodId,
+      @RequestParam(name = "compressed", required = false, defaultValue = "false")
+          boolean compressed) {
+    permissionService.hasAtLeastOnePermission(PermissionService.MOH_PORALG_RIGHTS);
+    StreamingResponseBody body = bottomUpQuantificationExportService
+        .export(programId, processingPeriodId, compressed);
+
+    return ResponseEntity.ok()
+        .contentType(MediaType.valueOf(compressed ? GZIP_MEDIA_TYPE : TEXT_CSV_MEDIA_TYPE))
+        .header(HttpHeaders.CONTENT_DISPOSITION, "attachment;filename="
+            + BUQ_EXPORT_CSV_FILENAME + (compressed ? ".csv.gz" : ".csv"))
+        .body(body);
+  }
+
   /**
    * Rejects given bottom-up quantification.
    *
@@ -369,15 +550,38 @@ public class BottomUpQuantificationController extends BaseController {
   @GetMapping("/{id}/mostRecentRejection")
   @ResponseStatus(HttpStatus.OK)
   @ResponseBody
+  @Transactional(readOnly = true)
   public RejectionDto getMostRecentRejection(@PathVariable("id") UUID bottomUpQuantificationId) {
     permissionService.hasAtLeastOnePermission(PermissionService.RECENT_REJECTION_RIGHTS);
     Rejection latestRejection = rejectionService.getLatestRejection(bottomUpQuantificationId);
     return RejectionDto.newInstance(latestRejection);
   }
 
+  /**
+   * Returns the latest rejection of each of the given bottom-up quantifications, so that list
+   * views can show the rejection reasons with a single request. Bottom-up quantifications that
+   * were never rejected are left out.
+   *
+   * @param ids UUIDs of bottom-up quantifications.
+   * @return rejectionDtos by bottom-up quantification ID.
+   */
+  @GetMapping("/mostRecentRejections")
+  @ResponseStatus(HttpStatus.OK)
+  @ResponseBody
+  @Transactional(readOnly = true)
+  public Map<UUID, RejectionDto> getMostRecentRejections(@RequestParam("id") List<UUID> ids) {
+    permissionService.hasAtLeastOnePermission(PermissionService.RECENT_REJECTION_RIGHTS);
+    return rejectionService.getLatestRejections(ids)
+        .entrySet()
+        .stream()
+        .collect(Collectors.toMap(Map.Entry::getKey,
+            entry -> RejectionDto.newInstance(entry.getValue())));
+  }
+
   @GetMapping(value = "/supervisedGeographicZones")
   @ResponseStatus(HttpStatus.OK)
   @ResponseBody
+  @Transactional(readOnly = true)
   public Map<UUID, Map<UUID, Map<UUID, Set<UUID>>>> getSupervisedGeographicZones(
       @RequestParam(value = PROGRAM_ID) UUID programId) {
     permissionService.hasAtLeastOnePermission(PermissionService.MOH_PORALG_RIGHTS);
@@ -391,16 +595,21 @@ public class BottomUpQuantificationController extends BaseController {
    *               If null or empty, changes are returned regardless of author.
    * @param changedPropertyName The name of the property about which changes should be returned.
    *               If null or empty, changes associated with any and all properties are returned.
+   * @param summary If true, only the commits, versions and names of the changed properties of
+   *                the snapshots are returned, instead of the changes.
    * @param page A Pageable object that allows client to optionally add "page" (page number)
    *             and "size" (page size) query parameters to the request.
    */
   @GetMapping(value = "/{id}/auditLog")
   @ResponseStatus(HttpStatus.OK)
   @ResponseBody
+  @Transactional(readOnly = true)
   public ResponseEntity<String> getBottomUpQuantificationAuditLog(@PathVariable("id") UUID id,
       @RequestParam(name = "author", required = false, defaultValue = "") String author,
       @RequestParam(name = "changedPropertyName", required = false, defaultValue = "")
-      String changedPropertyName, Pageable page) {
+      String changedPropertyName,
+      @RequestParam(name = "summary", required = false, defaultValue = "false") boolean summary,
+      Pageable page) {
     permissionService.hasPermission(PermissionService.MANAGE_BUQ);
 
     // Return a 404 if the specified instance can't be found
@@ -409,7 +618,7 @@ public class BottomUpQuantificationController extends BaseController {
     }
 
     return getAuditLogResponse(BottomUpQuantification.class, id, author, changedPropertyName,
-        page);
+        summary, page);
   }
 
   /**
@@ -455,7 +664,8 @@ public class BottomUpQuantificationController extends BaseController {
   }
 
   /**
-   * Endpoint to final approve a bottomUpQuantification.
+   * Endpoint to final approve a bottomUpQuantification. The endpoint runs outside of a
+   * transaction, so that permissions are checked before the service starts its own transaction.
    *
    * @param ids list of UUIDs of bottom-up quantification which we want to update.
    * @return updated bottom-up quantification dto.
@@ -463,15 +673,136 @@ public class BottomUpQuantificationController extends BaseController {
   @PostMapping("/finalApprove")
   @ResponseStatus(HttpStatus.OK)
   @ResponseBody
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
   public List<BottomUpQuantificationDto> finalApproveBottomUpQuantification(
           @RequestParam("id") List<UUID> ids) {
     permissionService.hasAtLeastOnePermission(PermissionService.MOH_PORALG_RIGHTS);
-    List<BottomUpQuantification> updatedBottomUpQuantifications =
-            bottomUpQuantificationService.finalApproveBottomUpQuantification(ids);
-    return updatedBottomUpQuantifications
-            .stream()
-            .map(bottomUpQuantificationDtoBuilder::buildDto)
-            .collect(Collectors.toList());
+    return bottomUpQuantificationService.finalApproveBottomUpQuantification(ids);
+  }
+
+  /**
+   * Final approves many bottom-up quantifications at once. The IDs are processed in chunks of one
+   * transaction each, so the endpoint itself runs outside of a transaction, and the bottom-up
+   * quantifications that could not be approved are reported instead of failing the request.
+   *
+   * @param ids list of UUIDs of bottom-up quantifications to final approve.
+   * @return approved IDs and the reason of every failure.
+   */
+  @PostMapping("/finalApprove/bulk")
+  @ResponseStatus(HttpStatus.OK)
+  @ResponseBody
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
+  public BottomUpQuantificationBulkApprovalResultDto bulkFinalApproveBottomUpQuantifications(
+      @RequestBody List<UUID> ids) {
+    permissionService.hasAtLeastOnePermission(PermissionService.MOH_PORALG_RIGHTS);
+
+    return BottomUpQuantificationBulkApprovalResultDto.newInstance(
+        bottomUpQuantificationFinalApprovalService.finalApprove(ids), messageService);
+  }
+
+  /**
+   * Starts calculating the costs of product groups in the background, see
+   * {@link #getCostCalculations}.
+   *
+   * @return created job, which can be used to track the progress and to download the result.
+   */
+  @PostMapping("/jobs/costCalculation")
+  @ResponseStatus(HttpStatus.ACCEPTED)
+  @ResponseBody
+  public BottomUpQuantificationJobDto submitCostCalculationJob(Pageable pageable,
+      @RequestParam(value = PROCESSING_PERIOD_ID) UUID processingPeriodId,
+      @RequestParam(value = PROGRAM_ID) UUID programId,
+      @RequestParam(value = GEOGRAPHIC_ZONE_ID) UUID geographicZoneId,
+      @RequestBody Map<UUID, Map<UUID, Map<UUID, Set<UUID>>>> geographicZones) {
+    permissionService.hasAtLeastOnePermission(PermissionService.MOH_PORALG_RIGHTS);
+
+    return BottomUpQuantificationJobDto.newInstance(bottomUpQuantificationJobService
+        .submitCostCalculation(processingPeriodId, programId, geographicZoneId, geographicZones,
+            pageable));
+  }
+
+  /**
+   * Starts searching for bottom-up quantifications to final approve along with their group costs
+   * in the background, see {@link #getForFinalApprovalWithGroupCostsData}.
+   *
+   * @return created job, which can be used to track the progress and to download the result.
+   */
+  @PostMapping("/jobs/forFinalApproval")
+  @ResponseStatus(HttpStatus.ACCEPTED)
+  @ResponseBody
+  public BottomUpQuantificationJobDto submitForFinalApprovalJob(Pageable pageable,
+      @RequestParam(value = PROGRAM_ID) UUID programId,
+      @RequestParam(value = PROCESSING_PERIOD_ID) UUID processingPeriodId,
+      @RequestParam(value = GEOGRAPHIC_ZONE_ID) UUID geographicZoneId) {
+    permissionService.hasAtLeastOnePermission(PermissionService.MOH_PORALG_RIGHTS);
+
+    return BottomUpQuantificationJobDto.newInstance(bottomUpQuantificationJobService
+        .submitForFinalApproval(programId, processingPeriodId, geographicZoneId, pageable));
+  }
+
+  /**
+   * Starts final approving many bottom-up quantifications in the background, see
+   * {@link #bulkFinalApproveBottomUpQuantifications}.
+   *
+   * @param ids list of UUIDs of bottom-up quantifications to final approve.
+   * @return created job, which can be used to track the progress and to download the result.
+   */
+  @PostMapping("/jobs/finalApprove")
+  @ResponseStatus(HttpStatus.ACCEPTED)
+  @ResponseBody
+  public BottomUpQuantificationJobDto submitFinalApprovalJob(@RequestBody List<UUID> ids) {
+    permissionService.hasAtLeastOnePermission(PermissionService.MOH_PORALG_RIGHTS);
+
+    return BottomUpQuantificationJobDto.newInstance(bottomUpQuantificationJobService
+        .submitFinalApproval(ids));
+  }
+
+  /**
+   * Gets the status of the background job with the given ID.
+   *
+   * @param jobId UUID of the job.
+   * @return job.
+   */
+  @GetMapping("/jobs/{id}")
+  @ResponseStatus(HttpStatus.OK)
+  @ResponseBody
+  public BottomUpQuantificationJobDto getJob(@PathVariable("id") UUID jobId) {
+    permissionService.hasAtLeastOnePermission(PermissionService.MOH_PORALG_RIGHTS);
+
+    return BottomUpQuantificationJobDto.newInstance(bottomUpQuantificationJobService
+        .findJob(jobId));
+  }
+
+  /**
+   * Downloads the result of a completed background job. The result is kept until the job
+   * expires, so it can be downloaded many times.
+   *
+   * @param jobId UUID of the job.
+   * @return result of the job, in the same format as the synchronous endpoint returns it.
+   */
+  @GetMapping("/jobs/{id}/result")
+  public ResponseEntity<String> getJobResult(@PathVariable("id") UUID jobId) {
+    permissionService.hasAtLeastOnePermission(PermissionService.MOH_PORALG_RIGHTS);
+
+    return ResponseEntity.ok()
+        .contentType(MediaType.APPLICATION_JSON)
+        .body(bottomUpQuantificationJobService.getResult(jobId));
+  }
+
+  /**
+   * Cancels the background job with the given ID, if it has not finished yet.
+   *
+   * @param jobId UUID of the job.
+   * @return cancelled job.
+   */
+  @PostMapping("/jobs/{id}/cancel")
+  @ResponseStatus(HttpStatus.OK)
+  @ResponseBody
+  public BottomUpQuantificationJobDto cancelJob(@PathVariable("id") UUID jobId) {
+    permissionService.hasAtLeastOnePermission(PermissionService.MOH_PORALG_RIGHTS);
+
+    return BottomUpQuantificationJobDto.newInstance(bottomUpQuantificationJobService
+        .cancel(jobId));
   }
 
 }
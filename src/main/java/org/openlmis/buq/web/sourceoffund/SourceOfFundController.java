@@ -156,6 +156,8 @@ public class SourceOfFundController extends BaseController {
    *               If null or empty, changes are returned regardless of author.
    * @param changedPropertyName The name of the property about which changes should be returned.
    *               If null or empty, changes associated with any and all properties are returned.
+   * @param summary If true, only the commits, versions and names of the changed properties of
+   *                the snapshots are returned, instead of the changes.
    * @param page A Pageable object that allows client to optionally add "page" (page number)
    *             and "size" (page size) query parameters to the request.
    */
@@ -165,14 +167,16 @@ public class SourceOfFundController extends BaseController {
   public ResponseEntity<String> getSourceOfFundAuditLog(@PathVariable("id") UUID id,
       @RequestParam(name = "author", required = false, defaultValue = "") String author,
       @RequestParam(name = "changedPropertyName", required = false, defaultValue = "")
-          String changedPropertyName, Pageable page) {
+          String changedPropertyName,
+      @RequestParam(name = "summary", required = false, defaultValue = "false") boolean summary,
+      Pageable page) {
 
     // Return a 404 if the specified instance can't be found
     if (!sourceOfFundRepository.existsById(id)) {
       throw new NotFoundException(MessageKeys.ERROR_SOURCE_OF_FUND_NOT_FOUND);
     }
 
-    return getAuditLogResponse(SourceOfFund.class, id, author, changedPropertyName, page);
+    return getAuditLogResponse(SourceOfFund.class, id, author, changedPropertyName, summary, page);
   }
 
 }
@@ -0,0 +1,35 @@
+--
+-- Name: requisition_consumption_facts; Type: TABLE; Schema: buq; Owner: postgres; Tablespace:
+--
+
+CREATE TABLE requisition_consumption_facts (
+    facilityId uuid NOT NULL,
+    processingPeriodId uuid NOT NULL,
+    orderableId uuid NOT NULL,
+    periodStartDate date NOT NULL,
+    periodEndDate date NOT NULL,
+    adjustedConsumption bigint NOT NULL,
+    refreshedDate timestamptz NOT NULL,
+
+    CONSTRAINT requisition_consumption_facts_pkey
+        PRIMARY KEY (facilityId, processingPeriodId, orderableId)
+);
+
+CREATE INDEX requisition_consumption_facts_facility_period_dates_idx
+    ON requisition_consumption_facts (facilityId, periodStartDate, periodEndDate);
+
+
+--
+-- Name: requisition_consumption_fact_refreshes; Type: TABLE; Schema: buq; Owner: postgres; Tablespace:
+--
+
+CREATE TABLE requisition_consumption_fact_refreshes (
+    id integer NOT NULL,
+    lastRequisitionModifiedDate timestamptz,
+    refreshedDate timestamptz,
+
+    CONSTRAINT requisition_consumption_fact_refreshes_pkey PRIMARY KEY (id)
+);
+
+INSERT INTO requisition_consumption_fact_refreshes (id, lastRequisitionModifiedDate, refreshedDate)
+VALUES (1, NULL, NULL);
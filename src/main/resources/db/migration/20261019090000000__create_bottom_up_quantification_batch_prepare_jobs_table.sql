@@ -0,0 +1,15 @@
+CREATE TABLE bottom_up_quantification_batch_prepare_jobs (
+    id uuid NOT NULL,
+    createdDate timestamptz,
+    modifiedDate timestamptz,
+    programId uuid NOT NULL,
+    processingPeriodId uuid NOT NULL,
+    requestedById uuid NOT NULL,
+    status text NOT NULL,
+    totalFacilities integer,
+    preparedFacilities integer NOT NULL DEFAULT 0,
+    skippedFacilities integer NOT NULL DEFAULT 0,
+    errorMessage text,
+
+    CONSTRAINT bottom_up_quantification_batch_prepare_jobs_pkey PRIMARY KEY (id)
+);
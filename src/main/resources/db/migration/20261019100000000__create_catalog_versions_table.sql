@@ -0,0 +1,26 @@
+CREATE TABLE catalog_versions (
+    name text NOT NULL,
+    version bigint NOT NULL DEFAULT 0,
+    CONSTRAINT catalog_versions_pkey PRIMARY KEY (name)
+);
+
+INSERT INTO catalog_versions (name) VALUES ('remarks'), ('sources_of_funds'), ('product_groups');
+
+CREATE FUNCTION increment_catalog_version() RETURNS trigger AS $$
+BEGIN
+    UPDATE buq.catalog_versions SET version = version + 1 WHERE name = TG_TABLE_NAME;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER remarks_catalog_version
+    AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON remarks
+    FOR EACH STATEMENT EXECUTE PROCEDURE increment_catalog_version();
+
+CREATE TRIGGER sources_of_funds_catalog_version
+    AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON sources_of_funds
+    FOR EACH STATEMENT EXECUTE PROCEDURE increment_catalog_version();
+
+CREATE TRIGGER product_groups_catalog_version
+    AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON product_groups
+    FOR EACH STATEMENT EXECUTE PROCEDURE increment_catalog_version();
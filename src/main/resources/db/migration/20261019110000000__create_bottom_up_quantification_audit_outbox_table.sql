@@ -0,0 +1,9 @@
+CREATE TABLE bottom_up_quantification_audit_outbox (
+    id bigserial NOT NULL,
+    bottomUpQuantificationId uuid NOT NULL,
+    deleted boolean NOT NULL DEFAULT FALSE,
+    author text,
+    createdDate timestamptz NOT NULL DEFAULT NOW(),
+
+    CONSTRAINT bottom_up_quantification_audit_outbox_pkey PRIMARY KEY (id)
+);
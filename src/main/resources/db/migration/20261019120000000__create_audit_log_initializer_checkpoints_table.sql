@@ -0,0 +1,7 @@
+CREATE TABLE audit_log_initializer_checkpoints (
+    name text NOT NULL,
+    nextId uuid NOT NULL,
+    modifiedDate timestamptz NOT NULL DEFAULT NOW(),
+
+    CONSTRAINT audit_log_initializer_checkpoints_pkey PRIMARY KEY (name)
+);
@@ -0,0 +1,16 @@
+CREATE TABLE bottom_up_quantification_jobs (
+    id uuid NOT NULL,
+    createdDate timestamptz,
+    modifiedDate timestamptz,
+    type text NOT NULL,
+    status text NOT NULL,
+    requestedById uuid NOT NULL,
+    parameters text,
+    result text,
+    errorMessage text,
+
+    CONSTRAINT bottom_up_quantification_jobs_pkey PRIMARY KEY (id)
+);
+
+CREATE INDEX bottom_up_quantification_jobs_createddate_idx
+    ON bottom_up_quantification_jobs (createdDate);
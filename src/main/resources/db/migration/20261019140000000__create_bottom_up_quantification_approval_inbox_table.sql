@@ -0,0 +1,81 @@
+CREATE TABLE bottom_up_quantification_approval_inbox (
+    bottomUpQuantificationId uuid NOT NULL,
+    programId uuid NOT NULL,
+    supervisoryNodeId uuid NOT NULL,
+    facilityId uuid NOT NULL,
+    status varchar(255) NOT NULL,
+    authorizedDate timestamptz,
+
+    CONSTRAINT bottom_up_quantification_approval_inbox_pkey
+        PRIMARY KEY (bottomUpQuantificationId),
+    CONSTRAINT fkey_approval_inbox_bottom_up_quantifications
+        FOREIGN KEY (bottomUpQuantificationId) REFERENCES bottom_up_quantifications(id)
+        ON DELETE CASCADE
+);
+
+CREATE INDEX bottom_up_quantification_approval_inbox_program_node_idx
+    ON bottom_up_quantification_approval_inbox (programId, supervisoryNodeId, authorizedDate);
+
+-- Keeps the inbox in line with the approvable (AUTHORIZED, IN_APPROVAL) bottom-up
+-- quantifications that have a supervisory node, whichever way they are modified.
+CREATE FUNCTION refresh_approval_inbox() RETURNS trigger AS $$
+BEGIN
+    IF NEW.status IN ('AUTHORIZED', 'IN_APPROVAL') AND NEW.supervisoryNodeId IS NOT NULL THEN
+        INSERT INTO buq.bottom_up_quantification_approval_inbox (bottomUpQuantificationId,
+            programId, supervisoryNodeId, facilityId, status, authorizedDate)
+        VALUES (NEW.id, NEW.programId, NEW.supervisoryNodeId, NEW.facilityId, NEW.status,
+            (SELECT MAX(sc.occurredDate)
+                FROM buq.bottom_up_quantification_status_changes sc
+                WHERE sc.bottomUpQuantificationId = NEW.id AND sc.status = 'AUTHORIZED'))
+        ON CONFLICT (bottomUpQuantificationId) DO UPDATE SET
+            programId = EXCLUDED.programId,
+            supervisoryNodeId = EXCLUDED.supervisoryNodeId,
+            facilityId = EXCLUDED.facilityId,
+            status = EXCLUDED.status,
+            authorizedDate = EXCLUDED.authorizedDate;
+    ELSE
+        DELETE FROM buq.bottom_up_quantification_approval_inbox
+        WHERE bottomUpQuantificationId = NEW.id;
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Status changes may be inserted before or after the update of their bottom-up quantification.
+CREATE FUNCTION refresh_approval_inbox_authorized_date() RETURNS trigger AS $$
+BEGIN
+    UPDATE buq.bottom_up_quantification_approval_inbox
+    SET authorizedDate = NEW.occurredDate
+    WHERE bottomUpQuantificationId = NEW.bottomUpQuantificationId
+        AND (authorizedDate IS NULL OR authorizedDate < NEW.occurredDate);
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER bottom_up_quantifications_approval_inbox_insert
+    AFTER INSERT ON bottom_up_quantifications
+    FOR EACH ROW EXECUTE PROCEDURE refresh_approval_inbox();
+
+CREATE TRIGGER bottom_up_quantifications_approval_inbox_update
+    AFTER UPDATE ON bottom_up_quantifications
+    FOR EACH ROW
+    WHEN (OLD.status IS DISTINCT FROM NEW.status
+        OR OLD.supervisoryNodeId IS DISTINCT FROM NEW.supervisoryNodeId
+        OR OLD.programId IS DISTINCT FROM NEW.programId
+        OR OLD.facilityId IS DISTINCT FROM NEW.facilityId)
+    EXECUTE PROCEDURE refresh_approval_inbox();
+
+CREATE TRIGGER bottom_up_quantification_status_changes_approval_inbox
+    AFTER INSERT ON bottom_up_quantification_status_changes
+    FOR EACH ROW
+    WHEN (NEW.status = 'AUTHORIZED')
+    EXECUTE PROCEDURE refresh_approval_inbox_authorized_date();
+
+INSERT INTO bottom_up_quantification_approval_inbox (bottomUpQuantificationId, programId,
+    supervisoryNodeId, facilityId, status, authorizedDate)
+SELECT b.id, b.programId, b.supervisoryNodeId, b.facilityId, b.status,
+    (SELECT MAX(sc.occurredDate)
+        FROM bottom_up_quantification_status_changes sc
+        WHERE sc.bottomUpQuantificationId = b.id AND sc.status = 'AUTHORIZED')
+FROM bottom_up_quantifications b
+WHERE b.status IN ('AUTHORIZED', 'IN_APPROVAL') AND b.supervisoryNodeId IS NOT NULL;
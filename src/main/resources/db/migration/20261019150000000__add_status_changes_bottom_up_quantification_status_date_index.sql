@@ -0,0 +1,2 @@
+CREATE INDEX bottom_up_quantification_status_changes_buq_status_date_idx
+    ON bottom_up_quantification_status_changes (bottomUpQuantificationId, status, occurredDate);
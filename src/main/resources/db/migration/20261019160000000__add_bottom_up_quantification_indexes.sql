@@ -0,0 +1,17 @@
+-- existsByFacilityIdAndProcessingPeriodId, findFacilityIdsByProcessingPeriodId, the search by
+-- facility and the count of bottom-up quantifications by status
+CREATE INDEX bottom_up_quantifications_facility_period_idx
+    ON bottom_up_quantifications (facilityId, processingPeriodId);
+
+-- bottom-up quantifications for final approval, by program and supervisory node pairs
+CREATE INDEX bottom_up_quantifications_program_node_status_idx
+    ON bottom_up_quantifications (programId, supervisoryNodeId, status);
+
+CREATE INDEX bottom_up_quantification_line_items_buq_idx
+    ON bottom_up_quantification_line_items (bottomUpQuantificationId);
+
+CREATE INDEX bottom_up_quantification_funding_details_buq_idx
+    ON bottom_up_quantification_funding_details (bottomUpQuantificationId);
+
+CREATE INDEX rejections_status_change_idx
+    ON rejections (statusChangeId);
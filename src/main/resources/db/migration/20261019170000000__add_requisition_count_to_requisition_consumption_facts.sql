@@ -0,0 +1,4 @@
+-- Number of requisitions the facts of a facility and processing period were calculated from, so
+-- that a refresh notices deleted requisitions. Existing facts are recalculated by the next refresh.
+ALTER TABLE requisition_consumption_facts
+ADD COLUMN requisitionCount integer;
@@ -0,0 +1,3 @@
+-- state of the bottom-up quantification as committed by the recorded change, in JSON. Entries
+-- added before this column existed have no state
+ALTER TABLE bottom_up_quantification_audit_outbox ADD COLUMN state text;
@@ -0,0 +1,3 @@
+-- export of the approved bottom-up quantifications of a program and processing period
+CREATE INDEX bottom_up_quantifications_program_period_status_idx
+    ON bottom_up_quantifications (programId, processingPeriodId, status);
@@ -0,0 +1,15 @@
+-- Batch prepare runs as a bottom-up quantification job, so that all background jobs share one
+-- executor, heartbeat and stale job check. Items are the facilities of a batch prepare job.
+ALTER TABLE bottom_up_quantification_jobs
+ADD COLUMN totalItems integer,
+ADD COLUMN completedItems integer NOT NULL DEFAULT 0,
+ADD COLUMN skippedItems integer NOT NULL DEFAULT 0;
+
+INSERT INTO bottom_up_quantification_jobs (id, createdDate, modifiedDate, type, status,
+    requestedById, parameters, errorMessage, totalItems, completedItems, skippedItems)
+SELECT id, createdDate, modifiedDate, 'BATCH_PREPARE', status, requestedById,
+    json_build_object('programId', programId, 'processingPeriodId', processingPeriodId)::text,
+    errorMessage, totalFacilities, preparedFacilities, skippedFacilities
+FROM bottom_up_quantification_batch_prepare_jobs;
+
+DROP TABLE bottom_up_quantification_batch_prepare_jobs;
@@ -15,43 +15,61 @@
 
 package org.openlmis.buq;
 
-import static org.mockito.Matchers.any;
-import static org.mockito.Matchers.eq;
-import static org.mockito.Mockito.never;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
+import static org.openlmis.buq.AuditLogInitializer.AUTHOR;
+import static org.openlmis.buq.AuditLogInitializer.DELETE_CHECKPOINTS;
+import static org.openlmis.buq.AuditLogInitializer.SAVE_CHECKPOINT;
+import static org.openlmis.buq.AuditLogInitializer.SELECT_CHECKPOINT;
 
-import com.google.common.collect.Lists;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import org.javers.core.Javers;
-import org.javers.core.metamodel.object.CdoSnapshot;
-import org.javers.repository.jql.JqlQuery;
 import org.javers.spring.annotation.JaversSpringDataAuditable;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openlmis.buq.builder.RemarkDataBuilder;
 import org.openlmis.buq.builder.SourceOfFundDataBuilder;
+import org.openlmis.buq.domain.Remark;
 import org.openlmis.buq.domain.sourceoffund.SourceOfFund;
+import org.openlmis.buq.repository.BaseAuditableRepository;
+import org.openlmis.buq.repository.RemarkRepository;
 import org.openlmis.buq.repository.sourceoffund.SourceOfFundRepository;
-import org.powermock.core.classloader.annotations.PrepareForTest;
-import org.powermock.modules.junit4.PowerMockRunner;
 import org.springframework.context.ApplicationContext;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.repository.PagingAndSortingRepository;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.transaction.PlatformTransactionManager;
 
-@RunWith(PowerMockRunner.class)
-@PrepareForTest({CdoSnapshot.class})
+@RunWith(MockitoJUnitRunner.class)
 public class AuditLogInitializerTest {
 
+  private static final String REPOSITORY_NAME = "sourceOfFundRepository";
+  private static final UUID MIN_ID = new UUID(0, 0);
+  private static final UUID MAX_ID = new UUID(-1L, -1L);
+
   @Mock
   private ApplicationContext applicationContext;
 
@@ -59,10 +77,16 @@ public class AuditLogInitializerTest {
   private Javers javers;
 
   @Mock
-  private SourceOfFundRepository sourceOfFundRepository;
+  private PlatformTransactionManager transactionManager;
 
   @Mock
-  private CdoSnapshot snapshot;
+  private NamedParameterJdbcTemplate jdbcTemplate;
+
+  @Mock
+  private RemarkRepository remarkRepository;
+
+  @Mock
+  private SourceOfFundRepository sourceOfFundRepository;
 
   @Mock
   private TestItemRepository testItemRepository;
@@ -71,12 +95,18 @@ public class AuditLogInitializerTest {
 
   private Map<String, Object> repositoryMap = new HashMap<>();
 
+  private final SourceOfFund first = new SourceOfFundDataBuilder().build();
+  private final SourceOfFund second = new SourceOfFundDataBuilder().build();
+  private final SourceOfFund third = new SourceOfFundDataBuilder().build();
+
   @Before
   public void setUp() {
-    auditLogInitializer = new AuditLogInitializer(applicationContext, javers);
+    auditLogInitializer = newAuditLogInitializer(1);
 
     when(applicationContext.getBeansWithAnnotation(JaversSpringDataAuditable.class))
         .thenReturn(repositoryMap);
+    when(remarkRepository.findAll(any(Pageable.class))).thenReturn(Page.empty());
+    when(sourceOfFundRepository.findAll(any(Pageable.class))).thenReturn(Page.empty());
   }
 
   @Test
@@ -89,21 +119,104 @@ public class AuditLogInitializerTest {
   }
 
   @Test
-  public void shouldNotCreateSecondSnapshot() {
-    repositoryMap.put("sourceOfFundRepository", sourceOfFundRepository);
+  public void shouldCreateSnapshotsInBatchesAndCheckpointProgress() {
+    repositoryMap.put(REPOSITORY_NAME, sourceOfFundRepository);
+    when(sourceOfFundRepository.findAllWithoutSnapshots(any(UUID.class), any(UUID.class),
+        anyInt()))
+        .thenReturn(Arrays.asList(first, second))
+        .thenReturn(Collections.singletonList(third));
+    final ArgumentCaptor<MapSqlParameterSource> checkpointCaptor =
+        ArgumentCaptor.forClass(MapSqlParameterSource.class);
+
+    auditLogInitializer.run();
+
+    verify(javers).commit(AUTHOR, first);
+    verify(javers).commit(AUTHOR, second);
+    verify(javers).commit(AUTHOR, third);
+    verify(sourceOfFundRepository).findAllWithoutSnapshots(MIN_ID, MAX_ID, 2);
+    verify(sourceOfFundRepository)
+        .findAllWithoutSnapshots(AuditLogInitializer.next(second.getId()), MAX_ID, 2);
+    verify(jdbcTemplate, times(2)).update(eq(SAVE_CHECKPOINT), checkpointCaptor.capture());
+    assertEquals(AuditLogInitializer.next(third.getId()),
+        checkpointCaptor.getValue().getValue("nextId"));
+    verify(jdbcTemplate).update(eq(DELETE_CHECKPOINTS), any(SqlParameterSource.class));
+  }
+
+  @Test
+  public void shouldResumeFromCheckpoint() {
+    repositoryMap.put(REPOSITORY_NAME, sourceOfFundRepository);
+    UUID checkpoint = UUID.randomUUID();
+    when(jdbcTemplate.queryForList(eq(SELECT_CHECKPOINT), any(SqlParameterSource.class),
+        eq(UUID.class))).thenReturn(Collections.singletonList(checkpoint));
+
+    auditLogInitializer.run();
+
+    verify(sourceOfFundRepository).findAllWithoutSnapshots(checkpoint, MAX_ID, 2);
+    verifyZeroInteractions(javers);
+  }
+
+  @Test
+  public void shouldSplitIdsIntoRangePerWorker() {
+    repositoryMap.put(REPOSITORY_NAME, sourceOfFundRepository);
+    auditLogInitializer = newAuditLogInitializer(2);
+
+    auditLogInitializer.run();
+
+    verify(sourceOfFundRepository).findAllWithoutSnapshots(MIN_ID,
+        UUID.fromString("7fffffff-ffff-ffff-ffff-ffffffffffff"), 2);
+    verify(sourceOfFundRepository).findAllWithoutSnapshots(
+        UUID.fromString("80000000-0000-0000-0000-000000000000"), MAX_ID, 2);
+  }
+
+  @Test
+  public void shouldCreateSnapshotsOfRepositoriesAuditedThroughOutbox() {
+    when(applicationContext.getBeansOfType(BaseAuditableRepository.class))
+        .thenReturn(Collections.singletonMap(REPOSITORY_NAME, sourceOfFundRepository));
+    when(sourceOfFundRepository.findAllWithoutSnapshots(any(UUID.class), any(UUID.class),
+        anyInt()))
+        .thenReturn(Collections.singletonList(first));
 
-    ArrayList<SourceOfFund> content = Lists.newArrayList(new SourceOfFundDataBuilder().build());
-    Page<SourceOfFund> page = new PageImpl<>(content);
+    auditLogInitializer.run();
 
-    when(sourceOfFundRepository.findAllWithoutSnapshots(any(Pageable.class)))
-        .thenReturn(page)
-        .thenReturn(new PageImpl<>(Lists.newArrayList()));
+    verify(javers).commit(AUTHOR, first);
+  }
 
-    when(javers.findSnapshots(any(JqlQuery.class)))
-        .thenReturn(Lists.newArrayList(snapshot));
+  @Test
+  public void shouldCommitReferencedCatalogsBeforeCreatingSnapshots() {
+    repositoryMap.put(REPOSITORY_NAME, sourceOfFundRepository);
+    Remark firstRemark = new RemarkDataBuilder().build();
+    Remark secondRemark = new RemarkDataBuilder().build();
+    Remark thirdRemark = new RemarkDataBuilder().build();
+    when(remarkRepository.findAll(any(Pageable.class)))
+        .thenReturn(new PageImpl<>(Arrays.asList(firstRemark, secondRemark),
+            PageRequest.of(0, 2), 3))
+        .thenReturn(new PageImpl<>(Collections.singletonList(thirdRemark),
+            PageRequest.of(1, 2), 3));
+    when(sourceOfFundRepository.findAllWithoutSnapshots(any(UUID.class), any(UUID.class),
+        anyInt()))
+        .thenReturn(Collections.singletonList(first));
 
     auditLogInitializer.run();
-    verify(javers, never()).commit(eq("System: AuditLogInitializer"), any());
+
+    InOrder order = inOrder(javers, sourceOfFundRepository);
+    order.verify(javers).commit(AUTHOR, firstRemark);
+    order.verify(javers).commit(AUTHOR, secondRemark);
+    order.verify(javers).commit(AUTHOR, thirdRemark);
+    order.verify(sourceOfFundRepository).findAllWithoutSnapshots(MIN_ID, MAX_ID, 2);
+    order.verify(javers).commit(AUTHOR, first);
+  }
+
+  @Test
+  public void shouldReturnNextIdInDatabaseOrder() {
+    assertEquals(UUID.fromString("00000000-0000-0001-0000-000000000000"),
+        AuditLogInitializer.next(UUID.fromString("00000000-0000-0000-ffff-ffffffffffff")));
+    assertEquals(UUID.fromString("00000000-0000-0000-0000-000000000001"),
+        AuditLogInitializer.next(MIN_ID));
+  }
+
+  private AuditLogInitializer newAuditLogInitializer(int workers) {
+    return new AuditLogInitializer(applicationContext, javers, transactionManager,
+        jdbcTemplate, remarkRepository, sourceOfFundRepository, workers, 2);
   }
 
   @Getter
@@ -0,0 +1,155 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.datasource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.openlmis.buq.datasource.ConnectionHoldTimeDataSource.BACKGROUND_ENDPOINT;
+import static org.openlmis.buq.datasource.ConnectionHoldTimeDataSource.ENDPOINT_TAG;
+import static org.openlmis.buq.datasource.ConnectionHoldTimeDataSource.TIMER_NAME;
+import static org.openlmis.buq.datasource.ConnectionHoldTimeDataSource.UNMAPPED_ENDPOINT;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.sql.Connection;
+import java.sql.SQLException;
+import javax.sql.DataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.postgresql.PGConnection;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.servlet.HandlerMapping;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ConnectionHoldTimeDataSourceTest {
+
+  private static final String ENDPOINT_PATTERN = "/api/bottomUpQuantifications/{id}/approve";
+
+  @Mock
+  private DataSource targetDataSource;
+
+  @Mock
+  private Connection targetConnection;
+
+  @Mock
+  private PGConnection pgConnection;
+
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+  private ConnectionHoldTimeDataSource dataSource;
+
+  @Before
+  public void setUp() throws SQLException {
+    Metrics.addRegistry(registry);
+    lenient().when(targetDataSource.getConnection()).thenReturn(targetConnection);
+    dataSource = new ConnectionHoldTimeDataSource(targetDataSource, 1000);
+  }
+
+  @After
+  public void tearDown() {
+    Metrics.removeRegistry(registry);
+    RequestContextHolder.resetRequestAttributes();
+  }
+
+  @Test
+  public void shouldRecordHoldTimeOfBackgroundConnectionsOnClose() throws SQLException {
+    Connection connection = dataSource.getConnection();
+
+    assertNotSame(targetConnection, connection);
+    verify(targetConnection, never()).close();
+
+    connection.close();
+
+    verify(targetConnection).close();
+    assertEquals(1, getTimer(BACKGROUND_ENDPOINT).count());
+  }
+
+  @Test
+  public void shouldRecordHoldTimeOnlyOnceIfConnectionIsClosedTwice() throws SQLException {
+    Connection connection = dataSource.getConnection();
+
+    connection.close();
+    connection.close();
+
+    assertEquals(1, getTimer(BACKGROUND_ENDPOINT).count());
+  }
+
+  @Test
+  public void shouldTagHoldTimeWithMatchedEndpoint() throws SQLException {
+    MockHttpServletRequest request = new MockHttpServletRequest("POST",
+        "/api/bottomUpQuantifications/123/approve");
+    request.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, ENDPOINT_PATTERN);
+    RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+
+    dataSource.getConnection().close();
+
+    assertEquals(1, getTimer("POST " + ENDPOINT_PATTERN).count());
+  }
+
+  @Test
+  public void shouldTagHoldTimeOfUnmappedRequests() throws SQLException {
+    RequestContextHolder.setRequestAttributes(
+        new ServletRequestAttributes(new MockHttpServletRequest()));
+
+    dataSource.getConnection().close();
+
+    assertEquals(1, getTimer(UNMAPPED_ENDPOINT).count());
+  }
+
+  @Test
+  public void shouldUnwrapTargetConnection() throws SQLException {
+    when(targetConnection.unwrap(PGConnection.class)).thenReturn(pgConnection);
+    when(targetConnection.isWrapperFor(PGConnection.class)).thenReturn(true);
+    Connection connection = dataSource.getConnection();
+
+    assertSame(pgConnection, connection.unwrap(PGConnection.class));
+    assertSame(connection, connection.unwrap(Connection.class));
+    assertTrue(connection.isWrapperFor(PGConnection.class));
+  }
+
+  @Test
+  public void shouldWrapDataSourcesOnly() {
+    ConnectionHoldTimeDataSourcePostProcessor postProcessor =
+        new ConnectionHoldTimeDataSourcePostProcessor();
+    Object other = new Object();
+
+    assertTrue(postProcessor.postProcessAfterInitialization(targetDataSource, "dataSource")
+        instanceof ConnectionHoldTimeDataSource);
+    assertSame(dataSource, postProcessor.postProcessAfterInitialization(dataSource, "wrapped"));
+    assertSame(other, postProcessor.postProcessAfterInitialization(other, "other"));
+  }
+
+  private Timer getTimer(String endpoint) {
+    Timer timer = registry.find(TIMER_NAME).tag(ENDPOINT_TAG, endpoint).timer();
+    assertNotNull(timer);
+    return timer;
+  }
+
+}
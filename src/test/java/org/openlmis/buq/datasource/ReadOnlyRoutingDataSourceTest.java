@@ -0,0 +1,150 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.datasource;
+
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import javax.sql.DataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ReadOnlyRoutingDataSourceTest {
+
+  @Mock
+  private DataSource primaryDataSource;
+
+  @Mock
+  private DataSource replicaDataSource;
+
+  @Mock
+  private Connection primaryConnection;
+
+  @Mock
+  private Connection replicaConnection;
+
+  private final MutableClock clock = new MutableClock(Instant.parse("2026-10-19T12:00:00Z"));
+
+  private ReadOnlyRoutingDataSource dataSource;
+
+  @Before
+  public void setUp() {
+    dataSource = new ReadOnlyRoutingDataSource(primaryDataSource, replicaDataSource, 30000,
+        clock);
+  }
+
+  @After
+  public void tearDown() {
+    TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+  }
+
+  @Test
+  public void shouldUsePrimaryOutsideOfReadOnlyTransactions() throws SQLException {
+    when(primaryDataSource.getConnection()).thenReturn(primaryConnection);
+
+    assertSame(primaryConnection, dataSource.getConnection());
+    verify(replicaDataSource, never()).getConnection();
+  }
+
+  @Test
+  public void shouldUseReplicaInReadOnlyTransactions() throws SQLException {
+    TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+    when(replicaDataSource.getConnection()).thenReturn(replicaConnection);
+
+    assertSame(replicaConnection, dataSource.getConnection());
+    verify(primaryDataSource, never()).getConnection();
+  }
+
+  @Test
+  public void shouldFallBackToPrimaryIfReplicaIsNotAvailable() throws SQLException {
+    TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+    when(replicaDataSource.getConnection()).thenThrow(new SQLException("timeout"));
+    when(primaryDataSource.getConnection()).thenReturn(primaryConnection);
+
+    assertSame(primaryConnection, dataSource.getConnection());
+  }
+
+  @Test
+  public void shouldNotTryReplicaAgainBeforeRetryDelayHasPassed() throws SQLException {
+    TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+    when(replicaDataSource.getConnection())
+        .thenThrow(new SQLException("timeout"))
+        .thenReturn(replicaConnection);
+    when(primaryDataSource.getConnection()).thenReturn(primaryConnection);
+
+    assertSame(primaryConnection, dataSource.getConnection());
+    clock.advance(Duration.ofSeconds(29));
+    assertSame(primaryConnection, dataSource.getConnection());
+    verify(replicaDataSource, times(1)).getConnection();
+
+    clock.advance(Duration.ofSeconds(1));
+    assertSame(replicaConnection, dataSource.getConnection());
+    verify(replicaDataSource, times(2)).getConnection();
+  }
+
+  @Test(expected = SQLException.class)
+  public void shouldNotFallBackIfPrimaryIsNotAvailable() throws SQLException {
+    when(primaryDataSource.getConnection()).thenThrow(new SQLException("timeout"));
+
+    dataSource.getConnection();
+  }
+
+  private static class MutableClock extends Clock {
+
+    private Instant instant;
+
+    MutableClock(Instant instant) {
+      this.instant = instant;
+    }
+
+    void advance(Duration duration) {
+      instant = instant.plus(duration);
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      return this;
+    }
+
+    @Override
+    public Instant instant() {
+      return instant;
+    }
+
+  }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.datasource;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import com.zaxxer.hikari.HikariDataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import javax.sql.DataSource;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ReplicaDataSourcePostProcessorTest {
+
+  private static final String URL = "url";
+  private static final String DATA_SOURCE = "dataSource";
+
+  @Mock
+  private DataSource primaryDataSource;
+
+  @Mock
+  private Connection primaryConnection;
+
+  private ReplicaDataSourcePostProcessor postProcessor = new ReplicaDataSourcePostProcessor();
+
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(postProcessor, URL, "jdbc:postgresql://replica:5432/open_lmis");
+    ReflectionTestUtils.setField(postProcessor, "driverClassName", "org.postgresql.Driver");
+    ReflectionTestUtils.setField(postProcessor, "connectionTimeout", 5000L);
+  }
+
+  @Test
+  public void shouldRouteDataSourceIfReplicaIsConfigured() throws SQLException {
+    when(primaryDataSource.getConnection()).thenReturn(primaryConnection);
+
+    Object dataSource = postProcessor.postProcessAfterInitialization(primaryDataSource,
+        DATA_SOURCE);
+
+    assertTrue(dataSource instanceof LazyConnectionDataSourceProxy);
+    assertTrue(((LazyConnectionDataSourceProxy) dataSource).getTargetDataSource()
+        instanceof ReadOnlyRoutingDataSource);
+  }
+
+  @Test
+  public void shouldCloseReplicaDataSourceOnDestroy() throws SQLException {
+    when(primaryDataSource.getConnection()).thenReturn(primaryConnection);
+    postProcessor.postProcessAfterInitialization(primaryDataSource, DATA_SOURCE);
+    HikariDataSource replicaDataSource = (HikariDataSource) ReflectionTestUtils
+        .getField(postProcessor, "replicaDataSource");
+
+    postProcessor.destroy();
+
+    assertTrue(replicaDataSource.isClosed());
+  }
+
+  @Test
+  public void shouldNotRouteDataSourceIfReplicaIsNotConfigured() {
+    ReflectionTestUtils.setField(postProcessor, URL, "");
+
+    assertSame(primaryDataSource,
+        postProcessor.postProcessAfterInitialization(primaryDataSource, DATA_SOURCE));
+  }
+
+  @Test
+  public void shouldNotRouteOtherBeans() {
+    Object bean = new Object();
+
+    assertSame(bean, postProcessor.postProcessAfterInitialization(bean, "bean"));
+  }
+
+}
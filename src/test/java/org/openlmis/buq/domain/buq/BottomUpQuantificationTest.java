@@ -17,6 +17,8 @@ package org.openlmis.buq.domain.buq;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import com.google.common.collect.Lists;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import nl.jqno.equalsverifier.EqualsVerifier;
@@ -78,6 +80,71 @@ public class BottomUpQuantificationTest {
         .isEqualTo(updatedLineItems);
   }
 
+  @Test
+  public void shouldUpdateMatchingRemoveMissingAndAddNewLineItems() {
+    BottomUpQuantificationLineItem kept = new BottomUpQuantificationLineItemDataBuilder()
+        .withAnnualAdjustedConsumption(100)
+        .build();
+    BottomUpQuantificationLineItem removed = new BottomUpQuantificationLineItemDataBuilder()
+        .build();
+    BottomUpQuantification buq = new BottomUpQuantificationDataBuilder()
+        .withLineItems(Lists.newArrayList(removed, kept))
+        .build();
+
+    BottomUpQuantificationLineItem update = new BottomUpQuantificationLineItemDataBuilder()
+        .withId(kept.getId())
+        .withAnnualAdjustedConsumption(250)
+        .build();
+    BottomUpQuantificationLineItem added = new BottomUpQuantificationLineItemDataBuilder()
+        .build();
+    BottomUpQuantificationLineItem addedWithoutId = new BottomUpQuantificationLineItemDataBuilder()
+        .buildAsNew();
+
+    buq.updateFrom(Arrays.asList(added, update, addedWithoutId));
+
+    List<BottomUpQuantificationLineItem> lineItems = buq.getBottomUpQuantificationLineItems();
+    assertThat(lineItems).hasSize(3);
+    assertThat(lineItems.get(0)).isSameAs(kept);
+    assertThat(lineItems.get(1)).isSameAs(added);
+    assertThat(lineItems.get(2)).isSameAs(addedWithoutId);
+    assertThat(kept.getAnnualAdjustedConsumption()).isEqualTo(250);
+  }
+
+  @Test
+  public void shouldAddDuplicatedLineItemsThatDoNotMatchExistingOnes() {
+    BottomUpQuantificationLineItem existing = new BottomUpQuantificationLineItemDataBuilder()
+        .build();
+    BottomUpQuantification buq = new BottomUpQuantificationDataBuilder()
+        .withLineItems(Lists.newArrayList(existing))
+        .build();
+
+    BottomUpQuantificationLineItem update = new BottomUpQuantificationLineItemDataBuilder()
+        .withId(existing.getId())
+        .build();
+    BottomUpQuantificationLineItem duplicate = new BottomUpQuantificationLineItemDataBuilder()
+        .withId(existing.getId())
+        .build();
+
+    buq.updateFrom(Arrays.asList(update, duplicate));
+
+    assertThat(buq.getBottomUpQuantificationLineItems()).hasSize(2);
+    assertThat(buq.getBottomUpQuantificationLineItems().get(0)).isSameAs(existing);
+    assertThat(buq.getBottomUpQuantificationLineItems().get(1)).isSameAs(duplicate);
+  }
+
+  @Test
+  public void shouldNotChangeLineItemsIfNoneAreGiven() {
+    BottomUpQuantificationLineItem existing = new BottomUpQuantificationLineItemDataBuilder()
+        .build();
+    BottomUpQuantification buq = new BottomUpQuantificationDataBuilder()
+        .withLineItems(Lists.newArrayList(existing))
+        .build();
+
+    buq.updateFrom(null);
+
+    assertThat(buq.getBottomUpQuantificationLineItems()).containsExactly(existing);
+  }
+
   @Test
   public void shouldExportData() {
     BottomUpQuantification buq = new BottomUpQuantificationDataBuilder().build();
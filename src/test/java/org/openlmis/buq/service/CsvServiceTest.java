@@ -17,6 +17,9 @@ package org.openlmis.buq.service;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import com.fasterxml.jackson.databind.MappingIterator;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -34,13 +37,45 @@ public class CsvServiceTest {
   private final CsvService csvService = new CsvService();
 
   @Test
-  public void shouldWriteDataToCsvFile() throws Exception {
-    List<BottomUpQuantificationLineItemCsv> data = provideCsvData();
+  public void shouldWriteDataToOutputStream() throws Exception {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
 
-    byte[] fileByte = csvService.generateCsv(data, BottomUpQuantificationLineItemCsv.class);
-    byte[] convertedContent = CONTENT.getBytes(StandardCharsets.UTF_8);
+    csvService.writeCsv(provideCsvData().iterator(), BottomUpQuantificationLineItemCsv.class,
+        outputStream);
 
-    assertThat(fileByte).isEqualTo(convertedContent);
+    assertThat(outputStream.toByteArray()).isEqualTo(CONTENT.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void shouldReadDataFromInputStream() throws Exception {
+    List<BottomUpQuantificationLineItemCsv> data;
+    try (MappingIterator<BottomUpQuantificationLineItemCsv> rows = csvService.readCsv(
+        new ByteArrayInputStream(CONTENT.getBytes(StandardCharsets.UTF_8)),
+        BottomUpQuantificationLineItemCsv.class)) {
+      data = rows.readAll();
+    }
+
+    assertThat(data).usingFieldByFieldElementComparator().isEqualTo(provideCsvData());
+  }
+
+  @Test
+  public void shouldReadDataByHeaderIgnoringUnknownColumns() throws Exception {
+    String content = "\"Adjusted Consumption (in Packs)\",Notes,\"Product Code\"\n"
+        + "100,\"checked\",TEST_A_1\n"
+        + ",,TEST_B_2\n";
+
+    List<BottomUpQuantificationLineItemCsv> data;
+    try (MappingIterator<BottomUpQuantificationLineItemCsv> rows = csvService.readCsv(
+        new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)),
+        BottomUpQuantificationLineItemCsv.class)) {
+      data = rows.readAll();
+    }
+
+    assertThat(data).hasSize(2);
+    assertThat(data.get(0).getProductCode()).isEqualTo("TEST_A_1");
+    assertThat(data.get(0).getAdjustedConsumptionInPacks()).isEqualTo(100);
+    assertThat(data.get(1).getProductCode()).isEqualTo("TEST_B_2");
+    assertThat(data.get(1).getAdjustedConsumptionInPacks()).isNull();
   }
 
   private List<BottomUpQuantificationLineItemCsv> provideCsvData() {
@@ -0,0 +1,318 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.service.audit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.openlmis.buq.service.audit.AuditOutboxService.DELETE_ENTRIES;
+import static org.openlmis.buq.service.audit.AuditOutboxService.INSERT_ENTRY;
+import static org.openlmis.buq.service.audit.AuditOutboxService.SELECT_ENTRIES;
+import static org.openlmis.buq.service.audit.AuditOutboxService.TRY_LOCK;
+
+import com.google.common.collect.Lists;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import org.javers.core.Javers;
+import org.javers.core.metamodel.object.CdoSnapshot;
+import org.javers.repository.jql.GlobalIdDTO;
+import org.javers.repository.jql.JqlQuery;
+import org.javers.spring.auditable.AuthorProvider;
+import org.joda.time.LocalDateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.openlmis.buq.JaVersDateProvider;
+import org.openlmis.buq.builder.BottomUpQuantificationDataBuilder;
+import org.openlmis.buq.builder.BottomUpQuantificationLineItemDataBuilder;
+import org.openlmis.buq.builder.RemarkDataBuilder;
+import org.openlmis.buq.domain.Remark;
+import org.openlmis.buq.domain.buq.BottomUpQuantification;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationLineItem;
+import org.openlmis.buq.repository.RemarkRepository;
+import org.openlmis.buq.repository.buq.BottomUpQuantificationRepository;
+import org.openlmis.buq.repository.sourceoffund.SourceOfFundRepository;
+import org.openlmis.buq.service.audit.AuditOutboxService.AuditOutboxEntry;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({CdoSnapshot.class})
+public class AuditOutboxServiceTest {
+
+  private static final String AUTHOR = "author";
+  private static final String OTHER_AUTHOR = "other-author";
+  private static final String STATE = "state";
+  private static final String OTHER_STATE = "other-state";
+  private static final String ID = "bottomUpQuantificationId";
+
+  @Mock
+  private NamedParameterJdbcTemplate jdbcTemplate;
+
+  @Mock
+  private AuthorProvider authorProvider;
+
+  @Mock
+  private Javers javers;
+
+  @Mock
+  private BottomUpQuantificationStateMapper stateMapper;
+
+  @Mock
+  private BottomUpQuantificationRepository bottomUpQuantificationRepository;
+
+  @Mock
+  private RemarkRepository remarkRepository;
+
+  @Mock
+  private SourceOfFundRepository sourceOfFundRepository;
+
+  @Mock
+  private CdoSnapshot snapshot;
+
+  @InjectMocks
+  private AuditOutboxService auditOutboxService;
+
+  private final BottomUpQuantification bottomUpQuantification =
+      new BottomUpQuantificationDataBuilder().build();
+
+  private final BottomUpQuantification otherState = new BottomUpQuantificationDataBuilder()
+      .withId(bottomUpQuantification.getId())
+      .build();
+
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(auditOutboxService, "batchSize", 500);
+  }
+
+  @Test
+  public void shouldEnqueueEntryWithCurrentAuthorAndState() {
+    when(authorProvider.provide()).thenReturn(AUTHOR);
+    when(stateMapper.write(bottomUpQuantification)).thenReturn(STATE);
+    ArgumentCaptor<MapSqlParameterSource> paramsCaptor =
+        ArgumentCaptor.forClass(MapSqlParameterSource.class);
+
+    auditOutboxService.enqueue(bottomUpQuantification);
+
+    verify(jdbcTemplate).update(eq(INSERT_ENTRY), paramsCaptor.capture());
+    assertEquals(bottomUpQuantification.getId(), paramsCaptor.getValue().getValue(ID));
+    assertEquals(false, paramsCaptor.getValue().getValue("deleted"));
+    assertEquals(AUTHOR, paramsCaptor.getValue().getValue("author"));
+    assertEquals(STATE, paramsCaptor.getValue().getValue("state"));
+  }
+
+  @Test
+  public void shouldEnqueueDeletedEntryWithoutState() {
+    when(authorProvider.provide()).thenReturn(AUTHOR);
+    ArgumentCaptor<MapSqlParameterSource> paramsCaptor =
+        ArgumentCaptor.forClass(MapSqlParameterSource.class);
+
+    auditOutboxService.enqueueDeleted(bottomUpQuantification.getId());
+
+    verify(jdbcTemplate).update(eq(INSERT_ENTRY), paramsCaptor.capture());
+    assertEquals(bottomUpQuantification.getId(), paramsCaptor.getValue().getValue(ID));
+    assertEquals(true, paramsCaptor.getValue().getValue("deleted"));
+    assertNull(paramsCaptor.getValue().getValue("state"));
+  }
+
+  @Test
+  public void shouldEnqueueEntriesWithStateOfAllBottomUpQuantificationsInOneBatch() {
+    when(authorProvider.provide()).thenReturn(AUTHOR);
+    BottomUpQuantification other = new BottomUpQuantificationDataBuilder().build();
+    List<UUID> ids = Arrays.asList(bottomUpQuantification.getId(), other.getId());
+    when(bottomUpQuantificationRepository.findAllById(ids))
+        .thenReturn(Arrays.asList(bottomUpQuantification, other));
+    when(stateMapper.write(bottomUpQuantification)).thenReturn(STATE);
+    when(stateMapper.write(other)).thenReturn(OTHER_STATE);
+    ArgumentCaptor<MapSqlParameterSource[]> paramsCaptor =
+        ArgumentCaptor.forClass(MapSqlParameterSource[].class);
+
+    auditOutboxService.enqueueAll(ids);
+
+    verify(jdbcTemplate).batchUpdate(eq(INSERT_ENTRY), paramsCaptor.capture());
+    MapSqlParameterSource[] params = paramsCaptor.getValue();
+    assertEquals(2, params.length);
+    assertEquals(bottomUpQuantification.getId(), params[0].getValue(ID));
+    assertEquals(STATE, params[0].getValue("state"));
+    assertEquals(other.getId(), params[1].getValue(ID));
+    assertEquals(OTHER_STATE, params[1].getValue("state"));
+    assertEquals(false, params[1].getValue("deleted"));
+    assertEquals(AUTHOR, params[1].getValue("author"));
+  }
+
+  @Test
+  public void shouldCommitEveryEntryInOrderWithItsAuthorAndStateAndRemoveAllEntries() {
+    mockLock(true);
+    mockEntries(entry(1, false, AUTHOR, STATE), entry(2, false, OTHER_AUTHOR, OTHER_STATE));
+    when(stateMapper.read(STATE)).thenReturn(bottomUpQuantification);
+    when(stateMapper.read(OTHER_STATE)).thenReturn(otherState);
+
+    int processed = auditOutboxService.process();
+
+    assertEquals(2, processed);
+    InOrder order = inOrder(javers);
+    order.verify(javers).commit(AUTHOR, bottomUpQuantification);
+    order.verify(javers).commit(OTHER_AUTHOR, otherState);
+    verify(bottomUpQuantificationRepository, never()).findAllById(any());
+    ArgumentCaptor<MapSqlParameterSource> paramsCaptor =
+        ArgumentCaptor.forClass(MapSqlParameterSource.class);
+    verify(jdbcTemplate).update(eq(DELETE_ENTRIES), paramsCaptor.capture());
+    assertEquals(Arrays.asList(1L, 2L), paramsCaptor.getValue().getValue("ids"));
+  }
+
+  @Test
+  public void shouldCommitEveryEntryWithItsCreatedDate() {
+    mockLock(true);
+    AuditOutboxEntry entry = entry(1, false, AUTHOR, STATE);
+    mockEntries(entry);
+    when(stateMapper.read(STATE)).thenReturn(bottomUpQuantification);
+    List<LocalDateTime> commitDates = new ArrayList<>();
+    doAnswer(invocation -> {
+      commitDates.add(new JaVersDateProvider().now());
+      return null;
+    }).when(javers).commit(AUTHOR, bottomUpQuantification);
+
+    auditOutboxService.process();
+
+    assertEquals(Collections.singletonList(
+        new LocalDateTime(entry.getCreatedDate().toInstant().toEpochMilli(),
+            JaVersDateProvider.DATE_TIME_ZONE)), commitDates);
+  }
+
+  @Test
+  public void shouldReplaceRemarksOfStateWithStoredOnes() {
+    mockLock(true);
+    mockEntries(entry(1, false, AUTHOR, STATE));
+    Remark stored = new RemarkDataBuilder().build();
+    Remark reference = new Remark();
+    reference.setId(stored.getId());
+    BottomUpQuantificationLineItem lineItem = new BottomUpQuantificationLineItemDataBuilder()
+        .withRemark(reference)
+        .build();
+    bottomUpQuantification.setBottomUpQuantificationLineItems(Lists.newArrayList(lineItem));
+    when(stateMapper.read(STATE)).thenReturn(bottomUpQuantification);
+    when(remarkRepository.findAllById(Collections.singleton(stored.getId())))
+        .thenReturn(Collections.singletonList(stored));
+
+    auditOutboxService.process();
+
+    assertSame(stored, lineItem.getRemark());
+    verify(javers).commit(AUTHOR, bottomUpQuantification);
+  }
+
+  @Test
+  public void shouldCommitCurrentStateForEntryWithoutState() {
+    mockLock(true);
+    mockEntries(entry(1, false, AUTHOR, null));
+    when(bottomUpQuantificationRepository.findAllById(any()))
+        .thenReturn(Collections.singletonList(bottomUpQuantification));
+
+    auditOutboxService.process();
+
+    verify(javers).commit(AUTHOR, bottomUpQuantification);
+    verify(stateMapper, never()).read(anyString());
+  }
+
+  @Test
+  public void shouldCommitShallowDeleteOfAuditedBottomUpQuantification() {
+    mockLock(true);
+    mockEntries(entry(1, false, AUTHOR, STATE), entry(2, true, OTHER_AUTHOR, null));
+    when(stateMapper.read(STATE)).thenReturn(bottomUpQuantification);
+    when(javers.findSnapshots(any(JqlQuery.class)))
+        .thenReturn(Collections.singletonList(snapshot));
+
+    auditOutboxService.process();
+
+    InOrder order = inOrder(javers);
+    order.verify(javers).commit(AUTHOR, bottomUpQuantification);
+    order.verify(javers).commitShallowDeleteById(eq(OTHER_AUTHOR), any(GlobalIdDTO.class));
+  }
+
+  @Test
+  public void shouldNotCommitDeleteOfNeverAuditedBottomUpQuantification() {
+    mockLock(true);
+    mockEntries(entry(1, true, AUTHOR, null));
+    when(javers.findSnapshots(any(JqlQuery.class))).thenReturn(Collections.emptyList());
+
+    int processed = auditOutboxService.process();
+
+    assertEquals(1, processed);
+    verify(javers, never()).commitShallowDeleteById(anyString(), any(GlobalIdDTO.class));
+    verify(jdbcTemplate).update(eq(DELETE_ENTRIES), any(SqlParameterSource.class));
+  }
+
+  @Test
+  public void shouldNotProcessEntriesIfLockIsHeldByAnotherInstance() {
+    mockLock(false);
+
+    int processed = auditOutboxService.process();
+
+    assertEquals(0, processed);
+    verify(jdbcTemplate, never()).query(eq(SELECT_ENTRIES), any(SqlParameterSource.class),
+        any(RowMapper.class));
+  }
+
+  @Test
+  public void shouldNotCommitAnythingIfOutboxIsEmpty() {
+    mockLock(true);
+    mockEntries();
+
+    int processed = auditOutboxService.process();
+
+    assertEquals(0, processed);
+    verify(jdbcTemplate, never()).update(eq(DELETE_ENTRIES), any(SqlParameterSource.class));
+  }
+
+  private void mockLock(boolean locked) {
+    when(jdbcTemplate.queryForObject(eq(TRY_LOCK), any(SqlParameterSource.class),
+        eq(Boolean.class))).thenReturn(locked);
+  }
+
+  @SuppressWarnings("unchecked")
+  private void mockEntries(AuditOutboxEntry... entries) {
+    List<AuditOutboxEntry> result = Arrays.asList(entries);
+    when(jdbcTemplate.query(eq(SELECT_ENTRIES), any(SqlParameterSource.class),
+        any(RowMapper.class))).thenReturn(result);
+  }
+
+  private AuditOutboxEntry entry(long id, boolean deleted, String author, String state) {
+    return new AuditOutboxEntry(id, bottomUpQuantification.getId(), deleted, author, state,
+        ZonedDateTime.of(2026, 10, 19, 10, (int) id, 0, 0, ZoneOffset.UTC));
+  }
+
+}
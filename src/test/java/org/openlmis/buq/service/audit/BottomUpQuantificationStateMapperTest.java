@@ -0,0 +1,104 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+
+package org.openlmis.buq.service.audit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.collect.Lists;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import org.junit.Test;
+import org.openlmis.buq.builder.BottomUpQuantificationDataBuilder;
+import org.openlmis.buq.builder.BottomUpQuantificationFundingDetailsDataBuilder;
+import org.openlmis.buq.builder.BottomUpQuantificationLineItemDataBuilder;
+import org.openlmis.buq.builder.BottomUpQuantificationSourceOfFundDataBuilder;
+import org.openlmis.buq.builder.BottomUpQuantificationStatusChangeDataBuilder;
+import org.openlmis.buq.builder.RemarkDataBuilder;
+import org.openlmis.buq.builder.SourceOfFundDataBuilder;
+import org.openlmis.buq.domain.Remark;
+import org.openlmis.buq.domain.buq.BottomUpQuantification;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationFundingDetails;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationLineItem;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationSourceOfFund;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationStatusChange;
+import org.openlmis.buq.domain.sourceoffund.SourceOfFund;
+
+public class BottomUpQuantificationStateMapperTest {
+
+  private final BottomUpQuantificationStateMapper stateMapper =
+      new BottomUpQuantificationStateMapper();
+
+  @Test
+  public void shouldReadWrittenState() {
+    final Remark remark = new RemarkDataBuilder().build();
+    final SourceOfFund sourceOfFund = new SourceOfFundDataBuilder().build();
+    final BottomUpQuantificationLineItem lineItem = new BottomUpQuantificationLineItemDataBuilder()
+        .withRemark(remark)
+        .build();
+    final BottomUpQuantificationSourceOfFund sourceOfFundLink =
+        new BottomUpQuantificationSourceOfFundDataBuilder()
+            .withSourceOfFund(sourceOfFund)
+            .build();
+    BottomUpQuantificationFundingDetails fundingDetails =
+        new BottomUpQuantificationFundingDetailsDataBuilder()
+            .withSourcesOfFunds(Lists.newArrayList(sourceOfFundLink))
+            .build();
+    BottomUpQuantification buq = new BottomUpQuantificationDataBuilder()
+        .withCreatedDate(ZonedDateTime.of(2026, 10, 19, 12, 30, 0, 0,
+            ZoneId.of("Europe/Warsaw")))
+        .withLineItems(Lists.newArrayList(lineItem))
+        .withBottomUpQuantificationFundingDetails(fundingDetails)
+        .build();
+    BottomUpQuantificationStatusChange statusChange =
+        new BottomUpQuantificationStatusChangeDataBuilder()
+            .withBottomUpQuantification(buq)
+            .build();
+    buq.setStatusChanges(Lists.newArrayList(statusChange));
+
+    BottomUpQuantification read = stateMapper.read(stateMapper.write(buq));
+
+    assertThat(read).isNotSameAs(buq);
+    assertThat(read.getId()).isEqualTo(buq.getId());
+    assertThat(read.getCreatedDate()).isEqualTo(buq.getCreatedDate());
+    assertThat(read.getStatus()).isEqualTo(buq.getStatus());
+    assertThat(read.getSupervisoryNodeId()).isEqualTo(buq.getSupervisoryNodeId());
+
+    BottomUpQuantificationLineItem readLineItem = read.getBottomUpQuantificationLineItems().get(0);
+    assertThat(readLineItem.getId()).isEqualTo(lineItem.getId());
+    assertThat(readLineItem.getBottomUpQuantification()).isSameAs(read);
+    assertThat(readLineItem.getOrderableId()).isEqualTo(lineItem.getOrderableId());
+    assertThat(readLineItem.getTotalCost()).isEqualTo(lineItem.getTotalCost());
+    assertThat(readLineItem.getRemark().getId()).isEqualTo(remark.getId());
+    assertThat(readLineItem.getRemark().getName()).isNull();
+
+    BottomUpQuantificationStatusChange readStatusChange = read.getStatusChanges().get(0);
+    assertThat(readStatusChange.getBottomUpQuantification()).isSameAs(read);
+    assertThat(readStatusChange.getOccurredDate()).isEqualTo(statusChange.getOccurredDate());
+    assertThat(readStatusChange.getAuthorId()).isEqualTo(statusChange.getAuthorId());
+
+    BottomUpQuantificationFundingDetails readFundingDetails = read.getFundingDetails();
+    assertThat(readFundingDetails.getBottomUpQuantification()).isSameAs(read);
+    assertThat(readFundingDetails.getGap()).isEqualTo(fundingDetails.getGap());
+    BottomUpQuantificationSourceOfFund readSourceOfFundLink =
+        readFundingDetails.getSourcesOfFunds().get(0);
+    assertThat(readSourceOfFundLink.getFundingDetails()).isSameAs(readFundingDetails);
+    assertThat(readSourceOfFundLink.getProjectedFund())
+        .isEqualTo(sourceOfFundLink.getProjectedFund());
+    assertThat(readSourceOfFundLink.getSourceOfFund().getId()).isEqualTo(sourceOfFund.getId());
+  }
+
+}
@@ -0,0 +1,355 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.service.buq;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openlmis.buq.builder.FacilityDtoDataBuilder;
+import org.openlmis.buq.builder.ProcessingPeriodDtoDataBuilder;
+import org.openlmis.buq.builder.ProgramDtoDataBuilder;
+import org.openlmis.buq.builder.UserDtoDataBuilder;
+import org.openlmis.buq.domain.buq.BottomUpQuantification;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationJob;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationJobType;
+import org.openlmis.buq.dto.buq.BottomUpQuantificationBatchPrepareDto;
+import org.openlmis.buq.dto.referencedata.FacilityDto;
+import org.openlmis.buq.dto.referencedata.MinimalFacilityDto;
+import org.openlmis.buq.dto.referencedata.ObjectReferenceDto;
+import org.openlmis.buq.dto.referencedata.ProcessingPeriodDto;
+import org.openlmis.buq.dto.referencedata.ProgramDto;
+import org.openlmis.buq.dto.referencedata.RequisitionGroupDto;
+import org.openlmis.buq.dto.referencedata.SupervisoryNodeDto;
+import org.openlmis.buq.dto.referencedata.UserDto;
+import org.openlmis.buq.dto.requisition.FacilityRequisitionLineItemDataProjection;
+import org.openlmis.buq.exception.BindingResultException;
+import org.openlmis.buq.exception.ContentNotFoundMessageException;
+import org.openlmis.buq.exception.ValidationMessageException;
+import org.openlmis.buq.repository.buq.BottomUpQuantificationRepository;
+import org.openlmis.buq.service.forecasting.ForecastingService;
+import org.openlmis.buq.service.referencedata.FacilityReferenceDataService;
+import org.openlmis.buq.service.referencedata.RequisitionGroupReferenceDataService;
+import org.openlmis.buq.service.referencedata.SupervisoryNodeReferenceDataService;
+import org.openlmis.buq.util.AuthenticationHelper;
+import org.openlmis.buq.util.FacilitySupportsProgramHelper;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BottomUpQuantificationBatchPrepareServiceTest {
+
+  @Mock
+  private BottomUpQuantificationService bottomUpQuantificationService;
+
+  @Mock
+  private BottomUpQuantificationRepository bottomUpQuantificationRepository;
+
+  @Mock
+  private BottomUpQuantificationJobService bottomUpQuantificationJobService;
+
+  @Mock
+  private ForecastingService forecastingService;
+
+  @Mock
+  private FacilityReferenceDataService facilityReferenceDataService;
+
+  @Mock
+  private SupervisoryNodeReferenceDataService supervisoryNodeReferenceDataService;
+
+  @Mock
+  private RequisitionGroupReferenceDataService requisitionGroupReferenceDataService;
+
+  @Mock
+  private FacilitySupportsProgramHelper facilitySupportsProgramHelper;
+
+  @Mock
+  private AuthenticationHelper authenticationHelper;
+
+  @Mock
+  private PlatformTransactionManager transactionManager;
+
+  @InjectMocks
+  private BottomUpQuantificationBatchPrepareService batchPrepareService;
+
+  private final ProgramDto program = new ProgramDtoDataBuilder().buildAsDto();
+  private final ProcessingPeriodDto period = new ProcessingPeriodDtoDataBuilder().buildAsDto();
+  private final FacilityDto firstFacility = new FacilityDtoDataBuilder().buildAsDto();
+  private final FacilityDto secondFacility = new FacilityDtoDataBuilder().buildAsDto();
+  private final FacilityDto thirdFacility = new FacilityDtoDataBuilder().buildAsDto();
+  private final UserDto user = new UserDtoDataBuilder().buildAsDto();
+  private final UUID jobId = UUID.randomUUID();
+  private final UUID geographicZoneId = UUID.randomUUID();
+  private final BottomUpQuantificationJob job = new BottomUpQuantificationJob();
+
+  private Integer totalItems;
+  private Object result;
+
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(batchPrepareService, "chunkSize", 2);
+    lenient().when(bottomUpQuantificationJobService.updateProgress(eq(jobId), anyInt(),
+        anyInt())).thenReturn(true);
+  }
+
+  @Test
+  public void shouldPrepareBottomUpQuantificationsForGivenFacilitiesInChunks() {
+    mockJobStart();
+    List<FacilityDto> facilities = Arrays.asList(firstFacility, secondFacility, thirdFacility);
+    when(facilityReferenceDataService.search(anySetOfUuids())).thenAnswer(invocation -> {
+      Set<UUID> ids = invocation.getArgument(0);
+      return facilities.stream().filter(facility -> ids.contains(facility.getId()))
+          .collect(Collectors.toList());
+    });
+    when(facilitySupportsProgramHelper.supportsProgram(any(FacilityDto.class),
+        eq(program.getId()))).thenReturn(true);
+
+    batchPrepareService.prepare(new BottomUpQuantificationBatchPrepareDto(program.getId(),
+        period.getId(), Sets.newLinkedHashSet(Arrays.asList(firstFacility.getId(),
+            secondFacility.getId(), thirdFacility.getId())), null, null));
+
+    verify(bottomUpQuantificationService, times(3))
+        .validateNewBottomUpQuantification(any(BottomUpQuantification.class));
+    verify(bottomUpQuantificationRepository, times(2)).saveAll(anyList());
+    verify(bottomUpQuantificationJobService).updateProgress(jobId, 2, 0);
+    verify(bottomUpQuantificationJobService).updateProgress(jobId, 1, 0);
+    assertEquals(Integer.valueOf(3), totalItems);
+    assertEquals(preparationResult(3, 0), result);
+  }
+
+  @Test
+  public void shouldSkipFacilitiesOfGeographicZoneThatCannotBePrepared() {
+    mockJobStart();
+    mockGeographicZone(firstFacility, secondFacility, thirdFacility);
+    ReflectionTestUtils.setField(batchPrepareService, "chunkSize", 3);
+    when(bottomUpQuantificationRepository.findFacilityIdsByProcessingPeriodId(eq(period.getId()),
+        anyCollection())).thenReturn(Collections.singletonList(secondFacility.getId()));
+    when(facilityReferenceDataService.search(anySetOfUuids()))
+        .thenReturn(Arrays.asList(firstFacility, secondFacility, thirdFacility));
+    when(facilitySupportsProgramHelper.supportsProgram(firstFacility, program.getId()))
+        .thenReturn(true);
+    when(facilitySupportsProgramHelper.supportsProgram(thirdFacility, program.getId()))
+        .thenReturn(false);
+    FacilityRequisitionLineItemDataProjection lineItemData =
+        mock(FacilityRequisitionLineItemDataProjection.class);
+    when(lineItemData.getFacilityId()).thenReturn(firstFacility.getId());
+    when(bottomUpQuantificationRepository.getRequisitionLineItemsData(
+        Collections.singleton(firstFacility.getId()), period.getId()))
+        .thenReturn(Collections.singletonList(lineItemData));
+    Map<UUID, Long> forecasts = Collections.singletonMap(UUID.randomUUID(), 100L);
+    when(forecastingService.forecast(Collections.singleton(firstFacility.getId()),
+        period.getId())).thenReturn(Collections.singletonMap(firstFacility.getId(), forecasts));
+    when(bottomUpQuantificationService.prepareBottomUpQuantification(firstFacility, program,
+        period, Collections.singletonList(lineItemData), forecasts, user.getId()))
+        .thenReturn(new BottomUpQuantification());
+
+    batchPrepareService.prepare(new BottomUpQuantificationBatchPrepareDto(program.getId(),
+        period.getId(), null, null, geographicZoneId));
+
+    verify(bottomUpQuantificationService, never())
+        .validateNewBottomUpQuantification(any(BottomUpQuantification.class));
+    verify(bottomUpQuantificationRepository, times(1)).saveAll(anyList());
+    verify(bottomUpQuantificationJobService).updateProgress(jobId, 1, 2);
+    assertEquals(Integer.valueOf(3), totalItems);
+    assertEquals(preparationResult(1, 2), result);
+  }
+
+  @Test
+  public void shouldPrepareBottomUpQuantificationsForFacilitiesUnderSupervisoryNode() {
+    mockJobStart();
+    SupervisoryNodeDto childNode = mockSupervisoryNode(secondFacility);
+    SupervisoryNodeDto parentNode = mockSupervisoryNode(firstFacility);
+    parentNode.setChildNodes(Collections.singleton(
+        new ObjectReferenceDto(childNode.getId())));
+    when(supervisoryNodeReferenceDataService.findOne(parentNode.getId())).thenReturn(parentNode);
+    when(supervisoryNodeReferenceDataService.findByIds(Collections.singleton(childNode.getId())))
+        .thenReturn(Collections.singletonList(childNode));
+    when(supervisoryNodeReferenceDataService.findByIds(Collections.emptySet()))
+        .thenReturn(Collections.emptyList());
+    when(facilityReferenceDataService.search(anySetOfUuids()))
+        .thenReturn(Collections.emptyList());
+
+    batchPrepareService.prepare(new BottomUpQuantificationBatchPrepareDto(program.getId(),
+        period.getId(), null, parentNode.getId(), null));
+
+    verify(facilityReferenceDataService).search(
+        new HashSet<>(Arrays.asList(firstFacility.getId(), secondFacility.getId())));
+    assertEquals(Integer.valueOf(2), totalItems);
+    assertEquals(preparationResult(0, 2), result);
+  }
+
+  @Test
+  public void shouldStopPreparingIfJobIsNoLongerInProgress() {
+    mockJobStart();
+    mockGeographicZone(firstFacility, secondFacility, thirdFacility);
+    when(facilityReferenceDataService.search(anySetOfUuids()))
+        .thenReturn(Collections.emptyList());
+    when(bottomUpQuantificationJobService.updateProgress(jobId, 0, 2)).thenReturn(false);
+
+    batchPrepareService.prepare(new BottomUpQuantificationBatchPrepareDto(program.getId(),
+        period.getId(), null, null, geographicZoneId));
+
+    verify(facilityReferenceDataService, times(1)).search(anySetOfUuids());
+    verify(bottomUpQuantificationJobService, never()).updateProgress(jobId, 0, 1);
+    assertEquals(preparationResult(0, 2), result);
+  }
+
+  @Test
+  public void shouldRejectGivenFacilityThatAlreadyHasBottomUpQuantification() {
+    mockPrepareRequest();
+    when(facilityReferenceDataService.search(anySetOfUuids()))
+        .thenReturn(Collections.singletonList(firstFacility));
+    doThrow(new BindingResultException(Collections.emptyMap()))
+        .when(bottomUpQuantificationService)
+        .validateNewBottomUpQuantification(any(BottomUpQuantification.class));
+
+    try {
+      batchPrepareService.prepare(new BottomUpQuantificationBatchPrepareDto(program.getId(),
+          period.getId(), Collections.singleton(firstFacility.getId()), null, null));
+      fail("Expected BindingResultException");
+    } catch (BindingResultException ex) {
+      verify(facilitySupportsProgramHelper)
+          .checkIfFacilitySupportsProgram(firstFacility, program.getId());
+      verify(bottomUpQuantificationJobService, never()).submit(
+          any(BottomUpQuantificationJobType.class), anyMap(), any(), anyWork());
+    }
+  }
+
+  @Test(expected = ContentNotFoundMessageException.class)
+  public void shouldRejectGivenFacilityThatDoesNotExist() {
+    mockPrepareRequest();
+    when(facilityReferenceDataService.search(anySetOfUuids()))
+        .thenReturn(Collections.emptyList());
+
+    batchPrepareService.prepare(new BottomUpQuantificationBatchPrepareDto(program.getId(),
+        period.getId(), Collections.singleton(firstFacility.getId()), null, null));
+  }
+
+  @Test(expected = ValidationMessageException.class)
+  public void shouldThrowExceptionIfMoreThanOneFacilitySelectionIsGiven() {
+    batchPrepareService.prepare(new BottomUpQuantificationBatchPrepareDto(program.getId(),
+        period.getId(), Collections.singleton(firstFacility.getId()), UUID.randomUUID(), null));
+  }
+
+  @Test(expected = ValidationMessageException.class)
+  public void shouldThrowExceptionIfNoFacilitySelectionIsGiven() {
+    batchPrepareService.prepare(new BottomUpQuantificationBatchPrepareDto(program.getId(),
+        period.getId(), Collections.emptySet(), null, null));
+  }
+
+  @Test(expected = ValidationMessageException.class)
+  public void shouldThrowExceptionIfProgramIsMissing() {
+    batchPrepareService.prepare(new BottomUpQuantificationBatchPrepareDto(null,
+        period.getId(), Collections.singleton(firstFacility.getId()), null, null));
+  }
+
+  @Test
+  public void shouldFindBatchPrepareJob() {
+    when(bottomUpQuantificationJobService.findJob(jobId,
+        BottomUpQuantificationJobType.BATCH_PREPARE)).thenReturn(job);
+
+    assertSame(job, batchPrepareService.findJob(jobId));
+  }
+
+  private void mockPrepareRequest() {
+    when(bottomUpQuantificationService.findProgram(program.getId())).thenReturn(program);
+    when(bottomUpQuantificationService.findPeriod(period.getId())).thenReturn(period);
+  }
+
+  private void mockGeographicZone(FacilityDto... facilities) {
+    List<MinimalFacilityDto> zoneFacilities = Arrays.stream(facilities)
+        .map(facility -> {
+          MinimalFacilityDto minimalFacility = new MinimalFacilityDto();
+          minimalFacility.setId(facility.getId());
+          return minimalFacility;
+        })
+        .collect(Collectors.toList());
+    when(facilityReferenceDataService.search(null, null, geographicZoneId, true))
+        .thenReturn(zoneFacilities);
+  }
+
+  private void mockJobStart() {
+    mockPrepareRequest();
+    when(authenticationHelper.getCurrentUser()).thenReturn(user);
+    when(bottomUpQuantificationJobService.submit(eq(BottomUpQuantificationJobType.BATCH_PREPARE),
+        anyMap(), any(), anyWork())).thenAnswer(invocation -> {
+          totalItems = invocation.getArgument(2);
+          result = invocation.<Function<UUID, Object>>getArgument(3).apply(jobId);
+          return job;
+        });
+  }
+
+  private static Map<String, Integer> preparationResult(int prepared, int skipped) {
+    return ImmutableMap.of(
+        BottomUpQuantificationBatchPrepareService.PREPARED_FACILITIES, prepared,
+        BottomUpQuantificationBatchPrepareService.SKIPPED_FACILITIES, skipped);
+  }
+
+  private SupervisoryNodeDto mockSupervisoryNode(FacilityDto memberFacility) {
+    RequisitionGroupDto requisitionGroup = new RequisitionGroupDto();
+    requisitionGroup.setId(UUID.randomUUID());
+    requisitionGroup.setMemberFacilities(Collections.singleton(memberFacility));
+    when(requisitionGroupReferenceDataService.findOne(requisitionGroup.getId()))
+        .thenReturn(requisitionGroup);
+
+    SupervisoryNodeDto supervisoryNode = new SupervisoryNodeDto();
+    supervisoryNode.setId(UUID.randomUUID());
+    supervisoryNode.setRequisitionGroup(
+        new ObjectReferenceDto(requisitionGroup.getId()));
+    return supervisoryNode;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Set<UUID> anySetOfUuids() {
+    return any(Set.class);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Function<UUID, Object> anyWork() {
+    return any(Function.class);
+  }
+
+}
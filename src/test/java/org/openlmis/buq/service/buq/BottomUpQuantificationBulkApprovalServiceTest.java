@@ -0,0 +1,227 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.service.buq;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.openlmis.buq.i18n.MessageKeys.ERROR_APPROVE_FAILED;
+import static org.openlmis.buq.i18n.MessageKeys.ERROR_BOTTOM_UP_QUANTIFICATION_NOT_FOUND;
+import static org.openlmis.buq.i18n.MessageKeys.ERROR_MUST_BE_AUTHORIZED_OR_IN_APPROVAL_TO_BE_APPROVED;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openlmis.buq.builder.BottomUpQuantificationDataBuilder;
+import org.openlmis.buq.builder.ProcessingPeriodDtoDataBuilder;
+import org.openlmis.buq.builder.UserDtoDataBuilder;
+import org.openlmis.buq.domain.buq.BottomUpQuantification;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationStatus;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationStatusChange;
+import org.openlmis.buq.dto.buq.BottomUpQuantificationApprovalKeysProjection;
+import org.openlmis.buq.dto.referencedata.ObjectReferenceDto;
+import org.openlmis.buq.dto.referencedata.ProcessingPeriodDto;
+import org.openlmis.buq.dto.referencedata.SupervisoryNodeDto;
+import org.openlmis.buq.dto.referencedata.UserDto;
+import org.openlmis.buq.exception.ValidationMessageException;
+import org.openlmis.buq.repository.buq.BottomUpQuantificationRepository;
+import org.openlmis.buq.repository.buq.BottomUpQuantificationStatusChangeRepository;
+import org.openlmis.buq.service.referencedata.PeriodReferenceDataService;
+import org.openlmis.buq.service.referencedata.SupervisoryNodeReferenceDataService;
+import org.openlmis.buq.service.referencedata.SupplyLineReferenceDataService;
+import org.openlmis.buq.util.AuthenticationHelper;
+import org.openlmis.buq.util.Message;
+import org.openlmis.buq.validate.BottomUpQuantificationValidator;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BottomUpQuantificationBulkApprovalServiceTest {
+
+  @Mock
+  private BottomUpQuantificationRepository bottomUpQuantificationRepository;
+
+  @Mock
+  private BottomUpQuantificationStatusChangeRepository bottomUpQuantificationStatusChangeRepository;
+
+  @Mock
+  private BottomUpQuantificationValidator validator;
+
+  @Mock
+  private SupervisoryNodeReferenceDataService supervisoryNodeReferenceDataService;
+
+  @Mock
+  private PeriodReferenceDataService periodReferenceDataService;
+
+  @Mock
+  private SupplyLineReferenceDataService supplyLineReferenceDataService;
+
+  @Mock
+  private AuthenticationHelper authenticationHelper;
+
+  @Mock
+  private PlatformTransactionManager transactionManager;
+
+  @InjectMocks
+  private BottomUpQuantificationBulkApprovalService bulkApprovalService;
+
+  private final UserDto user = new UserDtoDataBuilder().buildAsDto();
+  private final ProcessingPeriodDto period = new ProcessingPeriodDtoDataBuilder().buildAsDto();
+  private final UUID programId = UUID.randomUUID();
+  private final UUID parentNodeId = UUID.randomUUID();
+  private final SupervisoryNodeDto supervisoryNode = new SupervisoryNodeDto();
+
+  private BottomUpQuantification firstBottomUpQuantification;
+  private BottomUpQuantification secondBottomUpQuantification;
+
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(bulkApprovalService, "chunkSize", 100);
+    when(authenticationHelper.getCurrentUser()).thenReturn(user);
+
+    supervisoryNode.setId(UUID.randomUUID());
+    supervisoryNode.setParentNode(new ObjectReferenceDto(parentNodeId));
+    firstBottomUpQuantification = buildBottomUpQuantification();
+    secondBottomUpQuantification = buildBottomUpQuantification();
+  }
+
+  @Test
+  public void shouldApproveResolvingReferenceDataOncePerKey() {
+    mockReferenceData();
+    List<UUID> ids = Arrays.asList(firstBottomUpQuantification.getId(),
+        secondBottomUpQuantification.getId());
+    mockApprovalKeys(ids, firstBottomUpQuantification, secondBottomUpQuantification);
+    when(bottomUpQuantificationRepository.findAllById(ids)).thenReturn(
+        Arrays.asList(firstBottomUpQuantification, secondBottomUpQuantification));
+
+    BottomUpQuantificationBulkApprovalResult result = bulkApprovalService.approve(ids);
+
+    assertEquals(ids, result.getApprovedIds());
+    assertEquals(Collections.emptyMap(), result.getFailures());
+    assertEquals(BottomUpQuantificationStatus.IN_APPROVAL,
+        firstBottomUpQuantification.getStatus());
+    assertEquals(parentNodeId, secondBottomUpQuantification.getSupervisoryNodeId());
+    verify(supervisoryNodeReferenceDataService)
+        .findByIds(Collections.singleton(supervisoryNode.getId()));
+    verify(periodReferenceDataService).search(Collections.singleton(period.getId()));
+    verify(supplyLineReferenceDataService).search(programId, supervisoryNode.getId());
+
+    ArgumentCaptor<List<BottomUpQuantificationStatusChange>> statusChangesCaptor =
+        ArgumentCaptor.forClass(List.class);
+    verify(bottomUpQuantificationStatusChangeRepository).saveAll(statusChangesCaptor.capture());
+    assertEquals(2, statusChangesCaptor.getValue().size());
+    assertEquals(user.getId(), statusChangesCaptor.getValue().get(0).getAuthorId());
+  }
+
+  @Test
+  public void shouldReportBottomUpQuantificationsThatCannotBeApproved() {
+    mockReferenceData();
+    final UUID missingId = UUID.randomUUID();
+    List<UUID> ids = Arrays.asList(firstBottomUpQuantification.getId(),
+        secondBottomUpQuantification.getId(), missingId);
+    mockApprovalKeys(ids, firstBottomUpQuantification, secondBottomUpQuantification);
+    when(bottomUpQuantificationRepository.findAllById(ids)).thenReturn(
+        Arrays.asList(firstBottomUpQuantification, secondBottomUpQuantification));
+    doThrow(new ValidationMessageException(
+        new Message(ERROR_MUST_BE_AUTHORIZED_OR_IN_APPROVAL_TO_BE_APPROVED)))
+        .when(validator).validateCanBeApproved(secondBottomUpQuantification);
+
+    BottomUpQuantificationBulkApprovalResult result = bulkApprovalService.approve(ids);
+
+    assertEquals(Collections.singletonList(firstBottomUpQuantification.getId()),
+        result.getApprovedIds());
+    assertEquals(new Message(ERROR_MUST_BE_AUTHORIZED_OR_IN_APPROVAL_TO_BE_APPROVED),
+        result.getFailures().get(secondBottomUpQuantification.getId()));
+    assertEquals(new Message(ERROR_BOTTOM_UP_QUANTIFICATION_NOT_FOUND, missingId),
+        result.getFailures().get(missingId));
+    assertEquals(BottomUpQuantificationStatus.AUTHORIZED,
+        secondBottomUpQuantification.getStatus());
+  }
+
+  @Test
+  public void shouldContinueWithNextChunkIfChunkFails() {
+    ReflectionTestUtils.setField(bulkApprovalService, "chunkSize", 1);
+    mockReferenceData();
+    UUID firstId = firstBottomUpQuantification.getId();
+    UUID secondId = secondBottomUpQuantification.getId();
+    mockApprovalKeys(Collections.singletonList(firstId), firstBottomUpQuantification);
+    mockApprovalKeys(Collections.singletonList(secondId), secondBottomUpQuantification);
+    when(bottomUpQuantificationRepository.findAllById(Collections.singletonList(firstId)))
+        .thenReturn(Collections.singletonList(firstBottomUpQuantification));
+    when(bottomUpQuantificationRepository.findAllById(Collections.singletonList(secondId)))
+        .thenReturn(Collections.singletonList(secondBottomUpQuantification));
+    when(bottomUpQuantificationStatusChangeRepository.saveAll(anyList()))
+        .thenThrow(new QueryTimeoutException("timeout"))
+        .thenReturn(new ArrayList<>());
+
+    BottomUpQuantificationBulkApprovalResult result = bulkApprovalService
+        .approve(Arrays.asList(firstId, secondId));
+
+    assertEquals(Collections.singletonList(secondId), result.getApprovedIds());
+    assertEquals(Collections.singletonMap(firstId, new Message(ERROR_APPROVE_FAILED)),
+        result.getFailures());
+    verify(transactionManager).rollback(any());
+  }
+
+  private BottomUpQuantification buildBottomUpQuantification() {
+    return new BottomUpQuantificationDataBuilder()
+        .withId(UUID.randomUUID())
+        .withProgramId(programId)
+        .withProcessingPeriodId(period.getId())
+        .withSupervisoryNodeId(supervisoryNode.getId())
+        .withStatus(BottomUpQuantificationStatus.AUTHORIZED)
+        .build();
+  }
+
+  private void mockReferenceData() {
+    when(supervisoryNodeReferenceDataService.findByIds(any()))
+        .thenReturn(Collections.singletonList(supervisoryNode));
+    when(periodReferenceDataService.search(Collections.singleton(period.getId())))
+        .thenReturn(Collections.singletonList(period));
+    when(supplyLineReferenceDataService.search(programId, supervisoryNode.getId()))
+        .thenReturn(Collections.emptyList());
+  }
+
+  private void mockApprovalKeys(List<UUID> ids,
+      BottomUpQuantification... bottomUpQuantifications) {
+    List<BottomUpQuantificationApprovalKeysProjection> keys = new ArrayList<>();
+    for (BottomUpQuantification bottomUpQuantification : bottomUpQuantifications) {
+      BottomUpQuantificationApprovalKeysProjection key =
+          mock(BottomUpQuantificationApprovalKeysProjection.class);
+      when(key.getProgramId()).thenReturn(bottomUpQuantification.getProgramId());
+      when(key.getProcessingPeriodId())
+          .thenReturn(bottomUpQuantification.getProcessingPeriodId());
+      when(key.getSupervisoryNodeId()).thenReturn(bottomUpQuantification.getSupervisoryNodeId());
+      keys.add(key);
+    }
+    when(bottomUpQuantificationRepository.findApprovalKeysByIdIn(ids)).thenReturn(keys);
+  }
+
+}
@@ -0,0 +1,175 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.service.buq;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.openlmis.buq.service.buq.BottomUpQuantificationExportService.SELECT_FACILITY_IDS;
+import static org.openlmis.buq.service.buq.BottomUpQuantificationExportService.SELECT_LINE_ITEMS;
+import static org.openlmis.buq.service.buq.BottomUpQuantificationExportService.SELECT_ORDERABLE_IDS;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openlmis.buq.builder.FacilityDtoDataBuilder;
+import org.openlmis.buq.dto.referencedata.BasicOrderableDto;
+import org.openlmis.buq.dto.referencedata.FacilityDto;
+import org.openlmis.buq.service.CsvService;
+import org.openlmis.buq.service.RequestParameters;
+import org.openlmis.buq.service.referencedata.FacilityReferenceDataService;
+import org.openlmis.buq.service.referencedata.OrderableReferenceDataService;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BottomUpQuantificationExportServiceTest {
+
+  private static final String HEADER = "\"Facility Code\",\"Facility Name\",\"Product Code\","
+      + "\"Product Name\",\"Annual Adjusted Consumption\","
+      + "\"Verified Annual Adjusted Consumption\",\"Forecasted Demand\",\"Total Cost\"\n";
+  private static final String ROW =
+      "F100,\"Facility name\",C100,\"Product name\",100,110,111,200.00\n";
+
+  @Mock
+  private NamedParameterJdbcTemplate jdbcTemplate;
+
+  @Mock
+  private TransactionTemplate transactionTemplate;
+
+  @Mock
+  private FacilityReferenceDataService facilityReferenceDataService;
+
+  @Mock
+  private OrderableReferenceDataService orderableReferenceDataService;
+
+  @Mock
+  private ResultSet resultSet;
+
+  private BottomUpQuantificationExportService exportService;
+
+  private final UUID programId = UUID.randomUUID();
+  private final UUID processingPeriodId = UUID.randomUUID();
+  private final UUID orderableId = UUID.randomUUID();
+  private final FacilityDto facility = new FacilityDtoDataBuilder()
+      .withCode("F100")
+      .withName("Facility name")
+      .buildAsDto();
+
+  @Before
+  public void setUp() {
+    exportService = new BottomUpQuantificationExportService(jdbcTemplate, transactionTemplate,
+        facilityReferenceDataService, orderableReferenceDataService, new CsvService());
+  }
+
+  @Test
+  public void shouldExportLineItemsWithFacilitiesAndOrderablesResolvedAtOnce() throws Exception {
+    mockLineItems();
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+    exportService.export(programId, processingPeriodId, false).writeTo(outputStream);
+
+    assertEquals(HEADER + ROW, new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+    verify(facilityReferenceDataService).search(Collections.singleton(facility.getId()));
+    verify(orderableReferenceDataService).findAll(any(RequestParameters.class));
+  }
+
+  @Test
+  public void shouldExportGzipCompressedLineItems() throws Exception {
+    mockLineItems();
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+    exportService.export(programId, processingPeriodId, true).writeTo(outputStream);
+
+    assertEquals(HEADER + ROW, decompress(outputStream.toByteArray()));
+  }
+
+  @Test
+  public void shouldExportOnlyHeaderIfThereIsNothingToExport() throws Exception {
+    when(jdbcTemplate.queryForList(anyString(), any(SqlParameterSource.class), eq(UUID.class)))
+        .thenReturn(Collections.emptyList());
+    mockTransaction();
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+    exportService.export(programId, processingPeriodId, false).writeTo(outputStream);
+
+    assertEquals(HEADER, new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+    verify(jdbcTemplate).query(eq(SELECT_LINE_ITEMS), any(SqlParameterSource.class),
+        any(RowCallbackHandler.class));
+    verify(facilityReferenceDataService, never()).search(any());
+    verify(orderableReferenceDataService, never()).findAll(any(RequestParameters.class));
+  }
+
+  private void mockLineItems() throws Exception {
+    when(jdbcTemplate.queryForList(eq(SELECT_FACILITY_IDS), any(SqlParameterSource.class),
+        eq(UUID.class))).thenReturn(Collections.singletonList(facility.getId()));
+    when(jdbcTemplate.queryForList(eq(SELECT_ORDERABLE_IDS), any(SqlParameterSource.class),
+        eq(UUID.class))).thenReturn(Collections.singletonList(orderableId));
+    when(facilityReferenceDataService.search(Collections.singleton(facility.getId())))
+        .thenReturn(Collections.singletonList(facility));
+    when(orderableReferenceDataService.findAll(any(RequestParameters.class)))
+        .thenReturn(Collections.singletonList(new BasicOrderableDto(orderableId, "C100",
+            "Product name", 10, 5, false, null)));
+
+    when(resultSet.getObject(1, UUID.class)).thenReturn(facility.getId());
+    when(resultSet.getObject(2, UUID.class)).thenReturn(orderableId);
+    when(resultSet.getObject(3, Integer.class)).thenReturn(100);
+    when(resultSet.getObject(4, Integer.class)).thenReturn(110);
+    when(resultSet.getObject(5, Integer.class)).thenReturn(111);
+    when(resultSet.getBigDecimal(6)).thenReturn(new BigDecimal("200.00"));
+    doAnswer(invocation -> {
+      RowCallbackHandler handler = invocation.getArgument(2);
+      handler.processRow(resultSet);
+      return null;
+    }).when(jdbcTemplate).query(eq(SELECT_LINE_ITEMS), any(SqlParameterSource.class),
+        any(RowCallbackHandler.class));
+    mockTransaction();
+  }
+
+  private void mockTransaction() {
+    when(transactionTemplate.execute(any())).thenAnswer(invocation -> {
+      TransactionCallback<?> callback = invocation.getArgument(0);
+      return callback.doInTransaction(null);
+    });
+  }
+
+  private String decompress(byte[] bytes) throws IOException {
+    try (GZIPInputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+      return IOUtils.toString(inputStream, StandardCharsets.UTF_8);
+    }
+  }
+
+}
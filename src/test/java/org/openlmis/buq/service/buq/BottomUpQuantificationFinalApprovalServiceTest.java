@@ -0,0 +1,203 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.service.buq;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.openlmis.buq.i18n.MessageKeys.ERROR_BOTTOM_UP_QUANTIFICATION_NOT_FOUND;
+import static org.openlmis.buq.i18n.MessageKeys.ERROR_FINAL_APPROVE_FAILED;
+import static org.openlmis.buq.i18n.MessageKeys.ERROR_MUST_BE_APPROVED_TO_BE_FINAL_APPROVED;
+import static org.openlmis.buq.service.buq.BottomUpQuantificationFinalApprovalService.INSERT_STATUS_CHANGE;
+import static org.openlmis.buq.service.buq.BottomUpQuantificationFinalApprovalService.SELECT_STATUSES;
+import static org.openlmis.buq.service.buq.BottomUpQuantificationFinalApprovalService.UPDATE_STATUSES;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openlmis.buq.builder.UserDtoDataBuilder;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationStatus;
+import org.openlmis.buq.dto.referencedata.UserDto;
+import org.openlmis.buq.service.audit.AuditOutboxService;
+import org.openlmis.buq.util.AuthenticationHelper;
+import org.openlmis.buq.util.Message;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BottomUpQuantificationFinalApprovalServiceTest {
+
+  @Mock
+  private NamedParameterJdbcTemplate jdbcTemplate;
+
+  @Mock
+  private AuthenticationHelper authenticationHelper;
+
+  @Mock
+  private AuditOutboxService auditOutboxService;
+
+  @Mock
+  private PlatformTransactionManager transactionManager;
+
+  @InjectMocks
+  private BottomUpQuantificationFinalApprovalService finalApprovalService;
+
+  private final UserDto user = new UserDtoDataBuilder().buildAsDto();
+  private final UUID approvedId = UUID.randomUUID();
+  private final UUID otherApprovedId = UUID.randomUUID();
+  private final UUID inApprovalId = UUID.randomUUID();
+  private final UUID missingId = UUID.randomUUID();
+
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(finalApprovalService, "chunkSize", 500);
+    when(authenticationHelper.getCurrentUser()).thenReturn(user);
+  }
+
+  @Test
+  public void shouldFinalApproveApprovedBottomUpQuantificationsAndReportOthers() {
+    Map<UUID, BottomUpQuantificationStatus> statuses = new LinkedHashMap<>();
+    statuses.put(approvedId, BottomUpQuantificationStatus.APPROVED);
+    statuses.put(inApprovalId, BottomUpQuantificationStatus.IN_APPROVAL);
+    mockStatuses(statuses);
+
+    BottomUpQuantificationBulkApprovalResult result = finalApprovalService
+        .finalApprove(Arrays.asList(approvedId, inApprovalId, missingId, approvedId));
+
+    assertEquals(Collections.singletonList(approvedId), result.getApprovedIds());
+    assertEquals(2, result.getFailures().size());
+    assertEquals(new Message(ERROR_MUST_BE_APPROVED_TO_BE_FINAL_APPROVED),
+        result.getFailures().get(inApprovalId));
+    assertEquals(new Message(ERROR_BOTTOM_UP_QUANTIFICATION_NOT_FOUND, missingId),
+        result.getFailures().get(missingId));
+
+    ArgumentCaptor<MapSqlParameterSource> updateCaptor =
+        ArgumentCaptor.forClass(MapSqlParameterSource.class);
+    verify(jdbcTemplate).update(eq(UPDATE_STATUSES), updateCaptor.capture());
+    assertEquals(Collections.singletonList(approvedId), updateCaptor.getValue().getValue("ids"));
+    assertEquals(BottomUpQuantificationStatus.APPROVED_BY_NQT.name(),
+        updateCaptor.getValue().getValue("status"));
+
+    ArgumentCaptor<MapSqlParameterSource[]> statusChangesCaptor =
+        ArgumentCaptor.forClass(MapSqlParameterSource[].class);
+    verify(jdbcTemplate).batchUpdate(eq(INSERT_STATUS_CHANGE), statusChangesCaptor.capture());
+    MapSqlParameterSource[] statusChanges = statusChangesCaptor.getValue();
+    assertEquals(1, statusChanges.length);
+    assertEquals(approvedId, statusChanges[0].getValue("bottomUpQuantificationId"));
+    assertEquals(user.getId(), statusChanges[0].getValue("authorId"));
+    verify(auditOutboxService).enqueueAll(Collections.singletonList(approvedId));
+  }
+
+  @Test
+  public void shouldContinueWithNextChunkIfChunkFails() {
+    ReflectionTestUtils.setField(finalApprovalService, "chunkSize", 1);
+    Map<UUID, BottomUpQuantificationStatus> statuses = new LinkedHashMap<>();
+    statuses.put(approvedId, BottomUpQuantificationStatus.APPROVED);
+    statuses.put(otherApprovedId, BottomUpQuantificationStatus.APPROVED);
+    mockStatuses(statuses);
+    when(jdbcTemplate.update(eq(UPDATE_STATUSES), any(SqlParameterSource.class)))
+        .thenThrow(new QueryTimeoutException("timeout"))
+        .thenReturn(1);
+
+    BottomUpQuantificationBulkApprovalResult result = finalApprovalService
+        .finalApprove(Arrays.asList(approvedId, otherApprovedId));
+
+    assertEquals(Collections.singletonList(otherApprovedId), result.getApprovedIds());
+    assertEquals(Collections.singletonMap(approvedId, new Message(ERROR_FINAL_APPROVE_FAILED)),
+        result.getFailures());
+    verify(transactionManager).rollback(any());
+    verify(auditOutboxService).enqueueAll(Collections.singletonList(otherApprovedId));
+  }
+
+  @Test
+  public void shouldStopBeforeNextChunkIfCancelled() {
+    ReflectionTestUtils.setField(finalApprovalService, "chunkSize", 1);
+    Map<UUID, BottomUpQuantificationStatus> statuses = new LinkedHashMap<>();
+    statuses.put(approvedId, BottomUpQuantificationStatus.APPROVED);
+    statuses.put(otherApprovedId, BottomUpQuantificationStatus.APPROVED);
+    mockStatuses(statuses);
+    AtomicInteger checks = new AtomicInteger();
+
+    BottomUpQuantificationBulkApprovalResult result = finalApprovalService
+        .finalApprove(Arrays.asList(approvedId, otherApprovedId),
+            () -> checks.incrementAndGet() > 1);
+
+    assertEquals(Collections.singletonList(approvedId), result.getApprovedIds());
+    assertTrue(result.getFailures().isEmpty());
+    assertEquals(2, checks.get());
+    verify(jdbcTemplate).update(eq(UPDATE_STATUSES), any(SqlParameterSource.class));
+    verify(auditOutboxService).enqueueAll(Collections.singletonList(approvedId));
+  }
+
+  @Test
+  public void shouldNotUpdateAnythingIfNoBottomUpQuantificationIsApproved() {
+    mockStatuses(Collections.singletonMap(inApprovalId, BottomUpQuantificationStatus.DRAFT));
+
+    BottomUpQuantificationBulkApprovalResult result = finalApprovalService
+        .finalApprove(Collections.singletonList(inApprovalId));
+
+    assertTrue(result.getApprovedIds().isEmpty());
+    assertEquals(1, result.getFailures().size());
+    verify(jdbcTemplate, never()).update(anyString(), any(SqlParameterSource.class));
+    verify(auditOutboxService, never()).enqueueAll(any());
+  }
+
+  private void mockStatuses(Map<UUID, BottomUpQuantificationStatus> statuses) {
+    doAnswer(invocation -> {
+      SqlParameterSource params = invocation.getArgument(1);
+      RowCallbackHandler handler = invocation.getArgument(2);
+      for (Object id : (Iterable<?>) params.getValue("ids")) {
+        if (statuses.containsKey(id)) {
+          handler.processRow(mockRow((UUID) id, statuses.get(id)));
+        }
+      }
+      return null;
+    }).when(jdbcTemplate).query(eq(SELECT_STATUSES), any(SqlParameterSource.class),
+        any(RowCallbackHandler.class));
+  }
+
+  private ResultSet mockRow(UUID id, BottomUpQuantificationStatus status) throws SQLException {
+    ResultSet resultSet = mock(ResultSet.class);
+    when(resultSet.getObject("id", UUID.class)).thenReturn(id);
+    when(resultSet.getString("status")).thenReturn(status.name());
+    return resultSet;
+  }
+
+}
@@ -0,0 +1,372 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.service.buq;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.openlmis.buq.i18n.MessageKeys.ERROR_JOB_ABANDONED;
+import static org.openlmis.buq.i18n.MessageKeys.ERROR_JOB_FAILED;
+import static org.openlmis.buq.i18n.MessageKeys.ERROR_JOB_REJECTED;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.BooleanSupplier;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openlmis.buq.builder.UserDtoDataBuilder;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationJob;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationJobStatus;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationJobType;
+import org.openlmis.buq.dto.productgroup.ProductGroupsCostData;
+import org.openlmis.buq.dto.referencedata.UserDto;
+import org.openlmis.buq.exception.ContentNotFoundMessageException;
+import org.openlmis.buq.exception.TooManyRequestsMessageException;
+import org.openlmis.buq.exception.ValidationMessageException;
+import org.openlmis.buq.i18n.MessageService;
+import org.openlmis.buq.repository.buq.BottomUpQuantificationJobRepository;
+import org.openlmis.buq.util.AuthenticationHelper;
+import org.openlmis.buq.util.Message;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BottomUpQuantificationJobServiceTest {
+
+  @Mock
+  private BottomUpQuantificationJobRepository jobRepository;
+
+  @Mock
+  private BottomUpQuantificationService bottomUpQuantificationService;
+
+  @Mock
+  private BottomUpQuantificationFinalApprovalService bottomUpQuantificationFinalApprovalService;
+
+  @Mock
+  private AuthenticationHelper authenticationHelper;
+
+  @Mock
+  private MessageService messageService;
+
+  @Spy
+  private ObjectMapper objectMapper = new ObjectMapper();
+
+  @Mock
+  private PlatformTransactionManager transactionManager;
+
+  @Mock
+  private TaskExecutor taskExecutor;
+
+  @InjectMocks
+  private BottomUpQuantificationJobService jobService;
+
+  private final UserDto user = new UserDtoDataBuilder().buildAsDto();
+  private final UUID jobId = UUID.randomUUID();
+  private final UUID programId = UUID.randomUUID();
+  private final UUID processingPeriodId = UUID.randomUUID();
+  private final UUID geographicZoneId = UUID.randomUUID();
+  private final Map<UUID, Map<UUID, Map<UUID, Set<UUID>>>> geographicZones =
+      Collections.emptyMap();
+  private final Pageable pageable = PageRequest.of(0, 10);
+
+  @Test
+  public void shouldRunSubmittedJobAndStoreItsResult() {
+    mockSave();
+    mockExecutor();
+    when(jobRepository.start(jobId)).thenReturn(1);
+    when(jobRepository.complete(eq(jobId), anyString())).thenReturn(1);
+    ProductGroupsCostData costData = new ProductGroupsCostData();
+    when(bottomUpQuantificationService.getProductsCostData(processingPeriodId, programId,
+        geographicZoneId, geographicZones, pageable))
+        .thenReturn(Collections.singletonList(costData));
+
+    BottomUpQuantificationJob job = jobService.submitCostCalculation(processingPeriodId,
+        programId, geographicZoneId, geographicZones, pageable);
+
+    assertEquals(BottomUpQuantificationJobType.COST_CALCULATION, job.getType());
+    assertEquals(BottomUpQuantificationJobStatus.PENDING, job.getStatus());
+    assertEquals(user.getId(), job.getRequestedById());
+    verify(transactionManager).getTransaction(argThat(definition ->
+        TransactionDefinition.PROPAGATION_REQUIRES_NEW == definition.getPropagationBehavior()));
+    verify(jobRepository).complete(eq(jobId), anyString());
+    verify(jobRepository, never()).fail(any(), any());
+  }
+
+  @Test
+  public void shouldDiscardResultOfJobThatIsNoLongerInProgress() {
+    mockSave();
+    mockExecutor();
+    when(jobRepository.start(jobId)).thenReturn(1);
+    when(jobRepository.complete(eq(jobId), anyString())).thenReturn(0);
+
+    jobService.submitForFinalApproval(programId, processingPeriodId, geographicZoneId, pageable);
+
+    verify(jobRepository).complete(eq(jobId), anyString());
+    verify(jobRepository, never()).fail(any(), any());
+  }
+
+  @Test
+  public void shouldNotRunJobCancelledBeforeItWasStarted() {
+    mockSave();
+    mockExecutor();
+    when(jobRepository.start(jobId)).thenReturn(0);
+
+    jobService.submitForFinalApproval(programId, processingPeriodId, geographicZoneId, pageable);
+
+    verify(bottomUpQuantificationService, never())
+        .getBottomUpQuantificationsForFinalApprovalWithGroupCosts(any(), any(), any(), any());
+    verify(jobRepository, never()).complete(any(), any());
+  }
+
+  @Test
+  public void shouldMarkJobAsFailedWithLocalizedMessageIfOperationFails() {
+    mockSave();
+    mockExecutor();
+    mockLocalize(ERROR_JOB_FAILED, "failed");
+    when(jobRepository.start(jobId)).thenReturn(1);
+    when(bottomUpQuantificationFinalApprovalService
+        .finalApprove(eq(Collections.singletonList(programId)), any(BooleanSupplier.class)))
+        .thenThrow(new IllegalStateException("connection refused by 10.0.0.1"));
+
+    jobService.submitFinalApproval(Collections.singletonList(programId));
+
+    verify(jobRepository).fail(jobId, "failed");
+    verify(jobRepository, never()).complete(any(), any());
+  }
+
+  @Test
+  public void shouldStopFinalApprovalIfJobIsNoLongerInProgress() {
+    mockSave();
+    mockExecutor();
+    when(jobRepository.start(jobId)).thenReturn(1);
+    when(jobRepository.updateProgress(jobId, 0, 0)).thenReturn(1).thenReturn(0);
+    List<Boolean> checks = new ArrayList<>();
+    when(bottomUpQuantificationFinalApprovalService
+        .finalApprove(eq(Collections.singletonList(programId)), any(BooleanSupplier.class)))
+        .thenAnswer(invocation -> {
+          BooleanSupplier cancelled = invocation.getArgument(1);
+          checks.add(cancelled.getAsBoolean());
+          checks.add(cancelled.getAsBoolean());
+          return new BottomUpQuantificationBulkApprovalResult();
+        });
+
+    jobService.submitFinalApproval(Collections.singletonList(programId));
+
+    assertEquals(Arrays.asList(false, true), checks);
+  }
+
+  @Test
+  public void shouldNeitherCompleteNorFailJobCancelledWhileRunning() {
+    mockSave();
+    mockExecutor();
+    when(jobRepository.start(jobId)).thenReturn(1);
+    when(bottomUpQuantificationFinalApprovalService
+        .finalApprove(eq(Collections.singletonList(programId)), any(BooleanSupplier.class)))
+        .thenAnswer(invocation -> {
+          Thread.currentThread().interrupt();
+          BooleanSupplier cancelled = invocation.getArgument(1);
+          assertTrue(cancelled.getAsBoolean());
+          return new BottomUpQuantificationBulkApprovalResult();
+        });
+
+    jobService.submitFinalApproval(Collections.singletonList(programId));
+
+    assertFalse(Thread.currentThread().isInterrupted());
+    verify(jobRepository, never()).updateProgress(any(), anyInt(), anyInt());
+    verify(jobRepository, never()).complete(any(), any());
+    verify(jobRepository, never()).fail(any(), any());
+  }
+
+  @Test
+  public void shouldMarkJobAsFailedAndRejectRequestIfExecutorIsFull() {
+    mockSave();
+    doThrow(new TaskRejectedException("full")).when(taskExecutor).execute(any(Runnable.class));
+    mockLocalize(ERROR_JOB_REJECTED, "rejected");
+
+    try {
+      jobService.submitFinalApproval(Collections.singletonList(programId));
+      fail("Expected TooManyRequestsMessageException");
+    } catch (TooManyRequestsMessageException ex) {
+      verify(jobRepository).fail(jobId, "rejected");
+      verify(jobRepository, never()).start(any());
+    }
+
+    jobService.sendHeartbeats();
+    verify(jobRepository, never()).touch(anyCollection());
+  }
+
+  @Test
+  public void shouldSendHeartbeatForQueuedJobs() {
+    mockSave();
+
+    jobService.submitFinalApproval(Collections.singletonList(programId));
+    jobService.sendHeartbeats();
+
+    verify(jobRepository).touch(Collections.singleton(jobId));
+  }
+
+  @Test
+  public void shouldAddProcessedItemsToProgressOfRunningJob() {
+    when(jobRepository.updateProgress(jobId, 2, 1)).thenReturn(1);
+
+    assertTrue(jobService.updateProgress(jobId, 2, 1));
+  }
+
+  @Test
+  public void shouldNotGoOnWithJobThatIsNoLongerInProgress() {
+    when(jobRepository.updateProgress(jobId, 2, 1)).thenReturn(0);
+
+    assertFalse(jobService.updateProgress(jobId, 2, 1));
+  }
+
+  @Test
+  public void shouldCancelUnfinishedJob() {
+    mockFindJob(BottomUpQuantificationJobStatus.IN_PROGRESS);
+    when(jobRepository.cancel(jobId)).thenReturn(1);
+
+    jobService.cancel(jobId);
+
+    verify(jobRepository).cancel(jobId);
+  }
+
+  @Test(expected = ValidationMessageException.class)
+  public void shouldNotCancelFinishedJob() {
+    mockFindJob(BottomUpQuantificationJobStatus.COMPLETED);
+
+    jobService.cancel(jobId);
+  }
+
+  @Test
+  public void shouldReturnResultOfCompletedJob() {
+    mockFindJob(BottomUpQuantificationJobStatus.COMPLETED);
+    when(jobRepository.findResultById(jobId)).thenReturn("[]");
+
+    assertEquals("[]", jobService.getResult(jobId));
+  }
+
+  @Test(expected = ValidationMessageException.class)
+  public void shouldNotReturnResultOfUnfinishedJob() {
+    mockFindJob(BottomUpQuantificationJobStatus.IN_PROGRESS);
+
+    jobService.getResult(jobId);
+  }
+
+  @Test(expected = ContentNotFoundMessageException.class)
+  public void shouldNotFindJobOfAnotherUser() {
+    BottomUpQuantificationJob job = BottomUpQuantificationJob.newInstance(
+        BottomUpQuantificationJobType.FINAL_APPROVAL, "{}", UUID.randomUUID());
+    when(authenticationHelper.getCurrentUser()).thenReturn(user);
+    when(jobRepository.findById(jobId)).thenReturn(Optional.of(job));
+
+    jobService.findJob(jobId);
+  }
+
+  @Test(expected = ContentNotFoundMessageException.class)
+  public void shouldNotFindJobOfAnotherType() {
+    mockFindJob(BottomUpQuantificationJobStatus.COMPLETED);
+
+    jobService.findJob(jobId, BottomUpQuantificationJobType.BATCH_PREPARE);
+  }
+
+  @Test
+  public void shouldRemoveJobsOlderThanRetentionPeriod() {
+    Instant now = Instant.parse("2026-10-19T12:00:00Z");
+    ReflectionTestUtils.setField(jobService, "clock", Clock.fixed(now, ZoneOffset.UTC));
+    ReflectionTestUtils.setField(jobService, "retentionDays", 7);
+
+    jobService.removeExpiredJobs();
+
+    verify(jobRepository).deleteByCreatedDateBefore(
+        ZonedDateTime.ofInstant(now, ZoneOffset.UTC).minusDays(7));
+  }
+
+  @Test
+  public void shouldMarkStaleJobsAsFailed() {
+    Instant now = Instant.parse("2026-10-19T12:00:00Z");
+    ReflectionTestUtils.setField(jobService, "clock", Clock.fixed(now, ZoneOffset.UTC));
+    ReflectionTestUtils.setField(jobService, "staleJobTimeout", 3600000L);
+    mockLocalize(ERROR_JOB_ABANDONED, "abandoned");
+
+    jobService.failStaleJobs();
+
+    verify(jobRepository).failStale(
+        ZonedDateTime.ofInstant(now, ZoneOffset.UTC).minusHours(1), "abandoned");
+  }
+
+  private void mockSave() {
+    when(authenticationHelper.getCurrentUser()).thenReturn(user);
+    when(jobRepository.save(any(BottomUpQuantificationJob.class))).thenAnswer(invocation -> {
+      BottomUpQuantificationJob job = invocation.getArgument(0);
+      job.setId(jobId);
+      return job;
+    });
+  }
+
+  private void mockExecutor() {
+    doAnswer(invocation -> {
+      Runnable task = invocation.getArgument(0);
+      task.run();
+      return null;
+    }).when(taskExecutor).execute(any(Runnable.class));
+  }
+
+  private void mockLocalize(String messageKey, String localized) {
+    Message message = new Message(messageKey);
+    when(messageService.localize(message)).thenReturn(message.new LocalizedMessage(localized));
+  }
+
+  private void mockFindJob(BottomUpQuantificationJobStatus status) {
+    BottomUpQuantificationJob job = BottomUpQuantificationJob.newInstance(
+        BottomUpQuantificationJobType.COST_CALCULATION, "{}", user.getId());
+    job.setId(jobId);
+    job.setStatus(status);
+    when(authenticationHelper.getCurrentUser()).thenReturn(user);
+    when(jobRepository.findById(jobId)).thenReturn(Optional.of(job));
+  }
+
+}
@@ -15,7 +15,6 @@
 
 package org.openlmis.buq.service.buq;
 
-import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.mockito.ArgumentMatchers.any;
@@ -23,17 +22,27 @@ import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.openlmis.buq.service.buq.BottomUpQuantificationService.APPROVE_BUQ_RIGHT_NAME;
 
+import com.google.common.collect.Sets;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import org.junit.Before;
 import org.junit.Test;
@@ -45,19 +54,31 @@ import org.mockito.MockitoAnnotations;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.openlmis.buq.ApproveFacilityForecastingStats;
 import org.openlmis.buq.builder.BottomUpQuantificationDataBuilder;
+import org.openlmis.buq.builder.BottomUpQuantificationFundingDetailsDataBuilder;
 import org.openlmis.buq.builder.BottomUpQuantificationLineItemDataBuilder;
+import org.openlmis.buq.builder.BottomUpQuantificationSourceOfFundDataBuilder;
 import org.openlmis.buq.builder.FacilityDtoDataBuilder;
 import org.openlmis.buq.builder.ProcessingPeriodDtoDataBuilder;
 import org.openlmis.buq.builder.ProgramDtoDataBuilder;
+import org.openlmis.buq.builder.RemarkDataBuilder;
+import org.openlmis.buq.builder.SourceOfFundDataBuilder;
 import org.openlmis.buq.builder.UserDtoDataBuilder;
 import org.openlmis.buq.domain.BaseEntity;
+import org.openlmis.buq.domain.Remark;
 import org.openlmis.buq.domain.buq.BottomUpQuantification;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationFundingDetails;
 import org.openlmis.buq.domain.buq.BottomUpQuantificationLineItem;
+import org.openlmis.buq.domain.buq.BottomUpQuantificationSourceOfFund;
 import org.openlmis.buq.domain.buq.BottomUpQuantificationStatus;
 import org.openlmis.buq.domain.buq.BottomUpQuantificationStatusChange;
 import org.openlmis.buq.domain.buq.Rejection;
+import org.openlmis.buq.domain.sourceoffund.SourceOfFund;
+import org.openlmis.buq.dto.buq.BottomUpQuantificationApprovalKeysProjection;
 import org.openlmis.buq.dto.buq.BottomUpQuantificationDto;
+import org.openlmis.buq.dto.buq.BottomUpQuantificationFundingDetailsDto;
 import org.openlmis.buq.dto.buq.BottomUpQuantificationLineItemDto;
+import org.openlmis.buq.dto.buq.BottomUpQuantificationPatchDto;
+import org.openlmis.buq.dto.buq.BottomUpQuantificationSourceOfFundDto;
 import org.openlmis.buq.dto.buq.RejectionDto;
 import org.openlmis.buq.dto.csv.BottomUpQuantificationLineItemCsv;
 import org.openlmis.buq.dto.referencedata.BasicOrderableDto;
@@ -67,15 +88,23 @@ import org.openlmis.buq.dto.referencedata.ProgramDto;
 import org.openlmis.buq.dto.referencedata.SupervisoryNodeDto;
 import org.openlmis.buq.dto.referencedata.SupportedProgramDto;
 import org.openlmis.buq.dto.referencedata.UserDto;
+import org.openlmis.buq.dto.remark.RemarkDto;
 import org.openlmis.buq.dto.requisition.RequisitionLineItemDataProjection;
+import org.openlmis.buq.exception.BindingResultException;
 import org.openlmis.buq.exception.ContentNotFoundMessageException;
 import org.openlmis.buq.exception.NotFoundException;
 import org.openlmis.buq.exception.ValidationMessageException;
+import org.openlmis.buq.i18n.MessageKeys;
+import org.openlmis.buq.repository.buq.BottomUpQuantificationFundingDetailsRepository;
 import org.openlmis.buq.repository.buq.BottomUpQuantificationLineItemRepository;
 import org.openlmis.buq.repository.buq.BottomUpQuantificationRepository;
+import org.openlmis.buq.repository.buq.BottomUpQuantificationSourceOfFundRepository;
 import org.openlmis.buq.repository.buq.BottomUpQuantificationStatusChangeRepository;
+import org.openlmis.buq.repository.sourceoffund.SourceOfFundRepository;
 import org.openlmis.buq.service.CsvService;
 import org.openlmis.buq.service.RequestParameters;
+import org.openlmis.buq.service.catalog.CatalogCache;
+import org.openlmis.buq.service.forecasting.ForecastingService;
 import org.openlmis.buq.service.referencedata.FacilityReferenceDataService;
 import org.openlmis.buq.service.referencedata.OrderableReferenceDataService;
 import org.openlmis.buq.service.referencedata.PeriodReferenceDataService;
@@ -86,7 +115,9 @@ import org.openlmis.buq.service.referencedata.UserReferenceDataService;
 import org.openlmis.buq.service.remark.RemarkService;
 import org.openlmis.buq.util.AuthenticationHelper;
 import org.openlmis.buq.util.FacilitySupportsProgramHelper;
+import org.openlmis.buq.util.Message;
 import org.openlmis.buq.validate.BottomUpQuantificationValidator;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.validation.Errors;
 
 @SuppressWarnings("PMD.TooManyMethods")
@@ -102,6 +133,9 @@ public class BottomUpQuantificationServiceTest {
   @Mock
   private FacilityReferenceDataService facilityReferenceDataService;
 
+  @Mock
+  private ForecastingService forecastingService;
+
   @Mock
   private FacilitySupportsProgramHelper facilitySupportsProgramHelper;
 
@@ -144,6 +178,25 @@ public class BottomUpQuantificationServiceTest {
   @Mock
   private BottomUpQuantificationLineItemRepository bottomUpQuantificationLineItemRepository;
 
+  @Mock
+  private BottomUpQuantificationSourceOfFundRepository bottomUpQuantificationSourceOfFundRepository;
+
+  @Mock
+  private BottomUpQuantificationFundingDetailsRepository
+      bottomUpQuantificationFundingDetailsRepository;
+
+  @Mock
+  private SourceOfFundRepository sourceOfFundRepository;
+
+  @Mock
+  private CatalogCache catalogCache;
+
+  @Mock
+  private PlatformTransactionManager transactionManager;
+
+  @Mock
+  private BottomUpQuantificationDtoBuilder bottomUpQuantificationDtoBuilder;
+
   public UUID facilityId = UUID.randomUUID();
   public UUID programId = UUID.randomUUID();
   public UUID processingPeriodId = UUID.randomUUID();
@@ -165,7 +218,7 @@ public class BottomUpQuantificationServiceTest {
     orderableDto.setId(UUID.randomUUID());
 
     RequisitionLineItemDataProjection reqItemData = createRequisitionLineItem(
-        orderableDto.getId().toString(),
+        orderableDto.getId(),
         100,
         10,
         2,
@@ -188,6 +241,9 @@ public class BottomUpQuantificationServiceTest {
         programId);
     doNothing().when(validator).validate(any(), any(Errors.class));
     when(bottomUpQuantificationRepository.save(any())).thenReturn(new BottomUpQuantification());
+    when(forecastingService.forecast(facilityId, processingPeriodId))
+        .thenReturn(Collections.singletonMap(orderableDto.getId(), 205L));
+    final Integer forecastedDemandInPacks = 21;
 
     BottomUpQuantification result = bottomUpQuantificationService.prepare(facilityId, programId,
         processingPeriodId);
@@ -208,9 +264,10 @@ public class BottomUpQuantificationServiceTest {
 
     BottomUpQuantificationLineItem resultLineItem = resultLineItems.get(0);
 
-    assertEquals(resultLineItem.getOrderableId().toString(), reqItemData.getOrderableId());
+    assertEquals(resultLineItem.getOrderableId(), reqItemData.getOrderableId());
     assertEquals(resultLineItem.getAnnualAdjustedConsumption(),
         requisitionAdjustedConsumptionInPacks);
+    assertEquals(forecastedDemandInPacks, resultLineItem.getForecastedDemand());
   }
 
   @Test(expected = ValidationMessageException.class)
@@ -265,6 +322,118 @@ public class BottomUpQuantificationServiceTest {
     assertEquals(bottomUpQuantification, result);
   }
 
+  @Test
+  public void shouldPatchOnlyChangedLineItems() {
+    BottomUpQuantification bottomUpQuantification = mockBottomUpQuantificationToPatch();
+    BottomUpQuantificationLineItem changedLineItem =
+        bottomUpQuantification.getBottomUpQuantificationLineItems().get(1);
+    BottomUpQuantificationLineItemDto lineItemDto =
+        BottomUpQuantificationLineItemDto.newInstance(changedLineItem);
+    lineItemDto.setVerifiedAnnualAdjustedConsumption(500);
+    lineItemDto.setRemark((RemarkDto) null);
+
+    bottomUpQuantificationService.patch(new BottomUpQuantificationPatchDto(
+        Collections.singletonList(lineItemDto), null), bottomUpQuantification.getId());
+
+    assertEquals(Integer.valueOf(500), changedLineItem.getVerifiedAnnualAdjustedConsumption());
+    verify(bottomUpQuantificationLineItemRepository)
+        .saveAll(Collections.singletonList(changedLineItem));
+    verify(orderableReferenceDataService, never()).findAll(any(RequestParameters.class));
+    verify(remarkService, never()).findAllById(any());
+  }
+
+  @Test
+  public void shouldResolveRemarksOfAllPatchedLineItemsAtOnce() {
+    BottomUpQuantification bottomUpQuantification = mockBottomUpQuantificationToPatch();
+    List<BottomUpQuantificationLineItem> lineItems =
+        bottomUpQuantification.getBottomUpQuantificationLineItems();
+    Remark firstRemark = new RemarkDataBuilder().build();
+    Remark secondRemark = new RemarkDataBuilder().build();
+    BottomUpQuantificationLineItemDto firstDto =
+        BottomUpQuantificationLineItemDto.newInstance(lineItems.get(0));
+    firstDto.setRemark(firstRemark);
+    BottomUpQuantificationLineItemDto secondDto =
+        BottomUpQuantificationLineItemDto.newInstance(lineItems.get(1));
+    secondDto.setRemark(secondRemark);
+    BottomUpQuantificationLineItemDto thirdDto =
+        BottomUpQuantificationLineItemDto.newInstance(lineItems.get(2));
+    thirdDto.setRemark(firstRemark);
+    when(remarkService.findAllById(
+        Sets.newHashSet(firstRemark.getId(), secondRemark.getId())))
+        .thenReturn(Arrays.asList(firstRemark, secondRemark));
+
+    bottomUpQuantificationService.patch(new BottomUpQuantificationPatchDto(
+        Arrays.asList(firstDto, secondDto, thirdDto), null), bottomUpQuantification.getId());
+
+    assertEquals(firstRemark, lineItems.get(0).getRemark());
+    assertEquals(secondRemark, lineItems.get(1).getRemark());
+    assertEquals(firstRemark, lineItems.get(2).getRemark());
+    verify(remarkService, never()).findOne(any(UUID.class));
+  }
+
+  @Test
+  public void shouldResolveSourcesOfFundsAtOnce() {
+    BottomUpQuantification bottomUpQuantification = mockBottomUpQuantificationToPatch();
+    SourceOfFund firstSource = new SourceOfFundDataBuilder().build();
+    SourceOfFund secondSource = new SourceOfFundDataBuilder().build();
+    final BottomUpQuantificationFundingDetailsDto fundingDetailsDto =
+        mockFundingDetailsToPatch(bottomUpQuantification, firstSource, secondSource);
+    mockSourcesOfFunds(firstSource, secondSource);
+    when(bottomUpQuantificationSourceOfFundRepository.saveAll(any()))
+        .thenAnswer(invocation -> invocation.getArgument(0));
+    when(bottomUpQuantificationFundingDetailsRepository
+        .save(any(BottomUpQuantificationFundingDetails.class)))
+        .thenAnswer(invocation -> invocation.getArgument(0));
+
+    bottomUpQuantificationService.patch(new BottomUpQuantificationPatchDto(
+        Collections.emptyList(), fundingDetailsDto), bottomUpQuantification.getId());
+
+    List<BottomUpQuantificationSourceOfFund> sourcesOfFunds =
+        bottomUpQuantification.getFundingDetails().getSourcesOfFunds();
+    assertEquals(2, sourcesOfFunds.size());
+    assertEquals(firstSource, sourcesOfFunds.get(0).getSourceOfFund());
+    assertEquals(secondSource, sourcesOfFunds.get(1).getSourceOfFund());
+    verify(sourceOfFundRepository, never()).findById(any(UUID.class));
+    verify(sourceOfFundRepository, never()).findAllById(any());
+  }
+
+  @Test(expected = ContentNotFoundMessageException.class)
+  public void shouldNotPatchFundingDetailsWithNonExistentSourceOfFund() {
+    BottomUpQuantification bottomUpQuantification = mockBottomUpQuantificationToPatch();
+    SourceOfFund firstSource = new SourceOfFundDataBuilder().build();
+    SourceOfFund secondSource = new SourceOfFundDataBuilder().build();
+    BottomUpQuantificationFundingDetailsDto fundingDetailsDto =
+        mockFundingDetailsToPatch(bottomUpQuantification, firstSource, secondSource);
+    mockSourcesOfFunds(firstSource);
+
+    bottomUpQuantificationService.patch(new BottomUpQuantificationPatchDto(
+        Collections.emptyList(), fundingDetailsDto), bottomUpQuantification.getId());
+  }
+
+  @Test(expected = ContentNotFoundMessageException.class)
+  public void shouldNotPatchLineItemWithNonExistentOrderable() {
+    BottomUpQuantification bottomUpQuantification = mockBottomUpQuantificationToPatch();
+    BottomUpQuantificationLineItemDto lineItemDto = BottomUpQuantificationLineItemDto
+        .newInstance(bottomUpQuantification.getBottomUpQuantificationLineItems().get(0));
+    lineItemDto.setOrderableId(UUID.randomUUID());
+    lineItemDto.setRemark((RemarkDto) null);
+    when(orderableReferenceDataService.findAll(any(RequestParameters.class)))
+        .thenReturn(Collections.emptyList());
+
+    bottomUpQuantificationService.patch(new BottomUpQuantificationPatchDto(
+        Collections.singletonList(lineItemDto), null), bottomUpQuantification.getId());
+  }
+
+  @Test(expected = ValidationMessageException.class)
+  public void shouldNotPatchLineItemOfOtherBottomUpQuantification() {
+    BottomUpQuantification bottomUpQuantification = mockBottomUpQuantificationToPatch();
+    BottomUpQuantificationLineItemDto lineItemDto = BottomUpQuantificationLineItemDto
+        .newInstance(new BottomUpQuantificationLineItemDataBuilder().build());
+
+    bottomUpQuantificationService.patch(new BottomUpQuantificationPatchDto(
+        Collections.singletonList(lineItemDto), null), bottomUpQuantification.getId());
+  }
+
   @Test(expected = ValidationMessageException.class)
   public void shouldNotSaveBottomUpQuantificationWithInvalidId() {
     BottomUpQuantificationDto bottomUpQuantificationDto = new BottomUpQuantificationDto();
@@ -285,7 +454,7 @@ public class BottomUpQuantificationServiceTest {
     mockUserHomeFacilityPermission(bottomUpQuantificationDto);
     BottomUpQuantificationLineItem lineItem =
         new BottomUpQuantificationLineItemDataBuilder().build();
-    when(remarkService.findOne(lineItem.getRemark().getId()))
+    when(remarkService.findAllById(Collections.singleton(lineItem.getRemark().getId())))
         .thenThrow(NotFoundException.class);
     BottomUpQuantificationLineItemDto lineItemDto = BottomUpQuantificationLineItemDto
         .newInstance(lineItem);
@@ -324,11 +493,6 @@ public class BottomUpQuantificationServiceTest {
         Collections.singletonList(lineItemDto)
     );
 
-    BottomUpQuantification bottomUpQuantification = new BottomUpQuantification();
-    bottomUpQuantification.setBottomUpQuantificationLineItems(new ArrayList<>());
-    when(bottomUpQuantificationRepository.findById(bottomUpQuantificationId))
-        .thenReturn(Optional.of(bottomUpQuantification));
-
     bottomUpQuantificationService.save(bottomUpQuantificationDto, bottomUpQuantificationId);
   }
 
@@ -354,25 +518,101 @@ public class BottomUpQuantificationServiceTest {
   }
 
   @Test
-  public void shouldReturnArrayOfBytes() throws IOException {
+  public void shouldWritePreparationFormDataWithOrderablesRetrievedAtOnce() throws IOException {
     BottomUpQuantificationLineItem lineItem = new BottomUpQuantificationLineItemDataBuilder()
         .build();
     BottomUpQuantification bottomUpQuantification = new BottomUpQuantificationDataBuilder()
         .withLineItems(Collections.singletonList(lineItem)).build();
-    when(orderableReferenceDataService.findOne(any(UUID.class))).thenReturn(
-        new BasicOrderableDto(lineItem.getOrderableId(), "test-code", "test-full-name",
-            0, 0, false, null));
-    final String resultBytes = "result-bytes";
-    when(csvService.generateCsv(any(), eq(BottomUpQuantificationLineItemCsv.class)))
-        .thenReturn(resultBytes.getBytes());
+    when(orderableReferenceDataService.findAll(any(RequestParameters.class))).thenReturn(
+        Collections.singletonList(new BasicOrderableDto(lineItem.getOrderableId(),
+            "test-code", "test-full-name", 0, 0, false, null)));
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+    bottomUpQuantificationService.getPreparationFormData(bottomUpQuantification)
+        .writeTo(outputStream);
+
+    verify(csvService).writeCsv(any(), eq(BottomUpQuantificationLineItemCsv.class),
+        eq(outputStream));
+    verify(orderableReferenceDataService, never()).findOne(any(UUID.class));
+  }
+
+  @Test(expected = ContentNotFoundMessageException.class)
+  public void shouldNotWritePreparationFormDataIfOrderableDoesNotExist() {
+    BottomUpQuantificationLineItem lineItem = new BottomUpQuantificationLineItemDataBuilder()
+        .build();
+    BottomUpQuantification bottomUpQuantification = new BottomUpQuantificationDataBuilder()
+        .withLineItems(Collections.singletonList(lineItem)).build();
+    when(orderableReferenceDataService.findAll(any(RequestParameters.class)))
+        .thenReturn(Collections.emptyList());
+
+    bottomUpQuantificationService.getPreparationFormData(bottomUpQuantification);
+  }
+
+  @Test
+  public void shouldUploadPreparationFormDataSavingItLikeAnUpdate() throws IOException {
+    BottomUpQuantification bottomUpQuantification = mockBottomUpQuantificationToUpload();
+    List<UUID> lineItemIds = bottomUpQuantification.getBottomUpQuantificationLineItems()
+        .stream()
+        .map(BottomUpQuantificationLineItem::getId)
+        .collect(Collectors.toList());
+
+    BottomUpQuantification result = bottomUpQuantificationService
+        .uploadPreparationFormData(bottomUpQuantification.getId(),
+            toCsv("\"Product Code\",\"Adjusted Consumption (in Packs)\"\n"
+                + "code-2,300\n"
+                + "code-0,100\n"));
+
+    List<BottomUpQuantificationLineItem> lineItems = result.getBottomUpQuantificationLineItems();
+    assertEquals(lineItemIds, lineItems
+        .stream()
+        .map(BottomUpQuantificationLineItem::getId)
+        .collect(Collectors.toList()));
+    assertEquals(Integer.valueOf(100), lineItems.get(0).getAnnualAdjustedConsumption());
+    assertEquals(Integer.valueOf(300), lineItems.get(2).getAnnualAdjustedConsumption());
+    assertNotNull(result.getModifiedDate());
+    verify(validator).validateUploadedAnnualAdjustedConsumptions(any(), any(Errors.class));
+    verify(bottomUpQuantificationLineItemRepository).saveAll(lineItems);
+    verify(orderableReferenceDataService, times(2)).findAll(any(RequestParameters.class));
+  }
+
+  @Test
+  public void shouldNotUploadPreparationFormDataWithUnknownOrDuplicatedProductCodes()
+      throws IOException {
+    BottomUpQuantification bottomUpQuantification = mockBottomUpQuantificationToUpload();
+    BindingResultException exception = null;
+
+    try {
+      bottomUpQuantificationService.uploadPreparationFormData(bottomUpQuantification.getId(),
+          toCsv("\"Product Code\",\"Adjusted Consumption (in Packs)\"\n"
+              + "code-0,10\n"
+              + "unknown-code,20\n"
+              + "code-0,30\n"));
+    } catch (BindingResultException ex) {
+      exception = ex;
+    }
+
+    assertNotNull(exception);
+    assertEquals(new Message(MessageKeys.ERROR_UPLOAD_PRODUCT_CODE_NOT_FOUND, "unknown-code"),
+        exception.getErrors().get("row3"));
+    assertEquals(new Message(MessageKeys.ERROR_UPLOAD_PRODUCT_CODE_DUPLICATED, "code-0"),
+        exception.getErrors().get("row4"));
+    assertEquals(Integer.valueOf(100), bottomUpQuantification
+        .getBottomUpQuantificationLineItems().get(0).getAnnualAdjustedConsumption());
+    verify(bottomUpQuantificationLineItemRepository, never()).saveAll(any());
+  }
 
-    byte[] result = bottomUpQuantificationService.getPreparationFormData(bottomUpQuantification);
+  @Test(expected = ValidationMessageException.class)
+  public void shouldNotUploadPreparationFormDataWithInvalidValues() throws IOException {
+    BottomUpQuantification bottomUpQuantification = mockBottomUpQuantificationToUpload();
 
-    assertArrayEquals(resultBytes.getBytes(), result);
+    bottomUpQuantificationService.uploadPreparationFormData(bottomUpQuantification.getId(),
+        toCsv("\"Product Code\",\"Adjusted Consumption (in Packs)\"\n"
+            + "code-0,not-a-number\n"));
   }
 
   @Test
   public void shouldAuthorizeBottomUpQuantification() {
+    mockBuildDto();
     UUID bottomUpQuantificationId = UUID.randomUUID();
     BottomUpQuantification bottomUpQuantification = new BottomUpQuantificationDataBuilder()
         .withId(bottomUpQuantificationId).build();
@@ -381,6 +621,7 @@ public class BottomUpQuantificationServiceTest {
     mockUserHomeFacilityPermission(bottomUpQuantificationDto);
     doNothing().when(validator).validateCanBeAuthorized(bottomUpQuantificationDto,
         bottomUpQuantificationId);
+    mockApprovalKeys(bottomUpQuantification);
     mockUpdateBottomUpQuantification(bottomUpQuantificationId, bottomUpQuantification);
     when(bottomUpQuantificationLineItemRepository
             .saveAll(bottomUpQuantification.getBottomUpQuantificationLineItems()))
@@ -392,15 +633,48 @@ public class BottomUpQuantificationServiceTest {
             .save(any(BottomUpQuantificationStatusChange.class)))
             .thenReturn(statusChange);
 
-    BottomUpQuantification result = bottomUpQuantificationService
+    BottomUpQuantificationDto result = bottomUpQuantificationService
         .authorize(bottomUpQuantificationDto, bottomUpQuantificationId);
-    List<BottomUpQuantificationStatusChange> resultStatusChanges = result.getStatusChanges();
+    List<BottomUpQuantificationStatusChange> resultStatusChanges =
+        bottomUpQuantification.getStatusChanges();
 
     assertNotNull(result);
-    assertEquals(bottomUpQuantification, result);
+    assertEquals(bottomUpQuantificationId, result.getId());
     assertEquals(BottomUpQuantificationStatus.AUTHORIZED,
         resultStatusChanges.get(resultStatusChanges.size() - 1).getStatus());
     assertEquals(BottomUpQuantificationStatus.AUTHORIZED, result.getStatus());
+    verify(authenticationHelper).getCurrentUser();
+    verify(supervisoryNodeReferenceDataService, never()).findSupervisoryNode(any(), any());
+  }
+
+  @Test
+  public void shouldAssignInitialSupervisoryNodeWhenAuthorizingBottomUpQuantification() {
+    mockBuildDto();
+    UUID bottomUpQuantificationId = UUID.randomUUID();
+    BottomUpQuantification bottomUpQuantification = new BottomUpQuantificationDataBuilder()
+        .withId(bottomUpQuantificationId)
+        .withSupervisoryNodeId(null)
+        .build();
+    BottomUpQuantificationDto bottomUpQuantificationDto = BottomUpQuantificationDto
+        .newInstance(bottomUpQuantification);
+    mockUserHomeFacilityPermission(bottomUpQuantificationDto);
+    mockApprovalKeys(bottomUpQuantification);
+    SupervisoryNodeDto supervisoryNode = new SupervisoryNodeDto();
+    supervisoryNode.setId(UUID.randomUUID());
+    when(supervisoryNodeReferenceDataService.findSupervisoryNode(
+        bottomUpQuantification.getProgramId(), bottomUpQuantification.getFacilityId()))
+        .thenReturn(supervisoryNode);
+    mockUpdateBottomUpQuantification(bottomUpQuantificationId, bottomUpQuantification);
+    when(bottomUpQuantificationStatusChangeRepository
+        .save(any(BottomUpQuantificationStatusChange.class)))
+        .thenReturn(new BottomUpQuantificationStatusChange());
+
+    BottomUpQuantificationDto result = bottomUpQuantificationService
+        .authorize(bottomUpQuantificationDto, bottomUpQuantificationId);
+
+    assertEquals(supervisoryNode.getId(), result.getSupervisoryNodeId());
+    verify(supervisoryNodeReferenceDataService).findSupervisoryNode(
+        bottomUpQuantification.getProgramId(), bottomUpQuantification.getFacilityId());
   }
 
   @Test
@@ -462,6 +736,7 @@ public class BottomUpQuantificationServiceTest {
     mockUserHomeFacilityPermission(bottomUpQuantificationDto);
     doNothing().when(validator).validateCanBeAuthorized(bottomUpQuantificationDto,
         bottomUpQuantificationId);
+    mockApprovalKeys(bottomUpQuantification);
     mockUpdateBottomUpQuantification(bottomUpQuantificationId, bottomUpQuantification);
     when(bottomUpQuantificationLineItemRepository
         .saveAll(bottomUpQuantification.getBottomUpQuantificationLineItems()))
@@ -509,6 +784,7 @@ public class BottomUpQuantificationServiceTest {
 
   @Test
   public void shouldApproveBottomUpQuantification() {
+    mockBuildDto();
     UUID bottomUpQuantificationId = UUID.randomUUID();
     BottomUpQuantification bottomUpQuantification = new BottomUpQuantificationDataBuilder()
         .withId(bottomUpQuantificationId).build();
@@ -519,31 +795,61 @@ public class BottomUpQuantificationServiceTest {
     mockUserHomeFacilityPermission(bottomUpQuantificationDto);
     doNothing().when(validator).validateCanBeApproved(bottomUpQuantificationDto,
         bottomUpQuantificationId);
-    BottomUpQuantification buq = new BottomUpQuantification();
-    buq.setStatus(BottomUpQuantificationStatus.DRAFT);
     when(bottomUpQuantificationLineItemRepository.saveAll(any()))
             .thenReturn(new ArrayList<>());
-    Mockito.lenient().when(supervisoryNodeReferenceDataService
-            .findSupervisoryNode(buq.getProgramId(), buq.getFacilityId()))
-            .thenReturn(new SupervisoryNodeDto());
-    ProcessingPeriodDto processingPeriodDto = new ProcessingPeriodDto();
-    processingPeriodDto.setId(any(UUID.class));
-    when(periodReferenceDataService.findOne(buq.getProcessingPeriodId()))
-            .thenReturn(processingPeriodDto);
-    when(supplyLineReferenceDataService.search(any(UUID.class), any(UUID.class)))
+    mockApprovalKeys(bottomUpQuantification);
+    SupervisoryNodeDto supervisoryNode = new SupervisoryNodeDto();
+    supervisoryNode.setId(bottomUpQuantification.getSupervisoryNodeId());
+    when(supervisoryNodeReferenceDataService.findByIds(
+        Collections.singleton(bottomUpQuantification.getSupervisoryNodeId())))
+            .thenReturn(Collections.singletonList(supervisoryNode));
+    ProcessingPeriodDto processingPeriodDto = new ProcessingPeriodDtoDataBuilder()
+        .withId(bottomUpQuantification.getProcessingPeriodId()).buildAsDto();
+    when(periodReferenceDataService.search(
+        Collections.singleton(bottomUpQuantification.getProcessingPeriodId())))
+            .thenReturn(Collections.singletonList(processingPeriodDto));
+    when(supplyLineReferenceDataService.search(bottomUpQuantification.getProgramId(),
+        bottomUpQuantification.getSupervisoryNodeId()))
             .thenReturn(Collections.emptyList());
 
     mockUpdateBottomUpQuantification(bottomUpQuantificationId, bottomUpQuantification);
 
-    BottomUpQuantification result = bottomUpQuantificationService
+    BottomUpQuantificationDto result = bottomUpQuantificationService
         .approve(bottomUpQuantificationDto, bottomUpQuantificationId);
-    List<BottomUpQuantificationStatusChange> resultStatusChanges = result.getStatusChanges();
+    List<BottomUpQuantificationStatusChange> resultStatusChanges =
+        bottomUpQuantification.getStatusChanges();
 
     assertNotNull(result);
-    assertEquals(bottomUpQuantification, result);
+    assertEquals(bottomUpQuantificationId, result.getId());
     assertEquals(BottomUpQuantificationStatus.APPROVED,
         resultStatusChanges.get(resultStatusChanges.size() - 1).getStatus());
     assertEquals(BottomUpQuantificationStatus.APPROVED, result.getStatus());
+    verify(periodReferenceDataService, never()).findOne(any(UUID.class));
+    verify(supervisoryNodeReferenceDataService, never()).findOne(any(UUID.class));
+  }
+
+  @Test
+  public void shouldFinalApproveBottomUpQuantifications() {
+    mockBuildDto();
+    BottomUpQuantification first = new BottomUpQuantificationDataBuilder().build();
+    BottomUpQuantification second = new BottomUpQuantificationDataBuilder().build();
+    UserDto user = new UserDtoDataBuilder().buildAsDto();
+    when(authenticationHelper.getCurrentUser()).thenReturn(user);
+    mockUpdateBottomUpQuantification(first.getId(), first);
+    mockUpdateBottomUpQuantification(second.getId(), second);
+    when(bottomUpQuantificationStatusChangeRepository
+        .save(any(BottomUpQuantificationStatusChange.class)))
+        .thenAnswer(invocation -> invocation.getArgument(0));
+
+    List<BottomUpQuantificationDto> result = bottomUpQuantificationService
+        .finalApproveBottomUpQuantification(Arrays.asList(first.getId(), second.getId()));
+
+    assertEquals(2, result.size());
+    assertEquals(BottomUpQuantificationStatus.APPROVED_BY_NQT, result.get(0).getStatus());
+    assertEquals(BottomUpQuantificationStatus.APPROVED_BY_NQT, result.get(1).getStatus());
+    assertEquals(user.getId(), second.getStatusChanges()
+        .get(second.getStatusChanges().size() - 1).getAuthorId());
+    verify(authenticationHelper).getCurrentUser();
   }
 
   @Test(expected = ValidationMessageException.class)
@@ -580,14 +886,11 @@ public class BottomUpQuantificationServiceTest {
     );
     when(userReferenceDataService.getPermissionStrings(user.getId()))
         .thenReturn(permissionStrings);
-    List<BottomUpQuantification> bottomUpQuantifications = Arrays.asList(
-        new BottomUpQuantificationDataBuilder()
-            .withStatus(BottomUpQuantificationStatus.DRAFT).buildAsNew(),
-        new BottomUpQuantificationDataBuilder()
-            .withStatus(BottomUpQuantificationStatus.SUBMITTED).buildAsNew()
-    );
-    when(bottomUpQuantificationRepository.findByFacilityIdIn(any()))
-        .thenReturn(bottomUpQuantifications);
+    Map<BottomUpQuantificationStatus, Long> statusCounts = new HashMap<>();
+    statusCounts.put(BottomUpQuantificationStatus.DRAFT, 1L);
+    statusCounts.put(BottomUpQuantificationStatus.SUBMITTED, 1L);
+    when(bottomUpQuantificationRepository.countByStatus(any(), eq(programId), eq(null)))
+        .thenReturn(statusCounts);
 
     ApproveFacilityForecastingStats result =
         bottomUpQuantificationService.getApproveFacilityForecastingStats(programId);
@@ -597,14 +900,37 @@ public class BottomUpQuantificationServiceTest {
     assertEquals(50, result.getPercentageSubmitted());
   }
 
+  @Test
+  public void shouldReturnApproveFacilityForecastingStatsForGivenProcessingPeriod() {
+    UserDto user = new UserDtoDataBuilder().buildAsDto();
+    when(authenticationHelper.getCurrentUser()).thenReturn(user);
+    when(userReferenceDataService.getPermissionStrings(user.getId()))
+        .thenReturn(Collections.singletonList(
+            APPROVE_BUQ_RIGHT_NAME + "|" + user.getHomeFacilityId() + "|" + programId));
+    Map<BottomUpQuantificationStatus, Long> statusCounts = new HashMap<>();
+    statusCounts.put(BottomUpQuantificationStatus.DRAFT, 1L);
+    statusCounts.put(BottomUpQuantificationStatus.AUTHORIZED, 2L);
+    statusCounts.put(BottomUpQuantificationStatus.APPROVED, 1L);
+    when(bottomUpQuantificationRepository.countByStatus(
+        Collections.singleton(user.getHomeFacilityId()), programId, processingPeriodId))
+        .thenReturn(statusCounts);
+
+    ApproveFacilityForecastingStats result = bottomUpQuantificationService
+        .getApproveFacilityForecastingStats(programId, processingPeriodId);
+
+    assertEquals(1, result.getTotalFacilities());
+    assertEquals(3, result.getTotalSubmitted());
+    assertEquals(75, result.getPercentageSubmitted());
+  }
+
   @Test
   public void shouldReturnApproveFacilityForecastingStatsWithZeroValues() {
     UserDto user = new UserDtoDataBuilder().buildAsDto();
     when(authenticationHelper.getCurrentUser()).thenReturn(user);
     when(userReferenceDataService.getPermissionStrings(user.getId()))
         .thenReturn(Collections.emptyList());
-    when(bottomUpQuantificationRepository.findByFacilityIdIn(any()))
-        .thenReturn(Collections.emptyList());
+    when(bottomUpQuantificationRepository.countByStatus(any(), any(), any()))
+        .thenReturn(Collections.emptyMap());
 
     ApproveFacilityForecastingStats result =
         bottomUpQuantificationService.getApproveFacilityForecastingStats(programId);
@@ -614,6 +940,28 @@ public class BottomUpQuantificationServiceTest {
     assertEquals(0, result.getPercentageSubmitted());
   }
 
+  private void mockBuildDto() {
+    when(bottomUpQuantificationDtoBuilder.buildDto(any(BottomUpQuantification.class)))
+        .thenAnswer(invocation -> BottomUpQuantificationDto.newInstance(
+            invocation.getArgument(0)));
+  }
+
+  private void mockApprovalKeys(BottomUpQuantification bottomUpQuantification) {
+    BottomUpQuantificationApprovalKeysProjection key =
+        mock(BottomUpQuantificationApprovalKeysProjection.class);
+    Mockito.lenient().when(key.getId()).thenReturn(bottomUpQuantification.getId());
+    Mockito.lenient().when(key.getProgramId()).thenReturn(bottomUpQuantification.getProgramId());
+    Mockito.lenient().when(key.getFacilityId())
+        .thenReturn(bottomUpQuantification.getFacilityId());
+    Mockito.lenient().when(key.getProcessingPeriodId())
+        .thenReturn(bottomUpQuantification.getProcessingPeriodId());
+    Mockito.lenient().when(key.getSupervisoryNodeId())
+        .thenReturn(bottomUpQuantification.getSupervisoryNodeId());
+    when(bottomUpQuantificationRepository
+        .findApprovalKeysByIdIn(Collections.singleton(bottomUpQuantification.getId())))
+        .thenReturn(Collections.singletonList(key));
+  }
+
   private void mockUpdateBottomUpQuantification(UUID bottomUpQuantificationId,
       BottomUpQuantification bottomUpQuantification) {
     when(bottomUpQuantificationRepository.findById(bottomUpQuantificationId))
@@ -621,7 +969,7 @@ public class BottomUpQuantificationServiceTest {
   }
 
   private RequisitionLineItemDataProjection createRequisitionLineItem(
-      String orderableId,
+      UUID orderableId,
       Integer adjustedConsumption,
       Integer netContent,
       Integer packRoundingThreshold,
@@ -635,6 +983,72 @@ public class BottomUpQuantificationServiceTest {
     return lineItem;
   }
 
+  private BottomUpQuantification mockBottomUpQuantificationToPatch() {
+    BottomUpQuantification bottomUpQuantification = new BottomUpQuantificationDataBuilder()
+        .addLineItem(new BottomUpQuantificationLineItemDataBuilder().build())
+        .addLineItem(new BottomUpQuantificationLineItemDataBuilder().build())
+        .addLineItem(new BottomUpQuantificationLineItemDataBuilder().build())
+        .build();
+    mockUpdateBottomUpQuantification(bottomUpQuantification.getId(), bottomUpQuantification);
+    UserDto user = new UserDtoDataBuilder()
+        .withHomeFacilityId(bottomUpQuantification.getFacilityId())
+        .buildAsDto();
+    when(authenticationHelper.getCurrentUser()).thenReturn(user);
+
+    return bottomUpQuantification;
+  }
+
+  private BottomUpQuantification mockBottomUpQuantificationToUpload() throws IOException {
+    BottomUpQuantification bottomUpQuantification = mockBottomUpQuantificationToPatch();
+    List<BasicOrderableDto> orderables = new ArrayList<>();
+    List<BottomUpQuantificationLineItem> lineItems =
+        bottomUpQuantification.getBottomUpQuantificationLineItems();
+    for (int i = 0; i < lineItems.size(); i++) {
+      orderables.add(new BasicOrderableDto(lineItems.get(i).getOrderableId(), "code-" + i,
+          "name-" + i, 0, 0, false, null));
+    }
+    when(orderableReferenceDataService.findAll(any(RequestParameters.class)))
+        .thenReturn(orderables);
+    CsvService realCsvService = new CsvService();
+    when(csvService.readCsv(any(InputStream.class), eq(BottomUpQuantificationLineItemCsv.class)))
+        .thenAnswer(invocation -> realCsvService.readCsv(invocation.getArgument(0),
+            BottomUpQuantificationLineItemCsv.class));
+
+    return bottomUpQuantification;
+  }
+
+  private InputStream toCsv(String content) {
+    return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private BottomUpQuantificationFundingDetailsDto mockFundingDetailsToPatch(
+      BottomUpQuantification bottomUpQuantification, SourceOfFund... sources) {
+    BottomUpQuantificationFundingDetails fundingDetails =
+        new BottomUpQuantificationFundingDetailsDataBuilder().build();
+    bottomUpQuantification.setFundingDetails(fundingDetails);
+
+    BottomUpQuantificationFundingDetailsDto fundingDetailsDto =
+        BottomUpQuantificationFundingDetailsDto.newInstance(fundingDetails);
+    List<BottomUpQuantificationSourceOfFundDto> sourcesOfFundsDtos = new ArrayList<>();
+    for (SourceOfFund source : sources) {
+      sourcesOfFundsDtos.add(BottomUpQuantificationSourceOfFundDto.newInstance(
+          new BottomUpQuantificationSourceOfFundDataBuilder()
+              .withFundingDetails(fundingDetails)
+              .withSourceOfFund(source)
+              .build()));
+    }
+    fundingDetailsDto.setSourcesOfFunds(sourcesOfFundsDtos);
+
+    return fundingDetailsDto;
+  }
+
+  private void mockSourcesOfFunds(SourceOfFund... sources) {
+    Map<UUID, SourceOfFund> sourcesById = Arrays.stream(sources)
+        .collect(Collectors.toMap(SourceOfFund::getId, Function.identity()));
+    when(catalogCache.<SourceOfFund>get(eq(CatalogCache.SOURCES_OF_FUNDS), any()))
+        .thenReturn(sourcesById);
+  }
+
   private void mockUserHomeFacilityPermission(
       BottomUpQuantificationDto bottomUpQuantificationDto) {
     UserDto user = new UserDtoDataBuilder().withHomeFacilityId(
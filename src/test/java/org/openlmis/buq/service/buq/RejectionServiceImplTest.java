@@ -0,0 +1,118 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.service.buq;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openlmis.buq.domain.buq.Rejection;
+import org.openlmis.buq.dto.buq.BottomUpQuantificationRejectionProjection;
+import org.openlmis.buq.exception.NotFoundException;
+import org.openlmis.buq.repository.buq.RejectionRepository;
+
+@RunWith(MockitoJUnitRunner.class)
+public class RejectionServiceImplTest {
+
+  @Mock
+  private RejectionRepository rejectionRepository;
+
+  @Mock
+  private BottomUpQuantificationService bottomUpQuantificationService;
+
+  @InjectMocks
+  private RejectionServiceImpl rejectionService;
+
+  private final UUID bottomUpQuantificationId = UUID.randomUUID();
+  private final Rejection rejection = new Rejection();
+
+  @Test
+  public void shouldReturnLatestRejectionsByBottomUpQuantificationId() {
+    UUID otherId = UUID.randomUUID();
+    Rejection otherRejection = new Rejection();
+    when(rejectionRepository.findLatestByBottomUpQuantificationIdIn(
+        Arrays.asList(bottomUpQuantificationId, otherId)))
+        .thenReturn(Arrays.asList(
+            projection(bottomUpQuantificationId, rejection),
+            projection(bottomUpQuantificationId, rejection),
+            projection(otherId, otherRejection)));
+
+    Map<UUID, Rejection> latestRejections = rejectionService
+        .getLatestRejections(Arrays.asList(bottomUpQuantificationId, otherId));
+
+    assertEquals(2, latestRejections.size());
+    assertSame(rejection, latestRejections.get(bottomUpQuantificationId));
+    assertSame(otherRejection, latestRejections.get(otherId));
+  }
+
+  @Test
+  public void shouldNotQueryLatestRejectionsOfNoBottomUpQuantifications() {
+    Map<UUID, Rejection> latestRejections = rejectionService
+        .getLatestRejections(Collections.emptyList());
+
+    assertTrue(latestRejections.isEmpty());
+    verify(rejectionRepository, never()).findLatestByBottomUpQuantificationIdIn(any());
+  }
+
+  @Test
+  public void shouldReturnLatestRejection() {
+    when(rejectionRepository.findLatestByBottomUpQuantificationIdIn(
+        Collections.singleton(bottomUpQuantificationId)))
+        .thenReturn(Collections.singletonList(projection(bottomUpQuantificationId, rejection)));
+
+    Rejection latestRejection = rejectionService.getLatestRejection(bottomUpQuantificationId);
+
+    assertSame(rejection, latestRejection);
+    verify(bottomUpQuantificationService, never()).findBottomUpQuantification(any());
+  }
+
+  @Test(expected = NotFoundException.class)
+  public void shouldThrowExceptionIfBottomUpQuantificationWasNeverRejected() {
+    when(rejectionRepository.findLatestByBottomUpQuantificationIdIn(
+        Collections.singleton(bottomUpQuantificationId)))
+        .thenReturn(Collections.emptyList());
+
+    rejectionService.getLatestRejection(bottomUpQuantificationId);
+  }
+
+  private BottomUpQuantificationRejectionProjection projection(UUID id, Rejection rejection) {
+    return new BottomUpQuantificationRejectionProjection() {
+      @Override
+      public UUID getBottomUpQuantificationId() {
+        return id;
+      }
+
+      @Override
+      public Rejection getRejection() {
+        return rejection;
+      }
+    };
+  }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.service.buq;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.openlmis.buq.service.buq.RequisitionConsumptionFactService.COUNT_AFFECTED_PAIRS;
+import static org.openlmis.buq.service.buq.RequisitionConsumptionFactService.DELETE_FACTS;
+import static org.openlmis.buq.service.buq.RequisitionConsumptionFactService.INSERT_FACTS;
+import static org.openlmis.buq.service.buq.RequisitionConsumptionFactService.SELECT_LAST_MODIFIED_DATE;
+import static org.openlmis.buq.service.buq.RequisitionConsumptionFactService.SELECT_MAX_REQUISITION_MODIFIED_DATE;
+import static org.openlmis.buq.service.buq.RequisitionConsumptionFactService.UPDATE_LAST_MODIFIED_DATE;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openlmis.buq.service.forecasting.ForecastingService;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class RequisitionConsumptionFactServiceTest {
+
+  private static final long OVERLAP = 3600000L;
+
+  @Mock
+  private NamedParameterJdbcTemplate jdbcTemplate;
+
+  @Mock
+  private ForecastingService forecastingService;
+
+  @InjectMocks
+  private RequisitionConsumptionFactService requisitionConsumptionFactService;
+
+  private final Timestamp lastRefresh = Timestamp.from(Instant.parse("2026-01-01T00:00:00Z"));
+  private final Timestamp lastModification =
+      Timestamp.from(Instant.parse("2026-02-01T00:00:00Z"));
+
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(requisitionConsumptionFactService, "refreshOverlap", OVERLAP);
+  }
+
+  @Test
+  public void shouldRefreshPairsModifiedSinceLastRefreshLessOverlap() {
+    mockModifiedDates(lastRefresh, lastModification);
+    mockAffectedPairs(3L);
+    ArgumentCaptor<String> sqlCaptor = ArgumentCaptor.forClass(String.class);
+    ArgumentCaptor<MapSqlParameterSource> paramsCaptor =
+        ArgumentCaptor.forClass(MapSqlParameterSource.class);
+    when(jdbcTemplate.update(sqlCaptor.capture(), paramsCaptor.capture()))
+        .thenReturn(3, 0, 5, 1);
+
+    int inserted = requisitionConsumptionFactService.refresh();
+
+    assertEquals(5, inserted);
+    assertTrue(sqlCaptor.getAllValues().get(0).contains("r.modifieddate > :since"));
+    assertEquals(Arrays.asList(DELETE_FACTS, INSERT_FACTS, UPDATE_LAST_MODIFIED_DATE),
+        sqlCaptor.getAllValues().subList(1, 4));
+    assertEquals(new Timestamp(lastRefresh.getTime() - OVERLAP),
+        paramsCaptor.getValue().getValue("since"));
+    assertEquals(lastModification, paramsCaptor.getValue().getValue("until"));
+    verify(forecastingService).evictForecasts();
+  }
+
+  @Test
+  public void shouldRefreshAllPairsIfNeverRefreshed() {
+    mockModifiedDates(null, lastModification);
+    mockAffectedPairs(7L);
+    ArgumentCaptor<String> sqlCaptor = ArgumentCaptor.forClass(String.class);
+    when(jdbcTemplate.update(sqlCaptor.capture(), any(SqlParameterSource.class)))
+        .thenReturn(7, 0, 7, 1);
+
+    int inserted = requisitionConsumptionFactService.refresh();
+
+    assertEquals(7, inserted);
+    assertFalse(sqlCaptor.getAllValues().get(0).contains(":since"));
+  }
+
+  @Test
+  public void shouldLookForChangedRequisitionCountsIfNoRequisitionWasModified() {
+    mockModifiedDates(lastModification, lastModification);
+    mockAffectedPairs(1L);
+    ArgumentCaptor<String> sqlCaptor = ArgumentCaptor.forClass(String.class);
+    when(jdbcTemplate.update(sqlCaptor.capture(), any(SqlParameterSource.class)))
+        .thenReturn(1, 4, 0, 1);
+
+    int inserted = requisitionConsumptionFactService.refresh();
+
+    assertEquals(0, inserted);
+    assertTrue(sqlCaptor.getAllValues().get(0).contains("requisitioncount IS DISTINCT FROM"));
+    assertEquals(DELETE_FACTS, sqlCaptor.getAllValues().get(1));
+    verify(forecastingService).evictForecasts();
+  }
+
+  @Test
+  public void shouldOnlyMarkRefreshIfNoPairIsAffected() {
+    mockModifiedDates(lastModification, lastModification);
+    mockAffectedPairs(0L);
+
+    int inserted = requisitionConsumptionFactService.refresh();
+
+    assertEquals(0, inserted);
+    verify(jdbcTemplate).update(eq(UPDATE_LAST_MODIFIED_DATE), any(SqlParameterSource.class));
+    verify(jdbcTemplate, never()).update(eq(DELETE_FACTS), any(SqlParameterSource.class));
+    verify(jdbcTemplate, never()).update(eq(INSERT_FACTS), any(SqlParameterSource.class));
+    verify(forecastingService, never()).evictForecasts();
+  }
+
+  private void mockModifiedDates(Timestamp since, Timestamp until) {
+    when(jdbcTemplate.queryForObject(eq(SELECT_LAST_MODIFIED_DATE),
+        any(SqlParameterSource.class), eq(Timestamp.class))).thenReturn(since);
+    when(jdbcTemplate.queryForObject(eq(SELECT_MAX_REQUISITION_MODIFIED_DATE),
+        any(SqlParameterSource.class), eq(Timestamp.class))).thenReturn(until);
+  }
+
+  private void mockAffectedPairs(Long affectedPairs) {
+    when(jdbcTemplate.queryForObject(eq(COUNT_AFFECTED_PAIRS),
+        any(SqlParameterSource.class), eq(Long.class))).thenReturn(affectedPairs);
+  }
+
+}
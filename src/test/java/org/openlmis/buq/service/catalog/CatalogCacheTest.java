@@ -0,0 +1,113 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.service.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.openlmis.buq.service.catalog.CatalogCache.SELECT_VERSION;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Supplier;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openlmis.buq.builder.RemarkDataBuilder;
+import org.openlmis.buq.domain.Remark;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CatalogCacheTest {
+
+  @Mock
+  private NamedParameterJdbcTemplate jdbcTemplate;
+
+  @Mock
+  private Supplier<List<Remark>> loader;
+
+  @InjectMocks
+  private CatalogCache catalogCache;
+
+  private final Remark firstRemark = new RemarkDataBuilder().build();
+  private final Remark secondRemark = new RemarkDataBuilder().build();
+
+  @Test
+  public void shouldLoadCatalogOnlyOnceWhileVersionIsUnchanged() {
+    mockVersions(1L, 1L);
+    when(loader.get()).thenReturn(Arrays.asList(firstRemark, secondRemark));
+
+    Map<UUID, Remark> first = catalogCache.get(CatalogCache.REMARKS, loader);
+    Map<UUID, Remark> second = catalogCache.get(CatalogCache.REMARKS, loader);
+
+    assertSame(first, second);
+    assertEquals(Arrays.asList(firstRemark.getId(), secondRemark.getId()),
+        Arrays.asList(first.keySet().toArray()));
+    assertEquals(secondRemark, first.get(secondRemark.getId()));
+    verify(loader, times(1)).get();
+  }
+
+  @Test
+  public void shouldReloadCatalogIfVersionHasChanged() {
+    mockVersions(1L, 2L);
+    when(loader.get())
+        .thenReturn(Collections.singletonList(firstRemark))
+        .thenReturn(Arrays.asList(firstRemark, secondRemark));
+
+    catalogCache.get(CatalogCache.REMARKS, loader);
+    Map<UUID, Remark> reloaded = catalogCache.get(CatalogCache.REMARKS, loader);
+
+    assertEquals(2, reloaded.size());
+    verify(loader, times(2)).get();
+  }
+
+  @Test
+  public void shouldCacheCatalogsSeparately() {
+    when(jdbcTemplate.queryForObject(eq(SELECT_VERSION), any(SqlParameterSource.class),
+        eq(Long.class))).thenReturn(1L);
+    when(loader.get()).thenReturn(Collections.singletonList(firstRemark));
+
+    catalogCache.get(CatalogCache.REMARKS, loader);
+    catalogCache.get(CatalogCache.PRODUCT_GROUPS, Collections::emptyList);
+    catalogCache.get(CatalogCache.REMARKS, loader);
+
+    verify(loader, times(1)).get();
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void shouldNotAllowModifyingCachedCatalog() {
+    mockVersions(1L, 1L);
+    when(loader.get()).thenReturn(Collections.singletonList(firstRemark));
+
+    catalogCache.get(CatalogCache.REMARKS, loader).remove(firstRemark.getId());
+  }
+
+  private void mockVersions(Long first, Long second) {
+    when(jdbcTemplate.queryForObject(eq(SELECT_VERSION), any(SqlParameterSource.class),
+        eq(Long.class))).thenReturn(first, second);
+  }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.service.forecasting;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class DemandForecasterTest {
+
+  private static final double[] GROWING_HISTORY = {10, 20, 30, 40};
+
+  @Test
+  public void shouldForecastMovingAverageOfMostRecentPeriods() {
+    DemandForecaster forecaster = new DemandForecaster(ForecastingMethod.MOVING_AVERAGE, 2, 0);
+
+    assertEquals(70 * 12 / 2, forecaster.forecast(GROWING_HISTORY, 12));
+  }
+
+  @Test
+  public void shouldForecastMovingAverageOfWholeHistoryIfItIsShorterThanWindow() {
+    DemandForecaster forecaster = new DemandForecaster(ForecastingMethod.MOVING_AVERAGE, 6, 0);
+
+    assertEquals(100, forecaster.forecast(GROWING_HISTORY, 4));
+  }
+
+  @Test
+  public void shouldForecastExponentiallySmoothedLevel() {
+    DemandForecaster forecaster =
+        new DemandForecaster(ForecastingMethod.EXPONENTIAL_SMOOTHING, 0, 0.5);
+
+    // levels: 10, 15, 22.5, 31.25
+    assertEquals(63, forecaster.forecast(GROWING_HISTORY, 2));
+  }
+
+  @Test
+  public void shouldForecastLinearTrend() {
+    DemandForecaster forecaster = new DemandForecaster(ForecastingMethod.LINEAR_TREND, 0, 0);
+
+    assertEquals(50 + 60 + 70, forecaster.forecast(GROWING_HISTORY, 3));
+  }
+
+  @Test
+  public void shouldNotForecastNegativeDemandFromDecreasingTrend() {
+    DemandForecaster forecaster = new DemandForecaster(ForecastingMethod.LINEAR_TREND, 0, 0);
+
+    assertEquals(0, forecaster.forecast(new double[] {30, 20, 10, 0}, 3));
+  }
+
+  @Test
+  public void shouldForecastSinglePeriodHistoryAsConstantDemand() {
+    DemandForecaster forecaster = new DemandForecaster(ForecastingMethod.LINEAR_TREND, 0, 0);
+
+    assertEquals(120, forecaster.forecast(new double[] {10}, 12));
+  }
+
+  @Test
+  public void shouldForecastNoDemandWithoutHistory() {
+    DemandForecaster forecaster = new DemandForecaster(ForecastingMethod.MOVING_AVERAGE, 6, 0);
+
+    assertEquals(0, forecaster.forecast(new double[0], 12));
+  }
+
+}
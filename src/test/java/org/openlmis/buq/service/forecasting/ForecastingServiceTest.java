@@ -0,0 +1,208 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.buq.service.forecasting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openlmis.buq.dto.requisition.ConsumptionHistoryProjection;
+import org.openlmis.buq.repository.buq.BottomUpQuantificationRepository;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.cache.interceptor.SimpleKey;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ForecastingServiceTest {
+
+  @Mock
+  private BottomUpQuantificationRepository bottomUpQuantificationRepository;
+
+  @InjectMocks
+  private ForecastingService forecastingService;
+
+  private final CacheManager cacheManager =
+      new ConcurrentMapCacheManager(ForecastingService.FORECASTS_CACHE);
+
+  private static final LocalDate JANUARY = LocalDate.of(2026, 1, 1);
+  private static final LocalDate FEBRUARY = LocalDate.of(2026, 2, 1);
+  private static final LocalDate MARCH = LocalDate.of(2026, 3, 1);
+  private static final LocalDate APRIL = LocalDate.of(2026, 4, 1);
+
+  private final UUID facilityId = UUID.randomUUID();
+  private final UUID otherFacilityId = UUID.randomUUID();
+  private final UUID orderableId = UUID.randomUUID();
+  private final UUID processingPeriodId = UUID.randomUUID();
+
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(forecastingService, "cacheManager", cacheManager);
+    ReflectionTestUtils.setField(forecastingService, "method", ForecastingMethod.MOVING_AVERAGE);
+    ReflectionTestUtils.setField(forecastingService, "historyMonths", 24);
+    ReflectionTestUtils.setField(forecastingService, "movingAveragePeriods", 3);
+    ReflectionTestUtils.setField(forecastingService, "smoothingFactor", 0.3);
+  }
+
+  @Test
+  public void shouldForecastAnnualDemandFromMonthlyHistory() {
+    List<ConsumptionHistoryProjection> history = Arrays.asList(
+        history(facilityId, orderableId, JANUARY, 30, 10L),
+        history(facilityId, orderableId, FEBRUARY, 31, 20L),
+        history(facilityId, orderableId, MARCH, 30, 30L));
+    when(bottomUpQuantificationRepository.getConsumptionHistory(
+        Collections.singletonList(facilityId), processingPeriodId, 24)).thenReturn(history);
+
+    Map<UUID, Long> forecasts = forecastingService.forecast(facilityId, processingPeriodId);
+
+    assertEquals(Long.valueOf(20 * 12), forecasts.get(orderableId));
+  }
+
+  @Test
+  public void shouldForecastManyFacilitiesWithSingleQuery() {
+    List<ConsumptionHistoryProjection> history =
+        Collections.singletonList(history(otherFacilityId, orderableId, JANUARY, 365, 100L));
+    when(bottomUpQuantificationRepository.getConsumptionHistory(
+        Arrays.asList(facilityId, otherFacilityId), processingPeriodId, 24)).thenReturn(history);
+
+    Map<UUID, Map<UUID, Long>> forecasts = forecastingService
+        .forecast(Arrays.asList(facilityId, otherFacilityId), processingPeriodId);
+
+    assertTrue(forecasts.get(facilityId).isEmpty());
+    assertEquals(Long.valueOf(100), forecasts.get(otherFacilityId).get(orderableId));
+    verify(bottomUpQuantificationRepository, times(1))
+        .getConsumptionHistory(anyCollection(), eq(processingPeriodId), anyInt());
+  }
+
+  @Test
+  public void shouldReturnCachedForecasts() {
+    List<ConsumptionHistoryProjection> history =
+        Collections.singletonList(history(facilityId, orderableId, JANUARY, 365, 100L));
+    when(bottomUpQuantificationRepository.getConsumptionHistory(
+        Collections.singletonList(facilityId), processingPeriodId, 24)).thenReturn(history);
+
+    forecastingService.forecast(facilityId, processingPeriodId);
+    Map<UUID, Long> forecasts = forecastingService.forecast(facilityId, processingPeriodId);
+
+    assertEquals(Long.valueOf(100), forecasts.get(orderableId));
+    verify(bottomUpQuantificationRepository, times(1))
+        .getConsumptionHistory(anyCollection(), eq(processingPeriodId), anyInt());
+  }
+
+  @Test
+  public void shouldForecastAgainAfterEviction() {
+    when(bottomUpQuantificationRepository.getConsumptionHistory(
+        Collections.singletonList(facilityId), processingPeriodId, 24))
+        .thenReturn(Collections.emptyList());
+
+    forecastingService.forecast(facilityId, processingPeriodId);
+    forecastingService.evictForecasts();
+    forecastingService.forecast(facilityId, processingPeriodId);
+
+    verify(bottomUpQuantificationRepository, times(2))
+        .getConsumptionHistory(anyCollection(), eq(processingPeriodId), anyInt());
+  }
+
+  @Test
+  public void shouldCountPeriodsWithoutConsumptionOfOrderableAsZero() {
+    UUID otherOrderableId = UUID.randomUUID();
+    List<ConsumptionHistoryProjection> history = Arrays.asList(
+        history(facilityId, otherOrderableId, JANUARY, 30, 5L),
+        history(facilityId, orderableId, FEBRUARY, 30, 30L),
+        history(facilityId, otherOrderableId, FEBRUARY, 30, 5L),
+        history(facilityId, otherOrderableId, MARCH, 30, 5L),
+        history(facilityId, orderableId, APRIL, 30, 60L),
+        history(facilityId, otherOrderableId, APRIL, 30, 5L));
+    when(bottomUpQuantificationRepository.getConsumptionHistory(
+        Collections.singletonList(facilityId), processingPeriodId, 24)).thenReturn(history);
+
+    Map<UUID, Long> forecasts = forecastingService.forecast(facilityId, processingPeriodId);
+
+    assertEquals(Long.valueOf(30 * 12), forecasts.get(orderableId));
+    assertEquals(Long.valueOf(5 * 12), forecasts.get(otherOrderableId));
+  }
+
+  @Test
+  public void shouldEvictForecastsOnlyAfterTransactionIsCommitted() {
+    cacheManager.getCache(ForecastingService.FORECASTS_CACHE).put(
+        new SimpleKey(facilityId, processingPeriodId),
+        Collections.singletonMap(orderableId, 5L));
+
+    TransactionSynchronizationManager.initSynchronization();
+    try {
+      forecastingService.evictForecasts();
+
+      assertNotNull(cacheManager.getCache(ForecastingService.FORECASTS_CACHE)
+          .get(new SimpleKey(facilityId, processingPeriodId)));
+
+      TransactionSynchronizationManager.getSynchronizations()
+          .forEach(TransactionSynchronization::afterCommit);
+    } finally {
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+
+    assertNull(cacheManager.getCache(ForecastingService.FORECASTS_CACHE)
+        .get(new SimpleKey(facilityId, processingPeriodId)));
+  }
+
+  @Test
+  public void shouldNotQueryHistoryIfAllForecastsAreCached() {
+    cacheManager.getCache(ForecastingService.FORECASTS_CACHE).put(
+        new SimpleKey(facilityId, processingPeriodId),
+        Collections.singletonMap(orderableId, 5L));
+
+    Map<UUID, Long> forecasts = forecastingService.forecast(facilityId, processingPeriodId);
+
+    assertEquals(Long.valueOf(5), forecasts.get(orderableId));
+    verify(bottomUpQuantificationRepository, never())
+        .getConsumptionHistory(anyCollection(), eq(processingPeriodId), anyInt());
+  }
+
+  private ConsumptionHistoryProjection history(UUID facilityId, UUID orderableId,
+      LocalDate periodStartDate, int periodLengthInDays, Long adjustedConsumption) {
+    ConsumptionHistoryProjection history = mock(ConsumptionHistoryProjection.class);
+    when(history.getFacilityId()).thenReturn(facilityId);
+    when(history.getOrderableId()).thenReturn(orderableId);
+    when(history.getPeriodStartDate()).thenReturn(periodStartDate);
+    when(history.getPeriodLengthInDays()).thenReturn(periodLengthInDays);
+    when(history.getAdjustedConsumption()).thenReturn(adjustedConsumption);
+    return history;
+  }
+
+}
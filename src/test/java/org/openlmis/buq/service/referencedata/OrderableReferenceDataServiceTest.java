@@ -16,6 +16,8 @@
 package org.openlmis.buq.service.referencedata;
 
 import static org.hamcrest.Matchers.hasItem;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 
 import java.util.List;
@@ -62,4 +64,56 @@ public class OrderableReferenceDataServiceTest
         .isUriStartsWith(service.getServiceUrl() + service.getUrl());
   }
 
+  @Test
+  public void shouldCalculatePacks() {
+    disableAuthCheck();
+
+    assertEquals(10, OrderableReferenceDataService.calculatePacks(100, 10, 2, false));
+    assertEquals(11, OrderableReferenceDataService.calculatePacks(105, 10, 2, false));
+    assertEquals(10, OrderableReferenceDataService.calculatePacks(102, 10, 2, false));
+    assertEquals(0, OrderableReferenceDataService.calculatePacks(1, 10, 2, true));
+    assertEquals(1, OrderableReferenceDataService.calculatePacks(1, 10, 2, false));
+    assertEquals(0, OrderableReferenceDataService.calculatePacks(0, 10, 2, false));
+    assertEquals(0, OrderableReferenceDataService.calculatePacks(100, 0, 2, false));
+  }
+
+  @Test
+  public void shouldCalculatePacksOfManyProductsAsSingleProductCalculation() {
+    disableAuthCheck();
+
+    long[] dispensingUnits = {100, 105, 102, 1, 1, 0, 100};
+    long[] netContents = {10, 10, 10, 10, 10, 10, 0};
+    long[] packRoundingThresholds = {2, 2, 2, 2, 2, 2, 2};
+    boolean[] roundToZero = {false, false, false, true, false, false, false};
+
+    int[] packs = OrderableReferenceDataService.calculatePacks(dispensingUnits, netContents,
+        packRoundingThresholds, roundToZero);
+
+    assertArrayEquals(new int[] {10, 11, 10, 0, 1, 0, 0}, packs);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldNotCalculatePacksOfArraysWithDifferentLengths() {
+    disableAuthCheck();
+
+    OrderableReferenceDataService.calculatePacks(new long[] {1, 2}, new long[] {1},
+        new long[] {1}, new boolean[] {false});
+  }
+
+  @Test(expected = ArithmeticException.class)
+  public void shouldNotCalculatePacksExceedingIntRange() {
+    disableAuthCheck();
+
+    OrderableReferenceDataService.calculatePacks(new long[] {Long.MAX_VALUE}, new long[] {1},
+        new long[] {0}, new boolean[] {false});
+  }
+
+  @Test(expected = ArithmeticException.class)
+  public void shouldNotCalculatePacksBelowIntRange() {
+    disableAuthCheck();
+
+    OrderableReferenceDataService.calculatePacks(new long[] {Long.MAX_VALUE}, new long[] {-1},
+        new long[] {0}, new boolean[] {false});
+  }
+
 }
@@ -15,10 +15,13 @@
 
 package org.openlmis.buq.util;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -26,16 +29,21 @@ import static org.mockito.Mockito.when;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
+import java.sql.Connection;
 import java.util.Collections;
 import java.util.List;
 import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.mockito.InjectMocks;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
 import org.springframework.core.io.Resource;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -44,9 +52,13 @@ public class Resource2DbTest {
   @Mock
   private JdbcTemplate template;
 
-  @InjectMocks
   private Resource2Db resource2Db;
 
+  @Before
+  public void setUp() {
+    resource2Db = new Resource2Db(template);
+  }
+
   @Test
   public void updateDbFromSqlShouldCloseInputStream() throws IOException {
     // given
@@ -67,7 +79,7 @@ public class Resource2DbTest {
   public void insertToDbFromCsvShouldCloseInputStream() throws IOException {
     // given
     Resource resource = mock(Resource.class);
-    InputStream inputStream = spy(IOUtils.toInputStream("some data"));
+    InputStream inputStream = spy(IOUtils.toInputStream("Col1\nsome data"));
     when(resource.getInputStream()).thenReturn(inputStream);
     when(template.batchUpdate(any(String.class), any(List.class))).thenReturn(new int[]{1});
 
@@ -80,31 +92,33 @@ public class Resource2DbTest {
   }
 
   @Test
-  public void resourceCsvToBatchedPairShouldReturnListPair() throws IOException {
+  public void insertToDbFromCsvInChunksShouldInsertRowsInBatches() throws IOException {
     // given
     Resource resource = mock(Resource.class);
-    InputStream inputStream = spy(IOUtils.toInputStream("Col1,Col2\na,b"));
+    InputStream inputStream = spy(IOUtils.toInputStream("Col1,Col2\na,b\nc,\ne,f"));
     when(resource.getInputStream()).thenReturn(inputStream);
+    when(template.batchUpdate(any(String.class), any(List.class))).thenReturn(new int[]{1, 1},
+        new int[]{1});
+    ArgumentCaptor<List> rowsCaptor = ArgumentCaptor.forClass(List.class);
 
     // when
-    Pair<List<String>, List<Object[]>> batchedPair = resource2Db.resourceCsvToBatchedPair(resource);
+    long inserted = new Resource2Db(template, 2).insertToDbFromCsvInChunks("sometable", resource);
 
     // then
-    List headers = batchedPair.getLeft();
-    assertEquals(2, headers.size());
-    assertEquals("Col1", headers.get(0));
-    assertEquals("Col2", headers.get(1));
-
-    List rows = batchedPair.getRight();
-    assertEquals(1, rows.size());
-    Object[] rowData = batchedPair.getRight().get(0);
-    assertEquals(2, rowData.length);
-    assertEquals("a", rowData[0]);
-    assertEquals("b", rowData[1]);
+    assertEquals(3, inserted);
+    verify(template, times(2)).batchUpdate(eq("INSERT INTO sometable (Col1,Col2) VALUES (?,?)"),
+        rowsCaptor.capture());
+    List<Object[]> firstChunk = rowsCaptor.getAllValues().get(0);
+    assertEquals(2, firstChunk.size());
+    assertArrayEquals(new Object[]{"a", "b"}, firstChunk.get(0));
+    assertArrayEquals(new Object[]{"c", null}, firstChunk.get(1));
+    List<Object[]> secondChunk = rowsCaptor.getAllValues().get(1);
+    assertEquals(1, secondChunk.size());
+    assertArrayEquals(new Object[]{"e", "f"}, secondChunk.get(0));
   }
 
   @Test(expected = IllegalArgumentException.class)
-  public void resourceCsvToBatchedPairShouldThrowExceptionIfRecordIsInconsistent()
+  public void insertToDbFromCsvInChunksShouldThrowExceptionIfRecordIsInconsistent()
       throws IOException {
     // given
     Resource resource = mock(Resource.class);
@@ -112,9 +126,40 @@ public class Resource2DbTest {
     when(resource.getInputStream()).thenReturn(inputStream);
 
     // when
-    resource2Db.resourceCsvToBatchedPair(resource);
+    resource2Db.insertToDbFromCsvInChunks("sometable", resource);
   }
-  
+
+  @Test
+  public void insertToDbFromCsvShouldCopyIntoPostgres() throws Exception {
+    // given
+    Resource resource = mock(Resource.class);
+    InputStream inputStream = spy(IOUtils.toInputStream("Col1,Col2\na,b\nc,d\n"));
+    when(resource.getInputStream()).thenReturn(inputStream);
+    Connection connection = mock(Connection.class);
+    PGConnection pgConnection = mock(PGConnection.class);
+    CopyManager copyManager = mock(CopyManager.class);
+    when(connection.isWrapperFor(PGConnection.class)).thenReturn(true);
+    when(connection.unwrap(PGConnection.class)).thenReturn(pgConnection);
+    when(pgConnection.getCopyAPI()).thenReturn(copyManager);
+    when(template.execute(any(ConnectionCallback.class))).thenAnswer(invocation ->
+        ((ConnectionCallback<?>) invocation.getArgument(0)).doInConnection(connection));
+    StringBuilder copiedData = new StringBuilder();
+    when(copyManager.copyIn(any(String.class), any(Reader.class))).thenAnswer(invocation -> {
+      copiedData.append(IOUtils.toString((Reader) invocation.getArgument(1)));
+      return 2L;
+    });
+
+    // when
+    resource2Db.insertToDbFromCsv("sometable", resource);
+
+    // then
+    verify(copyManager).copyIn(eq("COPY sometable (Col1,Col2) FROM STDIN WITH (FORMAT csv)"),
+        any(Reader.class));
+    assertEquals("a,b\nc,d\n", copiedData.toString());
+    verify(template, never()).batchUpdate(any(String.class), any(List.class));
+    verify(inputStream, times(1)).close();
+  }
+
   @Test
   public void updateDbFromSqlStringsShouldReturnWithoutUpdateIfNoSqlLines() {
     // when
@@ -129,6 +174,11 @@ public class Resource2DbTest {
     new Resource2Db(null);
   }
 
+  @Test(expected = IllegalArgumentException.class)
+  public void resource2DbWithNonPositiveChunkSizeShouldThrowException() {
+    new Resource2Db(template, 0);
+  }
+
   @Test(expected = NullPointerException.class)
   public void updateDbFromSqlWithNullShouldThrowException() throws IOException {
     resource2Db.updateDbFromSql(null);
@@ -15,9 +15,13 @@
 
 package org.openlmis.buq.validate;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.mockito.Mockito.when;
 
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.UUID;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -33,6 +37,8 @@ import org.openlmis.buq.dto.buq.BottomUpQuantificationDto;
 import org.openlmis.buq.dto.buq.BottomUpQuantificationLineItemDto;
 import org.openlmis.buq.exception.ValidationMessageException;
 import org.openlmis.buq.service.buq.BottomUpQuantificationService;
+import org.springframework.validation.Errors;
+import org.springframework.validation.MapBindingResult;
 
 @SuppressWarnings("PMD.TooManyMethods")
 @RunWith(MockitoJUnitRunner.class)
@@ -385,4 +391,53 @@ public class BottomUpQuantificationValidatorTest {
     validator.validateCanBeAuthorized(targetDto, targetId);
   }
 
+  @Test(expected = ValidationMessageException.class)
+  public void shouldThrowExceptionIfStoredBottomUpQuantificationIsNotAuthorizedForApproval() {
+    BottomUpQuantification target = new BottomUpQuantificationDataBuilder()
+        .withStatus(BottomUpQuantificationStatus.SUBMITTED)
+        .build();
+
+    validator.validateCanBeApproved(target);
+  }
+
+  @Test(expected = ValidationMessageException.class)
+  public void shouldThrowExceptionIfStoredLineItemIsInvalidForApproval() {
+    BottomUpQuantification target = new BottomUpQuantificationDataBuilder()
+        .withStatus(BottomUpQuantificationStatus.IN_APPROVAL)
+        .addLineItem(new BottomUpQuantificationLineItemDataBuilder()
+            .withForecastedDemand(null)
+            .build())
+        .build();
+
+    validator.validateCanBeApproved(target);
+  }
+
+  @Test
+  public void shouldAcceptStoredBottomUpQuantificationForApproval() {
+    BottomUpQuantification target = new BottomUpQuantificationDataBuilder()
+        .withStatus(BottomUpQuantificationStatus.AUTHORIZED)
+        .addLineItem(new BottomUpQuantificationLineItemDataBuilder().build())
+        .build();
+
+    validator.validateCanBeApproved(target);
+  }
+
+  @Test
+  public void shouldRejectEveryInvalidUploadedAnnualAdjustedConsumption() {
+    Map<String, Integer> annualAdjustedConsumptions = new LinkedHashMap<>();
+    annualAdjustedConsumptions.put("code-1", 10);
+    annualAdjustedConsumptions.put("code-2", null);
+    annualAdjustedConsumptions.put("code-3", -1);
+    annualAdjustedConsumptions.put("code-4", 0);
+    Errors errors = new MapBindingResult(annualAdjustedConsumptions, "lineItems");
+
+    validator.validateUploadedAnnualAdjustedConsumptions(annualAdjustedConsumptions, errors);
+
+    assertEquals(2, errors.getErrorCount());
+    assertNull(errors.getFieldError("code-1"));
+    assertEquals(1, errors.getFieldErrorCount("code-2"));
+    assertEquals(1, errors.getFieldErrorCount("code-3"));
+    assertNull(errors.getFieldError("code-4"));
+  }
+
 }